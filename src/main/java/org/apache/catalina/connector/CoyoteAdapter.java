@@ -19,6 +19,7 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.nio.charset.MalformedInputException;
 
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -38,6 +39,7 @@ import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.URIDecoder;
 import org.apache.tomcat.util.http.Cookies;
 import org.apache.tomcat.util.http.ServerCookie;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -437,34 +439,36 @@ public class CoyoteAdapter
         decodedURI.duplicate(req.requestURI());
 
         if (decodedURI.getType() == MessageBytes.T_BYTES) {
-            // Remove any path parameters
-            ByteChunk uriBB = decodedURI.getByteChunk();
-            int semicolon = uriBB.indexOf(';', 0);
-            if (semicolon > 0) {
-                decodedURI.setBytes
-                    (uriBB.getBuffer(), uriBB.getStart(), semicolon);
-            }
-            // %xx decoding of the URL
+            // Remove any path parameters, %xx decode, normalize and convert
+            // the URI to chars in a single pass
+            String enc = connector.getURIEncoding();
+            boolean utf8 = "UTF-8".equalsIgnoreCase(enc);
+            int result;
             try {
-                req.getURLDecoder().convert(decodedURI, false);
+                result = URIDecoder.decode(decodedURI, utf8, ALLOW_BACKSLASH);
             } catch (IOException ioe) {
                 res.setStatus(400);
                 res.setMessage("Invalid URI: " + ioe.getMessage());
                 return false;
             }
-            // Normalization
-            if (!normalize(req.decodedURI())) {
+            if (result == URIDecoder.INVALID) {
                 res.setStatus(400);
                 res.setMessage("Invalid URI");
                 return false;
             }
-            // Character decoding
-            convertURI(decodedURI, request);
-            // Check that the URI is still normalized
-            if (!checkNormalize(req.decodedURI())) {
-                res.setStatus(400);
-                res.setMessage("Invalid URI character encoding");
-                return false;
+            if (result == URIDecoder.MALFORMED) {
+                CatalinaLogger.CONNECTOR_LOGGER.invalidEncoding
+                    (new MalformedInputException(decodedURI.getByteChunk().getLength()));
+            }
+            if (enc != null && !utf8 && !"ISO-8859-1".equalsIgnoreCase(enc)) {
+                // Character decoding
+                convertURI(decodedURI, request);
+                // Check that the URI is still normalized
+                if (!checkNormalize(req.decodedURI())) {
+                    res.setStatus(400);
+                    res.setMessage("Invalid URI character encoding");
+                    return false;
+                }
             }
         } else {
             // The URL is chars or String, and has been sent using an in-memory
@@ -172,6 +172,59 @@ public class CoyoteWriter
     }
 
 
+    /**
+     * Write bytes which have already been encoded using the specified
+     * charset, if it is the charset of the response.
+     * 
+     * @return false if the response uses another charset, in which case
+     *         nothing has been written
+     */
+    public boolean writeEncoded(byte buf[], int off, int len, String charset) {
+
+        if (error)
+            return true;
+
+        try {
+            return ob.writeEncoded(buf, off, len, charset);
+        } catch (IOException e) {
+            error = true;
+            return true;
+        }
+
+    }
+
+
+    /**
+     * Mark the current position of the output.
+     * 
+     * @return the position, or -1 if an error occurred
+     */
+    public long mark() {
+
+        if (error)
+            return -1;
+
+        try {
+            return ob.mark();
+        } catch (IOException e) {
+            error = true;
+            return -1;
+        }
+
+    }
+
+
+    /**
+     * Discard what has been written after the mark, if it has not been sent
+     * to the client yet.
+     * 
+     * @return false if the output after the mark could not be discarded
+     */
+    public boolean discard(long mark) {
+        return ob.discard(mark);
+    }
+
+
     // ---------------------------------------------------- PrintWriter Methods
 
 
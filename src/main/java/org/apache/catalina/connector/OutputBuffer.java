@@ -90,6 +90,13 @@ public class OutputBuffer extends Writer
     private long charsWritten = 0;
 
 
+    /**
+     * Number of bytes which have left the byte buffer, either sent to the
+     * client or discarded, used as the origin of the buffer marks.
+     */
+    private long flushedBytes = 0;
+
+
     /**
      * Flag which indicates if the output buffer is closed.
      */
@@ -259,6 +266,7 @@ public class OutputBuffer extends Writer
         initial = true;
         bytesWritten = 0;
         charsWritten = 0;
+        flushedBytes = 0;
         
         bb.recycle();
         cb.recycle();
@@ -409,6 +417,7 @@ public class OutputBuffer extends Writer
 
         // If we really have something to write
         if (cnt > 0) {
+            flushedBytes += cnt;
             // real write to the adapter
             outputChunk.setBytes(buf, off, cnt);
             try {
@@ -464,6 +473,84 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Write bytes which have already been encoded using the specified
+     * charset, so that they do not have to be converted again. The bytes are
+     * written only if the charset is the one used by the response, after the
+     * chars which have not been converted yet.
+     * 
+     * @param b Bytes encoded using the charset
+     * @param off Offset
+     * @param len Length
+     * @param charset Name of the charset used to encode the bytes
+     * @return false if the response uses another charset, in which case
+     *         nothing has been written
+     * 
+     * @throws IOException An underlying IOException occurred
+     */
+    public boolean writeEncoded(byte b[], int off, int len, String charset)
+        throws IOException {
+
+        if (suspended)
+            return true;
+
+        checkConverter();
+        if (!enc.equalsIgnoreCase(charset))
+            return false;
+        if (cb.getLength() > 0) {
+            cb.flushBuffer();
+        }
+        writeBytes(b, off, len);
+        return true;
+
+    }
+
+
+    /**
+     * Mark the current position of the output, so that what is written
+     * afterwards may be discarded as long as it has not been sent to the
+     * client.
+     * 
+     * @return the position of the output
+     * 
+     * @throws IOException An underlying IOException occurred
+     */
+    public long mark()
+        throws IOException {
+
+        if (cb.getLength() > 0) {
+            cb.flushBuffer();
+        }
+        return flushedBytes + bb.getLength();
+
+    }
+
+
+    /**
+     * Discard what has been written after the mark.
+     * 
+     * @param mark Position returned by mark
+     * @return false if some of the output written after the mark has left
+     *         the buffer, in which case nothing is discarded
+     */
+    public boolean discard(long mark) {
+
+        long length = mark - flushedBytes;
+        if (length < 0 || length > bb.getLength())
+            return false;
+        // The discarded output was written either as bytes or as chars,
+        // which have been converted to bytes
+        long discarded = bb.getLength() - length + cb.getLength();
+        long discardedBytes = Math.min(bytesWritten, discarded);
+        bytesWritten -= discardedBytes;
+        charsWritten -= Math.min(charsWritten, discarded - discardedBytes);
+        cb.recycle();
+        bb.setEnd(bb.getStart() + (int) length);
+        return true;
+
+    }
+
+
     // ------------------------------------------------- Chars Handling Methods
 
 
@@ -664,6 +751,7 @@ public class OutputBuffer extends Writer
 
     public void reset() {
 
+        flushedBytes += bb.getLength();
         bb.recycle();
         cb.recycle();
         bytesWritten = 0;
@@ -73,12 +73,6 @@ public final class ApplicationFilterChain implements FilterChain, HttpEventFilte
     }
 
     
-    // -------------------------------------------------------------- Constants
-
-
-    public static final int INCREMENT = 10;
-
-
     // ----------------------------------------------------------- Constructors
 
 
@@ -102,10 +96,10 @@ public final class ApplicationFilterChain implements FilterChain, HttpEventFilte
     
     
     /**
-     * Filters.
+     * Filters, shared with the other chains of the same path class and never
+     * modified.
      */
-    private ApplicationFilterConfig[] filters = 
-        new ApplicationFilterConfig[0];
+    private ApplicationFilterConfig[] filters = FilterChainCache.EMPTY;
 
 
     /**
@@ -483,19 +477,15 @@ public final class ApplicationFilterChain implements FilterChain, HttpEventFilte
 
 
     /**
-     * Add a filter to the set of filters that will be executed in this chain.
+     * Set the filters that will be executed in this chain.
      *
-     * @param filterConfig The FilterConfig for the servlet to be executed
+     * @param filters The FilterConfigs of the filters to be executed, which
+     *  will not be modified
      */
-    void addFilter(ApplicationFilterConfig filterConfig) {
+    void setFilters(ApplicationFilterConfig[] filters) {
 
-        if (filterCount == filters.length) {
-            ApplicationFilterConfig[] newFilters =
-                new ApplicationFilterConfig[filterCount + INCREMENT];
-            System.arraycopy(filters, 0, newFilters, 0, filterCount);
-            filters = newFilters;
-        }
-        filters[filterCount++] = filterConfig;
+        this.filters = filters;
+        this.filterCount = filters.length;
 
     }
 
@@ -505,9 +495,7 @@ public final class ApplicationFilterChain implements FilterChain, HttpEventFilte
      */
     void release() {
 
-        for (int i = 0; i < filterCount; i++) {
-            filters[i] = null;
-        }
+        filters = FilterChainCache.EMPTY;
         filterCount = 0;
         pos = 0;
         pointer = 0;
@@ -19,6 +19,8 @@
 package org.apache.catalina.core;
 
 
+import java.util.ArrayList;
+
 import javax.servlet.Servlet;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletRequestWrapper;
@@ -165,11 +167,54 @@ public final class ApplicationFilterFactory {
         FilterMap filterMaps[] = context.findFilterMaps();
 
         // If there are no filter mappings, we are done
-        if ((filterMaps == null) || (filterMaps.length == 0))
+        if ((filterMaps == null) || (filterMaps.length == 0)) {
+            filterChain.setFilters(FilterChainCache.EMPTY);
             return (filterChain);
+        }
+
+        // Use the filters already resolved for this path class, if any
+        FilterChainCache cache = context.getFilterChainCache(filterMaps);
+        long key = 0;
+        if (cache != null) {
+            key = cache.getKey(requestPath, dispatcher, event);
+            ApplicationFilterConfig[] filters = cache.get(wrapper, key);
+            if (filters != null) {
+                filterChain.setFilters(filters);
+                return (filterChain);
+            }
+        }
+
+        ApplicationFilterConfig[] filters = 
+            findFilters(context, filterMaps, wrapper.getName(), dispatcher, requestPath, event);
+        if (cache != null) {
+            cache.put(wrapper, key, filters);
+        }
+        filterChain.setFilters(filters);
+
+        // Return the completed filter chain
+        return (filterChain);
+
+    }
 
-        // Acquire the information we will need to match filter mappings
-        String servletName = wrapper.getName();
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Return the filters of the specified context which must be executed
+     * for a request.
+     *
+     * @param context The context
+     * @param filterMaps The filter mappings of the context
+     * @param servletName The name of the servlet to be executed
+     * @param dispatcher The dispatcher type of the request
+     * @param requestPath Context-relative request path of the request
+     * @param event <code>true</code> if only event filters must be executed
+     */
+    private ApplicationFilterConfig[] findFilters(StandardContext context, FilterMap filterMaps[],
+            String servletName, int dispatcher, String requestPath, boolean event) {
+
+        ArrayList<ApplicationFilterConfig> filters = new ArrayList<ApplicationFilterConfig>();
 
         // Add the relevant path-mapped filters to this filter chain
         for (int i = 0; i < filterMaps.length; i++) {
@@ -178,27 +223,7 @@ public final class ApplicationFilterFactory {
             }
             if (!matchFiltersURL(filterMaps[i], requestPath))
                 continue;
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
-                context.findFilterConfig(filterMaps[i].getFilterName());
-            if (filterConfig == null) {
-                ;       // FIXME - log configuration problem
-                continue;
-            }
-            boolean isEventFilter = false;
-            if (event) {
-                try {
-                    isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
-                } catch (Exception e) {
-                    // Note: The try catch is there because getFilter has a lot of 
-                    // declared exceptions. However, the filter is allocated much
-                    // earlier
-                }
-                if (isEventFilter) {
-                    filterChain.addFilter(filterConfig);
-                }
-            } else {
-                filterChain.addFilter(filterConfig);
-            }
+            addFilter(context, filterMaps[i], event, filters);
         }
 
         // Add filters that match on servlet name second
@@ -208,36 +233,45 @@ public final class ApplicationFilterFactory {
             }
             if (!matchFiltersServlet(filterMaps[i], servletName))
                 continue;
-            ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
-                context.findFilterConfig(filterMaps[i].getFilterName());
-            if (filterConfig == null) {
-                ;       // FIXME - log configuration problem
-                continue;
-            }
-            boolean isEventFilter = false;
-            if (event) {
-                try {
-                    isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
-                } catch (Exception e) {
-                    // Note: The try catch is there because getFilter has a lot of 
-                    // declared exceptions. However, the filter is allocated much
-                    // earlier
-                }
-                if (isEventFilter) {
-                    filterChain.addFilter(filterConfig);
-                }
-            } else {
-                filterChain.addFilter(filterConfig);
-            }
+            addFilter(context, filterMaps[i], event, filters);
         }
 
-        // Return the completed filter chain
-        return (filterChain);
+        if (filters.isEmpty()) {
+            return FilterChainCache.EMPTY;
+        }
+        return filters.toArray(new ApplicationFilterConfig[filters.size()]);
 
     }
 
 
-    // -------------------------------------------------------- Private Methods
+    /**
+     * Add the filter of the specified mapping to the filter list.
+     */
+    private void addFilter(StandardContext context, FilterMap filterMap, boolean event,
+            ArrayList<ApplicationFilterConfig> filters) {
+        ApplicationFilterConfig filterConfig = (ApplicationFilterConfig)
+            context.findFilterConfig(filterMap.getFilterName());
+        if (filterConfig == null) {
+            ;       // FIXME - log configuration problem
+            return;
+        }
+        boolean isEventFilter = false;
+        if (event) {
+            try {
+                isEventFilter = filterConfig.getFilter() instanceof HttpEventFilter;
+            } catch (Exception e) {
+                // Note: The try catch is there because getFilter has a lot of 
+                // declared exceptions. However, the filter is allocated much
+                // earlier
+            }
+            if (isEventFilter) {
+                filters.add(filterConfig);
+            }
+        } else {
+            filters.add(filterConfig);
+        }
+    }
+
 
 
     /**
@@ -32,6 +32,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
@@ -54,6 +62,7 @@ import org.apache.catalina.Manager;
 import org.apache.catalina.Pipeline;
 import org.apache.catalina.Realm;
 import org.apache.catalina.Valve;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.util.LifecycleSupport;
@@ -138,6 +147,15 @@ public abstract class ContainerBase
     protected static final ContainerListener[] LISTENER_ARRAY = new ContainerListener[0];
     
 
+    /**
+     * Number of threads used to run the background processing tasks of all
+     * containers.
+     */
+    protected static final int BACKGROUND_PROCESSOR_THREADS =
+        Integer.getInteger("org.apache.catalina.core.ContainerBase.BACKGROUND_PROCESSOR_THREADS",
+                Runtime.getRuntime().availableProcessors()).intValue();
+
+
     /**
      * Perform addChild with the permissions of this class.
      * addChild can be called with the XML parser on the stack,
@@ -273,15 +291,44 @@ public abstract class ContainerBase
 
 
     /**
-     * The background thread.
+     * The background processor of this container.
+     */
+    private ContainerBackgroundProcessor backgroundProcessor = null;
+
+
+    /**
+     * The minimum delay in seconds between two background processing runs of
+     * this container, 0 to be processed each time the background processor
+     * runs.
      */
-    private Thread thread = null;
+    protected int backgroundProcessorPeriod = 0;
 
 
     /**
-     * The background thread completion semaphore.
+     * The time in milliseconds after which the wrappers of this container
+     * which have not been processed yet are left to the next background
+     * processing run, 0 for no limit.
      */
-    private boolean threadDone = false;
+    protected long backgroundProcessorBudget = 0;
+
+
+    /**
+     * Background processing statistics.
+     */
+    protected volatile long backgroundProcessCount = 0;
+    protected volatile long backgroundProcessingTime = 0;
+    protected volatile long maxBackgroundProcessingTime = 0;
+    protected volatile long lastBackgroundProcessingTime = 0;
+    protected volatile long backgroundProcessSkippedCount = 0;
+
+
+    /**
+     * Background processing state of this container, used by the background
+     * processor in charge of it.
+     */
+    private volatile boolean backgroundProcessing = false;
+    private volatile long lastBackgroundProcess = 0;
+    private int nextBackgroundChild = 0;
 
 
     // ------------------------------------------------------------- Properties
@@ -300,10 +347,10 @@ public abstract class ContainerBase
      * Get the delay between the invocation of the backgroundProcess method on
      * this container and its children. Child containers will not be invoked
      * if their delay value is not negative (which would mean they are using 
-     * their own thread). Setting this to a positive value will cause 
-     * a thread to be spawn. After waiting the specified amount of time, 
-     * the thread will invoke the executePeriodic method on this container 
-     * and all its children.
+     * their own processor). Setting this to a positive value will cause 
+     * a background processor to be scheduled. After waiting the specified
+     * amount of time, the processor will invoke the backgroundProcess method
+     * on this container and all its children, in parallel across contexts.
      */
     public int getBackgroundProcessorDelay() {
         return backgroundProcessorDelay;
@@ -322,6 +369,95 @@ public abstract class ContainerBase
     }
 
 
+    /**
+     * Return the minimum delay in seconds between two background processing
+     * runs of this container.
+     */
+    public int getBackgroundProcessorPeriod() {
+        return backgroundProcessorPeriod;
+    }
+
+
+    /**
+     * Set the minimum delay in seconds between two background processing
+     * runs of this container. Containers which are expensive to process may
+     * use a longer period than the background processor delay.
+     * 
+     * @param period The period in seconds, 0 to process this container
+     *               each time the background processor runs
+     */
+    public void setBackgroundProcessorPeriod(int period) {
+        backgroundProcessorPeriod = period;
+    }
+
+
+    /**
+     * Return the time in milliseconds after which the remaining wrappers of
+     * this container are left to the next background processing run.
+     */
+    public long getBackgroundProcessorBudget() {
+        return backgroundProcessorBudget;
+    }
+
+
+    /**
+     * Set the time in milliseconds after which the remaining wrappers of this
+     * container are left to the next background processing run. The budget
+     * only limits the iteration over the wrappers: the backgroundProcess
+     * method of the container itself always runs to completion, so a run
+     * may take longer than the budget, in which case a warning is logged.
+     * 
+     * @param budget The budget in milliseconds, 0 for no limit
+     */
+    public void setBackgroundProcessorBudget(long budget) {
+        backgroundProcessorBudget = budget;
+    }
+
+
+    /**
+     * Return the number of background processing runs of this container.
+     */
+    public long getBackgroundProcessCount() {
+        return backgroundProcessCount;
+    }
+
+
+    /**
+     * Return the cumulative time in milliseconds spent in the background
+     * processing of this container.
+     */
+    public long getBackgroundProcessingTime() {
+        return backgroundProcessingTime;
+    }
+
+
+    /**
+     * Return the maximum time in milliseconds spent in a background
+     * processing run of this container.
+     */
+    public long getMaxBackgroundProcessingTime() {
+        return maxBackgroundProcessingTime;
+    }
+
+
+    /**
+     * Return the time in milliseconds spent in the last background
+     * processing run of this container.
+     */
+    public long getLastBackgroundProcessingTime() {
+        return lastBackgroundProcessingTime;
+    }
+
+
+    /**
+     * Return the number of background processing runs of this container
+     * which were skipped because the previous run had not completed.
+     */
+    public long getBackgroundProcessSkippedCount() {
+        return backgroundProcessSkippedCount;
+    }
+
+
     /**
      * Return descriptive information about this Container implementation and
      * the corresponding version number, in the format
@@ -1507,43 +1643,106 @@ public abstract class ContainerBase
 
 
     /**
-     * Start the background thread that will periodically check for
+     * Start the background processor that will periodically check for
      * session timeouts.
      */
     protected void threadStart() {
 
-        if (thread != null)
+        if (backgroundProcessor != null)
             return;
         if (backgroundProcessorDelay <= 0)
             return;
 
-        threadDone = false;
-        String threadName = "ContainerBackgroundProcessor[" + toString() + "]";
-        thread = new Thread(new ContainerBackgroundProcessor(), threadName);
-        thread.setDaemon(true);
-        thread.start();
+        backgroundProcessor = new ContainerBackgroundProcessor();
+        backgroundProcessor.start();
 
     }
 
 
     /**
-     * Stop the background thread that is periodically checking for
+     * Stop the background processor that is periodically checking for
      * session timeouts.
      */
     protected void threadStop() {
 
-        if (thread == null)
+        if (backgroundProcessor == null)
             return;
 
-        threadDone = true;
-        thread.interrupt();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            ;
+        backgroundProcessor.stop();
+        backgroundProcessor = null;
+
+    }
+
+
+    // ------------------------------------------ Background Processor Executors
+
+
+    /**
+     * Scheduler running the background processors of all containers.
+     */
+    private static ScheduledThreadPoolExecutor backgroundScheduler = null;
+
+
+    /**
+     * Pool running the background processing tasks of all containers.
+     */
+    private static ForkJoinPool backgroundPool = null;
+
+
+    /**
+     * Number of running background processors.
+     */
+    private static int backgroundProcessors = 0;
+
+
+    /**
+     * Background processor running the task executed by the current thread.
+     */
+    private static final ThreadLocal<ContainerBackgroundProcessor> currentBackgroundProcessor =
+        new ThreadLocal<ContainerBackgroundProcessor>();
+
+
+    private static synchronized void acquireBackgroundExecutors() {
+        if (backgroundProcessors++ == 0) {
+            backgroundScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ContainerBackgroundProcessor");
+                    thread.setDaemon(true);
+                    thread.setContextClassLoader(ContainerBase.class.getClassLoader());
+                    return thread;
+                }
+            });
+            backgroundPool = new ForkJoinPool(BACKGROUND_PROCESSOR_THREADS,
+                    new BackgroundWorkerThreadFactory(), null, true);
         }
+    }
 
-        thread = null;
+
+    private static synchronized void releaseBackgroundExecutors() {
+        if (--backgroundProcessors == 0) {
+            backgroundScheduler.shutdown();
+            backgroundPool.shutdown();
+            backgroundScheduler = null;
+            backgroundPool = null;
+        }
+    }
+
+
+    /**
+     * Worker threads of the background processing pool, which are daemon
+     * threads and do not retain the class loader of a web application.
+     */
+    private static class BackgroundWorkerThreadFactory
+        implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+            thread.setName("ContainerBackgroundProcessor-" + count.incrementAndGet());
+            thread.setContextClassLoader(ContainerBase.class.getClassLoader());
+            return thread;
+        }
 
     }
 
@@ -1552,31 +1751,166 @@ public abstract class ContainerBase
 
 
     /**
-     * Private thread class to invoke the backgroundProcess method 
-     * of this container and its children after a fixed delay.
+     * Background processor which invokes the backgroundProcess method of
+     * this container and its children after a fixed delay. Each run walks
+     * the containers and submits a task for each of them but the wrappers,
+     * which are processed by the task of their context, so that a slow
+     * container does not delay the processing of the others. A container
+     * whose task of the previous run has not completed yet is skipped.
      */
     protected class ContainerBackgroundProcessor implements Runnable {
 
+        protected ScheduledThreadPoolExecutor scheduler = null;
+        protected ForkJoinPool pool = null;
+        protected ScheduledFuture<?> future = null;
+        protected volatile boolean done = false;
+
+        /**
+         * Number of submitted tasks which have not completed yet.
+         */
+        protected int pending = 0;
+
+        protected void start() {
+            acquireBackgroundExecutors();
+            synchronized (ContainerBase.class) {
+                scheduler = backgroundScheduler;
+                pool = backgroundPool;
+            }
+            future = scheduler.scheduleWithFixedDelay(this, backgroundProcessorDelay,
+                    backgroundProcessorDelay, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Stop the processor, and wait for the completion of its tasks, except
+         * the one run by the current thread if any.
+         */
+        protected void stop() {
+            done = true;
+            future.cancel(false);
+            int running = (currentBackgroundProcessor.get() == this) ? 1 : 0;
+            synchronized (this) {
+                while (pending > running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            releaseBackgroundExecutors();
+        }
+
         public void run() {
-            while (!threadDone) {
+            if (!done) {
                 try {
-                    Thread.sleep(backgroundProcessorDelay * 1000L);
-                } catch (InterruptedException e) {
-                    ;
+                    submitTasks((Container) getMappingObject(), System.currentTimeMillis());
+                } catch (Throwable t) {
+                    CatalinaLogger.CORE_LOGGER.errorInPeriodicOperation(t);
                 }
-                if (!threadDone) {
-                    Container parent = (Container) getMappingObject();
-                    ClassLoader cl = 
-                        Thread.currentThread().getContextClassLoader();
-                    if (parent.getLoader() != null) {
-                        cl = parent.getLoader().getClassLoader();
+            }
+        }
+
+        protected void submitTasks(Container container, long now) {
+            if (isDue(container, now)) {
+                ContainerBase base = (container instanceof ContainerBase) ? (ContainerBase) container : null;
+                if (base != null && base.backgroundProcessing) {
+                    base.backgroundProcessSkippedCount++;
+                } else {
+                    if (base != null) {
+                        base.backgroundProcessing = true;
+                    }
+                    synchronized (this) {
+                        pending++;
+                    }
+                    try {
+                        pool.execute(new BackgroundTask(container));
+                    } catch (RejectedExecutionException e) {
+                        completed(base);
+                    }
+                }
+            }
+            Container[] children = container.findChildren();
+            for (int i = 0; i < children.length; i++) {
+                if (!(children[i] instanceof Wrapper)
+                        && children[i].getBackgroundProcessorDelay() <= 0) {
+                    submitTasks(children[i], now);
+                }
+            }
+        }
+
+        protected boolean isDue(Container container, long now) {
+            if (container instanceof ContainerBase) {
+                ContainerBase base = (ContainerBase) container;
+                return (base.backgroundProcessorPeriod <= 0)
+                    || (now - base.lastBackgroundProcess >= base.backgroundProcessorPeriod * 1000L);
+            }
+            return true;
+        }
+
+        protected void completed(ContainerBase base) {
+            if (base != null) {
+                base.backgroundProcessing = false;
+            }
+            synchronized (this) {
+                pending--;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Process the container, then its wrappers until the budget of the
+         * container is exceeded. The processing of the container itself is
+         * not limited by the budget.
+         */
+        protected void processTask(Container container) {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            ContainerBase base = (container instanceof ContainerBase) ? (ContainerBase) container : null;
+            long start = System.currentTimeMillis();
+            if (base != null) {
+                base.lastBackgroundProcess = start;
+            }
+            processContainer(container, cl);
+            Container[] children = container.findChildren();
+            int next = 0;
+            if (base != null && base.nextBackgroundChild < children.length) {
+                next = base.nextBackgroundChild;
+            }
+            long budget = (base != null) ? base.backgroundProcessorBudget : 0;
+            for (int n = 0; n < children.length && !done; n++) {
+                Container child = children[(next + n) % children.length];
+                if (child instanceof Wrapper && child.getBackgroundProcessorDelay() <= 0
+                        && isDue(child, start)) {
+                    if (child instanceof ContainerBase) {
+                        ((ContainerBase) child).lastBackgroundProcess = start;
+                    }
+                    processContainer(child, cl);
+                    if (budget > 0 && n + 1 < children.length
+                            && System.currentTimeMillis() - start >= budget) {
+                        // Continue with the next wrapper during the next run
+                        base.nextBackgroundChild = (next + n + 1) % children.length;
+                        break;
                     }
-                    processChildren(parent, cl);
+                }
+                if (n + 1 == children.length && base != null) {
+                    base.nextBackgroundChild = 0;
+                }
+            }
+            if (base != null) {
+                long time = System.currentTimeMillis() - start;
+                base.lastBackgroundProcessingTime = time;
+                base.backgroundProcessingTime += time;
+                if (time > base.maxBackgroundProcessingTime) {
+                    base.maxBackgroundProcessingTime = time;
+                }
+                base.backgroundProcessCount++;
+                if (budget > 0 && time > budget) {
+                    CatalinaLogger.CORE_LOGGER.backgroundProcessingOverBudget(container, time, budget);
                 }
             }
         }
 
-        protected void processChildren(Container container, ClassLoader cl) {
+        protected void processContainer(Container container, ClassLoader cl) {
             try {
                 if (container.getLoader() != null) {
                     Thread.currentThread().setContextClassLoader
@@ -1594,12 +1928,31 @@ public abstract class ContainerBase
                 }
                 Thread.currentThread().setContextClassLoader(cl);
             }
-            Container[] children = container.findChildren();
-            for (int i = 0; i < children.length; i++) {
-                if (children[i].getBackgroundProcessorDelay() <= 0) {
-                    processChildren(children[i], cl);
+        }
+
+        /**
+         * Background processing task of a container.
+         */
+        protected class BackgroundTask implements Runnable {
+
+            protected final Container container;
+
+            protected BackgroundTask(Container container) {
+                this.container = container;
+            }
+
+            public void run() {
+                currentBackgroundProcessor.set(ContainerBackgroundProcessor.this);
+                try {
+                    if (!done) {
+                        processTask(container);
+                    }
+                } finally {
+                    currentBackgroundProcessor.remove();
+                    completed((container instanceof ContainerBase) ? (ContainerBase) container : null);
                 }
             }
+
         }
 
     }
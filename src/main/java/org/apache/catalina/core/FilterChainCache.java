@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.deploy.FilterMap;
+
+/**
+ * Cache of the filters resolved for the requests of a context, built from a
+ * snapshot of its filter mappings.
+ * <p>
+ * The URL patterns of the mappings are indexed by kind (exact, path prefix and
+ * extension), so that the set of mappings matching a request path, its
+ * <i>path class</i>, is found with a few hash lookups. The filters of a chain
+ * only depend on the wrapper, the dispatcher type, the event mode and the
+ * path class, so they are resolved once for each combination and shared as
+ * an immutable array by all the chains using it.
+ * <p>
+ * The path class is a bit mask, which limits the cache to contexts with at
+ * most {@link #MAX_FILTER_MAPS} filter mappings.
+ */
+final class FilterChainCache {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    /**
+     * Largest number of filter mappings which can be cached.
+     */
+    static final int MAX_FILTER_MAPS = 60;
+
+
+    static final ApplicationFilterConfig[] EMPTY = new ApplicationFilterConfig[0];
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    FilterChainCache(FilterMap[] filterMaps) {
+
+        this.filterMaps = filterMaps;
+        int maxPrefixLength = -1;
+        int maxExtensionLength = -1;
+        for (int i = 0; i < filterMaps.length; i++) {
+            long bit = 1L << i;
+            if (filterMaps[i].getMatchAllUrlPatterns()) {
+                matchAll |= bit;
+            }
+            String[] urlPatterns = filterMaps[i].getURLPatterns();
+            for (int j = 0; j < urlPatterns.length; j++) {
+                String urlPattern = urlPatterns[j];
+                if (urlPattern == null) {
+                    continue;
+                }
+                add(exact, urlPattern, bit);
+                if (urlPattern.equals("/*")) {
+                    matchAnyPath |= bit;
+                } else if (urlPattern.endsWith("/*")) {
+                    String prefix = urlPattern.substring(0, urlPattern.length() - 2);
+                    add(prefixes, prefix, bit);
+                    maxPrefixLength = Math.max(maxPrefixLength, prefix.length());
+                } else if (urlPattern.startsWith("*.")) {
+                    String extension = urlPattern.substring(2);
+                    add(extensions, extension, bit);
+                    maxExtensionLength = Math.max(maxExtensionLength, extension.length());
+                }
+            }
+        }
+        prefixLengths = new boolean[maxPrefixLength + 1];
+        for (String prefix : prefixes.keySet()) {
+            prefixLengths[prefix.length()] = true;
+        }
+        extensionLengths = new boolean[maxExtensionLength + 1];
+        for (String extension : extensions.keySet()) {
+            extensionLengths[extension.length()] = true;
+        }
+
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The filter mappings this cache was built from.
+     */
+    private final FilterMap[] filterMaps;
+
+
+    /**
+     * Mappings using the "*" special URL pattern, which also match requests
+     * without a path.
+     */
+    private long matchAll = 0;
+
+
+    /**
+     * Mappings using the "/*" URL pattern.
+     */
+    private long matchAnyPath = 0;
+
+
+    private final HashMap<String, Long> exact = new HashMap<String, Long>();
+    private final HashMap<String, Long> prefixes = new HashMap<String, Long>();
+    private final HashMap<String, Long> extensions = new HashMap<String, Long>();
+
+
+    /**
+     * Lengths of the path prefixes and extensions used by the mappings, to
+     * avoid lookups which cannot match.
+     */
+    private final boolean[] prefixLengths;
+    private final boolean[] extensionLengths;
+
+
+    /**
+     * Resolved filters, by wrapper and key.
+     */
+    private final ConcurrentHashMap<Wrapper, ConcurrentHashMap<Long, ApplicationFilterConfig[]>> filters =
+        new ConcurrentHashMap<Wrapper, ConcurrentHashMap<Long, ApplicationFilterConfig[]>>();
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the filter mappings this cache was built from.
+     */
+    FilterMap[] getFilterMaps() {
+        return filterMaps;
+    }
+
+
+    /**
+     * Return the key of the filters of a request.
+     *
+     * @param requestPath Context-relative request path, may be null
+     * @param dispatcher The dispatcher type
+     * @param event <code>true</code> if only event filters are used
+     */
+    long getKey(String requestPath, int dispatcher, boolean event) {
+        int slot;
+        switch (dispatcher) {
+        case FilterMap.ERROR:
+        case FilterMap.FORWARD:
+        case FilterMap.INCLUDE:
+        case FilterMap.REQUEST:
+        case FilterMap.ASYNC:
+            slot = 32 - Integer.numberOfLeadingZeros(dispatcher);
+            break;
+        default:
+            // No filter ever matches
+            slot = 0;
+        }
+        return (getPathClass(requestPath) << 4) | (slot << 1) | (event ? 1 : 0);
+    }
+
+
+    /**
+     * Return the filters resolved for the specified wrapper and key, or
+     * <code>null</code> if they have not been resolved yet.
+     */
+    ApplicationFilterConfig[] get(Wrapper wrapper, long key) {
+        ConcurrentHashMap<Long, ApplicationFilterConfig[]> wrapperFilters = filters.get(wrapper);
+        if (wrapperFilters == null) {
+            return null;
+        }
+        return wrapperFilters.get(Long.valueOf(key));
+    }
+
+
+    /**
+     * Cache the filters resolved for the specified wrapper and key.
+     */
+    void put(Wrapper wrapper, long key, ApplicationFilterConfig[] filterConfigs) {
+        ConcurrentHashMap<Long, ApplicationFilterConfig[]> wrapperFilters = filters.get(wrapper);
+        if (wrapperFilters == null) {
+            wrapperFilters = new ConcurrentHashMap<Long, ApplicationFilterConfig[]>();
+            ConcurrentHashMap<Long, ApplicationFilterConfig[]> previous =
+                filters.putIfAbsent(wrapper, wrapperFilters);
+            if (previous != null) {
+                wrapperFilters = previous;
+            }
+        }
+        wrapperFilters.put(Long.valueOf(key), filterConfigs);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Return the bit mask of the mappings whose URL patterns match the
+     * specified path, following the rules of
+     * <code>ApplicationFilterFactory.matchFiltersURL</code>.
+     */
+    long getPathClass(String requestPath) {
+
+        long result = matchAll;
+        if (requestPath == null) {
+            return result;
+        }
+        result |= matchAnyPath;
+
+        // Exact match
+        result |= get(exact, requestPath);
+
+        // Path match: the path itself and all its parents
+        int length = requestPath.length();
+        if (length < prefixLengths.length && prefixLengths[length]) {
+            result |= get(prefixes, requestPath);
+        }
+        int last = Math.min(length, prefixLengths.length) - 1;
+        for (int i = last; i >= 0; i--) {
+            if (prefixLengths[i] && requestPath.charAt(i) == '/') {
+                result |= get(prefixes, requestPath.substring(0, i));
+            }
+        }
+
+        // Extension match
+        int slash = requestPath.lastIndexOf('/');
+        int period = requestPath.lastIndexOf('.');
+        if (slash >= 0 && period > slash && period != length - 1) {
+            int extensionLength = length - period - 1;
+            if (extensionLength < extensionLengths.length && extensionLengths[extensionLength]) {
+                result |= get(extensions, requestPath.substring(period + 1));
+            }
+        }
+
+        return result;
+
+    }
+
+
+    private static long get(HashMap<String, Long> map, String key) {
+        Long value = map.get(key);
+        return (value == null) ? 0 : value.longValue();
+    }
+
+
+    private static void add(HashMap<String, Long> map, String key, long bit) {
+        map.put(key, Long.valueOf(get(map, key) | bit));
+    }
+
+
+}
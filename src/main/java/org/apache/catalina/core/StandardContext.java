@@ -97,6 +97,7 @@ import org.apache.naming.resources.FileDirContext;
 import org.apache.naming.resources.ProxyDirContext;
 import org.apache.naming.resources.WARDirContext;
 import org.apache.tomcat.InstanceManager;
+import org.apache.tomcat.util.LatencyHistogram;
 import org.apache.tomcat.util.modeler.Registry;
 import org.jboss.web.CatalinaLogger;
 
@@ -126,6 +127,9 @@ public class StandardContext
         super();
         pipeline.setBasic(new StandardContextValve());
         broadcaster = new NotificationBroadcasterSupport();
+        for (int i = 0; i < latencyHistograms.length; i++) {
+            latencyHistograms[i] = new LatencyHistogram();
+        }
 
     }
 
@@ -379,6 +383,12 @@ public class StandardContext
     protected int filterMapInsertPoint = 0;
 
 
+    /**
+     * The filters resolved for the current filter mappings.
+     */
+    protected volatile FilterChainCache filterChainCache = null;
+
+
     /**
      * Ignore annotations.
      */
@@ -620,6 +630,12 @@ public class StandardContext
     protected int cacheObjectMaxSize = (org.apache.tomcat.util.Constants.LOW_MEMORY) ? 8 : 256; // 256K
 
 
+    /**
+     * Cache implementation class name.
+     */
+    protected String cacheClassName = null;
+
+
     /**
      * Cache TTL in ms.
      */
@@ -635,6 +651,14 @@ public class StandardContext
     protected long startTime;
     protected long tldScanTime;
 
+    /**
+     * Latencies of the requests, in microseconds. Requests processed by
+     * different threads are spread over several histograms, which are merged
+     * when the percentiles are read.
+     */
+    protected final LatencyHistogram[] latencyHistograms = new LatencyHistogram[
+        Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1), 16)];
+
     /** 
      * Name of the engine. If null, the domain is used.
      */ 
@@ -770,6 +794,22 @@ public class StandardContext
     }
 
 
+    /**
+     * Return the resources cache implementation class name.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the resources cache implementation class name.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     /**
      * Returns true if the resources associated with this context are
      * filesystem based.
@@ -1624,6 +1664,7 @@ public class StandardContext
             ((BaseDirContext) resources).setCacheTTL(getCacheTTL());
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(getCacheObjectMaxSize());
+            ((BaseDirContext) resources).setCacheClassName(getCacheClassName());
         }
         if (resources instanceof FileDirContext) {
             filesystemBased = true;
@@ -1943,6 +1984,7 @@ public class StandardContext
      */
     public void addApplicationFilterConfig(ApplicationFilterConfig filterConfig) {
         filterConfigs.put(filterConfig.getFilterName(), filterConfig);
+        filterChainCache = null;
         fireContainerEvent("addApplicationFilterConfig", filterConfig);
     }
 
@@ -1954,6 +1996,7 @@ public class StandardContext
      */
     public void addFilterDef(FilterDef filterDef) {
         filterDefs.put(filterDef.getFilterName(), filterDef);
+        filterChainCache = null;
         fireContainerEvent("addFilterDef", filterDef);
     }
 
@@ -2827,6 +2870,7 @@ public class StandardContext
         }
 
         super.removeChild(child);
+        filterChainCache = null;
 
     }
 
@@ -2893,6 +2937,7 @@ public class StandardContext
      */
     public void removeFilterDef(FilterDef filterDef) {
         filterDefs.remove(filterDef.getFilterName());
+        filterChainCache = null;
         fireContainerEvent("removeFilterDef", filterDef);
     }
 
@@ -3189,6 +3234,53 @@ public class StandardContext
     }
 
 
+    /**
+     * Record the latency of a request processed by this context.
+     *
+     * @param latency Latency in microseconds
+     */
+    public void recordLatency(long latency) {
+        int stripe = (int) Thread.currentThread().getId() & (latencyHistograms.length - 1);
+        latencyHistograms[stripe].record(latency);
+    }
+
+
+    /**
+     * Gets the latency below which the specified percentage of the requests
+     * were processed by this context.
+     *
+     * @param percentile Percentage of the requests, between 0 and 100
+     * @return Latency in microseconds
+     */
+    public long getLatency(double percentile) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < latencyHistograms.length; i++) {
+            histogram.add(latencyHistograms[i]);
+        }
+        return histogram.getValueAtPercentile(percentile);
+    }
+
+
+    public long getLatencyP50() {
+        return getLatency(50.0);
+    }
+
+
+    public long getLatencyP90() {
+        return getLatency(90.0);
+    }
+
+
+    public long getLatencyP99() {
+        return getLatency(99.0);
+    }
+
+
+    public long getLatencyP999() {
+        return getLatency(99.9);
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -3230,6 +3322,7 @@ public class StandardContext
                 }
             }
         }
+        filterChainCache = null;
 
         return (ok);
 
@@ -3259,6 +3352,7 @@ public class StandardContext
             }
         }
         filterConfigs.clear();
+        filterChainCache = null;
         return (ok);
 
     }
@@ -3275,6 +3369,27 @@ public class StandardContext
     }
 
 
+    /**
+     * Return the cache of the filters resolved for the specified filter
+     * mappings, which are the current ones, or <code>null</code> if there
+     * are too many mappings to cache them. As the filter mappings are
+     * replaced on each change, the cache is rebuilt as soon as they change.
+     *
+     * @param filterMaps The current filter mappings
+     */
+    FilterChainCache getFilterChainCache(FilterMap[] filterMaps) {
+        FilterChainCache cache = filterChainCache;
+        if (cache == null || cache.getFilterMaps() != filterMaps) {
+            if (filterMaps.length > FilterChainCache.MAX_FILTER_MAPS) {
+                return null;
+            }
+            cache = new FilterChainCache(filterMaps);
+            filterChainCache = cache;
+        }
+        return cache;
+    }
+
+
     /**
      * Configure the set of instantiated application event listeners
      * for this Context.  Return <code>true</code> if all listeners wre
@@ -146,7 +146,12 @@ final class StandardContextValve
             }
         }
 
-        wrapper.getPipeline().getFirst().invoke(request, response);
+        long t0 = System.nanoTime();
+        try {
+            wrapper.getPipeline().getFirst().invoke(request, response);
+        } finally {
+            context.recordLatency((System.nanoTime() - t0) / 1000);
+        }
 
     }
 
@@ -27,7 +27,11 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanNotificationInfo;
@@ -136,7 +140,7 @@ public class StandardWrapper
     /**
      * The count of allocations that are currently active for STM servlets.
      */
-    protected int countAllocated = 0;
+    protected final AtomicInteger countAllocated = new AtomicInteger();
 
     
     /**
@@ -261,13 +265,35 @@ public class StandardWrapper
     /**
      * Number of instances currently loaded for a STM servlet.
      */
-    protected int nInstances = 0;
+    protected final AtomicInteger nInstances = new AtomicInteger();
 
 
     /**
-     * Stack containing the STM instances.
+     * Queue containing the idle STM instances.
      */
-    protected Stack instancePool = null;
+    protected volatile ConcurrentLinkedQueue<Servlet> instancePool = null;
+
+
+    /**
+     * Permits to allocate a STM instance, one for each instance which may be
+     * loaded, granted in FIFO order.
+     */
+    protected volatile InstancePermits instancePermits = null;
+
+
+    /**
+     * Maximum time in ms to wait for a STM instance, 0 to wait forever.
+     */
+    protected long allocateTimeout = 0;
+
+
+    /**
+     * STM allocation statistics.
+     */
+    protected final AtomicLong allocateWaitCount = new AtomicLong();
+    protected final AtomicLong allocateWaitTime = new AtomicLong();
+    protected final AtomicLong maxAllocateWaitTime = new AtomicLong();
+    protected final AtomicLong allocateTimeoutCount = new AtomicLong();
 
     
     /**
@@ -426,8 +452,67 @@ public class StandardWrapper
      */
     public int getCountAllocated() {
 
-        return (this.countAllocated);
+        return (this.countAllocated.get());
+
+    }
+
+
+    /**
+     * Return the maximum time in ms to wait for an instance of a single
+     * thread model servlet, 0 to wait forever.
+     */
+    public long getAllocateTimeout() {
+        return allocateTimeout;
+    }
+
+
+    /**
+     * Set the maximum time in ms to wait for an instance of a single thread
+     * model servlet, 0 to wait forever.
+     *
+     * @param allocateTimeout New value of allocateTimeout
+     */
+    public void setAllocateTimeout(long allocateTimeout) {
+        long oldAllocateTimeout = this.allocateTimeout;
+        this.allocateTimeout = allocateTimeout;
+        support.firePropertyChange("allocateTimeout", oldAllocateTimeout,
+                                   this.allocateTimeout);
+    }
+
+
+    /**
+     * Return the number of allocations which had to wait because all the
+     * instances of this single thread model servlet were in use.
+     */
+    public long getAllocateWaitCount() {
+        return allocateWaitCount.get();
+    }
+
+
+    /**
+     * Return the total time in ms spent waiting for an instance of this
+     * single thread model servlet.
+     */
+    public long getAllocateWaitTime() {
+        return allocateWaitTime.get();
+    }
+
 
+    /**
+     * Return the longest time in ms spent waiting for an instance of this
+     * single thread model servlet.
+     */
+    public long getMaxAllocateWaitTime() {
+        return maxAllocateWaitTime.get();
+    }
+
+
+    /**
+     * Return the number of allocations which timed out waiting for an
+     * instance of this single thread model servlet.
+     */
+    public long getAllocateTimeoutCount() {
+        return allocateTimeoutCount.get();
     }
 
 
@@ -583,6 +668,10 @@ public class StandardWrapper
 
         int oldMaxInstances = this.maxInstances;
         this.maxInstances = maxInstances;
+        InstancePermits permits = instancePermits;
+        if (permits != null) {
+            permits.resize(maxInstances - oldMaxInstances);
+        }
         support.firePropertyChange("maxInstances", oldMaxInstances,
                                    this.maxInstances);
 
@@ -961,32 +1050,64 @@ public class StandardWrapper
             return (instance);
         }
 
-        synchronized (instancePool) {
+        ConcurrentLinkedQueue<Servlet> pool = instancePool;
+        InstancePermits permits = instancePermits;
+        if (pool == null || permits == null) {
+            throw new ServletException
+                (MESSAGES.cannotAllocateServletWhileUnloading(getName()));
+        }
 
-            while (countAllocated >= nInstances) {
-                // Allocate a new instance if possible, or else wait
-                if (nInstances < maxInstances) {
-                    try {
-                        instancePool.push(loadServlet());
-                        nInstances++;
-                    } catch (ServletException e) {
-                        throw e;
-                    } catch (Throwable e) {
-                        throw new ServletException
-                            (MESSAGES.cannotAllocateServletInstance(), e);
+        // Wait for a permit; the timed acquire honors the FIFO ordering
+        // even when a permit is available
+        try {
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                allocateWaitCount.incrementAndGet();
+                long start = System.currentTimeMillis();
+                boolean acquired = true;
+                try {
+                    if (allocateTimeout > 0) {
+                        acquired = permits.tryAcquire(allocateTimeout, TimeUnit.MILLISECONDS);
+                    } else {
+                        permits.acquire();
                     }
-                } else {
-                    try {
-                        instancePool.wait();
-                    } catch (InterruptedException e) {
-                        ;
+                } finally {
+                    long waitTime = System.currentTimeMillis() - start;
+                    allocateWaitTime.addAndGet(waitTime);
+                    long max = maxAllocateWaitTime.get();
+                    while (waitTime > max && !maxAllocateWaitTime.compareAndSet(max, waitTime)) {
+                        max = maxAllocateWaitTime.get();
                     }
                 }
+                if (!acquired) {
+                    allocateTimeoutCount.incrementAndGet();
+                    throw new ServletException
+                        (MESSAGES.servletAllocateTimeout(allocateTimeout, getName()));
+                }
             }
-            countAllocated++;
-            return (Servlet) instancePool.pop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(MESSAGES.cannotAllocateServletInstance(), e);
+        }
 
+        // Use an idle instance, or load a new one since there are fewer
+        // instances than permits
+        countAllocated.incrementAndGet();
+        Servlet servlet = pool.poll();
+        if (servlet == null) {
+            try {
+                servlet = loadServlet();
+                nInstances.incrementAndGet();
+            } catch (Throwable e) {
+                countAllocated.decrementAndGet();
+                permits.release();
+                if (e instanceof ServletException) {
+                    throw (ServletException) e;
+                }
+                throw new ServletException
+                    (MESSAGES.cannotAllocateServletInstance(), e);
+            }
         }
+        return servlet;
 
     }
 
@@ -1004,14 +1125,50 @@ public class StandardWrapper
 
         // If not SingleThreadModel, no action is required
         if (!singleThreadModel) {
+            // Unless this instance was allocated before the pool was unloaded
+            if (servlet instanceof SingleThreadModel && servlet != instance) {
+                destroyReturnedInstance(servlet);
+            }
+            return;
+        }
+
+        // Free this instance, then hand its permit to the next waiter
+        ConcurrentLinkedQueue<Servlet> pool = instancePool;
+        InstancePermits permits = instancePermits;
+        if (pool == null || permits == null) {
+            destroyReturnedInstance(servlet);
             return;
         }
+        countAllocated.decrementAndGet();
+        pool.offer(servlet);
+        permits.release();
+
+    }
+
+
+    /**
+     * Destroy a SingleThreadModel instance which is returned after the
+     * instance pool it was allocated from has been unloaded.
+     *
+     * @param servlet The servlet to be destroyed
+     *
+     * @exception ServletException if the destroy() method throws an exception
+     */
+    protected void destroyReturnedInstance(Servlet servlet)
+        throws ServletException {
 
-        // Unlock and free this instance
-        synchronized (instancePool) {
-            countAllocated--;
-            instancePool.push(servlet);
-            instancePool.notify();
+        countAllocated.decrementAndGet();
+        try {
+            if (Globals.IS_SECURITY_ENABLED) {
+                SecurityUtil.doAsPrivilege("destroy", servlet);
+                SecurityUtil.remove(servlet);
+            } else {
+                servlet.destroy();
+            }
+            // Annotation processing
+            ((Context) getParent()).getInstanceManager().destroyInstance(servlet);
+        } catch (Throwable t) {
+            throw new ServletException(MESSAGES.errorDestroyingServlet(getName()), t);
         }
 
     }
@@ -1236,8 +1393,10 @@ public class StandardWrapper
             // Register our newly initialized instance
             singleThreadModel = servlet instanceof SingleThreadModel;
             if (singleThreadModel) {
-                if (instancePool == null)
-                    instancePool = new Stack();
+                if (instancePool == null) {
+                    instancePermits = new InstancePermits(maxInstances);
+                    instancePool = new ConcurrentLinkedQueue<Servlet>();
+                }
             }
             fireContainerEvent("load", this);
 
@@ -1384,7 +1543,8 @@ public class StandardWrapper
               (InstanceEvent.AFTER_DESTROY_EVENT, instance, t);
             instance = null;
             instancePool = null;
-            nInstances = 0;
+            instancePermits = null;
+            nInstances.set(0);
             fireContainerEvent("unload", this);
             unloading = false;
             throw new ServletException(MESSAGES.errorDestroyingServlet(getName()), t);
@@ -1395,8 +1555,8 @@ public class StandardWrapper
 
         if (singleThreadModel && (instancePool != null)) {
             try {
-                while (!instancePool.isEmpty()) {
-                    Servlet s = (Servlet) instancePool.pop();
+                Servlet s;
+                while ((s = instancePool.poll()) != null) {
                     if (Globals.IS_SECURITY_ENABLED) {
                         SecurityUtil.doAsPrivilege("destroy", s);
                         SecurityUtil.remove(instance);                           
@@ -1408,13 +1568,15 @@ public class StandardWrapper
                 }
             } catch (Throwable t) {
                 instancePool = null;
-                nInstances = 0;
+                instancePermits = null;
+                nInstances.set(0);
                 unloading = false;
                 fireContainerEvent("unload", this);
                 throw new ServletException(MESSAGES.errorDestroyingServlet(getName()), t);
             }
             instancePool = null;
-            nInstances = 0;
+            instancePermits = null;
+            nInstances.set(0);
         }
 
         singleThreadModel = false;
@@ -1841,6 +2003,31 @@ public class StandardWrapper
     public boolean isStatisticsProvider() {
         return false;
     }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    /**
+     * Fair semaphore whose number of permits can be changed.
+     */
+    protected static final class InstancePermits extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        InstancePermits(int permits) {
+            super(permits, true);
+        }
+
+        void resize(int delta) {
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+        }
+
+    }
         
         
 }
@@ -30,7 +30,6 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.sql.Connection;
@@ -40,11 +39,25 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
 
 /**
  * Implementation of the <code>Store</code> interface that stores
  * serialized session objects in a database.  Sessions that are
  * saved are still subject to being expired based on inactivity.
+ * <p>
+ * Connections are either opened using the configured JDBC driver and kept
+ * in a small pool, or borrowed from a <code>DataSource</code> looked up in
+ * JNDI. At most <code>maxConnections</code> connections are used at the same
+ * time, so that loads and saves from several threads run in parallel.
+ * Sessions saved together by the manager are written using JDBC batches.
  *
  * @author Bip Thelin
  * @version $Revision: 515 $, $Date: 2008-03-17 22:02:23 +0100 (Mon, 17 Mar 2008) $
@@ -90,9 +103,41 @@ public class JDBCStore
     protected String connectionURL = null;
 
     /**
-     * The database connection.
+     * JNDI name of the DataSource to use instead of the JDBC driver.
+     */
+    protected String dataSourceName = null;
+
+    /**
+     * DataSource to use, looked up using the data source name.
+     */
+    protected DataSource dataSource = null;
+
+    /**
+     * Maximum number of database connections used at the same time.
+     */
+    protected int maxConnections = 4;
+
+    /**
+     * Maximum time in milliseconds to wait for a database connection when
+     * <code>maxConnections</code> connections are in use.
+     */
+    protected long connectionTimeout = 30000;
+
+    /**
+     * Maximum number of sessions written in a single JDBC batch.
+     */
+    protected int batchSize = 100;
+
+    /**
+     * Permits for the database connections which may be in use.
+     */
+    private Semaphore connectionPermits = null;
+
+    /**
+     * Idle database connections, when using the JDBC driver.
      */
-    private Connection dbConnection = null;
+    private ConcurrentLinkedQueue<StoreConnection> idleConnections =
+        new ConcurrentLinkedQueue<StoreConnection>();
 
     /**
      * Instance of the JDBC Driver class we use as a connection factory.
@@ -141,38 +186,6 @@ public class JDBCStore
      */
     protected String sessionLastAccessedCol = "lastaccess";
 
-    // ------------------------------------------------------------- SQL Variables
-
-    /**
-     * Variable to hold the <code>getSize()</code> prepared statement.
-     */
-    protected PreparedStatement preparedSizeSql = null;
-
-    /**
-     * Variable to hold the <code>keys()</code> prepared statement.
-     */
-    protected PreparedStatement preparedKeysSql = null;
-
-    /**
-     * Variable to hold the <code>save()</code> prepared statement.
-     */
-    protected PreparedStatement preparedSaveSql = null;
-
-    /**
-     * Variable to hold the <code>clear()</code> prepared statement.
-     */
-    protected PreparedStatement preparedClearSql = null;
-
-    /**
-     * Variable to hold the <code>remove()</code> prepared statement.
-     */
-    protected PreparedStatement preparedRemoveSql = null;
-
-    /**
-     * Variable to hold the <code>load()</code> prepared statement.
-     */
-    protected PreparedStatement preparedLoadSql = null;
-
     // ------------------------------------------------------------- Properties
 
     /**
@@ -433,6 +446,82 @@ public class JDBCStore
         return (this.sessionLastAccessedCol);
     }
 
+    /**
+     * Return the JNDI name of the DataSource.
+     */
+    public String getDataSourceName() {
+        return (this.dataSourceName);
+    }
+
+    /**
+     * Set the JNDI name of the DataSource to use. When it is set, the driver
+     * name, connection URL and credentials are not used. Names which do
+     * not start with <code>java:</code> are looked up in
+     * <code>java:comp/env</code>.
+     *
+     * @param dataSourceName The JNDI name of the DataSource
+     */
+    public void setDataSourceName(String dataSourceName) {
+        String oldDataSourceName = this.dataSourceName;
+        this.dataSourceName = dataSourceName;
+        support.firePropertyChange("dataSourceName",
+                oldDataSourceName,
+                this.dataSourceName);
+    }
+
+    /**
+     * Return the maximum number of database connections used at the same
+     * time.
+     */
+    public int getMaxConnections() {
+        return (this.maxConnections);
+    }
+
+    /**
+     * Set the maximum number of database connections used at the same
+     * time. Changes take effect when the Store is started.
+     *
+     * @param maxConnections The maximum number of connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Return the maximum time in milliseconds to wait for a database
+     * connection.
+     */
+    public long getConnectionTimeout() {
+        return (this.connectionTimeout);
+    }
+
+    /**
+     * Set the maximum time in milliseconds to wait for a database connection
+     * when <code>maxConnections</code> connections are in use.
+     *
+     * @param connectionTimeout The timeout
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Return the maximum number of sessions written in a single JDBC batch.
+     */
+    public int getBatchSize() {
+        return (this.batchSize);
+    }
+
+    /**
+     * Set the maximum number of sessions written in a single JDBC batch.
+     *
+     * @param batchSize The batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -443,54 +532,52 @@ public class JDBCStore
      * @exception IOException if an input/output error occurred
      */
     public String[] keys() throws IOException {
-        ResultSet rst = null;
-        String keys[] = null;
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-
-                Connection _conn = getConnection();
-                if (_conn == null) {
-                    return (new String[0]);
+        String keys[] = new String[0];
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+
+            StoreConnection _conn = getConnection();
+            if (_conn == null) {
+                return (new String[0]);
+            }
+            ResultSet rst = null;
+            try {
+                if (_conn.preparedKeysSql == null) {
+                    String keysSql = "SELECT " + sessionIdCol + " FROM "
+                            + sessionTable + " WHERE " + sessionAppCol
+                            + " = ?";
+                    _conn.preparedKeysSql = _conn.connection.prepareStatement(keysSql);
+                }
+
+                _conn.preparedKeysSql.setString(1, getName());
+                rst = _conn.preparedKeysSql.executeQuery();
+                ArrayList<String> tmpkeys = new ArrayList<String>();
+                if (rst != null) {
+                    while (rst.next()) {
+                        tmpkeys.add(rst.getString(1));
+                    }
                 }
+                keys = tmpkeys.toArray(new String[tmpkeys.size()]);
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                keys = new String[0];
+                // Close the connection so that a new one is opened next time
+                close(_conn);
+                _conn = null;
+            } finally {
                 try {
-                    if (preparedKeysSql == null) {
-                        String keysSql = "SELECT " + sessionIdCol + " FROM "
-                                + sessionTable + " WHERE " + sessionAppCol
-                                + " = ?";
-                        preparedKeysSql = _conn.prepareStatement(keysSql);
-					}
-
-                    preparedKeysSql.setString(1, getName());
-                    rst = preparedKeysSql.executeQuery();
-                    ArrayList tmpkeys = new ArrayList();
                     if (rst != null) {
-                        while (rst.next()) {
-                            tmpkeys.add(rst.getString(1));
-                        }
+                        rst.close();
                     }
-                    keys = (String[]) tmpkeys.toArray(new String[tmpkeys.size()]);
-                    // Break out after the finally block
-                    numberOfTries = 0;
                 } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    keys = new String[0];
-                    // Close the connection so that it gets reopened next time
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } finally {
-                    try {
-                        if (rst != null) {
-                            rst.close();
-                        }
-                    } catch (SQLException e) {
-                        ;
-                    }
-
-                    release(_conn);
+                    ;
                 }
-                numberOfTries--;
+
+                release(_conn);
             }
+            numberOfTries--;
         }
 
         return (keys);
@@ -505,48 +592,45 @@ public class JDBCStore
      */
     public int getSize() throws IOException {
         int size = 0;
-        ResultSet rst = null;
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            StoreConnection _conn = getConnection();
 
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
+            if (_conn == null) {
+                return (size);
+            }
 
-                if (_conn == null) {
-                    return (size);
+            ResultSet rst = null;
+            try {
+                if (_conn.preparedSizeSql == null) {
+                    String sizeSql = "SELECT COUNT(" + sessionIdCol
+                            + ") FROM " + sessionTable + " WHERE "
+                            + sessionAppCol + " = ?";
+                    _conn.preparedSizeSql = _conn.connection.prepareStatement(sizeSql);
                 }
 
+                _conn.preparedSizeSql.setString(1, getName());
+                rst = _conn.preparedSizeSql.executeQuery();
+                if (rst.next()) {
+                    size = rst.getInt(1);
+                }
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                close(_conn);
+                _conn = null;
+            } finally {
                 try {
-                    if (preparedSizeSql == null) {
-                        String sizeSql = "SELECT COUNT(" + sessionIdCol
-                                + ") FROM " + sessionTable + " WHERE "
-                                + sessionAppCol + " = ?";
-                        preparedSizeSql = _conn.prepareStatement(sizeSql);
-					}
-
-                    preparedSizeSql.setString(1, getName());
-                    rst = preparedSizeSql.executeQuery();
-                    if (rst.next()) {
-                        size = rst.getInt(1);
-                    }
-                    // Break out after the finally block
-                    numberOfTries = 0;
+                    if (rst != null)
+                        rst.close();
                 } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } finally {
-                    try {
-                        if (rst != null)
-                            rst.close();
-                    } catch (SQLException e) {
-                        ;
-                    }
-
-                    release(_conn);
+                    ;
                 }
-                numberOfTries--;
+
+                release(_conn);
             }
+            numberOfTries--;
         }
         return (size);
     }
@@ -562,85 +646,83 @@ public class JDBCStore
      */
     public Session load(String id)
             throws ClassNotFoundException, IOException {
-        ResultSet rst = null;
         StandardSession _session = null;
         Loader loader = null;
         ClassLoader classLoader = null;
-        ObjectInputStream ois = null;
-        BufferedInputStream bis = null;
         Container container = manager.getContainer();
- 
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
-                if (_conn == null) {
-                    return (null);
+
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            StoreConnection _conn = getConnection();
+            if (_conn == null) {
+                return (null);
+            }
+
+            ResultSet rst = null;
+            ObjectInputStream ois = null;
+            try {
+                if (_conn.preparedLoadSql == null) {
+                    String loadSql = "SELECT " + sessionIdCol + ", "
+                            + sessionDataCol + " FROM " + sessionTable
+                            + " WHERE " + sessionIdCol + " = ? AND "
+                            + sessionAppCol + " = ?";
+                    _conn.preparedLoadSql = _conn.connection.prepareStatement(loadSql);
                 }
 
-                try {
-                    if (preparedLoadSql == null) {
-                        String loadSql = "SELECT " + sessionIdCol + ", "
-                                + sessionDataCol + " FROM " + sessionTable
-                                + " WHERE " + sessionIdCol + " = ? AND "
-                                + sessionAppCol + " = ?";
-                        preparedLoadSql = _conn.prepareStatement(loadSql);
+                _conn.preparedLoadSql.setString(1, id);
+                _conn.preparedLoadSql.setString(2, getName());
+                rst = _conn.preparedLoadSql.executeQuery();
+                if (rst.next()) {
+                    BufferedInputStream bis = 
+                        new BufferedInputStream(rst.getBinaryStream(2));
+
+                    if (container != null) {
+                        loader = container.getLoader();
+                    }
+                    if (loader != null) {
+                        classLoader = loader.getClassLoader();
+                    }
+                    if (classLoader != null) {
+                        ois = new CustomObjectInputStream(bis,
+                                classLoader);
+                    } else {
+                        ois = new ObjectInputStream(bis);
+                    }
+
+                    if (manager.getContainer().getLogger().isDebugEnabled()) {
+                        manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreSessionLoad(id, sessionTable));
                     }
 
-                    preparedLoadSql.setString(1, id);
-                    preparedLoadSql.setString(2, getName());
-                    rst = preparedLoadSql.executeQuery();
-                    if (rst.next()) {
-                        bis = new BufferedInputStream(rst.getBinaryStream(2));
-
-                        if (container != null) {
-                            loader = container.getLoader();
-                        }
-                        if (loader != null) {
-                            classLoader = loader.getClassLoader();
-                        }
-                        if (classLoader != null) {
-                            ois = new CustomObjectInputStream(bis,
-                                    classLoader);
-                        } else {
-                            ois = new ObjectInputStream(bis);
-                        }
-
-                        if (manager.getContainer().getLogger().isDebugEnabled()) {
-                            manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreSessionLoad(id, sessionTable));
-                        }
-
-                        _session = (StandardSession) manager.createEmptySession();
-                        _session.readObjectData(ois);
-                        _session.setManager(manager);
-                      } else if (manager.getContainer().getLogger().isDebugEnabled()) {
-                        manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreIdNotFound());
+                    _session = (StandardSession) manager.createEmptySession();
+                    _session.readObjectData(ois);
+                    _session.setManager(manager);
+                  } else if (manager.getContainer().getLogger().isDebugEnabled()) {
+                    manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreIdNotFound());
+                }
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                close(_conn);
+                _conn = null;
+            } finally {
+                try {
+                    if (rst != null) {
+                        rst.close();
                     }
-                    // Break out after the finally block
-                    numberOfTries = 0;
                 } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } finally {
+                    ;
+                }
+                if (ois != null) {
                     try {
-                        if (rst != null) {
-                            rst.close();
-                        }
-                    } catch (SQLException e) {
+                        ois.close();
+                    } catch (IOException e) {
                         ;
                     }
-                    if (ois != null) {
-                        try {
-                            ois.close();
-                        } catch (IOException e) {
-                            ;
-                        }
-                    }
-                    release(_conn);
                 }
-                numberOfTries--;
+                release(_conn);
             }
+            numberOfTries--;
         }
 
         return (_session);
@@ -657,37 +739,29 @@ public class JDBCStore
      */
     public void remove(String id) throws IOException {
 
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            StoreConnection _conn = getConnection();
 
-                if (_conn == null) {
-                    return;
-                }
-
-                try {
-                    if (preparedRemoveSql == null) {
-                        String removeSql = "DELETE FROM " + sessionTable
-                                + " WHERE " + sessionIdCol + " = ?  AND "
-                                + sessionAppCol + " = ?";
-                        preparedRemoveSql = _conn.prepareStatement(removeSql);
-                    }
+            if (_conn == null) {
+                return;
+            }
 
-                    preparedRemoveSql.setString(1, id);
-                    preparedRemoveSql.setString(2, getName());
-                    preparedRemoveSql.execute();
-                    // Break out after the finally block
-                    numberOfTries = 0;
-                } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } finally {
-                    release(_conn);
-                }
-                numberOfTries--;
+            try {
+                prepareRemoveSql(_conn);
+                _conn.preparedRemoveSql.setString(1, id);
+                _conn.preparedRemoveSql.setString(2, getName());
+                _conn.preparedRemoveSql.execute();
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                close(_conn);
+                _conn = null;
+            } finally {
+                release(_conn);
             }
+            numberOfTries--;
         }
 
         if (manager.getContainer().getLogger().isDebugEnabled()) {
@@ -702,34 +776,32 @@ public class JDBCStore
      */
     public void clear() throws IOException {
 
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
-                if (_conn == null) {
-                    return;
-                }
-
-                try {
-                    if (preparedClearSql == null) {
-                        String clearSql = "DELETE FROM " + sessionTable
-                             + " WHERE " + sessionAppCol + " = ?";
-                        preparedClearSql = _conn.prepareStatement(clearSql);
-                    }
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            StoreConnection _conn = getConnection();
+            if (_conn == null) {
+                return;
+            }
 
-                    preparedClearSql.setString(1, getName());
-                    preparedClearSql.execute();
-                    // Break out after the finally block
-                    numberOfTries = 0;
-                } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } finally {
-                    release(_conn);
+            try {
+                if (_conn.preparedClearSql == null) {
+                    String clearSql = "DELETE FROM " + sessionTable
+                         + " WHERE " + sessionAppCol + " = ?";
+                    _conn.preparedClearSql = _conn.connection.prepareStatement(clearSql);
                 }
-                numberOfTries--;
+
+                _conn.preparedClearSql.setString(1, getName());
+                _conn.preparedClearSql.execute();
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                close(_conn);
+                _conn = null;
+            } finally {
+                release(_conn);
             }
+            numberOfTries--;
         }
     }
 
@@ -740,218 +812,296 @@ public class JDBCStore
      * @exception IOException if an input/output error occurs
      */
     public void save(Session session) throws IOException {
-        ObjectOutputStream oos = null;
-        ByteArrayOutputStream bos = null;
-        ByteArrayInputStream bis = null;
-        InputStream in = null;
-
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
-                if (_conn == null) {
-                    return;
+        save(new Session[] { session });
+    }
+
+    /**
+     * Save several sessions to the Store, using JDBC batches of at most
+     * <code>batchSize</code> sessions. Each batch removes the previous
+     * copies of the sessions and inserts the new ones in a single
+     * transaction.
+     *
+     * @param sessions the sessions to be stored
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session[] sessions) throws IOException {
+        // Serialize the sessions before using a connection
+        byte[][] data = new byte[sessions.length][];
+        for (int i = 0; i < sessions.length; i++) {
+            ObjectOutputStream oos = null;
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+                ((StandardSession) sessions[i]).writeObjectData(oos);
+                oos.close();
+                oos = null;
+                data[i] = bos.toByteArray();
+            } catch (IOException e) {
+                ;
+            } finally {
+                if (oos != null) {
+                    oos.close();
                 }
+            }
+        }
 
-                // If sessions already exist in DB, remove and insert again.
-                // TODO:
-                // * Check if ID exists in database and if so use UPDATE.
-                remove(session.getIdInternal());
+        int size = (batchSize > 0) ? batchSize : sessions.length;
+        for (int start = 0; start < sessions.length; start += size) {
+            saveBatch(sessions, data, start, 
+                    Math.min(sessions.length, start + size));
+        }
 
-                try {
-                    bos = new ByteArrayOutputStream();
-                    oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+        if (manager.getContainer().getLogger().isDebugEnabled()) {
+            for (int i = 0; i < sessions.length; i++) {
+                if (data[i] != null) {
+                    manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreSessionSave(sessions[i].getIdInternal(), sessionTable));
+                }
+            }
+        }
+    }
 
-                    ((StandardSession) session).writeObjectData(oos);
-                    oos.close();
-                    oos = null;
-                    byte[] obs = bos.toByteArray();
-                    int size = obs.length;
-                    bis = new ByteArrayInputStream(obs, 0, size);
-                    in = new BufferedInputStream(bis, size);
-
-                    if (preparedSaveSql == null) {
-                        String saveSql = "INSERT INTO " + sessionTable + " ("
-                           + sessionIdCol + ", " + sessionAppCol + ", "
-                           + sessionDataCol + ", " + sessionValidCol
-                           + ", " + sessionMaxInactiveCol + ", "
-                           + sessionLastAccessedCol
-                           + ") VALUES (?, ?, ?, ?, ?, ?)";
-                       preparedSaveSql = _conn.prepareStatement(saveSql);
-					}
-
-                    preparedSaveSql.setString(1, session.getIdInternal());
-                    preparedSaveSql.setString(2, getName());
-                    preparedSaveSql.setBinaryStream(3, in, size);
-                    preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
-                    preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
-                    preparedSaveSql.setLong(6, session.getLastAccessedTime());
-                    preparedSaveSql.execute();
-                    // Break out after the finally block
-                    numberOfTries = 0;
-                } catch (SQLException e) {
-                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } catch (IOException e) {
-                    ;
-                } finally {
-                    if (oos != null) {
-                        oos.close();
-                    }
-                    if (bis != null) {
-                        bis.close();
+    // --------------------------------------------------------- Protected Methods
+
+    /**
+     * Write serialized sessions to the database as a single transaction.
+     * Sessions which could not be serialized are skipped.
+     *
+     * @param sessions the sessions to be stored
+     * @param data the serialized sessions
+     * @param start index of the first session to write
+     * @param end index after the last session to write
+     */
+    protected void saveBatch(Session[] sessions, byte[][] data, int start, int end) {
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            StoreConnection _conn = getConnection();
+            if (_conn == null) {
+                return;
+            }
+
+            try {
+                prepareRemoveSql(_conn);
+                if (_conn.preparedSaveSql == null) {
+                    String saveSql = "INSERT INTO " + sessionTable + " ("
+                       + sessionIdCol + ", " + sessionAppCol + ", "
+                       + sessionDataCol + ", " + sessionValidCol
+                       + ", " + sessionMaxInactiveCol + ", "
+                       + sessionLastAccessedCol
+                       + ") VALUES (?, ?, ?, ?, ?, ?)";
+                    _conn.preparedSaveSql = _conn.connection.prepareStatement(saveSql);
+                }
+
+                _conn.connection.setAutoCommit(false);
+                // If sessions already exist in DB, remove and insert again.
+                for (int i = start; i < end; i++) {
+                    if (data[i] != null) {
+                        _conn.preparedRemoveSql.setString(1, sessions[i].getIdInternal());
+                        _conn.preparedRemoveSql.setString(2, getName());
+                        _conn.preparedRemoveSql.addBatch();
                     }
-                    if (in != null) {
-                        in.close();
+                }
+                _conn.preparedRemoveSql.executeBatch();
+                for (int i = start; i < end; i++) {
+                    if (data[i] != null) {
+                        Session session = sessions[i];
+                        _conn.preparedSaveSql.setString(1, session.getIdInternal());
+                        _conn.preparedSaveSql.setString(2, getName());
+                        _conn.preparedSaveSql.setBinaryStream(3, 
+                                new ByteArrayInputStream(data[i]), data[i].length);
+                        _conn.preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
+                        _conn.preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
+                        _conn.preparedSaveSql.setLong(6, session.getLastAccessedTime());
+                        _conn.preparedSaveSql.addBatch();
                     }
-
-                    release(_conn);
                 }
-                numberOfTries--;
+                _conn.preparedSaveSql.executeBatch();
+                _conn.connection.commit();
+                _conn.connection.setAutoCommit(true);
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+                try {
+                    _conn.connection.rollback();
+                } catch (SQLException f) {
+                    ;
+                }
+                close(_conn);
+                _conn = null;
+            } finally {
+                release(_conn);
             }
+            numberOfTries--;
         }
+    }
 
-        if (manager.getContainer().getLogger().isDebugEnabled()) {
-            manager.getContainer().getLogger().debug(MESSAGES.jdbcStoreSessionSave(session.getIdInternal(), sessionTable));
+    /**
+     * Prepare the statement used to remove a session, if needed.
+     *
+     * @param _conn The connection
+     * @exception SQLException if a database error occurs
+     */
+    protected void prepareRemoveSql(StoreConnection _conn) throws SQLException {
+        if (_conn.preparedRemoveSql == null) {
+            String removeSql = "DELETE FROM " + sessionTable
+                    + " WHERE " + sessionIdCol + " = ?  AND "
+                    + sessionAppCol + " = ?";
+            _conn.preparedRemoveSql = _conn.connection.prepareStatement(removeSql);
         }
     }
 
-    // --------------------------------------------------------- Protected Methods
-
     /**
-     * Check the connection associated with this store, if it's
-     * <code>null</code> or closed try to reopen it.
+     * Borrow a connection, waiting up to <code>connectionTimeout</code> if
+     * <code>maxConnections</code> connections are already in use. An idle
+     * connection is reused if possible, otherwise a new one is opened.
      * Returns <code>null</code> if the connection could not be established.
      *
-     * @return <code>Connection</code> if the connection suceeded
+     * @return <code>StoreConnection</code> if the connection suceeded
      */
-    protected Connection getConnection() {
+    protected StoreConnection getConnection() {
+        Semaphore permits = connectionPermits;
+        if (permits == null) {
+            return null;
+        }
+        try {
+            if (!permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreConnectionTimeout(connectionTimeout));
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        StoreConnection _conn = idleConnections.poll();
+        boolean borrowed = false;
         try {
-            if (dbConnection == null || dbConnection.isClosed()) {
+            if (_conn != null && _conn.connection.isClosed()) {
                 manager.getContainer().getLogger().info(MESSAGES.jdbcStoreConnectionWasClosed());
-                open();
-                if (dbConnection == null || dbConnection.isClosed()) {
+                _conn.close();
+                _conn = null;
+            }
+            if (_conn == null) {
+                Connection connection = open();
+                if (connection == null) {
                     manager.getContainer().getLogger().info(MESSAGES.jdbcStoreConnectionReopenFailed());
+                    return null;
                 }
+                _conn = new StoreConnection(connection);
             }
+            borrowed = true;
+            return _conn;
         } catch (SQLException ex) {
             manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), ex);
+            manager.getContainer().getLogger().info(MESSAGES.jdbcStoreConnectionReopenFailed());
+            return null;
+        } finally {
+            if (!borrowed) {
+                // The permit is only kept with a connection
+                permits.release();
+            }
         }
-
-        return dbConnection;
     }
 
     /**
-     * Open (if necessary) and return a database connection for use by
-     * this Realm.
+     * Open a new database connection, either from the DataSource or using
+     * the JDBC driver.
      *
      * @exception SQLException if a database error occurs
      */
     protected Connection open() throws SQLException {
 
-        // Do nothing if there is a database connection already open
-        if (dbConnection != null)
-            return (dbConnection);
-
-        // Instantiate our database driver if necessary
-        if (driver == null) {
-            try {
-                Class clazz = Class.forName(driverName);
-                driver = (Driver) clazz.newInstance();
-            } catch (ClassNotFoundException ex) {
-                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
-            } catch (InstantiationException ex) {
-                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
-            } catch (IllegalAccessException ex) {
-                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
+        Connection dbConnection = null;
+        if (dataSourceName != null) {
+            // Look up the DataSource if necessary
+            if (dataSource == null) {
+                try {
+                    Context context = new InitialContext();
+                    if (dataSourceName.startsWith("java:")) {
+                        dataSource = (DataSource) context.lookup(dataSourceName);
+                    } else {
+                        Context envContext = (Context) context.lookup("java:comp/env");
+                        dataSource = (DataSource) envContext.lookup(dataSourceName);
+                    }
+                } catch (NamingException e) {
+                    SQLException ex = new SQLException(MESSAGES.jdbcStoreDataSourceLookupFailed(dataSourceName));
+                    ex.initCause(e);
+                    throw ex;
+                }
+            }
+            dbConnection = dataSource.getConnection();
+        } else {
+            // Instantiate our database driver if necessary
+            if (driver == null) {
+                try {
+                    Class<?> clazz = Class.forName(driverName);
+                    driver = (Driver) clazz.newInstance();
+                } catch (ClassNotFoundException ex) {
+                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
+                } catch (InstantiationException ex) {
+                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
+                } catch (IllegalAccessException ex) {
+                    manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDriverFailure(driverName), ex);
+                }
             }
-        }
 
-        // Open a new connection
-        Properties props = new Properties();
-        if (connectionName != null)
-            props.put("user", connectionName);
-        if (connectionPassword != null)
-            props.put("password", connectionPassword);
-        dbConnection = driver.connect(connectionURL, props);
+            // Open a new connection
+            Properties props = new Properties();
+            if (connectionName != null)
+                props.put("user", connectionName);
+            if (connectionPassword != null)
+                props.put("password", connectionPassword);
+            dbConnection = driver.connect(connectionURL, props);
+        }
         dbConnection.setAutoCommit(true);
         return (dbConnection);
 
     }
 
     /**
-     * Close the specified database connection.
+     * Close the specified database connection, after an error.
      *
-     * @param dbConnection The connection to be closed
+     * @param _conn The connection to be closed
      */
-    protected void close(Connection dbConnection) {
+    protected void close(StoreConnection _conn) {
 
         // Do nothing if the database connection is already closed
-        if (dbConnection == null)
+        if (_conn == null)
             return;
 
-        // Close our prepared statements (if any)
-        try {
-            preparedSizeSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-        this.preparedSizeSql = null;
-
-        try {
-            preparedKeysSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-        this.preparedKeysSql = null;
-
-        try {
-            preparedSaveSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-        this.preparedSaveSql = null;
-
         try {
-            preparedClearSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-         
-		try {
-            preparedRemoveSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-        this.preparedRemoveSql = null;
-
-        try {
-            preparedLoadSql.close();
-        } catch (Throwable f) {
-            ;
-        }
-        this.preparedLoadSql = null;
-
-        // Close this database connection, and log any errors
-        try {
-            dbConnection.close();
+            _conn.close();
         } catch (SQLException e) {
             manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
         } finally {
-            this.dbConnection = null;
+            connectionPermits.release();
         }
 
     }
 
     /**
-     * Release the connection, not needed here since the
-     * connection is not associated with a connection pool.
+     * Release the connection. Connections opened with the JDBC driver are
+     * kept for reuse, while DataSource connections are closed so that they
+     * are returned to the DataSource pool.
      *
-     * @param conn The connection to be released
+     * @param _conn The connection to be released
      */
-    protected void release(Connection conn) {
-        ;
+    protected void release(StoreConnection _conn) {
+
+        if (_conn == null)
+            return;
+
+        if (dataSource == null && started) {
+            idleConnections.offer(_conn);
+        } else {
+            try {
+                _conn.close();
+            } catch (SQLException e) {
+                ;
+            }
+        }
+        connectionPermits.release();
+
     }
 
     /**
@@ -960,8 +1110,10 @@ public class JDBCStore
     public void start() throws LifecycleException {
         super.start();
 
-        // Open connection to the database
-        this.dbConnection = getConnection();
+        connectionPermits = new Semaphore(maxConnections > 0 ? maxConnections : 1);
+
+        // Open a connection to the database
+        release(getConnection());
     }
 
     /**
@@ -973,13 +1125,84 @@ public class JDBCStore
         super.stop();
 
         // Close and release everything associated with our db.
-        if (dbConnection != null) {
+        StoreConnection _conn = null;
+        while ((_conn = idleConnections.poll()) != null) {
             try {
-                dbConnection.commit();
+                _conn.close();
             } catch (SQLException e) {
+                manager.getContainer().getLogger().error(MESSAGES.jdbcStoreDatabaseError(), e);
+            }
+        }
+    }
+
+    // -------------------------------------------------- StoreConnection Inner Class
+
+    /**
+     * A database connection along with its prepared statements.
+     */
+    protected static class StoreConnection {
+
+        /**
+         * The database connection.
+         */
+        protected Connection connection;
+
+        /**
+         * Variable to hold the <code>getSize()</code> prepared statement.
+         */
+        protected PreparedStatement preparedSizeSql = null;
+
+        /**
+         * Variable to hold the <code>keys()</code> prepared statement.
+         */
+        protected PreparedStatement preparedKeysSql = null;
+
+        /**
+         * Variable to hold the <code>save()</code> prepared statement.
+         */
+        protected PreparedStatement preparedSaveSql = null;
+
+        /**
+         * Variable to hold the <code>clear()</code> prepared statement.
+         */
+        protected PreparedStatement preparedClearSql = null;
+
+        /**
+         * Variable to hold the <code>remove()</code> prepared statement.
+         */
+        protected PreparedStatement preparedRemoveSql = null;
+
+        /**
+         * Variable to hold the <code>load()</code> prepared statement.
+         */
+        protected PreparedStatement preparedLoadSql = null;
+
+        protected StoreConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Close the prepared statements and the connection.
+         */
+        protected void close() throws SQLException {
+            close(preparedSizeSql);
+            close(preparedKeysSql);
+            close(preparedSaveSql);
+            close(preparedClearSql);
+            close(preparedRemoveSql);
+            close(preparedLoadSql);
+            connection.close();
+        }
+
+        private static void close(PreparedStatement statement) {
+            if (statement == null)
+                return;
+            try {
+                statement.close();
+            } catch (Throwable f) {
                 ;
             }
-            close(dbConnection);
         }
+
     }
 }
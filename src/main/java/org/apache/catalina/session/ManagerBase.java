@@ -22,10 +22,12 @@ package org.apache.catalina.session;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
@@ -124,6 +126,11 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      */
     protected Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
 
+    /**
+     * The active Sessions, indexed by expiration time.
+     */
+    protected SessionExpirationIndex expirationIndex = new SessionExpirationIndex(1000L);
+
     // Number of sessions created by this manager
     protected int sessionCounter=0;
 
@@ -139,6 +146,16 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
      */
     protected long processingTime = 0;
 
+    /**
+     * Duration of the last session expiration sweep.
+     */
+    protected long sweepTime = 0;
+
+    /**
+     * Number of sessions checked during the last session expiration sweep.
+     */
+    protected int sweptSessions = 0;
+
     /**
      * Iteration count for background processing.
      */
@@ -326,6 +343,31 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void setProcessingTime(long processingTime) {
         this.processingTime = processingTime;
     }
+
+
+    /**
+     * Return the duration in ms of the last session expiration sweep.
+     */
+    public long getSweepTime() {
+        return sweepTime;
+    }
+
+
+    /**
+     * Return the number of sessions checked during the last session
+     * expiration sweep.
+     */
+    public int getSweptSessions() {
+        return sweptSessions;
+    }
+
+
+    /**
+     * Return the number of sessions in the expiration index.
+     */
+    public int getExpirationIndexSize() {
+        return expirationIndex.size();
+    }
     
     /**
      * Return the frequency of manager checks.
@@ -373,16 +415,10 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         
         if(CatalinaLogger.SESSION_LOGGER.isDebugEnabled())
-            CatalinaLogger.SESSION_LOGGER.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i] != null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            CatalinaLogger.SESSION_LOGGER.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(CatalinaLogger.SESSION_LOGGER.isDebugEnabled())
             CatalinaLogger.SESSION_LOGGER.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -390,6 +426,48 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
 
     }
 
+    /**
+     * Check the sessions which may have expired according to the expiration
+     * index, which expires them, and place the ones which are still valid
+     * back in the index.
+     *
+     * @param timeNow The current time
+     * @return the number of sessions which have expired
+     */
+    protected int expireSessions(long timeNow) {
+        List<Session> candidates = new ArrayList<Session>();
+        expirationIndex.poll(timeNow, candidates);
+        int expireHere = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            Session session = candidates.get(i);
+            if (!session.isValid()) {
+                expireHere++;
+            } else {
+                String id = session.getIdInternal();
+                if ((id != null) && (sessions.get(id) == session)) {
+                    expirationIndex.reschedule(session, timeNow);
+                }
+            }
+        }
+        sweptSessions = candidates.size();
+        sweepTime = System.currentTimeMillis() - timeNow;
+        return expireHere;
+    }
+
+
+    /**
+     * Update the position of the session in the expiration index, after
+     * its maximum inactive interval has changed.
+     *
+     * @param session The session
+     */
+    public void updateExpiration(Session session) {
+        String id = session.getIdInternal();
+        if ((id != null) && (sessions.get(id) == session)) {
+            expirationIndex.add(session);
+        }
+    }
+
     public void destroy() {
         if (org.apache.tomcat.util.Constants.ENABLE_MODELER) {
             if( oname != null )
@@ -437,6 +515,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void add(Session session) {
 
         sessions.put(session.getIdInternal(), session);
+        expirationIndex.add(session);
         int size = sessions.size();
         if( size > maxActive ) {
             maxActive = size;
@@ -550,6 +629,7 @@ public abstract class ManagerBase implements Manager, MBeanRegistration {
     public void remove(Session session) {
 
         sessions.remove(session.getIdInternal());
+        expirationIndex.remove(session);
 
     }
 
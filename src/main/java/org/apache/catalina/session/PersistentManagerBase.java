@@ -26,7 +26,9 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.catalina.Container;
@@ -543,16 +545,10 @@ public abstract class PersistentManagerBase
     public void processExpires() {
         
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         if(CatalinaLogger.SESSION_LOGGER.isDebugEnabled())
-            CatalinaLogger.SESSION_LOGGER.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (!sessions[i].isValid()) {
-                expiredSessions++;
-                expireHere++;
-            }
-        }
+            CatalinaLogger.SESSION_LOGGER.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireSessions(timeNow);
+        expiredSessions += expireHere;
         processPersistenceChecks();
         if ((getStore() != null) && (getStore() instanceof StoreBase)) {
             ((StoreBase) getStore()).processExpires();
@@ -645,6 +641,7 @@ public abstract class PersistentManagerBase
 
         // Initialize our internal data structures
         sessions.clear();
+        expirationIndex.clear();
 
         if (store == null)
             return;
@@ -898,6 +895,100 @@ public abstract class PersistentManagerBase
     }
 
 
+    /**
+     * Remove the sessions from the Manager's list of active sessions and
+     * write them out to the Store, in a single call when the Store supports
+     * it. Invalid sessions are skipped, as well as sessions which are
+     * accessed again while they are being written.
+     *
+     * @param sessions The Sessions to write out.
+     */
+    protected void swapOut(Session[] sessions) throws IOException {
+
+        if (store == null) {
+            return;
+        }
+
+        List<Session> passivated = new ArrayList<Session>();
+        Map<Session, Long> accessedTimes = new HashMap<Session, Long>();
+        for (int i = 0; i < sessions.length; i++) {
+            StandardSession session = (StandardSession) sessions[i];
+            synchronized (session) {
+                if (session.isValid()) {
+                    session.passivate();
+                    passivated.add(session);
+                    accessedTimes.put(session, 
+                            Long.valueOf(session.getThisAccessedTimeInternal()));
+                }
+            }
+        }
+
+        Session[] swapped = passivated.toArray(new Session[passivated.size()]);
+        try {
+            writeSessions(swapped);
+        } catch (IOException e) {
+            for (int i = 0; i < swapped.length; i++) {
+                ((StandardSession) swapped[i]).activate();
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < swapped.length; i++) {
+            StandardSession session = (StandardSession) swapped[i];
+            synchronized (session) {
+                if ((session.accessCount != null && session.accessCount.get() > 0)
+                        || session.getThisAccessedTimeInternal() 
+                            != accessedTimes.get(session).longValue()) {
+                    // Session was accessed in the meantime, and may have
+                    // been modified after it was written - keep it
+                    session.activate();
+                    continue;
+                }
+                super.remove(session);
+                session.recycle();
+            }
+        }
+
+    }
+
+
+    /**
+     * Write the provided sessions to the Store without modifying
+     * the copies in memory or triggering passivation events. Invalid
+     * sessions are skipped.
+     */
+    protected void writeSessions(Session[] sessions) throws IOException {
+
+        if (store == null) {
+            return;
+        }
+
+        if (!(store instanceof StoreBase) 
+                || SecurityUtil.isPackageProtectionEnabled()) {
+            for (int i = 0; i < sessions.length; i++) {
+                writeSession(sessions[i]);
+            }
+            return;
+        }
+
+        List<Session> valid = new ArrayList<Session>();
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i].isValid()) {
+                valid.add(sessions[i]);
+            }
+        }
+        try {
+            ((StoreBase) store).save(valid.toArray(new Session[valid.size()]));
+        } catch (IOException e) {
+            for (int i = 0; i < valid.size(); i++) {
+                CatalinaLogger.SESSION_LOGGER.persistentManagerStoreSaveError(valid.get(i).getIdInternal(), e);
+            }
+            throw e;
+        }
+
+    }
+
+
     // ------------------------------------------------------ Lifecycle Methods
 
 
@@ -1048,6 +1139,7 @@ public abstract class PersistentManagerBase
 
         // Swap out all sessions idle longer than maxIdleSwap
         if (maxIdleSwap >= 0) {
+            List<Session> toSwap = new ArrayList<Session>();
             for (int i = 0; i < sessions.length; i++) {
                 StandardSession session = (StandardSession) sessions[i];
                 synchronized (session) {
@@ -1062,14 +1154,15 @@ public abstract class PersistentManagerBase
                             continue;
                         }
                         CatalinaLogger.SESSION_LOGGER.sessionSwapOut(session.getIdInternal(), timeIdle);
-                        try {
-                            swapOut(session);
-                        } catch (IOException e) {
-                            ;   // This is logged in writeSession()
-                        }
+                        toSwap.add(session);
                     }
                 }
             }
+            try {
+                swapOut(toSwap.toArray(new Session[toSwap.size()]));
+            } catch (IOException e) {
+                ;   // This is logged in writeSessions()
+            }
         }
 
     }
@@ -1094,6 +1187,7 @@ public abstract class PersistentManagerBase
         int toswap = sessions.length - getMaxActiveSessions();
         long timeNow = System.currentTimeMillis();
 
+        List<Session> toSwap = new ArrayList<Session>();
         for (int i = 0; i < sessions.length && toswap > 0; i++) {
             StandardSession session =  (StandardSession) sessions[i];
             synchronized (session) {
@@ -1106,15 +1200,16 @@ public abstract class PersistentManagerBase
                         continue;
                     }
                     CatalinaLogger.SESSION_LOGGER.persistentManagerSwapIdleSession(session.getIdInternal(), timeIdle);
-                    try {
-                        swapOut(session);
-                    } catch (IOException e) {
-                        // This is logged in writeSession()
-                    }
+                    toSwap.add(session);
                     toswap--;
                 }
             }
         }
+        try {
+            swapOut(toSwap.toArray(new Session[toSwap.size()]));
+        } catch (IOException e) {
+            // This is logged in writeSessions()
+        }
 
     }
 
@@ -1132,6 +1227,7 @@ public abstract class PersistentManagerBase
 
         // Back up all sessions idle longer than maxIdleBackup
         if (maxIdleBackup >= 0) {
+            List<Session> toBackup = new ArrayList<Session>();
             for (int i = 0; i < sessions.length; i++) {
                 StandardSession session = (StandardSession) sessions[i];
                 synchronized (session) {
@@ -1141,14 +1237,15 @@ public abstract class PersistentManagerBase
                         (int) ((timeNow - session.getLastAccessedTime()) / 1000L);
                     if (timeIdle > maxIdleBackup) {
                         CatalinaLogger.SESSION_LOGGER.persistentManagerBackupSession(session.getIdInternal(), timeIdle);
-                        try {
-                            writeSession(session);
-                        } catch (IOException e) {
-                            ;   // This is logged in writeSession()
-                        }
+                        toBackup.add(session);
                     }
                 }
             }
+            try {
+                writeSessions(toBackup.toArray(new Session[toBackup.size()]));
+            } catch (IOException e) {
+                ;   // This is logged in writeSessions()
+            }
         }
 
     }
@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * Index of the sessions of a manager by expiration time, so that the
+ * background expiration only looks at the sessions which may have expired.
+ * <p>
+ * Sessions are placed in buckets covering a fixed amount of time, according
+ * to the earliest time at which they may expire. Accessing a session only
+ * pushes its expiration back, so the index does not need to be updated when
+ * sessions are accessed: a session found in an expired bucket which is still
+ * valid is placed again in the bucket matching its new expiration time. The
+ * index must only be updated when the expiration of a session may move
+ * earlier, that is when its maximum inactive interval changes.
+ */
+public class SessionExpirationIndex {
+
+
+    /**
+     * Time covered by a bucket in ms.
+     */
+    protected final long resolution;
+
+
+    /**
+     * Buckets, by slot number.
+     */
+    protected final ConcurrentSkipListMap<Long, Bucket> buckets =
+        new ConcurrentSkipListMap<Long, Bucket>();
+
+
+    /**
+     * Slot number of the bucket containing each session.
+     */
+    protected final ConcurrentMap<Session, Long> slots =
+        new ConcurrentHashMap<Session, Long>();
+
+
+    /**
+     * Create an index.
+     *
+     * @param resolution Time covered by a bucket in ms
+     */
+    public SessionExpirationIndex(long resolution) {
+        this.resolution = resolution;
+    }
+
+
+    /**
+     * Return the number of indexed sessions.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+
+    /**
+     * Add a session to the index, or move it according to its current
+     * expiration time. Sessions which never expire are not indexed.
+     *
+     * @param session The session
+     */
+    public void add(Session session) {
+        add(session, Long.MIN_VALUE);
+    }
+
+
+    /**
+     * Remove a session from the index.
+     *
+     * @param session The session
+     */
+    public void remove(Session session) {
+        Long slot = slots.remove(session);
+        if (slot != null) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null) {
+                bucket.sessions.remove(session);
+            }
+        }
+    }
+
+
+    /**
+     * Remove all sessions from the index.
+     */
+    public void clear() {
+        buckets.clear();
+        slots.clear();
+    }
+
+
+    /**
+     * Remove from the index all the sessions which may have expired at the
+     * given time.
+     *
+     * @param now The current time
+     * @param sessions The list to which the sessions are added
+     */
+    public void poll(long now, List<Session> sessions) {
+        long slot = now / resolution;
+        Map.Entry<Long, Bucket> entry = null;
+        while (((entry = buckets.firstEntry()) != null) 
+                && (entry.getKey().longValue() <= slot)) {
+            Bucket bucket = entry.getValue();
+            if (!buckets.remove(entry.getKey(), bucket)) {
+                continue;
+            }
+            // Sessions may not be added to the bucket anymore
+            synchronized (bucket) {
+                bucket.closed = true;
+            }
+            Iterator<Session> iterator = bucket.sessions.keySet().iterator();
+            while (iterator.hasNext()) {
+                Session session = iterator.next();
+                if (slots.remove(session, entry.getKey())) {
+                    sessions.add(session);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Place again in the index a session returned by {@link #poll} which is
+     * still valid, after the buckets which were polled.
+     *
+     * @param session The session
+     * @param now The time which was used to poll the index
+     */
+    public void reschedule(Session session, long now) {
+        add(session, now / resolution + 1);
+    }
+
+
+    protected void add(Session session, long minimumSlot) {
+        remove(session);
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            return;
+        }
+        // The access time of a standard session is an offset from its
+        // creation time
+        long accessedTime = (session instanceof StandardSession) 
+            ? ((StandardSession) session).getCreationTimeInternal()
+                + ((StandardSession) session).getThisAccessedTimeInternal()
+            : session.getLastAccessedTimeInternal();
+        long slot = (accessedTime + maxInactiveInterval * 1000L) / resolution;
+        Long key = Long.valueOf(Math.max(slot, minimumSlot));
+        while (true) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                Bucket newBucket = new Bucket();
+                bucket = buckets.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            synchronized (bucket) {
+                if (!bucket.closed) {
+                    bucket.sessions.put(session, Boolean.TRUE);
+                    slots.put(session, key);
+                    return;
+                }
+            }
+            // The bucket was polled in the meantime, use a new one
+        }
+    }
+
+
+    // -------------------------------------------------- Bucket Inner Class
+
+
+    protected static class Bucket {
+        protected final Map<Session, Boolean> sessions = 
+            new ConcurrentHashMap<Session, Boolean>();
+        protected boolean closed = false;
+    }
+
+
+}
@@ -341,6 +341,7 @@ public class StandardManager
     protected void doLoad() throws ClassNotFoundException, IOException {
         // Initialize our internal data structures
         sessions.clear();
+        expirationIndex.clear();
 
         // Open an input stream to the specified pathname, if any
         File file = file();
@@ -388,6 +389,7 @@ public class StandardManager
                     session.setManager(this);
                     if (session.isValidInternal()) {
                         sessions.put(session.getIdInternal(), session);
+                        expirationIndex.add(session);
                         session.activate();
                         sessionCounter++;
                     }
@@ -417,6 +417,14 @@ public class StandardSession
         return (this.thisAccessedTime);
     }
 
+    /**
+     * Return the time when this session was created, in milliseconds since
+     * midnight, January 1, 1970 GMT, without checking the session validity.
+     */
+    public long getCreationTimeInternal() {
+        return (this.creationTime);
+    }
+
     /**
      * Return the last time the client sent a request associated with this
      * session, as the number of milliseconds since midnight, January 1, 1970
@@ -484,7 +492,10 @@ public class StandardSession
     public void setMaxInactiveInterval(int interval) {
 
         this.maxInactiveInterval = interval;
-        
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).updateExpiration(this);
+        }
+
     }
 
 
@@ -27,6 +27,7 @@ import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
 import org.apache.catalina.Store;
 import org.apache.catalina.util.LifecycleSupport;
 
@@ -160,6 +161,20 @@ public abstract class StoreBase
         support.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Save several sessions to the Store, for example all the sessions
+     * backed up by one background check. The default implementation
+     * saves them one by one.
+     *
+     * @param sessions the sessions to be stored
+     * @exception IOException if an input/output error occurs
+     */
+    public void save(Session[] sessions) throws IOException {
+        for (int i = 0; i < sessions.length; i++) {
+            save(sessions[i]);
+        }
+    }
+
     // --------------------------------------------------------- Protected Methods
 
     /**
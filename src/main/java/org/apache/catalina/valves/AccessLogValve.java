@@ -23,15 +23,22 @@ import static org.jboss.web.CatalinaMessages.MESSAGES;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -110,6 +117,17 @@ import org.jboss.web.CatalinaLogger;
  * yields a non-null value. The logging will be skipped.
  * </p>
  *
+ * <p>
+ * When the <code>async</code> property is set, request threads only format
+ * the log entries and place them in a bounded queue, and a single background
+ * thread writes them to the log file in batches and takes care of log
+ * rotation. The <code>overflowPolicy</code> property defines what happens
+ * when the queue is full: <code>block</code> waits for space to become
+ * available, <code>drop</code> discards the entry and periodically logs a
+ * warning, and <code>count</code> discards the entry silently. In both
+ * cases discarded entries are counted in <code>droppedCount</code>.
+ * </p>
+ *
  * @author Craig R. McClanahan
  * @author Jason Brittain
  * @author Remy Maucherat
@@ -311,6 +329,79 @@ public class AccessLogValve
      */
     protected AccessLogElement[] logElements = null;
 
+
+    /**
+     * Overflow policies.
+     */
+    protected static final int OVERFLOW_BLOCK = 0;
+    protected static final int OVERFLOW_DROP = 1;
+    protected static final int OVERFLOW_COUNT = 2;
+
+
+    /**
+     * Maximum number of log entries written at once in async mode.
+     */
+    protected static final int MAX_BATCH = 256;
+
+
+    protected static final String LINE_SEPARATOR =
+        System.getProperty("line.separator");
+
+
+    /**
+     * Write the log entries from a background thread.
+     */
+    protected boolean async = false;
+
+
+    /**
+     * Capacity of the queue of log entries in async mode.
+     */
+    protected int queueSize = 8192;
+
+
+    /**
+     * What to do with log entries when the queue is full in async mode.
+     */
+    protected int overflowPolicy = OVERFLOW_BLOCK;
+
+
+    /**
+     * The channel of the current log file.
+     */
+    protected FileChannel channel = null;
+
+
+    /**
+     * Log entries waiting to be written in async mode.
+     */
+    protected volatile RecordRing ring = null;
+
+
+    /**
+     * Number of log entries discarded because the queue was full.
+     */
+    protected AtomicLong droppedCount = new AtomicLong();
+
+
+    /**
+     * Number of log entries written in async mode.
+     */
+    protected long writtenCount = 0;
+
+
+    /**
+     * Background writer thread.
+     */
+    private Thread writerThread = null;
+
+
+    /**
+     * Is the background writer thread running ?
+     */
+    private volatile boolean writerRunning = false;
+
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -526,6 +617,98 @@ public class AccessLogValve
         this.fileDateFormat =  fileDateFormat;
     }
 
+
+    /**
+     * Are log entries written from a background thread ?
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+
+    /**
+     * Set if log entries should be written from a background thread.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+
+    /**
+     * Return the capacity of the queue of log entries in async mode.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+
+    /**
+     * Set the capacity of the queue of log entries in async mode. It will
+     * be rounded up to a power of two.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * Return the policy used when the queue is full in async mode.
+     */
+    public String getOverflowPolicy() {
+        switch (overflowPolicy) {
+        case OVERFLOW_DROP:
+            return "drop";
+        case OVERFLOW_COUNT:
+            return "count";
+        default:
+            return "block";
+        }
+    }
+
+
+    /**
+     * Set the policy used when the queue is full in async mode.
+     *
+     * @param overflowPolicy block, drop or count
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        if ("block".equalsIgnoreCase(overflowPolicy)) {
+            this.overflowPolicy = OVERFLOW_BLOCK;
+        } else if ("drop".equalsIgnoreCase(overflowPolicy)) {
+            this.overflowPolicy = OVERFLOW_DROP;
+        } else if ("count".equalsIgnoreCase(overflowPolicy)) {
+            this.overflowPolicy = OVERFLOW_COUNT;
+        } else {
+            throw MESSAGES.unknownAccessLogOverflowPolicy(overflowPolicy);
+        }
+    }
+
+
+    /**
+     * Return the number of log entries waiting to be written.
+     */
+    public int getQueueDepth() {
+        RecordRing ring = this.ring;
+        return (ring == null) ? 0 : ring.size();
+    }
+
+
+    /**
+     * Return the number of log entries which were discarded because the
+     * queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+
+    /**
+     * Return the number of log entries written in async mode.
+     */
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -624,6 +807,7 @@ public class AccessLogValve
         writer.flush();
         writer.close();
         writer = null;
+        channel = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -636,6 +820,29 @@ public class AccessLogValve
      * @param message Message to be logged
      */
     public void log(String message) {
+        if (ring != null) {
+            enqueue(message);
+            return;
+        }
+
+        checkLogFile();
+
+        // Log this message
+        if (writer != null) {
+            writer.println(message);
+            if (!buffered) {
+                writer.flush();
+            }
+        }
+
+    }
+
+
+    /**
+     * Switch log files if the date has changed since the last check, or if
+     * the current log file has been removed.
+     */
+    protected void checkLogFile() {
         if (rotatable) {
             // Only do a logfile switch check once a second, max.
             long systime = System.currentTimeMillis();
@@ -679,15 +886,73 @@ public class AccessLogValve
                 }
             }
         }
+    }
 
-        // Log this message
-        if (writer != null) {
-            writer.println(message);
-            if (!buffered) {
-                writer.flush();
+
+    /**
+     * Place the specified message in the queue of the background writer
+     * thread, applying the overflow policy if the queue is full.
+     *
+     * @param message Message to be logged
+     */
+    protected void enqueue(String message) {
+        RecordRing ring = this.ring;
+        if (ring == null) {
+            return;
+        }
+        byte[] record = (message + LINE_SEPARATOR).getBytes();
+        if (!ring.offer(record)) {
+            if (overflowPolicy != OVERFLOW_BLOCK) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            while (!ring.offer(record)) {
+                if (!writerRunning) {
+                    droppedCount.incrementAndGet();
+                    return;
+                }
+                ring.signal();
+                LockSupport.parkNanos(100000L);
             }
         }
+        ring.signal();
+    }
+
 
+    /**
+     * Write a batch of log entries to the log file using a single gathering
+     * write, switching files if needed. Called by the background writer
+     * thread.
+     *
+     * @param records The log entries
+     * @param buffers Buffers array to use for the write
+     * @param count Number of log entries in the batch
+     */
+    protected void write(byte[][] records, ByteBuffer[] buffers, int count) {
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ByteBuffer.wrap(records[i]);
+            records[i] = null;
+        }
+        synchronized (this) {
+            checkLogFile();
+            if (channel != null) {
+                try {
+                    // Headers may have been written to the file by open()
+                    writer.flush();
+                    int offset = 0;
+                    while (offset < count) {
+                        channel.write(buffers, offset, count - offset);
+                        while ((offset < count) && !buffers[offset].hasRemaining()) {
+                            offset++;
+                        }
+                    }
+                    writtenCount += count;
+                } catch (IOException e) {
+                    CatalinaLogger.VALVES_LOGGER.errorWritingAccessLog(e);
+                }
+            }
+        }
+        Arrays.fill(buffers, 0, count, null);
     }
 
 
@@ -729,12 +994,15 @@ public class AccessLogValve
                 pathname = dir.getAbsolutePath() + File.separator + prefix
                         + suffix;
             }
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(
-                    pathname, true), 128000), false);
+            FileOutputStream stream = new FileOutputStream(pathname, true);
+            channel = stream.getChannel();
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    stream), 128000), false);
             
             currentLogFile = new File(pathname);
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
         }
     }
@@ -865,6 +1133,15 @@ public class AccessLogValve
         currentDate = new Date();
         dateStamp = fileDateFormatter.format(currentDate);
         open();
+
+        if (async) {
+            ring = new RecordRing(queueSize);
+            writerRunning = true;
+            writerThread = new Thread(new AsyncLogWriter(), 
+                    "AccessLogWriter-" + prefix + dateStamp);
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
     }
 
 
@@ -883,9 +1160,163 @@ public class AccessLogValve
             throw new LifecycleException(MESSAGES.valveNotStarted());
         lifecycle.fireLifecycleEvent(STOP_EVENT, null);
         started = false;
+
+        if (writerThread != null) {
+            // Let the writer thread write the remaining log entries
+            writerRunning = false;
+            ring.signal();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+            ring = null;
+        }
         
         close();
     }
+
+
+    // ------------------------------------------------ AsyncLogWriter Inner Class
+
+
+    /**
+     * Background thread which writes the queued log entries.
+     */
+    protected class AsyncLogWriter implements Runnable {
+
+        public void run() {
+            byte[][] records = new byte[MAX_BATCH][];
+            ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+            long reportedDroppedCount = 0;
+            while (true) {
+                int count = ring.drain(records);
+                if (count > 0) {
+                    write(records, buffers, count);
+                } else if (!writerRunning) {
+                    break;
+                } else {
+                    ring.await(1000000000L);
+                }
+                if (overflowPolicy == OVERFLOW_DROP) {
+                    long dropped = droppedCount.get();
+                    if (dropped > reportedDroppedCount) {
+                        CatalinaLogger.VALVES_LOGGER.droppedAccessLogEntries
+                            (dropped - reportedDroppedCount);
+                        reportedDroppedCount = dropped;
+                    }
+                }
+            }
+        }
+
+    }
+
+
+    // ---------------------------------------------------- RecordRing Inner Class
+
+
+    /**
+     * Bounded queue of log entries, which can be filled by many threads and
+     * is drained by a single thread. Each slot has a sequence number telling
+     * if it can be filled or drained for the current position, so that
+     * producers only contend on the tail position.
+     */
+    protected static class RecordRing {
+
+        private final byte[][] records;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private volatile Thread consumer = null;
+
+        public RecordRing(int capacity) {
+            int size = 2;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            records = new byte[size][];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            mask = size - 1;
+        }
+
+        /**
+         * Add a record, returning false if the queue is full.
+         */
+        public boolean offer(byte[] record) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        records[index] = record;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * Remove as many records as possible in the given array. Must only be
+         * called by the consumer thread.
+         */
+        public int drain(byte[][] batch) {
+            long position = head.get();
+            int count = 0;
+            while (count < batch.length) {
+                int index = (int) position & mask;
+                if (sequences.get(index) != position + 1) {
+                    break;
+                }
+                batch[count++] = records[index];
+                records[index] = null;
+                sequences.lazySet(index, position + records.length);
+                position++;
+            }
+            head.lazySet(position);
+            return count;
+        }
+
+        /**
+         * Wait until a record is added or the timeout expires. Must only be
+         * called by the consumer thread.
+         */
+        public void await(long nanos) {
+            consumer = Thread.currentThread();
+            long position = head.get();
+            if (sequences.get((int) position & mask) != position + 1) {
+                LockSupport.parkNanos(this, nanos);
+            }
+            consumer = null;
+        }
+
+        /**
+         * Wake up the consumer thread if it is waiting.
+         */
+        public void signal() {
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        public int size() {
+            long size = tail.get() - head.get();
+            return (int) Math.max(0, Math.min(size, records.length));
+        }
+
+    }
     
     /**
      * AccessLogElement writes the partial message into the buffer.
@@ -142,6 +142,7 @@ public final class Request {
     private int bytesRead=0;
     // Time of the request - usefull to avoid repeated calls to System.currentTime
     private long startTime = 0L;
+    private long startTimeNanos = 0L;
     private int available = 0;
     private boolean sendfile = false;
 
@@ -453,8 +454,18 @@ public final class Request {
         return startTime;
     }
 
+    /**
+     * Set the time the processing of the request started. The value of
+     * <code>System.nanoTime()</code> is recorded as well, to measure the
+     * latency of the request.
+     */
     public void setStartTime(long startTime) {
         this.startTime = startTime;
+        this.startTimeNanos = System.nanoTime();
+    }
+
+    public long getStartTimeNanos() {
+        return startTimeNanos;
     }
 
     // -------------------- Per-Request "notes" --------------------
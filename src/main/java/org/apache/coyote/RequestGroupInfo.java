@@ -17,146 +17,180 @@
 
 package org.apache.coyote;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.LatencyHistogram;
 
 /** This can be moved to top level ( eventually with a better name ).
  *  It is currently used only as a JMX artifact, to agregate the data
  *  collected from each RequestProcessor thread.
+ *
+ *  Each RequestInfo is only updated by the thread running its processor,
+ *  so they are used as the cells of striped counters: nothing is shared
+ *  while requests are processed, and the getters add up the cells. The
+ *  statistics of the processors which were removed are kept in atomic
+ *  counters.
  */
 public class RequestGroupInfo {
-    ArrayList processors=new ArrayList();
-    private long deadMaxTime = 0;
-    private long deadProcessingTime = 0;
-    private int deadRequestCount = 0;
-    private int deadErrorCount = 0;
-    private long deadBytesReceived = 0;
-    private long deadBytesSent = 0;
-
-    public synchronized void addRequestProcessor( RequestInfo rp ) {
+    private final Set<RequestInfo> processors =
+        Collections.newSetFromMap(new ConcurrentHashMap<RequestInfo, Boolean>());
+    private final AtomicLong deadMaxTime = new AtomicLong();
+    private final AtomicLong deadProcessingTime = new AtomicLong();
+    private final AtomicLong deadRequestCount = new AtomicLong();
+    private final AtomicLong deadErrorCount = new AtomicLong();
+    private final AtomicLong deadBytesReceived = new AtomicLong();
+    private final AtomicLong deadBytesSent = new AtomicLong();
+    private final LatencyHistogram deadLatencyHistogram = new LatencyHistogram();
+
+    public void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
     }
 
-    public synchronized void removeRequestProcessor( RequestInfo rp ) {
-        if( rp != null ) {
-            if( deadMaxTime < rp.getMaxTime() )
-                deadMaxTime = rp.getMaxTime();
-            deadProcessingTime += rp.getProcessingTime();
-            deadRequestCount += rp.getRequestCount();
-            deadErrorCount += rp.getErrorCount();
-            deadBytesReceived += rp.getBytesReceived();
-            deadBytesSent += rp.getBytesSent();
-
-            processors.remove( rp );
+    public void removeRequestProcessor( RequestInfo rp ) {
+        if( rp != null && processors.remove( rp ) ) {
+            long maxTime = rp.getMaxTime();
+            long deadMax = deadMaxTime.get();
+            while( deadMax < maxTime && !deadMaxTime.compareAndSet( deadMax, maxTime ) ) {
+                deadMax = deadMaxTime.get();
+            }
+            deadProcessingTime.addAndGet( rp.getProcessingTime() );
+            deadRequestCount.addAndGet( rp.getRequestCount() );
+            deadErrorCount.addAndGet( rp.getErrorCount() );
+            deadBytesReceived.addAndGet( rp.getBytesReceived() );
+            deadBytesSent.addAndGet( rp.getBytesSent() );
+            deadLatencyHistogram.add( rp.getLatencyHistogram() );
         }
     }
 
-    public synchronized  RequestInfo[] getRequestProcessors() {
-        return (RequestInfo[]) processors.toArray(new RequestInfo[0]);
+    public RequestInfo[] getRequestProcessors() {
+        return processors.toArray(new RequestInfo[0]);
     }
     
-    public synchronized long getMaxTime() {
-        long maxTime=deadMaxTime;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public long getMaxTime() {
+        long maxTime=deadMaxTime.get();
+        for( RequestInfo rp : processors ) {
             if( maxTime < rp.getMaxTime() ) maxTime=rp.getMaxTime();
         }
         return maxTime;
     }
 
     // Used to reset the times
-    public synchronized void setMaxTime(long maxTime) {
-        deadMaxTime = maxTime;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setMaxTime(long maxTime) {
+        deadMaxTime.set( maxTime );
+        for( RequestInfo rp : processors ) {
             rp.setMaxTime(maxTime);
         }
     }
 
-    public synchronized long getProcessingTime() {
-        long time=deadProcessingTime;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public long getProcessingTime() {
+        long time=deadProcessingTime.get();
+        for( RequestInfo rp : processors ) {
             time += rp.getProcessingTime();
         }
         return time;
     }
 
-    public synchronized void setProcessingTime(long totalTime) {
-        deadProcessingTime = totalTime;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setProcessingTime(long totalTime) {
+        deadProcessingTime.set( totalTime );
+        for( RequestInfo rp : processors ) {
             rp.setProcessingTime( totalTime );
         }
     }
 
-    public synchronized int getRequestCount() {
-        int requestCount=deadRequestCount;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public int getRequestCount() {
+        long requestCount=deadRequestCount.get();
+        for( RequestInfo rp : processors ) {
             requestCount += rp.getRequestCount();
         }
-        return requestCount;
+        return (int) requestCount;
     }
 
-    public synchronized void setRequestCount(int requestCount) {
-        deadRequestCount = requestCount;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setRequestCount(int requestCount) {
+        deadRequestCount.set( requestCount );
+        for( RequestInfo rp : processors ) {
             rp.setRequestCount( requestCount );
         }
     }
 
-    public synchronized int getErrorCount() {
-        int requestCount=deadErrorCount;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public int getErrorCount() {
+        long requestCount=deadErrorCount.get();
+        for( RequestInfo rp : processors ) {
             requestCount += rp.getErrorCount();
         }
-        return requestCount;
+        return (int) requestCount;
     }
 
-    public synchronized void setErrorCount(int errorCount) {
-        deadErrorCount = errorCount;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setErrorCount(int errorCount) {
+        deadErrorCount.set( errorCount );
+        for( RequestInfo rp : processors ) {
             rp.setErrorCount( errorCount);
         }
     }
 
-    public synchronized long getBytesReceived() {
-        long bytes=deadBytesReceived;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public long getBytesReceived() {
+        long bytes=deadBytesReceived.get();
+        for( RequestInfo rp : processors ) {
             bytes += rp.getBytesReceived();
         }
         return bytes;
     }
 
-    public synchronized void setBytesReceived(long bytesReceived) {
-        deadBytesReceived = bytesReceived;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setBytesReceived(long bytesReceived) {
+        deadBytesReceived.set( bytesReceived );
+        for( RequestInfo rp : processors ) {
             rp.setBytesReceived( bytesReceived );
         }
     }
 
-    public synchronized long getBytesSent() {
-        long bytes=deadBytesSent;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public long getBytesSent() {
+        long bytes=deadBytesSent.get();
+        for( RequestInfo rp : processors ) {
             bytes += rp.getBytesSent();
         }
         return bytes;
     }
 
-    public synchronized void setBytesSent(long bytesSent) {
-        deadBytesSent = bytesSent;
-        for( int i=0; i<processors.size(); i++ ) {
-            RequestInfo rp=(RequestInfo)processors.get( i );
+    public void setBytesSent(long bytesSent) {
+        deadBytesSent.set( bytesSent );
+        for( RequestInfo rp : processors ) {
             rp.setBytesSent( bytesSent );
         }
     }
 
+    // -------------------- Latency percentiles, in microseconds --------------------
+
+    public long getLatencyP50() {
+        return getLatency(50.0);
+    }
+
+    public long getLatencyP90() {
+        return getLatency(90.0);
+    }
+
+    public long getLatencyP99() {
+        return getLatency(99.0);
+    }
+
+    public long getLatencyP999() {
+        return getLatency(99.9);
+    }
+
+    /**
+     * @return the latency, in microseconds, below which the specified
+     *  percentage of the requests were processed
+     */
+    public long getLatency(double percentile) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add( deadLatencyHistogram );
+        for( RequestInfo rp : processors ) {
+            histogram.add( rp.getLatencyHistogram() );
+        }
+        return histogram.getValueAtPercentile( percentile );
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
@@ -164,5 +198,9 @@ public class RequestGroupInfo {
         this.setProcessingTime(0);
         this.setMaxTime(0);
         this.setErrorCount(0);
+        deadLatencyHistogram.reset();
+        for( RequestInfo rp : processors ) {
+            rp.getLatencyHistogram().reset();
+        }
     }
 }
@@ -19,6 +19,8 @@ package org.apache.coyote;
 
 import javax.management.ObjectName;
 
+import org.apache.tomcat.util.LatencyHistogram;
+
 
 /**
  * Structure holding the Request and Response objects. It also holds statistical
@@ -135,6 +137,9 @@ public class RequestInfo  {
     //the time of the last request
     private long lastRequestProcessingTime = 0;
 
+    // Latencies in microseconds, merged by the RequestGroupInfo
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
 
     /** Called by the processor before recycling the request. It'll collect
      * statistic information.
@@ -155,6 +160,12 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+        latencyHistogram.record((System.nanoTime() - req.getStartTimeNanos()) / 1000);
+    }
+
+    // Not public, so that it is not exposed as an MBean attribute
+    LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
     }
 
     public int getStage() {
@@ -65,7 +65,8 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	protected byte[] buf;
 
 	/**
-	 * Direct byte buffer used to perform actual reading.
+	 * Direct byte buffer used to perform actual reading, only set while a
+	 * read is in flight.
 	 */
 	protected ByteBuffer bbuf;
 
@@ -130,7 +131,6 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		lastActiveFilter = -1;
 		parsingHeader = true;
 		swallowInput = true;
-		bbuf = ByteBuffer.allocateDirect(headerBufferSize);
 	}
 
 	/**
@@ -1748,7 +1748,7 @@ public class Http11AprProcessor implements ActionHook {
         }
 
         // Add date header
-        headers.setValue("Date").setString(FastHttpDateFormat.getCurrentDate());
+        FastHttpDateFormat.getCurrentDate(headers.setValue("Date"));
 
         // FIXME: Add transfer encoding header
 
@@ -38,9 +38,13 @@ import org.apache.coyote.http11.filters.IdentityOutputFilter;
 import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
+import org.apache.coyote.http2.Http2Connection;
+import org.apache.coyote.http2.Http2Exception;
+import org.apache.coyote.http2.Http2Settings;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.codec.binary.Base64;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.NioChannel;
@@ -86,6 +90,18 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	protected NioEndpoint endpoint;
 
+	/**
+	 * Settings advertised to HTTP/2 clients, or <tt>null</tt> if the
+	 * connector does not accept HTTP/2.
+	 */
+	protected Http2Settings http2Settings = null;
+
+	/**
+	 * HTTP/2 connection which takes over the channel, after a connection
+	 * preface or an h2c upgrade was received.
+	 */
+	protected Http2Connection http2Connection = null;
+
 	/**
 	 * Create a new instance of {@code Http11NioProcessor}
 	 * 
@@ -145,6 +161,29 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
         return processing;
     }
 
+	/**
+	 * Setter for the HTTP/2 settings
+	 * 
+	 * @param http2Settings
+	 *            the settings advertised to HTTP/2 clients, or <tt>null</tt>
+	 *            to only accept HTTP/1.1
+	 */
+	public void setHttp2Settings(Http2Settings http2Settings) {
+		this.http2Settings = http2Settings;
+	}
+
+	/**
+	 * Remove the HTTP/2 connection the last call to
+	 * {@link #process(NioChannel)} switched the channel to.
+	 * 
+	 * @return the connection, which is not started yet, or <tt>null</tt>
+	 */
+	public Http2Connection removeHttp2Connection() {
+		Http2Connection result = http2Connection;
+		http2Connection = null;
+		return result;
+	}
+
 	/**
 	 * Add input or output filter.
 	 * 
@@ -331,6 +370,18 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				response.setStatus(400);
 				error = true;
 			}
+			// The start of the HTTP/2 connection preface reads as a request
+			if (!error && http2Settings != null && !sslEnabled
+					&& request.method().equals(org.apache.coyote.http2.Constants.PRI)
+					&& request.protocol().equals(org.apache.coyote.http2.Constants.HTTP_20)) {
+				http2Connection = new Http2Connection(endpoint, channel, adapter, http2Settings);
+				http2Connection.setServer(server);
+				byte[] input = inputBuffer.removeAvailable();
+				http2Connection.addInput(input, 0, input.length);
+				openChannel = true;
+				break;
+			}
+
 			// Setting up filters, and parse some request headers
 			rp.setStage(org.apache.coyote.Constants.STAGE_PREPARE);
 			try {
@@ -342,6 +393,11 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				error = true;
 			}
 
+			if (!error && http2Settings != null && !sslEnabled && http11 && upgradeHttp2()) {
+				openChannel = true;
+				break;
+			}
+
 			if (maxKeepAliveRequests > 0 && --keepAliveLeft == 0) {
 				keepAlive = false;
 			}
@@ -1051,6 +1107,40 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 	}
 
+	/**
+	 * Accept an h2c upgrade (RFC 7540, section 3.2) if the request asks for
+	 * one. Requests with a body are served over HTTP/1.1, as the body would
+	 * have to be read before switching.
+	 * 
+	 * @return <tt>true</tt> if the connection switches to HTTP/2
+	 */
+	protected boolean upgradeHttp2() {
+		MimeHeaders headers = request.getMimeHeaders();
+		MessageBytes upgradeMB = headers.getValue("upgrade");
+		MessageBytes connectionMB = headers.getValue("connection");
+		MessageBytes settingsMB = headers.getValue(org.apache.coyote.http2.Constants.HTTP2_SETTINGS);
+		if (upgradeMB == null || connectionMB == null || settingsMB == null
+				|| upgradeMB.indexOfIgnoreCase(org.apache.coyote.http2.Constants.H2C, 0) == -1
+				|| connectionMB.indexOfIgnoreCase("upgrade", 0) == -1) {
+			return false;
+		}
+		if (request.getContentLengthLong() > 0 || headers.getValue("transfer-encoding") != null) {
+			return false;
+		}
+		Http2Connection connection = new Http2Connection(endpoint, channel, adapter, http2Settings);
+		try {
+			connection.upgrade(request, Base64.decodeBase64(settingsMB.toString()));
+		} catch (Http2Exception e) {
+			// Invalid settings, ignore the upgrade
+			return false;
+		}
+		connection.setServer(server);
+		byte[] input = inputBuffer.removeAvailable();
+		connection.addInput(input, 0, input.length);
+		http2Connection = connection;
+		return true;
+	}
+
 	/**
 	 * Parse host.
 	 */
@@ -1218,7 +1308,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		}
 
 		// Add date header
-		headers.setValue("Date").setString(FastHttpDateFormat.getCurrentDate());
+		FastHttpDateFormat.getCurrentDate(headers.setValue("Date"));
 
 		// FIXME: Add transfer encoding header
 
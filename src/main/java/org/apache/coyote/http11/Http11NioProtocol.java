@@ -35,6 +35,8 @@ import javax.management.ObjectName;
 
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.http2.Http2Connection;
+import org.apache.coyote.http2.Http2Settings;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -56,6 +58,12 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	private Http11ConnectionHandler cHandler = new Http11ConnectionHandler(this);
 	protected NioJSSESocketChannelFactory socketFactory = null;
 
+	/**
+	 * Settings advertised to HTTP/2 clients, or <tt>null</tt> if the
+	 * connector only accepts HTTP/1.1.
+	 */
+	protected Http2Settings http2Settings = null;
+
 	/**
 	 * Create a new instance of {@code Http11NioProtocol}
 	 */
@@ -299,6 +307,36 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 		return this.endpoint.getMaxConnections();
 	}
 
+	/**
+	 * @param pollerTickTime
+	 *            the resolution of the keep-alive timeouts in milliseconds
+	 */
+	public void setPollerTickTime(int pollerTickTime) {
+		this.endpoint.setPollerTickTime(pollerTickTime);
+	}
+
+	/**
+	 * @return the resolution of the keep-alive timeouts in milliseconds
+	 */
+	public int getPollerTickTime() {
+		return this.endpoint.getPollerTickTime();
+	}
+
+	/**
+	 * @param pollerWheelSize
+	 *            the number of slots of the keep-alive timeout wheel
+	 */
+	public void setPollerWheelSize(int pollerWheelSize) {
+		this.endpoint.setPollerWheelSize(pollerWheelSize);
+	}
+
+	/**
+	 * @return the number of slots of the keep-alive timeout wheel
+	 */
+	public int getPollerWheelSize() {
+		return this.endpoint.getPollerWheelSize();
+	}
+
 	/**
 	 * @return the thread priority
 	 */
@@ -906,6 +944,13 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 
 				SocketState state = processor.process(channel);
 
+				Http2Connection http2Connection = processor.removeHttp2Connection();
+				if (http2Connection != null) {
+					// The channel now belongs to the HTTP/2 connection
+					http2Connection.setRequestGroupInfo(global);
+					http2Connection.start();
+				}
+
 				if (state == SocketState.LONG) {
 					// Associate the connection with the processor. The next
 					// request processed by this thread will use either a new or
@@ -966,6 +1011,7 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 			processor.setRestrictedUserAgents(proto.restrictedUserAgents);
 			processor.setMaxSavePostSize(proto.maxSavePostSize);
 			processor.setServer(proto.server);
+			processor.setHttp2Settings(proto.http2Settings);
 			register(processor);
 			return processor;
 		}
@@ -1590,7 +1590,7 @@ public class Http11Processor implements ActionHook {
         }
 
         // Add date header
-        headers.setValue("Date").setString(FastHttpDateFormat.getCurrentDate());
+        FastHttpDateFormat.getCurrentDate(headers.setValue("Date"));
 
         // FIXME: Add transfer encoding header
 
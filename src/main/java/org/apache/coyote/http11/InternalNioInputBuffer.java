@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -120,17 +121,21 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 			        bbuf.flip();
 			        bbuf.get(buf, pos, nBytes);
 			        lastValid = pos + nBytes;
+			        releaseBuffer(true);
 			        semaphore.release();
 			        if (!processor.isProcessing() && processor.getReadNotifications()) {
 			            if (!endpoint.processChannel(attachment, SocketStatus.OPEN_READ)) {
 			                endpoint.closeChannel(attachment);
 			            }
 			        }
+			    } else {
+			        releaseBuffer(true);
 			    }
 			}
 
 			@Override
 			public void failed(Throwable exc, NioChannel attachment) {
+			    releaseBuffer(!(exc instanceof InterruptedByTimeoutException));
 			    processor.getResponse().setErrorException(exc);
 			    endpoint.removeEventChannel(attachment);
                 semaphore.release();
@@ -184,7 +189,6 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	public void recycle() {
 		super.recycle();
-		bbuf.clear();
 		channel = null;
 		available = false;
 	}
@@ -396,6 +400,19 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 		return (lastValid - pos > 0);
 	}
 
+	/**
+	 * Remove the bytes which were read past the current position, so that
+	 * they can be handed over to the protocol the connection switches to.
+	 * 
+	 * @return the bytes
+	 */
+	public byte[] removeAvailable() {
+		byte[] result = new byte[lastValid - pos];
+		System.arraycopy(buf, pos, result, 0, result.length);
+		pos = lastValid;
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -427,6 +444,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
                 try {
                     channel.read(bbuf, readTimeout, TimeUnit.MILLISECONDS, channel, this.completionHandler);
                 } catch (Exception e) {
+                    releaseBuffer(true);
                     processor.getResponse().setErrorException(e);
                     if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
                         CoyoteLogger.HTTP_LOGGER.errorWithNonBlockingRead(e);
@@ -459,7 +477,10 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
                 }
                 bbuf.get(buf, pos, nRead);
                 lastValid = pos + nRead;
-            } else if (nRead == NioChannel.OP_STATUS_CLOSED) {
+            }
+            // A timed out read is still pending on the buffer
+            releaseBuffer(nRead != NioChannel.OP_STATUS_READ_TIMEOUT);
+            if (nRead == NioChannel.OP_STATUS_CLOSED) {
                 throw new EOFException(MESSAGES.failedRead());
             } else if (nRead == NioChannel.OP_STATUS_READ_TIMEOUT) {
                 throw new SocketTimeoutException(MESSAGES.failedRead());
@@ -472,7 +493,6 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 * Prepare the input buffer for reading
 	 */
 	private void prepare() {
-		bbuf.clear();
 		if (parsingHeader) {
 			if (lastValid == buf.length) {
 				throw MESSAGES.requestHeaderTooLarge();
@@ -481,6 +501,24 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 			pos = end;
 			lastValid = pos;
 		}
+		bbuf = endpoint.getBufferPool().borrow(buf.length);
+	}
+
+	/**
+	 * Give the read buffer back to the endpoint pool.
+	 * 
+	 * @param reusable
+	 *            <tt>false</tt> if a read may still be pending on the buffer
+	 */
+	private void releaseBuffer(boolean reusable) {
+		if (bbuf != null) {
+			if (reusable) {
+				endpoint.getBufferPool().release(bbuf);
+			} else {
+				endpoint.getBufferPool().discard(bbuf);
+			}
+			bbuf = null;
+		}
 	}
 
 	/**
@@ -506,6 +544,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 				close(channel);
 			}
 		} catch (Exception e) {
+			releaseBuffer(false);
 			if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
                 CoyoteLogger.HTTP_LOGGER.errorWithBlockingRead(e);
 			}
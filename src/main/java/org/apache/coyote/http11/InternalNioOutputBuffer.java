@@ -99,7 +99,8 @@ public class InternalNioOutputBuffer implements OutputBuffer {
     protected int lastActiveFilter;
 
     /**
-     * Direct byte buffer used for writing.
+     * Direct byte buffer used for writing, borrowed from the endpoint for the
+     * duration of a response.
      */
     protected ByteBuffer bbuf = null;
 
@@ -155,7 +156,6 @@ public class InternalNioOutputBuffer implements OutputBuffer {
         this.response = response;
         this.headers = response.getMimeHeaders();
         buf = new byte[headerBufferSize];
-        bbuf = ByteBuffer.allocateDirect(headerBufferSize);
 
         outputBuffer = new OutputBufferImpl();
         filterLibrary = new OutputFilter[0];
@@ -307,6 +307,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
 	public void sendAck() throws Exception {
 
 		if (!committed) {
+			this.borrowBuffer();
 			this.bbuf.clear();
 			this.bbuf.put(Constants.ACK_BYTES).flip();
 			if (this.write(writeTimeout, TimeUnit.MILLISECONDS) < 0) {
@@ -346,7 +347,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
 	protected void flushBuffer() throws IOException {
 		int res = 0;
 
-		if (!nonBlocking && bbuf.position() > 0) {
+		if (!nonBlocking && bbuf != null && bbuf.position() > 0) {
 			bbuf.flip();
 
 			while (bbuf.hasRemaining()) {
@@ -468,7 +469,31 @@ public class InternalNioOutputBuffer implements OutputBuffer {
      * 
      */
     protected void clearBuffer() {
-        this.bbuf.clear();
+        if (this.bbuf != null) {
+            this.bbuf.clear();
+        }
+    }
+
+    /**
+     * Borrow the direct buffer from the endpoint, if not done yet for the
+     * current response.
+     */
+    protected void borrowBuffer() {
+        if (this.bbuf == null) {
+            this.bbuf = endpoint.getBufferPool().borrow(buf.length);
+            this.bbuf.clear();
+        }
+    }
+
+    /**
+     * Give the direct buffer back to the endpoint, so that idle connections
+     * do not hold one. It is kept if a non blocking write is still using it.
+     */
+    protected void releaseBuffer() {
+        if (this.bbuf != null && (!nonBlocking || semaphore.availablePermits() > 0)) {
+            endpoint.getBufferPool().release(this.bbuf);
+            this.bbuf = null;
+        }
     }
 
     /**
@@ -478,7 +503,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
         channel = null;
         // Recycle Request object
         response.recycle();
-        this.clearBuffer();
+        this.releaseBuffer();
         pos = 0;
         lastActiveFilter = -1;
         committed = false;
@@ -510,6 +535,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
         lastActiveFilter = -1;
         committed = false;
         finished = false;
+        releaseBuffer();
         if (nonBlocking) {
             semaphore.release();
         }
@@ -663,6 +689,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
 
         if (pos > 0) {
             // Sending the response header buffer
+            borrowBuffer();
             bbuf.put(buf, 0, pos);
         }
     }
@@ -822,6 +849,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
                         response.setLastWrite(0);
                     }
                     if (semaphore.tryAcquire()) {
+                        borrowBuffer();
                         // Calculate the number of bytes that fit in the buffer
                         int n = Math.min(leftover.getLength(), bbuf.capacity() - bbuf.position());
                         bbuf.put(leftover.getBuffer(), leftover.getOffset(), n).flip();
@@ -837,6 +865,7 @@ public class InternalNioOutputBuffer implements OutputBuffer {
                     }
                 }
             } else {
+                borrowBuffer();
                 int len = chunk.getLength();
                 int start = chunk.getStart();
                 byte[] b = chunk.getBuffer();
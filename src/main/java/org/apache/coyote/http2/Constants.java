@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+
+/**
+ * HTTP/2 protocol constants (RFC 7540).
+ */
+public final class Constants {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    /**
+     * Package name.
+     */
+    public static final String Package = "org.apache.coyote.http2";
+
+    public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+    public static final int DEFAULT_MAX_HEADER_LIST_SIZE = 8192;
+
+    public static final int MAX_FRAME_SIZE = 16777215;
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+
+    /**
+     * Client connection preface.
+     */
+    public static final byte[] PREFACE =
+        ByteChunk.convertToBytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    /**
+     * Length of the part of the preface which an HTTP/1.1 parser reads as a
+     * request line followed by an empty header block.
+     */
+    public static final int PREFACE_REQUEST_LINE_LENGTH = 18;
+
+    public static final String PRI = "PRI";
+    public static final String HTTP_20 = "HTTP/2.0";
+    public static final String H2C = "h2c";
+    public static final String HTTP2_SETTINGS = "HTTP2-Settings";
+
+
+    /**
+     * Upgrade response, sent as is before the server connection preface.
+     */
+    public static final byte[] SWITCHING_PROTOCOLS_BYTES =
+        ByteChunk.convertToBytes("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n");
+
+
+    // ----------------------------------------------------------------- Frames
+
+
+    public static final int FRAME_HEADER_LENGTH = 9;
+
+    public static final int FRAME_DATA = 0x0;
+    public static final int FRAME_HEADERS = 0x1;
+    public static final int FRAME_PRIORITY = 0x2;
+    public static final int FRAME_RST_STREAM = 0x3;
+    public static final int FRAME_SETTINGS = 0x4;
+    public static final int FRAME_PUSH_PROMISE = 0x5;
+    public static final int FRAME_PING = 0x6;
+    public static final int FRAME_GOAWAY = 0x7;
+    public static final int FRAME_WINDOW_UPDATE = 0x8;
+    public static final int FRAME_CONTINUATION = 0x9;
+
+    public static final int FLAG_END_STREAM = 0x1;
+    public static final int FLAG_ACK = 0x1;
+    public static final int FLAG_END_HEADERS = 0x4;
+    public static final int FLAG_PADDED = 0x8;
+    public static final int FLAG_PRIORITY = 0x20;
+
+
+    // --------------------------------------------------------------- Settings
+
+
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+
+    // ------------------------------------------------------------ Error codes
+
+
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int SETTINGS_TIMEOUT = 0x4;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+    public static final int CONNECT_ERROR = 0xa;
+    public static final int ENHANCE_YOUR_CALM = 0xb;
+    public static final int INADEQUATE_SECURITY = 0xc;
+    public static final int HTTP_1_1_REQUIRED = 0xd;
+
+
+}
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+/**
+ * HPACK header block decoder (RFC 7541). The dynamic table is bounded by
+ * the header table size the decoder advertised, and the peer may only
+ * shrink it further through dynamic table size updates.
+ */
+public class HpackDecoder {
+
+
+    /**
+     * Receiver of the decoded header fields.
+     */
+    public interface HeaderEmitter {
+
+        /**
+         * @param name Lower case header name
+         * @param value Header value
+         */
+        void emitHeader(String name, String value) throws Http2Exception;
+
+    }
+
+
+    private final HpackTable table;
+    private final int maxTableSize;
+    private final StringBuilder sb = new StringBuilder();
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+
+
+    /**
+     * @param maxTableSize The value of SETTINGS_HEADER_TABLE_SIZE sent to
+     *        the peer
+     */
+    public HpackDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        this.table = new HpackTable(maxTableSize, false);
+    }
+
+
+    /**
+     * @return the current size of the dynamic table in octets
+     */
+    public int getTableSize() {
+        return table.getSize();
+    }
+
+
+    /**
+     * Decode a complete header block. Any error is a connection error, as
+     * the state of the dynamic table can no longer be trusted.
+     *
+     * @param buf Bytes
+     * @param off Start of the header block
+     * @param len Length of the header block
+     * @param emitter Receiver of the header fields
+     */
+    public void decode(byte[] buf, int off, int len, HeaderEmitter emitter)
+        throws Http2Exception {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+        boolean first = true;
+        try {
+            while (pos < end) {
+                int b = buf[pos] & 0xff;
+                if ((b & 0x80) != 0) {
+                    // Indexed header field
+                    int index = readInteger(7);
+                    String name = table.getName(index);
+                    if (name == null) {
+                        throw new Http2Exception(0, Constants.COMPRESSION_ERROR,
+                                MESSAGES.http2InvalidHeaderIndex(index));
+                    }
+                    emitter.emitHeader(name, table.getValue(index));
+                } else if ((b & 0x40) != 0) {
+                    // Literal header field with incremental indexing
+                    String name = readName(6);
+                    String value = readString();
+                    table.add(name, value);
+                    emitter.emitHeader(name, value);
+                } else if ((b & 0x20) != 0) {
+                    // Dynamic table size update, only allowed first
+                    if (!first) {
+                        throw error();
+                    }
+                    int size = readInteger(5);
+                    if (size > maxTableSize) {
+                        throw error();
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // Literal header field without indexing, or never indexed
+                    String name = readName(4);
+                    String value = readString();
+                    emitter.emitHeader(name, value);
+                }
+                first = false;
+            }
+        } finally {
+            this.buf = null;
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Read an integer with an N bit prefix (RFC 7541, section 5.1).
+     */
+    private int readInteger(int prefix) throws Http2Exception {
+        int mask = (1 << prefix) - 1;
+        int value = buf[pos++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (pos >= end || shift > 21) {
+                throw error();
+            }
+            int b = buf[pos++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+
+    private String readName(int prefix) throws Http2Exception {
+        int index = readInteger(prefix);
+        if (index == 0) {
+            return readString();
+        }
+        String name = table.getName(index);
+        if (name == null) {
+            throw new Http2Exception(0, Constants.COMPRESSION_ERROR,
+                    MESSAGES.http2InvalidHeaderIndex(index));
+        }
+        return name;
+    }
+
+
+    private String readString() throws Http2Exception {
+        if (pos >= end) {
+            throw error();
+        }
+        boolean huffman = (buf[pos] & 0x80) != 0;
+        int length = readInteger(7);
+        if (length > end - pos) {
+            throw error();
+        }
+        sb.setLength(0);
+        if (huffman) {
+            HpackHuffman.decode(buf, pos, length, sb);
+        } else {
+            for (int i = pos; i < pos + length; i++) {
+                sb.append((char) (buf[i] & 0xff));
+            }
+        }
+        pos += length;
+        return sb.toString();
+    }
+
+
+    private static Http2Exception error() {
+        return new Http2Exception(0, Constants.COMPRESSION_ERROR,
+                MESSAGES.http2InvalidHeaderBlock());
+    }
+
+
+}
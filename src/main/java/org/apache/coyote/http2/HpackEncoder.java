@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * HPACK header block encoder (RFC 7541). Fields are looked up in the static
+ * and dynamic tables, literals are Huffman coded whenever that is shorter,
+ * and the dynamic table is bounded by the smaller of the peer's
+ * SETTINGS_HEADER_TABLE_SIZE and a local limit. Headers which change with
+ * nearly every response are not indexed, so that they do not evict entries
+ * which are worth keeping, and credentials are never indexed.
+ */
+public class HpackEncoder {
+
+
+    private final HpackTable table;
+    private final int maxTableSize;
+
+    /**
+     * Smallest table size since the last header block, or -1.
+     */
+    private int minSizeUpdate = -1;
+
+    /**
+     * Whether the table size must be signaled at the start of the next
+     * header block.
+     */
+    private boolean sizeUpdate = false;
+
+
+    /**
+     * @param maxTableSize Local limit for the size of the dynamic table
+     */
+    public HpackEncoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        table = new HpackTable(Constants.DEFAULT_HEADER_TABLE_SIZE, true);
+        setPeerTableSize(Constants.DEFAULT_HEADER_TABLE_SIZE);
+    }
+
+
+    /**
+     * @return the current size of the dynamic table in octets
+     */
+    public int getTableSize() {
+        return table.getSize();
+    }
+
+
+    /**
+     * Apply the SETTINGS_HEADER_TABLE_SIZE received from the peer.
+     */
+    public void setPeerTableSize(int size) {
+        int newSize = Math.min(size, maxTableSize);
+        if (newSize != table.getMaxSize()) {
+            table.setMaxSize(newSize);
+            if (minSizeUpdate == -1 || newSize < minSizeUpdate) {
+                minSizeUpdate = newSize;
+            }
+            sizeUpdate = true;
+        }
+    }
+
+
+    /**
+     * Start a new header block, signaling any table size change.
+     */
+    public void startBlock(ByteChunk out) throws IOException {
+        if (sizeUpdate) {
+            if (minSizeUpdate < table.getMaxSize()) {
+                writeInteger(out, 0x20, 5, minSizeUpdate);
+            }
+            writeInteger(out, 0x20, 5, table.getMaxSize());
+            sizeUpdate = false;
+            minSizeUpdate = -1;
+        }
+    }
+
+
+    /**
+     * Encode a header field.
+     *
+     * @param name Lower case header name
+     * @param value Header value
+     * @param out The header block
+     */
+    public void encodeHeader(String name, String value, ByteChunk out)
+        throws IOException {
+        boolean neverIndex = isSensitive(name);
+        if (!neverIndex) {
+            int index = table.find(name, value);
+            if (index > 0) {
+                writeInteger(out, 0x80, 7, index);
+                return;
+            }
+        }
+        int nameIndex = table.findName(name);
+        if (neverIndex) {
+            writeInteger(out, 0x10, 4, Math.max(nameIndex, 0));
+        } else if (isVolatile(name)) {
+            writeInteger(out, 0x00, 4, Math.max(nameIndex, 0));
+        } else {
+            writeInteger(out, 0x40, 6, Math.max(nameIndex, 0));
+            table.add(name, value);
+        }
+        if (nameIndex <= 0) {
+            writeString(name, out);
+        }
+        writeString(value, out);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static boolean isSensitive(String name) {
+        return name.equals("set-cookie") || name.equals("cookie")
+            || name.equals("authorization")
+            || name.equals("proxy-authorization");
+    }
+
+
+    private static boolean isVolatile(String name) {
+        return name.equals("content-length") || name.equals("etag")
+            || name.equals("last-modified") || name.equals("location")
+            || name.equals("content-range") || name.equals("age")
+            || name.equals(":path");
+    }
+
+
+    /**
+     * Write an integer with an N bit prefix (RFC 7541, section 5.1).
+     */
+    static void writeInteger(ByteChunk out, int pattern, int prefix, int value)
+        throws IOException {
+        int mask = (1 << prefix) - 1;
+        if (value < mask) {
+            out.append((byte) (pattern | value));
+            return;
+        }
+        out.append((byte) (pattern | mask));
+        value -= mask;
+        while (value >= 0x80) {
+            out.append((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.append((byte) value);
+    }
+
+
+    static void writeString(String value, ByteChunk out) throws IOException {
+        int huffmanLength = HpackHuffman.encodedLength(value);
+        if (huffmanLength < value.length()) {
+            writeInteger(out, 0x80, 7, huffmanLength);
+            HpackHuffman.encode(value, out);
+        } else {
+            writeInteger(out, 0x00, 7, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.append((byte) value.charAt(i));
+            }
+        }
+    }
+
+
+}
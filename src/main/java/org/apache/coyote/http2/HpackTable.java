@@ -0,0 +1,371 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK header table (RFC 7541, section 2.3): the static table followed by
+ * a dynamic table bounded by its size in octets, where the size of an entry
+ * is the length of its name and value plus 32. The dynamic table is a ring
+ * of entries, the most recent one having the lowest index.
+ */
+final class HpackTable {
+
+    static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC_TABLE = {
+        { ":authority", "" },
+        { ":method", "GET" },
+        { ":method", "POST" },
+        { ":path", "/" },
+        { ":path", "/index.html" },
+        { ":scheme", "http" },
+        { ":scheme", "https" },
+        { ":status", "200" },
+        { ":status", "204" },
+        { ":status", "206" },
+        { ":status", "304" },
+        { ":status", "400" },
+        { ":status", "404" },
+        { ":status", "500" },
+        { "accept-charset", "" },
+        { "accept-encoding", "gzip, deflate" },
+        { "accept-language", "" },
+        { "accept-ranges", "" },
+        { "accept", "" },
+        { "access-control-allow-origin", "" },
+        { "age", "" },
+        { "allow", "" },
+        { "authorization", "" },
+        { "cache-control", "" },
+        { "content-disposition", "" },
+        { "content-encoding", "" },
+        { "content-language", "" },
+        { "content-length", "" },
+        { "content-location", "" },
+        { "content-range", "" },
+        { "content-type", "" },
+        { "cookie", "" },
+        { "date", "" },
+        { "etag", "" },
+        { "expect", "" },
+        { "expires", "" },
+        { "from", "" },
+        { "host", "" },
+        { "if-match", "" },
+        { "if-modified-since", "" },
+        { "if-none-match", "" },
+        { "if-range", "" },
+        { "if-unmodified-since", "" },
+        { "last-modified", "" },
+        { "link", "" },
+        { "location", "" },
+        { "max-forwards", "" },
+        { "proxy-authenticate", "" },
+        { "proxy-authorization", "" },
+        { "range", "" },
+        { "referer", "" },
+        { "refresh", "" },
+        { "retry-after", "" },
+        { "server", "" },
+        { "set-cookie", "" },
+        { "strict-transport-security", "" },
+        { "transfer-encoding", "" },
+        { "user-agent", "" },
+        { "vary", "" },
+        { "via", "" },
+        { "www-authenticate", "" }
+    };
+
+    static final int STATIC_LENGTH = STATIC_TABLE.length;
+
+    /**
+     * Lowest static index of each name.
+     */
+    private static final Map<String, Integer> STATIC_NAMES =
+        new HashMap<String, Integer>();
+
+    /**
+     * Static index of each name and value pair with a non empty value.
+     */
+    private static final Map<String, Integer> STATIC_ENTRIES =
+        new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_LENGTH - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], Integer.valueOf(i + 1));
+            if (STATIC_TABLE[i][1].length() > 0) {
+                STATIC_ENTRIES.put(key(STATIC_TABLE[i][0], STATIC_TABLE[i][1]),
+                        Integer.valueOf(i + 1));
+            }
+        }
+    }
+
+
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+
+    /**
+     * Position of the oldest entry in the ring.
+     */
+    private int first = 0;
+
+    /**
+     * Number of entries.
+     */
+    private int count = 0;
+
+    /**
+     * Current size in octets.
+     */
+    private int size = 0;
+
+    /**
+     * Maximum size in octets.
+     */
+    private int maxSize;
+
+    /**
+     * Number of entries ever inserted. The insertion number of each entry
+     * never changes, so that the lookup maps do not need updating when
+     * entries are added and evicted.
+     */
+    private long inserted = 0;
+
+    /**
+     * Insertion number of the most recent entry with each name and value,
+     * only maintained when the table is used for encoding.
+     */
+    private final Map<String, Long> entries;
+
+    /**
+     * Insertion number of the most recent entry with each name, only
+     * maintained when the table is used for encoding.
+     */
+    private final Map<String, Long> entryNames;
+
+
+    /**
+     * @param maxSize Maximum size of the dynamic table in octets
+     * @param lookup Maintain the reverse lookup maps used by the encoder
+     */
+    HpackTable(int maxSize, boolean lookup) {
+        this.maxSize = maxSize;
+        if (lookup) {
+            entries = new HashMap<String, Long>();
+            entryNames = new HashMap<String, Long>();
+        } else {
+            entries = null;
+            entryNames = null;
+        }
+    }
+
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+
+    int getSize() {
+        return size;
+    }
+
+
+    int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Change the maximum size, evicting entries as needed.
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+
+    /**
+     * @param index Index in the combined address space, starting at 1
+     * @return the name, or <code>null</code> if the index is out of range
+     */
+    String getName(int index) {
+        if (index <= 0) {
+            return null;
+        } else if (index <= STATIC_LENGTH) {
+            return STATIC_TABLE[index - 1][0];
+        } else if (index - STATIC_LENGTH <= count) {
+            return names[slot(index)];
+        }
+        return null;
+    }
+
+
+    /**
+     * @param index Index in the combined address space, starting at 1
+     * @return the value, or <code>null</code> if the index is out of range
+     */
+    String getValue(int index) {
+        if (index <= 0) {
+            return null;
+        } else if (index <= STATIC_LENGTH) {
+            return STATIC_TABLE[index - 1][1];
+        } else if (index - STATIC_LENGTH <= count) {
+            return values[slot(index)];
+        }
+        return null;
+    }
+
+
+    /**
+     * Add an entry, evicting older entries as needed. An entry larger than
+     * the maximum size empties the table.
+     */
+    void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        if (entrySize > maxSize) {
+            evict(maxSize + 1);
+            return;
+        }
+        evict(entrySize);
+        if (count == names.length) {
+            String[] newNames = new String[count * 2];
+            String[] newValues = new String[count * 2];
+            for (int i = 0; i < count; i++) {
+                newNames[i] = names[(first + i) % count];
+                newValues[i] = values[(first + i) % count];
+            }
+            names = newNames;
+            values = newValues;
+            first = 0;
+        }
+        int pos = (first + count) % names.length;
+        names[pos] = name;
+        values[pos] = value;
+        count++;
+        size += entrySize;
+        if (entries != null) {
+            Long insertion = Long.valueOf(inserted);
+            entries.put(key(name, value), insertion);
+            entryNames.put(name, insertion);
+        }
+        inserted++;
+    }
+
+
+    /**
+     * Find an entry with the given name and value.
+     *
+     * @return the index of the entry, or <code>-1</code>
+     */
+    int find(String name, String value) {
+        Integer index = STATIC_ENTRIES.get(key(name, value));
+        if (index != null) {
+            return index.intValue();
+        }
+        if (entries != null) {
+            return index(entries.get(key(name, value)));
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find an entry with the given name.
+     *
+     * @return the index of the entry, or <code>-1</code>
+     */
+    int findName(String name) {
+        Integer index = STATIC_NAMES.get(name);
+        if (index != null) {
+            return index.intValue();
+        }
+        if (entryNames != null) {
+            return index(entryNames.get(name));
+        }
+        return -1;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static String key(String name, String value) {
+        return name + '\u0000' + value;
+    }
+
+
+    private int slot(int index) {
+        // The most recent entry is at STATIC_LENGTH + 1
+        return (first + count - (index - STATIC_LENGTH)) % names.length;
+    }
+
+
+    /**
+     * @return the current index of the entry with the given insertion
+     *         number, or <code>-1</code> if it has been evicted
+     */
+    private int index(Long insertion) {
+        if (insertion == null) {
+            return -1;
+        }
+        long age = inserted - insertion.longValue();
+        if (age > count) {
+            return -1;
+        }
+        return STATIC_LENGTH + (int) age;
+    }
+
+
+    /**
+     * Evict the oldest entries until there is room for the given size.
+     */
+    private void evict(int room) {
+        while (count > 0 && size + room > maxSize) {
+            String name = names[first];
+            String value = values[first];
+            size -= entrySize(name, value);
+            if (entries != null) {
+                long insertion = inserted - count;
+                String key = key(name, value);
+                Long last = entries.get(key);
+                if (last != null && last.longValue() == insertion) {
+                    entries.remove(key);
+                }
+                last = entryNames.get(name);
+                if (last != null && last.longValue() == insertion) {
+                    entryNames.remove(name);
+                }
+            }
+            names[first] = null;
+            values[first] = null;
+            first = (first + 1) % names.length;
+            count--;
+        }
+    }
+
+
+}
@@ -0,0 +1,1096 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.RequestGroupInfo;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * An HTTP/2 connection (RFC 7540) on a channel of the NIO.2 endpoint.
+ * <p>
+ * The connection is handed over by the HTTP/1.1 processor once it has read
+ * the start of the client connection preface, or once it has accepted an
+ * h2c upgrade. From then on, reads are asynchronous: each completed read is
+ * decoded by a task on the endpoint executor, which issues the next read
+ * when it is done, so frames are always decoded by a single thread at a
+ * time. Each stream is serviced by an {@link Http2Processor} running on the
+ * endpoint executor, and writes are serialized through a lock, so that the
+ * HPACK encoder sees header blocks in the order they are sent.
+ * </p>
+ */
+public class Http2Connection implements Runnable {
+
+
+    protected final NioEndpoint endpoint;
+    protected final NioChannel channel;
+    protected final Adapter adapter;
+    protected final Http2Settings localSettings;
+    protected final Http2Settings remoteSettings = new Http2Settings();
+    protected String server = null;
+    protected RequestGroupInfo global = null;
+
+    protected final ConcurrentHashMap<Integer, Http2Stream> streams =
+        new ConcurrentHashMap<Integer, Http2Stream>();
+    protected final ConcurrentLinkedQueue<Http2Processor> recycledProcessors =
+        new ConcurrentLinkedQueue<Http2Processor>();
+
+    protected volatile boolean closed = false;
+    protected volatile boolean goAwayReceived = false;
+    protected volatile boolean goAwaySent = false;
+
+    protected InetSocketAddress remoteAddress = null;
+    protected InetSocketAddress localAddress = null;
+
+    // ---------------------------------------- Read side, decoding thread only
+
+    private final HpackDecoder decoder;
+    private final ByteBuffer readBuffer;
+    private final CompletionHandler<Integer, Http2Connection> readHandler;
+
+    /**
+     * Number of bytes of the client preface which have been checked.
+     */
+    private int prefaceRead = Constants.PREFACE_REQUEST_LINE_LENGTH;
+    private boolean settingsReceived = false;
+
+    /**
+     * Highest stream id opened by the client.
+     */
+    private int lastStreamId = 0;
+
+    /**
+     * Stream whose header block is being continued, or 0.
+     */
+    private int continuationStreamId = 0;
+    private int continuationFlags = 0;
+    private final ByteChunk headerBlock = new ByteChunk();
+
+    /**
+     * Stream opened through an h2c upgrade, dispatched on start.
+     */
+    private Http2Stream upgradeStream = null;
+
+    /**
+     * Connection receive window, and the bytes read since the last
+     * WINDOW_UPDATE on the connection.
+     */
+    private final AtomicInteger receiveWindow = new AtomicInteger(Constants.DEFAULT_INITIAL_WINDOW_SIZE);
+    private final AtomicInteger consumed = new AtomicInteger(0);
+
+    // -------------------------------------------- Write side, under writeLock
+
+    private final Object writeLock = new Object();
+    private final HpackEncoder encoder;
+    private final ByteBuffer writeBuffer;
+    private final ByteChunk headerBuffer = new ByteChunk();
+
+    /**
+     * Connection send window, guarded by the connection.
+     */
+    private long sendWindow = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+
+
+    public Http2Connection(NioEndpoint endpoint, NioChannel channel, Adapter adapter,
+            Http2Settings localSettings) {
+        this.endpoint = endpoint;
+        this.channel = channel;
+        this.adapter = adapter;
+        this.localSettings = localSettings;
+        decoder = new HpackDecoder(localSettings.getHeaderTableSize());
+        encoder = new HpackEncoder(localSettings.getHeaderTableSize());
+        readBuffer = ByteBuffer.allocate(Constants.FRAME_HEADER_LENGTH + localSettings.getMaxFrameSize());
+        writeBuffer = ByteBuffer.allocateDirect(Constants.FRAME_HEADER_LENGTH + Constants.DEFAULT_MAX_FRAME_SIZE);
+        headerBlock.allocate(1024, -1);
+        headerBuffer.allocate(1024, -1);
+        readHandler = new CompletionHandler<Integer, Http2Connection>() {
+
+            public void completed(Integer nBytes, Http2Connection attachment) {
+                if (nBytes < 0) {
+                    close();
+                } else {
+                    execute(attachment);
+                }
+            }
+
+            public void failed(Throwable exc, Http2Connection attachment) {
+                if (exc instanceof InterruptedByTimeoutException) {
+                    // The connection was idle for the keep-alive timeout
+                    goAway(Constants.NO_ERROR, null);
+                } else {
+                    close();
+                }
+            }
+        };
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public Http2Settings getLocalSettings() {
+        return localSettings;
+    }
+
+
+    public Http2Settings getRemoteSettings() {
+        return remoteSettings;
+    }
+
+
+    public String getServer() {
+        return server;
+    }
+
+
+    public void setServer(String server) {
+        this.server = server;
+    }
+
+
+    /**
+     * Set the statistics the stream processors of the connection report to.
+     */
+    public void setRequestGroupInfo(RequestGroupInfo global) {
+        this.global = global;
+    }
+
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+
+    /**
+     * @return the number of streams which are being processed
+     */
+    public int getActiveStreams() {
+        return streams.size();
+    }
+
+
+    public InetSocketAddress getRemoteAddress() {
+        if (remoteAddress == null) {
+            try {
+                remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+            } catch (Exception e) {
+                CoyoteLogger.HTTP_LOGGER.errorGettingSocketInformation(e);
+            }
+        }
+        return remoteAddress;
+    }
+
+
+    public InetSocketAddress getLocalAddress() {
+        if (localAddress == null) {
+            try {
+                localAddress = (InetSocketAddress) channel.getLocalAddress();
+            } catch (Exception e) {
+                CoyoteLogger.HTTP_LOGGER.errorGettingSocketInformation(e);
+            }
+        }
+        return localAddress;
+    }
+
+
+    public int getLocalPort() {
+        InetSocketAddress address = getLocalAddress();
+        return (address != null) ? address.getPort() : endpoint.getPort();
+    }
+
+
+    /**
+     * @return the time to wait for request body bytes, in milliseconds
+     */
+    public long getReadTimeout() {
+        return (endpoint.getSoTimeout() > 0) ? endpoint.getSoTimeout() : Integer.MAX_VALUE;
+    }
+
+
+    // ------------------------------------------------------ Connection setup
+
+
+    /**
+     * Add bytes which the HTTP/1.1 processor read past the request it parsed.
+     */
+    public void addInput(byte[] buf, int off, int len) {
+        readBuffer.put(buf, off, len);
+    }
+
+
+    /**
+     * Turn the request of an h2c upgrade into stream 1, which is half
+     * closed (remote) as the request has no body (RFC 7540, section 3.2).
+     *
+     * @param req The HTTP/1.1 request, which is copied
+     * @param settings The decoded HTTP2-Settings header
+     */
+    public void upgrade(Request req, byte[] settings)
+        throws Http2Exception {
+        remoteSettings.read(settings, 0, settings.length);
+        encoder.setPeerTableSize(remoteSettings.getHeaderTableSize());
+        // The client sends the whole preface after the 101 response
+        prefaceRead = 0;
+        lastStreamId = 1;
+
+        Http2Stream stream = new Http2Stream(this, 1, remoteSettings.getInitialWindowSize(),
+                localSettings.getInitialWindowSize());
+        stream.remoteClosed = true;
+        Http2Processor processor = createProcessor();
+        processor.setStream(stream);
+        Request request = processor.getRequest();
+        request.method().setString(req.method().toString());
+        request.requestURI().setString(req.requestURI().toString());
+        if (!req.queryString().isNull()) {
+            request.queryString().setString(req.queryString().toString());
+        }
+        request.unparsedURI().setString(req.unparsedURI().toString());
+        MimeHeaders headers = req.getMimeHeaders();
+        int size = headers.size();
+        for (int i = 0; i < size; i++) {
+            String name = headers.getName(i).toString();
+            if (name.equalsIgnoreCase("connection") || name.equalsIgnoreCase("upgrade")
+                    || name.equalsIgnoreCase(Constants.HTTP2_SETTINGS)
+                    || name.equalsIgnoreCase("keep-alive") || name.equalsIgnoreCase("te")
+                    || name.equalsIgnoreCase("transfer-encoding")
+                    || name.equalsIgnoreCase("proxy-connection")) {
+                continue;
+            }
+            request.getMimeHeaders().addValue(name).setString(headers.getValue(i).toString());
+        }
+        streams.put(Integer.valueOf(1), stream);
+        upgradeStream = stream;
+    }
+
+
+    /**
+     * Send the server connection preface, preceded by the 101 response for
+     * an upgrade, and start reading frames.
+     */
+    public void start() {
+        try {
+            int initialWindowSize = localSettings.getInitialWindowSize();
+            synchronized (writeLock) {
+                if (upgradeStream != null) {
+                    writeBuffer.clear();
+                    writeBuffer.put(Constants.SWITCHING_PROTOCOLS_BYTES);
+                    flush();
+                }
+                byte[] settings = localSettings.write();
+                writeFrame(Constants.FRAME_SETTINGS, 0, 0, settings, 0, settings.length);
+                if (initialWindowSize > Constants.DEFAULT_INITIAL_WINDOW_SIZE) {
+                    // Give the connection as much room as a single stream
+                    int increment = initialWindowSize - Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+                    receiveWindow.addAndGet(increment);
+                    writeWindowUpdate(0, increment);
+                }
+            }
+        } catch (IOException e) {
+            CoyoteLogger.HTTP2_LOGGER.http2WriteError(e);
+            close();
+            return;
+        }
+        if (upgradeStream != null) {
+            Http2Stream stream = upgradeStream;
+            upgradeStream = null;
+            if (global != null) {
+                // Created before the statistics were known
+                stream.processor.getRequest().getRequestProcessor().setGlobalProcessor(global);
+            }
+            dispatch(stream);
+        }
+        execute(this);
+    }
+
+
+    // ------------------------------------------------------------ Reading
+
+
+    /**
+     * Decode the frames received so far, then wait for more.
+     */
+    public void run() {
+        if (closed) {
+            return;
+        }
+        readBuffer.flip();
+        try {
+            while (!closed && readFrame()) {
+                // Keep going
+            }
+        } catch (Http2Exception e) {
+            CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(e.getError(), e);
+            goAway(e.getError(), e.getMessage());
+            return;
+        } catch (Throwable t) {
+            CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(Constants.INTERNAL_ERROR, t);
+            goAway(Constants.INTERNAL_ERROR, null);
+            return;
+        }
+        readBuffer.compact();
+        if (closed) {
+            return;
+        }
+        // A timed out read cannot be resumed, so the keep-alive timeout only
+        // applies while no stream is active
+        int timeout = streams.isEmpty() ? endpoint.getKeepAliveTimeout() : 0;
+        try {
+            channel.read(readBuffer, (timeout > 0) ? timeout : 0, TimeUnit.MILLISECONDS, this, readHandler);
+        } catch (Exception e) {
+            close();
+        }
+    }
+
+
+    /**
+     * Decode the next frame, if it has been fully received.
+     *
+     * @return <code>true</code> if a frame was decoded
+     */
+    protected boolean readFrame()
+        throws IOException {
+        if (prefaceRead < Constants.PREFACE.length) {
+            while (prefaceRead < Constants.PREFACE.length && readBuffer.hasRemaining()) {
+                if (readBuffer.get() != Constants.PREFACE[prefaceRead++]) {
+                    throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2InvalidPreface());
+                }
+            }
+            return (prefaceRead == Constants.PREFACE.length);
+        }
+        if (readBuffer.remaining() < Constants.FRAME_HEADER_LENGTH) {
+            return false;
+        }
+        int start = readBuffer.position();
+        byte[] buf = readBuffer.array();
+        int off = readBuffer.arrayOffset() + start;
+        int length = ((buf[off] & 0xff) << 16) | ((buf[off + 1] & 0xff) << 8) | (buf[off + 2] & 0xff);
+        int type = buf[off + 3] & 0xff;
+        int flags = buf[off + 4] & 0xff;
+        int streamId = readInt(buf, off + 5) & 0x7fffffff;
+        if (length > localSettings.getMaxFrameSize()) {
+            throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR, MESSAGES.http2InvalidFrameSize(length, type));
+        }
+        if (readBuffer.remaining() < Constants.FRAME_HEADER_LENGTH + length) {
+            return false;
+        }
+        readBuffer.position(start + Constants.FRAME_HEADER_LENGTH + length);
+        off += Constants.FRAME_HEADER_LENGTH;
+
+        if (!settingsReceived && type != Constants.FRAME_SETTINGS) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+        }
+        if (continuationStreamId != 0
+                && (type != Constants.FRAME_CONTINUATION || streamId != continuationStreamId)) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+        }
+
+        try {
+            switch (type) {
+            case Constants.FRAME_DATA:
+                readData(streamId, flags, buf, off, length);
+                break;
+            case Constants.FRAME_HEADERS:
+                readHeaders(streamId, flags, buf, off, length);
+                break;
+            case Constants.FRAME_PRIORITY:
+                if (streamId == 0) {
+                    throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+                }
+                if (length != 5) {
+                    throw new Http2Exception(streamId, Constants.FRAME_SIZE_ERROR, MESSAGES.http2InvalidFrameSize(length, type));
+                }
+                // Priorities are advisory, and streams are serviced in order
+                break;
+            case Constants.FRAME_RST_STREAM:
+                readRstStream(streamId, buf, off, length);
+                break;
+            case Constants.FRAME_SETTINGS:
+                readSettings(streamId, flags, buf, off, length);
+                break;
+            case Constants.FRAME_PING:
+                if (streamId != 0) {
+                    throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+                }
+                if (length != 8) {
+                    throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR, MESSAGES.http2InvalidFrameSize(length, type));
+                }
+                if ((flags & Constants.FLAG_ACK) == 0) {
+                    synchronized (writeLock) {
+                        writeFrame(Constants.FRAME_PING, Constants.FLAG_ACK, 0, buf, off, length);
+                    }
+                }
+                break;
+            case Constants.FRAME_GOAWAY:
+                if (streamId != 0) {
+                    throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+                }
+                if (length < 8) {
+                    throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR, MESSAGES.http2InvalidFrameSize(length, type));
+                }
+                goAwayReceived = true;
+                if (streams.isEmpty()) {
+                    close();
+                }
+                break;
+            case Constants.FRAME_WINDOW_UPDATE:
+                readWindowUpdate(streamId, buf, off, length);
+                break;
+            case Constants.FRAME_CONTINUATION:
+                readContinuation(streamId, flags, buf, off, length);
+                break;
+            case Constants.FRAME_PUSH_PROMISE:
+                // Clients cannot push
+                throw new Http2Exception(0, Constants.PROTOCOL_ERROR, MESSAGES.http2UnexpectedFrame(type, streamId));
+            default:
+                // Unknown frame types must be ignored
+            }
+        } catch (Http2Exception e) {
+            if (e.isConnectionError()) {
+                throw e;
+            }
+            resetStream(e.getStreamId(), e.getError());
+        }
+        return true;
+    }
+
+
+    protected void readData(int streamId, int flags, byte[] buf, int off, int length)
+        throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_DATA, streamId));
+        }
+        if (receiveWindow.addAndGet(-length) < 0) {
+            throw new Http2Exception(0, Constants.FLOW_CONTROL_ERROR, MESSAGES.http2FlowControlError(0));
+        }
+        int padding = 0;
+        if ((flags & Constants.FLAG_PADDED) != 0) {
+            padding = (length > 0) ? (buf[off] & 0xff) + 1 : length + 1;
+            if (padding > length) {
+                throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                        MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_DATA));
+            }
+        }
+        Http2Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null || stream.isRemoteClosed() || stream.isReset()) {
+            // The bytes will never be read
+            consumed(null, length);
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                        MESSAGES.http2UnexpectedFrame(Constants.FRAME_DATA, streamId));
+            }
+            if (stream == null || stream.isRemoteClosed()) {
+                throw new Http2Exception(streamId, Constants.STREAM_CLOSED,
+                        MESSAGES.http2UnexpectedFrame(Constants.FRAME_DATA, streamId));
+            }
+            return;
+        }
+        int dataOff = off + ((padding > 0) ? 1 : 0);
+        int dataLength = length - padding;
+        stream.receiveData(buf, dataOff, dataLength, padding, (flags & Constants.FLAG_END_STREAM) != 0);
+        if (padding > 0) {
+            consumed(stream, padding);
+        }
+    }
+
+
+    protected void readHeaders(int streamId, int flags, byte[] buf, int off, int length)
+        throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_HEADERS, streamId));
+        }
+        int end = off + length;
+        if ((flags & Constants.FLAG_PADDED) != 0) {
+            if (length < 1) {
+                throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR,
+                        MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_HEADERS));
+            }
+            end -= buf[off] & 0xff;
+            off++;
+        }
+        if ((flags & Constants.FLAG_PRIORITY) != 0) {
+            off += 5;
+        }
+        if (end < off) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_HEADERS));
+        }
+        if (end - off > localSettings.getMaxHeaderListSize()) {
+            throw new Http2Exception(0, Constants.ENHANCE_YOUR_CALM, MESSAGES.http2InvalidHeaderBlock());
+        }
+        headerBlock.recycle();
+        headerBlock.append(buf, off, end - off);
+        if ((flags & Constants.FLAG_END_HEADERS) == 0) {
+            continuationStreamId = streamId;
+            continuationFlags = flags;
+        } else {
+            endHeaderBlock(streamId, flags);
+        }
+    }
+
+
+    protected void readContinuation(int streamId, int flags, byte[] buf, int off, int length)
+        throws IOException {
+        if (continuationStreamId == 0) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_CONTINUATION, streamId));
+        }
+        if (headerBlock.getLength() + length > localSettings.getMaxHeaderListSize()) {
+            throw new Http2Exception(0, Constants.ENHANCE_YOUR_CALM, MESSAGES.http2InvalidHeaderBlock());
+        }
+        headerBlock.append(buf, off, length);
+        if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+            continuationStreamId = 0;
+            endHeaderBlock(streamId, continuationFlags);
+        }
+    }
+
+
+    /**
+     * Decode a complete header block, and start processing the stream it
+     * opens.
+     */
+    protected void endHeaderBlock(int streamId, int flags)
+        throws IOException {
+        boolean endStream = (flags & Constants.FLAG_END_STREAM) != 0;
+        Integer key = Integer.valueOf(streamId);
+        Http2Stream stream = streams.get(key);
+        if (stream != null || streamId <= lastStreamId) {
+            // Trailers, which are decoded to keep the table in sync
+            Http2Stream trailers = (stream != null) ? stream
+                : new Http2Stream(this, streamId, 0, 0);
+            trailers.startHeaders(null);
+            decoder.decode(headerBlock.getBuffer(), headerBlock.getStart(), headerBlock.getLength(), trailers);
+            if (stream == null || stream.isRemoteClosed()) {
+                throw new Http2Exception(streamId, Constants.STREAM_CLOSED,
+                        MESSAGES.http2UnexpectedFrame(Constants.FRAME_HEADERS, streamId));
+            }
+            if (!endStream) {
+                throw new Http2Exception(streamId, Constants.PROTOCOL_ERROR, MESSAGES.http2MalformedRequest(streamId));
+            }
+            stream.receiveData(null, 0, 0, 0, true);
+            return;
+        }
+        lastStreamId = streamId;
+
+        stream = new Http2Stream(this, streamId, remoteSettings.getInitialWindowSize(),
+                localSettings.getInitialWindowSize());
+        Http2Processor processor = createProcessor();
+        processor.setStream(stream);
+        try {
+            decoder.decode(headerBlock.getBuffer(), headerBlock.getStart(), headerBlock.getLength(), stream);
+        } catch (Http2Exception e) {
+            processor.recycle();
+            recycledProcessors.offer(processor);
+            throw e;
+        }
+        if (goAwaySent || streams.size() >= localSettings.getMaxConcurrentStreams()) {
+            processor.recycle();
+            recycledProcessors.offer(processor);
+            throw new Http2Exception(streamId, Constants.REFUSED_STREAM, MESSAGES.http2StreamReset(streamId, Constants.REFUSED_STREAM));
+        }
+        try {
+            stream.endHeaders();
+        } catch (Http2Exception e) {
+            processor.recycle();
+            recycledProcessors.offer(processor);
+            throw e;
+        }
+        if (endStream) {
+            stream.remoteClosed = true;
+        }
+        streams.put(key, stream);
+        dispatch(stream);
+    }
+
+
+    protected void readRstStream(int streamId, byte[] buf, int off, int length)
+        throws Http2Exception {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_RST_STREAM, streamId));
+        }
+        if (length != 4) {
+            throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR,
+                    MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_RST_STREAM));
+        }
+        Http2Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream != null) {
+            stream.reset(readInt(buf, off));
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+
+    protected void readSettings(int streamId, int flags, byte[] buf, int off, int length)
+        throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(0, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_SETTINGS, streamId));
+        }
+        if ((flags & Constants.FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR,
+                        MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_SETTINGS));
+            }
+            return;
+        }
+        settingsReceived = true;
+        int oldWindowSize = remoteSettings.getInitialWindowSize();
+        synchronized (writeLock) {
+            remoteSettings.read(buf, off, length);
+            encoder.setPeerTableSize(remoteSettings.getHeaderTableSize());
+            writeFrame(Constants.FRAME_SETTINGS, Constants.FLAG_ACK, 0, null, 0, 0);
+        }
+        int delta = remoteSettings.getInitialWindowSize() - oldWindowSize;
+        if (delta != 0) {
+            synchronized (this) {
+                Iterator<Http2Stream> iterator = streams.values().iterator();
+                while (iterator.hasNext()) {
+                    Http2Stream stream = iterator.next();
+                    stream.sendWindow += delta;
+                    if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+                        throw new Http2Exception(0, Constants.FLOW_CONTROL_ERROR,
+                                MESSAGES.http2FlowControlError(stream.getId()));
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+
+    protected void readWindowUpdate(int streamId, byte[] buf, int off, int length)
+        throws Http2Exception {
+        if (length != 4) {
+            throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR,
+                    MESSAGES.http2InvalidFrameSize(length, Constants.FRAME_WINDOW_UPDATE));
+        }
+        int increment = readInt(buf, off) & 0x7fffffff;
+        if (increment == 0) {
+            throw new Http2Exception(streamId, Constants.PROTOCOL_ERROR,
+                    MESSAGES.http2UnexpectedFrame(Constants.FRAME_WINDOW_UPDATE, streamId));
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                sendWindow += increment;
+                if (sendWindow > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(0, Constants.FLOW_CONTROL_ERROR, MESSAGES.http2FlowControlError(0));
+                }
+            } else {
+                Http2Stream stream = streams.get(Integer.valueOf(streamId));
+                if (stream == null) {
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(streamId, Constants.FLOW_CONTROL_ERROR,
+                            MESSAGES.http2FlowControlError(streamId));
+                }
+            }
+            notifyAll();
+        }
+    }
+
+
+    // ------------------------------------------------------------ Writing
+
+
+    /**
+     * Send a header block on a stream.
+     *
+     * @param stream The stream
+     * @param headers Alternating lower case names and values
+     * @param endStream Whether the block ends the stream
+     */
+    public void writeHeaders(Http2Stream stream, List<String> headers, boolean endStream)
+        throws IOException {
+        checkStream(stream);
+        synchronized (writeLock) {
+            headerBuffer.recycle();
+            encoder.startBlock(headerBuffer);
+            for (int i = 0; i < headers.size(); i += 2) {
+                encoder.encodeHeader(headers.get(i), headers.get(i + 1), headerBuffer);
+            }
+            byte[] block = headerBuffer.getBuffer();
+            int off = headerBuffer.getStart();
+            int len = headerBuffer.getLength();
+            int frameSize = Math.min(Constants.DEFAULT_MAX_FRAME_SIZE, remoteSettings.getMaxFrameSize());
+            int type = Constants.FRAME_HEADERS;
+            do {
+                int n = Math.min(len, frameSize);
+                int flags = (n == len) ? Constants.FLAG_END_HEADERS : 0;
+                if (endStream && type == Constants.FRAME_HEADERS) {
+                    flags |= Constants.FLAG_END_STREAM;
+                }
+                writeFrame(type, flags, stream.getId(), block, off, n);
+                type = Constants.FRAME_CONTINUATION;
+                off += n;
+                len -= n;
+            } while (len > 0);
+        }
+        if (endStream) {
+            stream.localClosed = true;
+        }
+    }
+
+
+    /**
+     * Send DATA frames on a stream, waiting for the flow control windows to
+     * open as needed.
+     *
+     * @param stream The stream
+     * @param buf Bytes, which may be <code>null</code> if len is 0
+     * @param off Start of the bytes to send
+     * @param len Number of bytes to send
+     * @param endStream Whether the last frame ends the stream
+     */
+    public void writeData(Http2Stream stream, byte[] buf, int off, int len, boolean endStream)
+        throws IOException {
+        checkStream(stream);
+        if (len == 0) {
+            if (endStream) {
+                synchronized (writeLock) {
+                    writeFrame(Constants.FRAME_DATA, Constants.FLAG_END_STREAM, stream.getId(), null, 0, 0);
+                }
+                stream.localClosed = true;
+            }
+            return;
+        }
+        while (len > 0) {
+            int n = reserveWindow(stream,
+                    Math.min(len, Math.min(Constants.DEFAULT_MAX_FRAME_SIZE, remoteSettings.getMaxFrameSize())));
+            boolean last = endStream && (n == len);
+            synchronized (writeLock) {
+                writeFrame(Constants.FRAME_DATA, last ? Constants.FLAG_END_STREAM : 0, stream.getId(), buf, off, n);
+            }
+            off += n;
+            len -= n;
+        }
+        if (endStream) {
+            stream.localClosed = true;
+        }
+    }
+
+
+    /**
+     * Account for request body bytes which have been read or discarded, and
+     * open the receive windows again once enough of them have been.
+     *
+     * @param stream The stream, or <code>null</code> for the connection only
+     * @param len Number of bytes
+     */
+    public void consumed(Http2Stream stream, int len) {
+        int streamIncrement = (stream != null) ? stream.consume(len) : 0;
+        int connectionIncrement = 0;
+        int total = consumed.addAndGet(len);
+        if (total >= Math.max(localSettings.getInitialWindowSize(), Constants.DEFAULT_INITIAL_WINDOW_SIZE) / 2
+                && consumed.compareAndSet(total, 0)) {
+            connectionIncrement = total;
+            receiveWindow.addAndGet(total);
+        }
+        if (streamIncrement == 0 && connectionIncrement == 0) {
+            return;
+        }
+        try {
+            synchronized (writeLock) {
+                if (connectionIncrement > 0) {
+                    writeWindowUpdate(0, connectionIncrement);
+                }
+                if (streamIncrement > 0) {
+                    writeWindowUpdate(stream.getId(), streamIncrement);
+                }
+            }
+        } catch (IOException e) {
+            CoyoteLogger.HTTP2_LOGGER.http2WriteError(e);
+            close();
+        }
+    }
+
+
+    /**
+     * Reset a stream.
+     */
+    public void resetStream(int streamId, int error) {
+        Http2Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream != null) {
+            stream.reset(error);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, error);
+        try {
+            synchronized (writeLock) {
+                writeFrame(Constants.FRAME_RST_STREAM, 0, streamId, payload, 0, 4);
+            }
+        } catch (IOException e) {
+            CoyoteLogger.HTTP2_LOGGER.http2WriteError(e);
+            close();
+        }
+    }
+
+
+    /**
+     * Send a GOAWAY frame and close the connection.
+     */
+    public void goAway(int error, String message) {
+        if (!closed && !goAwaySent) {
+            goAwaySent = true;
+            byte[] debug = (message != null) ? ByteChunk.convertToBytes(message) : new byte[0];
+            byte[] payload = new byte[8 + debug.length];
+            writeInt(payload, 0, lastStreamId);
+            writeInt(payload, 4, error);
+            System.arraycopy(debug, 0, payload, 8, debug.length);
+            try {
+                synchronized (writeLock) {
+                    writeFrame(Constants.FRAME_GOAWAY, 0, 0, payload, 0,
+                            Math.min(payload.length, Constants.DEFAULT_MAX_FRAME_SIZE));
+                }
+            } catch (IOException e) {
+                CoyoteLogger.HTTP2_LOGGER.http2WriteError(e);
+            }
+        }
+        close();
+    }
+
+
+    /**
+     * Close the connection, and wake up the streams which are waiting for it.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Iterator<Http2Stream> iterator = streams.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().wakeUp();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        endpoint.closeChannel(channel);
+        Http2Processor processor = recycledProcessors.poll();
+        while (processor != null) {
+            unregister(processor);
+            processor = recycledProcessors.poll();
+        }
+    }
+
+
+    /**
+     * Called by a processor once its stream is done.
+     */
+    protected void streamFinished(Http2Stream stream, Http2Processor processor) {
+        if (!stream.isRemoteClosed() && !stream.isReset() && !closed) {
+            // The response is complete, the rest of the request is not
+            // needed (RFC 7540, section 8.1)
+            resetStream(stream.getId(), Constants.NO_ERROR);
+        }
+        streams.remove(Integer.valueOf(stream.getId()));
+        if (closed || !recycledProcessors.offer(processor)) {
+            unregister(processor);
+        }
+        if (goAwayReceived && streams.isEmpty()) {
+            close();
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    protected Http2Processor createProcessor() {
+        Http2Processor processor = recycledProcessors.poll();
+        if (processor == null) {
+            processor = new Http2Processor(this, adapter);
+            if (global != null) {
+                processor.getRequest().getRequestProcessor().setGlobalProcessor(global);
+            }
+        }
+        return processor;
+    }
+
+
+    protected void unregister(Http2Processor processor) {
+        processor.getRequest().getRequestProcessor().setGlobalProcessor(null);
+    }
+
+
+    /**
+     * Start servicing the request of a stream.
+     */
+    protected void dispatch(Http2Stream stream) {
+        Http2Processor processor = stream.processor;
+        try {
+            endpoint.getExecutor().execute(processor);
+        } catch (Throwable t) {
+            CoyoteLogger.HTTP2_LOGGER.http2StreamError(stream.getId(), t);
+            streams.remove(Integer.valueOf(stream.getId()));
+            processor.recycle();
+            recycledProcessors.offer(processor);
+            resetStream(stream.getId(), Constants.REFUSED_STREAM);
+        }
+    }
+
+
+    /**
+     * Run the decoding of the received frames on the endpoint executor.
+     */
+    protected void execute(Http2Connection connection) {
+        try {
+            endpoint.getExecutor().execute(connection);
+        } catch (Throwable t) {
+            CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(Constants.INTERNAL_ERROR, t);
+            close();
+        }
+    }
+
+
+    /**
+     * Take up to len bytes from the send windows of the stream and of the
+     * connection.
+     */
+    protected synchronized int reserveWindow(Http2Stream stream, int len)
+        throws IOException {
+        long timeout = getReadTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+        while (sendWindow <= 0 || stream.sendWindow <= 0) {
+            checkStream(stream);
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new IOException(MESSAGES.http2WindowTimeout(stream.getId()));
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                throw new IOException(MESSAGES.http2WindowTimeout(stream.getId()));
+            }
+        }
+        checkStream(stream);
+        int n = (int) Math.min(len, Math.min(sendWindow, stream.sendWindow));
+        sendWindow -= n;
+        stream.sendWindow -= n;
+        return n;
+    }
+
+
+    protected void checkStream(Http2Stream stream)
+        throws IOException {
+        if (closed) {
+            throw new IOException(MESSAGES.http2ConnectionClosed());
+        } else if (stream.isReset()) {
+            throw new IOException(MESSAGES.http2StreamReset(stream.getId(), stream.resetError));
+        }
+    }
+
+
+    protected void writeWindowUpdate(int streamId, int increment)
+        throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(Constants.FRAME_WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+
+    /**
+     * Write a frame. The caller must hold the write lock.
+     */
+    protected void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len)
+        throws IOException {
+        writeBuffer.clear();
+        writeBuffer.put((byte) (len >>> 16));
+        writeBuffer.put((byte) (len >>> 8));
+        writeBuffer.put((byte) len);
+        writeBuffer.put((byte) type);
+        writeBuffer.put((byte) flags);
+        writeBuffer.putInt(streamId);
+        if (len > 0) {
+            writeBuffer.put(payload, off, len);
+        }
+        flush();
+    }
+
+
+    /**
+     * Write the content of the write buffer. The caller must hold the write
+     * lock.
+     */
+    protected void flush()
+        throws IOException {
+        writeBuffer.flip();
+        long timeout = getReadTimeout();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                if (channel.writeBytes(writeBuffer, timeout, TimeUnit.MILLISECONDS) < 0) {
+                    throw new IOException(MESSAGES.http2ConnectionClosed());
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (Exception e) {
+            close();
+            throw new IOException(MESSAGES.http2ConnectionClosed(), e);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16)
+            | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+    }
+
+
+    private static void writeInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+
+}
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+
+/**
+ * HTTP/2 protocol error. An exception with a stream id of 0 is a connection
+ * error, which ends the connection with a GOAWAY frame, while any other
+ * stream id is a stream error, which only resets that stream.
+ */
+public class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int streamId;
+    private final int error;
+
+
+    public Http2Exception(int streamId, int error, String message) {
+        super(message);
+        this.streamId = streamId;
+        this.error = error;
+    }
+
+
+    /**
+     * @return the stream the error applies to, or 0 for a connection error
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+
+
+    /**
+     * @return the HTTP/2 error code
+     */
+    public int getError() {
+        return error;
+    }
+
+
+    public boolean isConnectionError() {
+        return (streamId == 0);
+    }
+
+}
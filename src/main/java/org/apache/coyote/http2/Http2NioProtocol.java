@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+
+/**
+ * HTTP/1.1 protocol handler on the NIO.2 endpoint which also accepts
+ * cleartext HTTP/2, either with prior knowledge (the connection starts with
+ * the HTTP/2 connection preface) or through an <code>Upgrade: h2c</code>
+ * request. Select it with
+ * <code>protocol="org.apache.coyote.http2.Http2NioProtocol"</code> on the
+ * connector.
+ */
+public class Http2NioProtocol extends Http11NioProtocol {
+
+
+    public Http2NioProtocol() {
+        super();
+        http2Settings = new Http2Settings();
+        http2Settings.setMaxConcurrentStreams(Constants.DEFAULT_MAX_CONCURRENT_STREAMS);
+        http2Settings.setMaxHeaderListSize(Constants.DEFAULT_MAX_HEADER_LIST_SIZE);
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Maximum number of concurrent streams per connection.
+     */
+    public int getMaxConcurrentStreams() { return http2Settings.getMaxConcurrentStreams(); }
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) { http2Settings.setMaxConcurrentStreams(maxConcurrentStreams); }
+
+
+    /**
+     * Initial flow control window of the streams, in bytes.
+     */
+    public int getInitialWindowSize() { return http2Settings.getInitialWindowSize(); }
+    public void setInitialWindowSize(int initialWindowSize) { http2Settings.setInitialWindowSize(initialWindowSize); }
+
+
+    /**
+     * Largest frame payload accepted, in bytes.
+     */
+    public int getMaxFrameSize() { return http2Settings.getMaxFrameSize(); }
+    public void setMaxFrameSize(int maxFrameSize) { http2Settings.setMaxFrameSize(maxFrameSize); }
+
+
+    /**
+     * Size of the HPACK dynamic table used to decode requests, in bytes.
+     */
+    public int getMaxHeaderTableSize() { return http2Settings.getHeaderTableSize(); }
+    public void setMaxHeaderTableSize(int maxHeaderTableSize) { http2Settings.setHeaderTableSize(maxHeaderTableSize); }
+
+
+    /**
+     * Largest uncompressed header list accepted, in bytes.
+     */
+    public int getMaxHeaderListSize() { return http2Settings.getMaxHeaderListSize(); }
+    public void setMaxHeaderListSize(int maxHeaderListSize) { http2Settings.setMaxHeaderListSize(maxHeaderListSize); }
+
+
+}
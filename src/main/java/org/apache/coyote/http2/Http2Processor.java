@@ -0,0 +1,416 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.ActionHook;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.RequestInfo;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * Processes the request of one HTTP/2 stream: the stream is mapped to a
+ * coyote {@link Request} and {@link Response}, which are serviced by the
+ * {@link Adapter} exactly like an HTTP/1.1 request. Processors are recycled
+ * by their connection once the response has been sent.
+ */
+public class Http2Processor implements ActionHook, Runnable {
+
+
+    protected final Http2Connection connection;
+    protected final Adapter adapter;
+
+    protected final Request request;
+    protected final Response response;
+
+    protected Http2Stream stream = null;
+
+    /**
+     * The request body was replayed through ACTION_REQ_SET_BODY_REPLAY.
+     */
+    protected ByteChunk replay = null;
+
+    /**
+     * The response carries no body (HEAD request, or a status without one).
+     */
+    protected boolean noBody = false;
+
+    /**
+     * The request asked for a 100 (Continue) interim response.
+     */
+    protected boolean expectation = false;
+
+    protected boolean error = false;
+
+
+    public Http2Processor(Http2Connection connection, Adapter adapter) {
+        this.connection = connection;
+        this.adapter = adapter;
+        request = new Request();
+        request.setInputBuffer(new StreamInputBuffer());
+        response = new Response();
+        response.setHook(this);
+        response.setOutputBuffer(new StreamOutputBuffer());
+        request.setResponse(response);
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public Request getRequest() {
+        return request;
+    }
+
+
+    /**
+     * Assign the stream to process, and start decoding its header block.
+     */
+    public void setStream(Http2Stream stream) {
+        this.stream = stream;
+        stream.processor = this;
+        stream.startHeaders(request);
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    public void run() {
+        RequestInfo rp = request.getRequestProcessor();
+        rp.setStage(org.apache.coyote.Constants.STAGE_PREPARE);
+        request.setStartTime(System.currentTimeMillis());
+        try {
+            prepareRequest();
+        } catch (Throwable t) {
+            CoyoteLogger.HTTP2_LOGGER.http2StreamError(stream.getId(), t);
+            // 400 - Bad Request
+            response.setStatus(400);
+            error = true;
+        }
+
+        if (!error) {
+            try {
+                rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+                adapter.service(request, response);
+            } catch (InterruptedIOException e) {
+                error = true;
+            } catch (Throwable t) {
+                CoyoteLogger.HTTP2_LOGGER.http2StreamError(stream.getId(), t);
+                // 500 - Internal Server Error
+                response.setStatus(500);
+                error = true;
+            }
+        }
+
+        rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+        try {
+            finish();
+        } catch (IOException e) {
+            error = true;
+        }
+        if (error) {
+            response.setStatus(500);
+        }
+        request.updateCounters();
+        Http2Stream finished = stream;
+        recycle();
+        connection.streamFinished(finished, this);
+    }
+
+
+    public void recycle() {
+        stream = null;
+        replay = null;
+        noBody = false;
+        expectation = false;
+        error = false;
+        request.recycle();
+        response.recycle();
+    }
+
+
+    // ----------------------------------------------------- ActionHook Methods
+
+
+    /**
+     * Send an action to the connector.
+     *
+     * @param actionCode Type of the action
+     * @param param Action parameter
+     */
+    public void action(ActionCode actionCode, Object param) {
+
+        if (actionCode == ActionCode.ACTION_COMMIT) {
+            commit();
+        } else if (actionCode == ActionCode.ACTION_ACK) {
+            // Send a 100 (Continue) interim response
+            if (!response.isCommitted() && expectation) {
+                expectation = false;
+                try {
+                    ArrayList<String> headers = new ArrayList<String>(2);
+                    headers.add(":status");
+                    headers.add("100");
+                    connection.writeHeaders(stream, headers, false);
+                } catch (IOException e) {
+                    error = true;
+                }
+            }
+        } else if (actionCode == ActionCode.ACTION_CLIENT_FLUSH) {
+            // Frames are written as soon as the adapter hands over its bytes
+            commit();
+        } else if (actionCode == ActionCode.ACTION_CLOSE) {
+            try {
+                finish();
+            } catch (IOException e) {
+                error = true;
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_HOST_ADDR_ATTRIBUTE) {
+            InetSocketAddress address = connection.getRemoteAddress();
+            if (address != null) {
+                request.remoteAddr().setString(address.getAddress().getHostAddress());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_HOST_ATTRIBUTE) {
+            InetSocketAddress address = connection.getRemoteAddress();
+            if (address != null) {
+                request.remoteHost().setString(address.getHostName());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_REMOTEPORT_ATTRIBUTE) {
+            InetSocketAddress address = connection.getRemoteAddress();
+            if (address != null) {
+                request.setRemotePort(address.getPort());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_LOCAL_NAME_ATTRIBUTE) {
+            InetSocketAddress address = connection.getLocalAddress();
+            if (address != null) {
+                request.localName().setString(address.getHostName());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_LOCAL_ADDR_ATTRIBUTE) {
+            InetSocketAddress address = connection.getLocalAddress();
+            if (address != null) {
+                request.localAddr().setString(address.getAddress().getHostAddress());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_LOCALPORT_ATTRIBUTE) {
+            InetSocketAddress address = connection.getLocalAddress();
+            if (address != null) {
+                request.setLocalPort(address.getPort());
+            }
+        } else if (actionCode == ActionCode.ACTION_REQ_SET_BODY_REPLAY) {
+            ByteChunk body = (ByteChunk) param;
+            replay = new ByteChunk();
+            replay.setBytes(body.getBytes(), body.getStart(), body.getLength());
+            request.setContentLength(body.getLength());
+        } else if (actionCode == ActionCode.ACTION_AVAILABLE) {
+            request.setAvailable((replay != null) ? replay.getLength() : stream.available());
+        }
+        // Comet events and the servlet upgrade are not available on a
+        // multiplexed connection
+
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Fill in the request fields which are not carried by the header block.
+     */
+    protected void prepareRequest() {
+        if (request.scheme().isNull()) {
+            request.scheme().setString("http");
+        }
+        request.protocol().setString(Constants.HTTP_20);
+        MessageBytes methodMB = request.method();
+        if (methodMB.equals(org.apache.coyote.http11.Constants.GET)) {
+            methodMB.setString(org.apache.coyote.http11.Constants.GET);
+        } else if (methodMB.equals(org.apache.coyote.http11.Constants.POST)) {
+            methodMB.setString(org.apache.coyote.http11.Constants.POST);
+        }
+
+        MimeHeaders headers = request.getMimeHeaders();
+        MessageBytes expectMB = headers.getValue("expect");
+        if ((expectMB != null) && (expectMB.indexOfIgnoreCase("100-continue", 0) != -1)) {
+            expectation = true;
+        }
+
+        // Server name and port, from :authority or the host header
+        String host = headers.getHeader("host");
+        if (host == null) {
+            request.setServerPort(connection.getLocalPort());
+            return;
+        }
+        int colon = host.lastIndexOf(':');
+        if (colon < 0 || host.indexOf(']', colon) >= 0) {
+            request.serverName().setString(host);
+            request.setServerPort("https".equals(request.scheme().toString()) ? 443 : 80);
+        } else {
+            request.serverName().setString(host.substring(0, colon));
+            request.setServerPort(Integer.parseInt(host.substring(colon + 1)));
+        }
+    }
+
+
+    /**
+     * Send the response header block.
+     */
+    protected void commit() {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.setCommitted(true);
+
+        int statusCode = response.getStatus();
+        noBody = (statusCode == 204) || (statusCode == 205) || (statusCode == 304)
+            || (statusCode >= 100 && statusCode < 200) || request.method().equals("HEAD");
+
+        ArrayList<String> headers = new ArrayList<String>();
+        headers.add(":status");
+        headers.add(String.valueOf(statusCode));
+        if (!noBody || request.method().equals("HEAD")) {
+            String contentType = response.getContentType();
+            if (contentType != null) {
+                headers.add("content-type");
+                headers.add(contentType);
+            }
+            String contentLanguage = response.getContentLanguage();
+            if (contentLanguage != null) {
+                headers.add("content-language");
+                headers.add(contentLanguage);
+            }
+            long contentLength = response.getContentLengthLong();
+            if (contentLength != -1) {
+                headers.add("content-length");
+                headers.add(String.valueOf(contentLength));
+            }
+        }
+        headers.add("date");
+        headers.add(FastHttpDateFormat.getCurrentDate());
+        String server = connection.getServer();
+        if (server != null) {
+            headers.add("server");
+            headers.add(server);
+        }
+        MimeHeaders mimeHeaders = response.getMimeHeaders();
+        int size = mimeHeaders.size();
+        for (int i = 0; i < size; i++) {
+            String name = mimeHeaders.getName(i).toString().toLowerCase(Locale.ENGLISH);
+            if (name.equals("connection") || name.equals("keep-alive")
+                    || name.equals("transfer-encoding") || name.equals("upgrade")
+                    || name.equals("proxy-connection") || name.equals("content-length")
+                    || name.equals("date") || (server != null && name.equals("server"))) {
+                continue;
+            }
+            headers.add(name);
+            headers.add(mimeHeaders.getValue(i).toString());
+        }
+
+        try {
+            connection.writeHeaders(stream, headers, false);
+        } catch (IOException e) {
+            error = true;
+            response.setErrorException(e);
+        }
+    }
+
+
+    /**
+     * End the response, committing it first if needed.
+     */
+    protected void finish()
+        throws IOException {
+        if (stream.isLocalClosed() || stream.isReset()) {
+            return;
+        }
+        commit();
+        connection.writeData(stream, null, 0, 0, true);
+    }
+
+
+    // ---------------------------------------------- StreamInputBuffer Class
+
+
+    /**
+     * Reads the request body from the DATA frames queued on the stream.
+     */
+    protected class StreamInputBuffer implements InputBuffer {
+
+        public int doRead(ByteChunk chunk, Request req)
+            throws IOException {
+            if (replay != null) {
+                if (replay.getLength() == 0) {
+                    return -1;
+                }
+                chunk.setBytes(replay.getBytes(), replay.getStart(), replay.getLength());
+                replay.recycle();
+                return chunk.getLength();
+            }
+            if (expectation) {
+                action(ActionCode.ACTION_ACK, null);
+            }
+            byte[] b = stream.read(connection.getReadTimeout());
+            if (b == null) {
+                return -1;
+            }
+            chunk.setBytes(b, 0, b.length);
+            connection.consumed(stream, b.length);
+            return b.length;
+        }
+
+    }
+
+
+    // --------------------------------------------- StreamOutputBuffer Class
+
+
+    /**
+     * Writes the response body as DATA frames, within the flow control
+     * windows of the stream and of the connection.
+     */
+    protected class StreamOutputBuffer implements OutputBuffer {
+
+        public int doWrite(ByteChunk chunk, Response res)
+            throws IOException {
+            if (!response.isCommitted()) {
+                response.action(ActionCode.ACTION_COMMIT, null);
+            }
+            int len = chunk.getLength();
+            if (!noBody) {
+                connection.writeData(stream, chunk.getBuffer(), chunk.getStart(), len, false);
+            }
+            return len;
+        }
+
+    }
+
+
+}
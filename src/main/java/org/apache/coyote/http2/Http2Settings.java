@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+/**
+ * The settings of one side of an HTTP/2 connection (RFC 7540, section 6.5.2).
+ * The connector keeps the settings it advertises in an instance of this
+ * class, and each connection keeps another one for the settings of the peer.
+ */
+public class Http2Settings {
+
+
+    protected int headerTableSize = Constants.DEFAULT_HEADER_TABLE_SIZE;
+    protected boolean enablePush = true;
+    protected int maxConcurrentStreams = Integer.MAX_VALUE;
+    protected int initialWindowSize = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+    protected int maxFrameSize = Constants.DEFAULT_MAX_FRAME_SIZE;
+    protected int maxHeaderListSize = Integer.MAX_VALUE;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getHeaderTableSize() { return headerTableSize; }
+    public void setHeaderTableSize(int headerTableSize) { this.headerTableSize = headerTableSize; }
+
+
+    public boolean getEnablePush() { return enablePush; }
+    public void setEnablePush(boolean enablePush) { this.enablePush = enablePush; }
+
+
+    public int getMaxConcurrentStreams() { return maxConcurrentStreams; }
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) { this.maxConcurrentStreams = maxConcurrentStreams; }
+
+
+    public int getInitialWindowSize() { return initialWindowSize; }
+    public void setInitialWindowSize(int initialWindowSize) { this.initialWindowSize = initialWindowSize; }
+
+
+    public int getMaxFrameSize() { return maxFrameSize; }
+    public void setMaxFrameSize(int maxFrameSize) { this.maxFrameSize = maxFrameSize; }
+
+
+    public int getMaxHeaderListSize() { return maxHeaderListSize; }
+    public void setMaxHeaderListSize(int maxHeaderListSize) { this.maxHeaderListSize = maxHeaderListSize; }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Apply the payload of a SETTINGS frame, or of an HTTP2-Settings header.
+     * Unknown settings are ignored.
+     *
+     * @param buf Bytes
+     * @param off Start of the payload
+     * @param len Length of the payload, which must be a multiple of 6
+     */
+    public void read(byte[] buf, int off, int len)
+        throws Http2Exception {
+        if (len % 6 != 0) {
+            throw new Http2Exception(0, Constants.FRAME_SIZE_ERROR,
+                    MESSAGES.http2InvalidFrameSize(len, Constants.FRAME_SETTINGS));
+        }
+        for (int pos = off; pos < off + len; pos += 6) {
+            int id = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+            long value = ((buf[pos + 2] & 0xffL) << 24) | ((buf[pos + 3] & 0xff) << 16)
+                | ((buf[pos + 4] & 0xff) << 8) | (buf[pos + 5] & 0xff);
+            set(id, value);
+        }
+    }
+
+
+    /**
+     * Apply a single setting.
+     */
+    public void set(int id, long value)
+        throws Http2Exception {
+        switch (id) {
+        case Constants.SETTINGS_HEADER_TABLE_SIZE:
+            headerTableSize = (int) Math.min(value, Integer.MAX_VALUE);
+            break;
+        case Constants.SETTINGS_ENABLE_PUSH:
+            if (value > 1) {
+                throw invalid(id, value, Constants.PROTOCOL_ERROR);
+            }
+            enablePush = (value == 1);
+            break;
+        case Constants.SETTINGS_MAX_CONCURRENT_STREAMS:
+            maxConcurrentStreams = (int) Math.min(value, Integer.MAX_VALUE);
+            break;
+        case Constants.SETTINGS_INITIAL_WINDOW_SIZE:
+            if (value > Constants.MAX_WINDOW_SIZE) {
+                throw invalid(id, value, Constants.FLOW_CONTROL_ERROR);
+            }
+            initialWindowSize = (int) value;
+            break;
+        case Constants.SETTINGS_MAX_FRAME_SIZE:
+            if (value < Constants.DEFAULT_MAX_FRAME_SIZE || value > Constants.MAX_FRAME_SIZE) {
+                throw invalid(id, value, Constants.PROTOCOL_ERROR);
+            }
+            maxFrameSize = (int) value;
+            break;
+        case Constants.SETTINGS_MAX_HEADER_LIST_SIZE:
+            maxHeaderListSize = (int) Math.min(value, Integer.MAX_VALUE);
+            break;
+        default:
+            // Unknown settings must be ignored
+        }
+    }
+
+
+    /**
+     * Write the settings which differ from the protocol defaults, in the
+     * format of a SETTINGS frame payload.
+     *
+     * @return the payload
+     */
+    public byte[] write() {
+        byte[] payload = new byte[6 * 6];
+        int pos = 0;
+        if (headerTableSize != Constants.DEFAULT_HEADER_TABLE_SIZE) {
+            pos = write(payload, pos, Constants.SETTINGS_HEADER_TABLE_SIZE, headerTableSize);
+        }
+        if (!enablePush) {
+            pos = write(payload, pos, Constants.SETTINGS_ENABLE_PUSH, 0);
+        }
+        if (maxConcurrentStreams != Integer.MAX_VALUE) {
+            pos = write(payload, pos, Constants.SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        }
+        if (initialWindowSize != Constants.DEFAULT_INITIAL_WINDOW_SIZE) {
+            pos = write(payload, pos, Constants.SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize);
+        }
+        if (maxFrameSize != Constants.DEFAULT_MAX_FRAME_SIZE) {
+            pos = write(payload, pos, Constants.SETTINGS_MAX_FRAME_SIZE, maxFrameSize);
+        }
+        if (maxHeaderListSize != Integer.MAX_VALUE) {
+            pos = write(payload, pos, Constants.SETTINGS_MAX_HEADER_LIST_SIZE, maxHeaderListSize);
+        }
+        byte[] result = new byte[pos];
+        System.arraycopy(payload, 0, result, 0, pos);
+        return result;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static int write(byte[] buf, int pos, int id, int value) {
+        buf[pos++] = (byte) (id >>> 8);
+        buf[pos++] = (byte) id;
+        buf[pos++] = (byte) (value >>> 24);
+        buf[pos++] = (byte) (value >>> 16);
+        buf[pos++] = (byte) (value >>> 8);
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+
+    private static Http2Exception invalid(int id, long value, int error) {
+        return new Http2Exception(0, error, MESSAGES.http2InvalidSetting(value, id));
+    }
+
+
+}
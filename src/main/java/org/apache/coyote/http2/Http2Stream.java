@@ -0,0 +1,356 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * State of a single HTTP/2 stream: the request fields decoded from its header
+ * block, the request body received so far, and its flow control windows.
+ * The body is queued by the thread reading the connection and consumed by
+ * the thread which services the request; the queue never holds more than
+ * the receive window allows.
+ */
+public class Http2Stream implements HpackDecoder.HeaderEmitter {
+
+
+    protected final int id;
+    protected final Http2Connection connection;
+
+    /**
+     * Request the header block is decoded into. It belongs to the processor
+     * the stream is assigned to.
+     */
+    protected Request request;
+
+    /**
+     * Processor servicing the request.
+     */
+    protected Http2Processor processor;
+
+    /**
+     * Received DATA frame payloads which have not been read yet.
+     */
+    protected final ArrayDeque<byte[]> data = new ArrayDeque<byte[]>();
+    protected int available = 0;
+
+    /**
+     * END_STREAM was received: the stream is half closed (remote).
+     */
+    protected volatile boolean remoteClosed = false;
+
+    /**
+     * END_STREAM was sent: the stream is half closed (local).
+     */
+    protected volatile boolean localClosed = false;
+
+    /**
+     * Error code of the RST_STREAM frame sent or received, or -1.
+     */
+    protected volatile int resetError = -1;
+
+    /**
+     * Send window, guarded by the connection.
+     */
+    protected long sendWindow;
+
+    /**
+     * Receive window, and the number of bytes read since the last
+     * WINDOW_UPDATE, guarded by the stream.
+     */
+    protected int receiveWindow;
+    protected int consumed = 0;
+
+    // State of the header block being decoded
+    private boolean regularHeaders = false;
+    private boolean malformed = false;
+    private int headerListSize = 0;
+    private boolean trailers = false;
+
+
+    public Http2Stream(Http2Connection connection, int id, int sendWindow, int receiveWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getId() {
+        return id;
+    }
+
+
+    public Request getRequest() {
+        return request;
+    }
+
+
+    public boolean isReset() {
+        return (resetError != -1);
+    }
+
+
+    public boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+
+    public boolean isLocalClosed() {
+        return localClosed;
+    }
+
+
+    // ------------------------------------------------------ Header decoding
+
+
+    /**
+     * Prepare the decoding of a header block into the given request, or of
+     * a trailer block if the request is <code>null</code>.
+     */
+    protected void startHeaders(Request request) {
+        if (request == null) {
+            trailers = true;
+        } else {
+            this.request = request;
+        }
+        regularHeaders = false;
+        headerListSize = 0;
+    }
+
+
+    /**
+     * Check the request once its header block has been decoded.
+     *
+     * @throws Http2Exception if the request is malformed (RFC 7540, section
+     *         8.1.2.6), which is a stream error
+     */
+    protected void endHeaders()
+        throws Http2Exception {
+        if (trailers) {
+            return;
+        }
+        if (!malformed && (request.method().isNull() || request.requestURI().isNull())) {
+            malformed = true;
+        }
+        if (malformed) {
+            throw new Http2Exception(id, Constants.PROTOCOL_ERROR, MESSAGES.http2MalformedRequest(id));
+        }
+    }
+
+
+    public void emitHeader(String name, String value)
+        throws Http2Exception {
+        headerListSize += HpackTable.entrySize(name, value);
+        if (malformed || trailers) {
+            // Keep decoding, so that the table stays in sync with the peer
+            return;
+        }
+        if (headerListSize > connection.getLocalSettings().getMaxHeaderListSize()) {
+            malformed = true;
+            return;
+        }
+        if (name.length() > 0 && name.charAt(0) == ':') {
+            if (regularHeaders) {
+                malformed = true;
+            } else if (name.equals(":method")) {
+                malformed = !setOnce(request.method(), value);
+            } else if (name.equals(":scheme")) {
+                malformed = !setOnce(request.scheme(), value);
+            } else if (name.equals(":path")) {
+                if (!request.requestURI().isNull() || value.length() == 0) {
+                    malformed = true;
+                } else {
+                    int question = value.indexOf('?');
+                    if (question < 0) {
+                        request.requestURI().setString(value);
+                    } else {
+                        request.requestURI().setString(value.substring(0, question));
+                        request.queryString().setString(value.substring(question + 1));
+                    }
+                    request.unparsedURI().setString(value);
+                }
+            } else if (name.equals(":authority")) {
+                request.getMimeHeaders().setValue("host").setString(value);
+            } else {
+                malformed = true;
+            }
+            return;
+        }
+        regularHeaders = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                malformed = true;
+                return;
+            }
+        }
+        if (name.equals("connection") || name.equals("keep-alive")
+                || name.equals("proxy-connection") || name.equals("transfer-encoding")
+                || name.equals("upgrade") || (name.equals("te") && !value.equals("trailers"))) {
+            malformed = true;
+            return;
+        }
+        MimeHeaders headers = request.getMimeHeaders();
+        if (name.equals("host") && headers.getValue("host") != null) {
+            // :authority takes precedence
+            return;
+        }
+        headers.addValue(name).setString(value);
+    }
+
+
+    // -------------------------------------------------------- Request body
+
+
+    /**
+     * Queue the payload of a DATA frame. Called by the thread reading the
+     * connection.
+     *
+     * @param padding Number of padding bytes of the frame, which count
+     *        against the receive window
+     */
+    protected synchronized void receiveData(byte[] buf, int off, int len, int padding, boolean endStream)
+        throws Http2Exception {
+        receiveWindow -= len + padding;
+        if (receiveWindow < 0) {
+            throw new Http2Exception(id, Constants.FLOW_CONTROL_ERROR, MESSAGES.http2FlowControlError(id));
+        }
+        if (len > 0) {
+            byte[] b = new byte[len];
+            System.arraycopy(buf, off, b, 0, len);
+            data.add(b);
+            available += len;
+        }
+        if (endStream) {
+            remoteClosed = true;
+        }
+        notifyAll();
+    }
+
+
+    /**
+     * Take the next part of the request body, waiting for it if needed.
+     *
+     * @param timeout Maximum time to wait in milliseconds
+     * @return the bytes, or <code>null</code> at the end of the body
+     */
+    protected synchronized byte[] read(long timeout)
+        throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (data.isEmpty()) {
+            if (isReset()) {
+                throw new IOException(MESSAGES.http2StreamReset(id, resetError));
+            } else if (remoteClosed) {
+                return null;
+            } else if (connection.isClosed()) {
+                throw new IOException(MESSAGES.http2ConnectionClosed());
+            }
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new IOException(MESSAGES.http2ReadTimeout(id));
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                throw new IOException(MESSAGES.http2ReadTimeout(id));
+            }
+        }
+        byte[] b = data.poll();
+        available -= b.length;
+        return b;
+    }
+
+
+    /**
+     * @return the number of request body bytes which can be read without
+     *         waiting
+     */
+    protected synchronized int available() {
+        return available;
+    }
+
+
+    /**
+     * Account for request body bytes which have been read.
+     *
+     * @return the window increment to send, or 0 if it is not worth sending
+     *         a WINDOW_UPDATE frame yet
+     */
+    protected synchronized int consume(int len) {
+        if (remoteClosed || isReset()) {
+            return 0;
+        }
+        consumed += len;
+        int initialWindowSize = connection.getLocalSettings().getInitialWindowSize();
+        if (consumed < initialWindowSize / 2) {
+            return 0;
+        }
+        int increment = consumed;
+        receiveWindow += increment;
+        consumed = 0;
+        return increment;
+    }
+
+
+    /**
+     * Mark the stream as reset, and wake up any thread waiting for it.
+     */
+    protected synchronized void reset(int error) {
+        if (resetError == -1) {
+            resetError = error;
+        }
+        data.clear();
+        available = 0;
+        notifyAll();
+    }
+
+
+    /**
+     * Wake up any thread waiting for request body bytes, after the
+     * connection has been closed.
+     */
+    protected synchronized void wakeUp() {
+        notifyAll();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private static boolean setOnce(MessageBytes mb, String value) {
+        if (!mb.isNull() || value.length() == 0) {
+            return false;
+        }
+        mb.setString(value);
+        return true;
+    }
+
+
+}
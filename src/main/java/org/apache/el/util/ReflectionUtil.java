@@ -24,6 +24,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.el.ELException;
 import javax.el.MethodNotFoundException;
@@ -46,6 +48,24 @@ public class ReflectionUtil {
             byte.class, char.class, double.class, float.class, int.class,
             long.class, short.class, Void.TYPE };
 
+    /**
+     * Maximum number of resolved methods cached for a single class.
+     */
+    protected static final int METHOD_CACHE_SIZE = 256;
+
+    /**
+     * Public methods and resolved methods, cached per class. The cache is
+     * attached to the classes themselves, so that it does not prevent web
+     * application classes from being unloaded.
+     */
+    private static final ClassValue<MethodCache> METHOD_CACHE =
+        new ClassValue<MethodCache>() {
+            @Override
+            protected MethodCache computeValue(Class<?> type) {
+                return new MethodCache(type);
+            }
+        };
+
     private ReflectionUtil() {
         super();
     }
@@ -134,8 +154,23 @@ public class ReflectionUtil {
             paramCount = paramTypes.length;
         }
 
-        Method[] methods = base.getClass().getMethods();
+        Class<?> clazz = base.getClass();
+        MethodCache cache = METHOD_CACHE.get(clazz);
+        MethodKey key = null;
+        if (isCacheable(clazz, paramTypes)) {
+            key = new MethodKey(methodName, paramTypes);
+            Method m = cache.resolved.get(key);
+            if (m != null) {
+                return m;
+            }
+        }
+
+        Method[] methods = cache.methods;
         Map<Method,Integer> candidates = new HashMap<Method,Integer>();
+        // The result can only be cached if it does not depend on the values,
+        // or on their absence
+        boolean coercion = false;
+        boolean valuesMissing = false;
 
         for (Method m : methods) {
             if (!m.getName().equals(methodName)) {
@@ -170,9 +205,11 @@ public class ReflectionUtil {
                     for (int j = i; j < paramCount; j++) {
                         if (!isAssignableFrom(paramTypes[j], varType)) {
                             if (paramValues == null) {
+                                valuesMissing = true;
                                 noMatch = true;
                                 break;
                             } else {
+                                coercion = true;
                                 if (!isCoercibleFrom(paramValues[j], varType)) {
                                     noMatch = true;
                                     break;
@@ -185,9 +222,11 @@ public class ReflectionUtil {
                     }
                 } else if (!isAssignableFrom(paramTypes[i], mParamTypes[i])) {
                     if (paramValues == null) {
+                        valuesMissing = true;
                         noMatch = true;
                         break;
                     } else {
+                        coercion = true;
                         if (!isCoercibleFrom(paramValues[i], mParamTypes[i])) {
                             noMatch = true;
                             break;
@@ -202,6 +241,9 @@ public class ReflectionUtil {
             // If a method is found where every parameter matches exactly,
             // return it
             if (exactMatch == paramCount) {
+                if (key != null) {
+                    cache.put(key, m);
+                }
                 return m;
             }
 
@@ -246,9 +288,42 @@ public class ReflectionUtil {
                         paramString(paramTypes)));
         }
 
+        if (key != null && !coercion && !valuesMissing) {
+            cache.put(key, match);
+        }
         return match;
     }
 
+    /**
+     * Check if the method resolved for the given parameter types may be
+     * cached for the class. This is the case if all the parameter types are
+     * visible from the class loader of the class, so that the cache entry
+     * does not keep another class loader alive.
+     */
+    private static boolean isCacheable(Class<?> clazz, Class<?>[] paramTypes) {
+        if (paramTypes == null) {
+            return true;
+        }
+        ClassLoader loader = clazz.getClassLoader();
+        for (int i = 0; i < paramTypes.length; i++) {
+            if (paramTypes[i] == null) {
+                continue;
+            }
+            ClassLoader paramLoader = paramTypes[i].getClassLoader();
+            if (paramLoader == null || paramLoader == loader) {
+                continue;
+            }
+            ClassLoader parent = loader;
+            while (parent != null && parent != paramLoader) {
+                parent = parent.getParent();
+            }
+            if (parent == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static Method resolveAmbiguousMethod(Set<Method> candidates,
             Class<?>[] paramTypes) {
         // Identify which parameter isn't an exact match
@@ -356,4 +431,51 @@ public class ReflectionUtil {
         }
         return null;
     }
+
+    private static final class MethodCache {
+        private final Method[] methods;
+        private final ConcurrentMap<MethodKey, Method> resolved =
+            new ConcurrentHashMap<MethodKey, Method>();
+
+        private MethodCache(Class<?> type) {
+            methods = type.getMethods();
+        }
+
+        private void put(MethodKey key, Method method) {
+            if (resolved.size() < METHOD_CACHE_SIZE) {
+                // The lookup key shares the caller's array
+                resolved.put(new MethodKey(key.name, key.paramTypes.clone()),
+                        method);
+            }
+        }
+    }
+
+    private static final class MethodKey {
+        private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+        private final String name;
+        private final Class<?>[] paramTypes;
+        private final int hash;
+
+        private MethodKey(String name, Class<?>[] paramTypes) {
+            this.name = name;
+            this.paramTypes = (paramTypes == null) ? NO_TYPES : paramTypes;
+            this.hash = name.hashCode() * 31 + Arrays.hashCode(this.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) obj;
+            return hash == other.hash && name.equals(other.name)
+                    && Arrays.equals(paramTypes, other.paramTypes);
+        }
+    }
 }
@@ -104,6 +104,11 @@ public final class EmbeddedServletOptions implements Options {
      */
     private boolean genStringAsCharArray = false;
     
+    /**
+     * Are Text strings to be generated as byte arrays?
+     */
+    private boolean genStringAsByteArray = false;
+    
     private boolean errorOnUseBeanInvalidClassAttribute = true;
     
     /**
@@ -170,6 +175,26 @@ public final class EmbeddedServletOptions implements Options {
      */
     private boolean recompileOnFail = false;
 
+    /**
+     * Are all the pages compiled when Jasper starts?
+     */
+    private boolean precompile = false;
+    
+    /**
+     * Number of threads used to compile the pages when Jasper starts.
+     */
+    private int precompileThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of loaded JSP pages.
+     */
+    private int maxLoadedJsps = -1;
+
+    /**
+     * Time in seconds after which an unused JSP page is unloaded.
+     */
+    private int jspIdleTimeout = -1;
+
     /**
      * Is generation of X-Powered-By response header enabled/disabled?
      */
@@ -252,6 +277,34 @@ public final class EmbeddedServletOptions implements Options {
         return recompileOnFail;
     }
 
+    /**
+     * Are all the pages compiled when Jasper starts?
+     */
+    public boolean getPrecompile() {
+        return precompile;
+    }
+
+    /**
+     * Number of threads used to compile the pages when Jasper starts.
+     */
+    public int getPrecompileThreads() {
+        return precompileThreads;
+    }
+
+    /**
+     * Maximum number of loaded JSP pages, -1 for no limit.
+     */
+    public int getMaxLoadedJsps() {
+        return maxLoadedJsps;
+    }
+
+    /**
+     * Time in seconds after which an unused JSP page is unloaded.
+     */
+    public int getJspIdleTimeout() {
+        return jspIdleTimeout;
+    }
+
     /**
      * Is Jasper being used in development mode?
      */
@@ -280,6 +333,13 @@ public final class EmbeddedServletOptions implements Options {
         return this.genStringAsCharArray;
     }
     
+    /**
+     * Are Text strings to be generated as byte arrays?
+     */
+    public boolean genStringAsByteArray() {
+        return this.genStringAsByteArray;
+    }
+    
     /**
      * Class ID for use in the plugin tag when the browser is IE. 
      */
@@ -498,6 +558,44 @@ public final class EmbeddedServletOptions implements Options {
                 JasperLogger.ROOT_LOGGER.invalidRecompileOnFailValue(recompileOnFail);
             }
         }
+        String precompile = config.getInitParameter("precompile"); 
+        if (precompile != null) {
+            if (precompile.equalsIgnoreCase("true")) {
+                this.precompile = true;
+            } else if (precompile.equalsIgnoreCase("false")) {
+                this.precompile = false;
+            } else {
+                JasperLogger.ROOT_LOGGER.invalidPrecompileValue(precompile);
+            }
+        }
+
+        String precompileThreads = config.getInitParameter("precompileThreads");
+        if (precompileThreads != null) {
+            try {
+                this.precompileThreads = Integer.parseInt(precompileThreads);
+            } catch(NumberFormatException ex) {
+                JasperLogger.ROOT_LOGGER.invalidPrecompileThreadsValue(precompileThreads);
+            }
+        }
+
+        String maxLoadedJsps = config.getInitParameter("maxLoadedJsps");
+        if (maxLoadedJsps != null) {
+            try {
+                this.maxLoadedJsps = Integer.parseInt(maxLoadedJsps);
+            } catch(NumberFormatException ex) {
+                JasperLogger.ROOT_LOGGER.invalidMaxLoadedJspsValue(maxLoadedJsps);
+            }
+        }
+
+        String jspIdleTimeout = config.getInitParameter("jspIdleTimeout");
+        if (jspIdleTimeout != null) {
+            try {
+                this.jspIdleTimeout = Integer.parseInt(jspIdleTimeout);
+            } catch(NumberFormatException ex) {
+                JasperLogger.ROOT_LOGGER.invalidJspIdleTimeoutValue(jspIdleTimeout);
+            }
+        }
+
         String development = config.getInitParameter("development");
         if (development != null) {
             if (development.equalsIgnoreCase("true")) {
@@ -542,6 +640,17 @@ public final class EmbeddedServletOptions implements Options {
             }
         }
         
+        String genByteArray = config.getInitParameter("genStringAsByteArray");
+        if (genByteArray != null) {
+            if (genByteArray.equalsIgnoreCase("true")) {
+                genStringAsByteArray = true;
+            } else if (genByteArray.equalsIgnoreCase("false")) {
+                genStringAsByteArray = false;
+            } else {
+                JasperLogger.ROOT_LOGGER.invalidGenStrAsByteArrayValue(genByteArray);
+            }
+        }
+        
         String errBeanClass =
             config.getInitParameter("errorOnUseBeanInvalidClassAttribute");
         if (errBeanClass != null) {
@@ -598,14 +598,10 @@ public class JspCompilationContext {
     // ==================== Compile and reload ====================
     
     public void compile() throws JasperException, FileNotFoundException {
-        createCompiler();
-        if (jspCompiler.isOutDated()) {
+        if (prepareCompile()) {
             try {
-                jspCompiler.removeGeneratedFiles();
-                jspLoader = null;
                 jspCompiler.compile();
-                jsw.setReload(true);
-                jsw.setCompilationException(null);
+                compiled();
             } catch (JasperException ex) {
                 // Cache compilation exception
                 jsw.setCompilationException(ex);
@@ -624,6 +620,32 @@ public class JspCompilationContext {
         }
     }
 
+    /**
+     * Check if the page is outdated, and prepare its compilation if it is.
+     * This allows compiling the page with the compiler directly, for example
+     * together with other pages.
+     * 
+     * @return true if the page has to be compiled, in which case
+     *         {@link #compiled()} must be called once it is
+     */
+    public boolean prepareCompile() throws JasperException {
+        createCompiler();
+        if (jspCompiler.isOutDated()) {
+            jspCompiler.removeGeneratedFiles();
+            jspLoader = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notify the wrapper that the page has been compiled successfully.
+     */
+    public void compiled() {
+        jsw.setReload(true);
+        jsw.setCompilationException(null);
+    }
+
     // ==================== Manipulating the class ====================
 
     public Class load() 
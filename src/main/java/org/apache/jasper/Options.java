@@ -164,6 +164,12 @@ public interface Options {
      */
     public boolean genStringAsCharArray();
     
+    /**
+     * Are Text strings to be generated as byte arrays encoded using the
+     * charset of the page?
+     */
+    public boolean genStringAsByteArray();
+    
     /**
      * Modification test interval.
      */
@@ -174,6 +180,27 @@ public interface Options {
      */
     public boolean getRecompileOnFail();
 
+    /**
+     * Are all the pages of the web application compiled when Jasper starts?
+     */
+    public boolean getPrecompile();
+
+    /**
+     * Number of threads used to compile the pages when Jasper starts.
+     */
+    public int getPrecompileThreads();
+
+    /**
+     * Maximum number of loaded JSP pages, -1 for no limit.
+     */
+    public int getMaxLoadedJsps();
+
+    /**
+     * Time in seconds after which an unused JSP page is unloaded, -1 to
+     * never unload pages.
+     */
+    public int getJspIdleTimeout();
+
     /**
      * Is caching enabled (used for precompilation).
      */
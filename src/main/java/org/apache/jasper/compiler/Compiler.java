@@ -351,50 +351,78 @@ public abstract class Compiler {
      */
     public void compile(boolean compileClass, boolean jspcMode)
             throws FileNotFoundException, JasperException, Exception {
-        if (errDispatcher == null) {
-            this.errDispatcher = new ErrorDispatcher(jspcMode);
-        }
-
         try {
-            String[] smap = generateJava();
+            String[] smap = generate(jspcMode);
             if (compileClass) {
                 generateClass(smap);
-                // Set JspServletWrapper.servletClassLastModifiedTime after successful compile
-                String targetFileName = ctxt.getClassFileName();
-                if (targetFileName != null) {
-                    File targetFile = new File(targetFileName);
-                    if (targetFile.exists() && jsw != null) {
-                        jsw.setServletClassLastModifiedTime(targetFile.lastModified());
-                    }
-                }
+                classCompiled();
             }
         } finally {
-            if (tfp != null) {
-                tfp.removeProtoTypeFiles(null);
-            }
-            // Make sure these object which are only used during the
-            // generation and compilation of the JSP page get
-            // dereferenced so that they can be GC'd and reduce the
-            // memory footprint.
-            tfp = null;
-            errDispatcher = null;
-            pageInfo = null;
-
-            // Only get rid of the pageNodes if in production.
-            // In development mode, they are used for detailed
-            // error messages.
-            // http://issues.apache.org/bugzilla/show_bug.cgi?id=37062
-            if (!this.options.getDevelopment()) {
-                pageNodes = null;
-            }
+            release();
+        }
+    }
+
+    /**
+     * Generate the .java file of the jsp file. The class may then be compiled
+     * using {@link #generateClass(String[])}, and {@link #release()} must be
+     * called once done.
+     * 
+     * @param jspcMode
+     *            true if invoked from JspC, false otherwise
+     * @return a smap for the current JSP page, if one is generated, null
+     *         otherwise
+     */
+    protected String[] generate(boolean jspcMode) throws Exception {
+        if (errDispatcher == null) {
+            this.errDispatcher = new ErrorDispatcher(jspcMode);
+        }
+        return generateJava();
+    }
 
-            if (ctxt.getWriter() != null) {
-                ctxt.getWriter().close();
-                ctxt.setWriter(null);
+    /**
+     * Update the wrapper after a successful compilation of the class.
+     */
+    protected void classCompiled() {
+        // Set JspServletWrapper.servletClassLastModifiedTime after successful compile
+        String targetFileName = ctxt.getClassFileName();
+        if (targetFileName != null) {
+            File targetFile = new File(targetFileName);
+            if (targetFile.exists() && jsw != null) {
+                jsw.setServletClassLastModifiedTime(targetFile.lastModified());
             }
         }
     }
 
+    /**
+     * Release the objects used during the generation and compilation of the
+     * jsp file.
+     */
+    protected void release() {
+        if (tfp != null) {
+            tfp.removeProtoTypeFiles(null);
+        }
+        // Make sure these object which are only used during the
+        // generation and compilation of the JSP page get
+        // dereferenced so that they can be GC'd and reduce the
+        // memory footprint.
+        tfp = null;
+        errDispatcher = null;
+        pageInfo = null;
+
+        // Only get rid of the pageNodes if in production.
+        // In development mode, they are used for detailed
+        // error messages.
+        // http://issues.apache.org/bugzilla/show_bug.cgi?id=37062
+        if (!this.options.getDevelopment()) {
+            pageNodes = null;
+        }
+
+        if (ctxt.getWriter() != null) {
+            ctxt.getWriter().close();
+            ctxt.setWriter(null);
+        }
+    }
+
     /**
      * This is a protected method intended to be overridden by subclasses of
      * Compiler. This is used by the compile method to do all the compilation.
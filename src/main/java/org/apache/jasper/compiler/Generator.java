@@ -25,6 +25,8 @@ import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -781,6 +783,12 @@ class Generator {
 
         private HashMap textMap;
 
+        /**
+         * Charset used to encode the text strings, or null if they are not
+         * generated as byte arrays.
+         */
+        private String textCharset;
+
         /**
          * Constructor.
          */
@@ -799,6 +807,9 @@ class Generator {
             handlerInfos = new Hashtable();
             tagVarNumbers = new Hashtable();
             textMap = new HashMap();
+            if (!isTagFile && ctxt.getOptions().genStringAsByteArray()) {
+                textCharset = getResponseCharset();
+            }
         }
 
         /**
@@ -1963,8 +1974,9 @@ class Generator {
                 return;
             }
 
-            if (ctxt.getOptions().genStringAsCharArray()) {
-                // Generate Strings as char arrays, for performance
+            if (textCharset != null || ctxt.getOptions().genStringAsCharArray()) {
+                // Generate Strings as char arrays, or as byte arrays encoded
+                // when the class is loaded, for performance
                 ServletWriter caOut;
                 if (charArrayBuffer == null) {
                     charArrayBuffer = new GenBuffer();
@@ -1976,17 +1988,32 @@ class Generator {
                 }
                 String charArrayName = (String) textMap.get(text);
                 if (charArrayName == null) {
-                    charArrayName = "_jspx_char_array_" + charArrayCount++;
+                    if (textCharset != null) {
+                        charArrayName = "_jspx_encoded_text_" + charArrayCount++;
+                        caOut.printin("static final org.apache.jasper.runtime.EncodedText ");
+                        caOut.print(charArrayName);
+                        caOut.print(" = new org.apache.jasper.runtime.EncodedText(");
+                        caOut.print(quote(text));
+                        caOut.print(", ");
+                        caOut.print(quote(textCharset));
+                        caOut.println(");");
+                    } else {
+                        charArrayName = "_jspx_char_array_" + charArrayCount++;
+                        caOut.printin("static char[] ");
+                        caOut.print(charArrayName);
+                        caOut.print(" = ");
+                        caOut.print(quote(text));
+                        caOut.println(".toCharArray();");
+                    }
                     textMap.put(text, charArrayName);
-                    caOut.printin("static char[] ");
-                    caOut.print(charArrayName);
-                    caOut.print(" = ");
-                    caOut.print(quote(text));
-                    caOut.println(".toCharArray();");
                 }
 
                 n.setBeginJavaLine(out.getJavaLine());
-                out.printil("out.write(" + charArrayName + ");");
+                if (textCharset != null) {
+                    out.printil(charArrayName + ".write(out);");
+                } else {
+                    out.printil("out.write(" + charArrayName + ");");
+                }
                 n.setEndJavaLine(out.getJavaLine());
                 return;
             }
@@ -3355,6 +3382,35 @@ class Generator {
         out.printil("}");
     }
 
+    /**
+     * @return the charset of the response of the page, if it is specified by
+     *         the content type and supported, or null
+     */
+    private String getResponseCharset() {
+        String contentType = pageInfo.getContentType();
+        if (contentType == null) {
+            return null;
+        }
+        int start = contentType.indexOf("charset=");
+        if (start < 0) {
+            return null;
+        }
+        String charset = contentType.substring(start + 8);
+        int end = charset.indexOf(';');
+        if (end >= 0) {
+            charset = charset.substring(0, end);
+        }
+        charset = charset.trim();
+        if (charset.length() > 1 && charset.startsWith("\"") && charset.endsWith("\"")) {
+            charset = charset.substring(1, charset.length() - 1);
+        }
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        }
+    }
+
     /**
      * Generates the ending part of the static portion of the servlet.
      */
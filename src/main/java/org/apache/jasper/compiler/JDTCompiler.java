@@ -30,9 +30,11 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jasper.JasperException;
 import org.eclipse.jdt.core.compiler.IProblem;
@@ -41,8 +43,6 @@ import org.eclipse.jdt.internal.compiler.CompilationResult;
 import org.eclipse.jdt.internal.compiler.Compiler;
 import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
 import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
-import org.eclipse.jdt.internal.compiler.IErrorHandlingPolicy;
-import org.eclipse.jdt.internal.compiler.IProblemFactory;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
 import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
 import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
@@ -73,212 +73,109 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
             t1 = System.currentTimeMillis();
         }
         
-        final String sourceFile = ctxt.getServletJavaFileName();
-        final String outputDir = ctxt.getOptions().getScratchDir().getAbsolutePath();
-        String packageName = ctxt.getServletPackageName();
-        final String targetClassName = 
-            ((packageName.length() != 0) ? (packageName + ".") : "") 
-                    + ctxt.getServletClassName();
-        final ClassLoader classLoader = ctxt.getJspLoader();
-        String[] fileNames = new String[] {sourceFile};
-        String[] classNames = new String[] {targetClassName};
-        final ArrayList problemList = new ArrayList();
+        final List problemList = new ArrayList();
+        CompilationUnit compilationUnit = getCompilationUnit();
+        NameEnvironment env = new NameEnvironment(ctxt.getJspLoader());
+        env.addCompilationUnit(compilationUnit);
         
-        class CompilationUnit implements ICompilationUnit {
-
-            String className;
-            String sourceFile;
-
-            CompilationUnit(String sourceFile, String className) {
-                this.className = className;
-                this.sourceFile = sourceFile;
-            }
-
-            public char[] getFileName() {
-                return sourceFile.toCharArray();
-            }
-            
-            public char[] getContents() {
-                char[] result = null;
-                FileInputStream is = null;
-                Reader reader = null;
-                try {
-                    is = new FileInputStream(sourceFile);
-                    reader = new BufferedReader(new InputStreamReader(is, ctxt.getOptions().getJavaEncoding()));
-                    if (reader != null) {
-                        char[] chars = new char[8192];
-                        StringBuilder buf = new StringBuilder();
-                        int count;
-                        while ((count = reader.read(chars, 0, 
-                                                    chars.length)) > 0) {
-                            buf.append(chars, 0, count);
-                        }
-                        result = new char[buf.length()];
-                        buf.getChars(0, result.length, result, 0);
-                    }
-                } catch (IOException e) {
-                    JasperLogger.COMPILER_LOGGER.errorReadingSourceFile(sourceFile, e);
-                } finally {
-                    if (reader != null) {
-                        try {
-                            reader.close();
-                        } catch (IOException exc) {
-                            // Ignore
-                        }
-                    }
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException exc) {
-                            // Ignore
-                        }
-                    }
-                }
-                return result;
-            }
-            
-            public char[] getMainTypeName() {
-                int dot = className.lastIndexOf('.');
-                if (dot > 0) {
-                    return className.substring(dot + 1).toCharArray();
-                }
-                return className.toCharArray();
-            }
-            
-            public char[][] getPackageName() {
-                StringTokenizer izer = 
-                    new StringTokenizer(className, ".");
-                char[][] result = new char[izer.countTokens()-1][];
-                for (int i = 0; i < result.length; i++) {
-                    String tok = izer.nextToken();
-                    result[i] = tok.toCharArray();
+        final ICompilerRequestor requestor = new ICompilerRequestor() {
+                public void acceptResult(CompilationResult result) {
+                    JDTCompiler.this.acceptResult(result, problemList);
                 }
-                return result;
-            }
+            };
 
-            public boolean ignoreOptionalProblems() {
-                return false;
-            }
+        compile(new ICompilationUnit[] {compilationUnit}, env, getSettings(), requestor);
+
+        if( JasperLogger.COMPILER_LOGGER.isDebugEnabled() ) {
+            long t2=System.currentTimeMillis();
+            JasperLogger.COMPILER_LOGGER.debug("Compiled " + ctxt.getServletJavaFileName() + " "
+                      + (t2-t1) + "ms");
         }
 
-        final INameEnvironment env = new INameEnvironment() {
+        classGenerated(problemList, smap);
+    }
 
-                public NameEnvironmentAnswer 
-                    findType(char[][] compoundTypeName) {
-                    String result = "";
-                    String sep = "";
-                    for (int i = 0; i < compoundTypeName.length; i++) {
-                        result += sep;
-                        result += new String(compoundTypeName[i]);
-                        sep = ".";
+
+    /**
+     * Compile the servlets of several pages, whose .java files have been
+     * generated, using a single JDT compiler invocation.
+     * 
+     * @param compilers the compilers of the pages
+     * @param env the name environment, which must not be used concurrently
+     *        but may share its caches with other name environments
+     * @return the problems found for each page, which are then passed to
+     *         {@link #classGenerated(List, String[])}
+     */
+    protected static List[] generateClasses(final JDTCompiler[] compilers, NameEnvironment env) {
+        final List[] problemLists = new List[compilers.length];
+        final Map<String, Integer> pages = new HashMap<String, Integer>();
+        ICompilationUnit[] compilationUnits = new ICompilationUnit[compilers.length];
+        for (int i = 0; i < compilers.length; i++) {
+            problemLists[i] = new ArrayList();
+            CompilationUnit compilationUnit = compilers[i].getCompilationUnit();
+            env.addCompilationUnit(compilationUnit);
+            pages.put(compilationUnit.sourceFile, Integer.valueOf(i));
+            compilationUnits[i] = compilationUnit;
+        }
+        
+        final ICompilerRequestor requestor = new ICompilerRequestor() {
+                public void acceptResult(CompilationResult result) {
+                    Integer page = pages.get(new String(result.getFileName()));
+                    if (page != null) {
+                        int i = page.intValue();
+                        compilers[i].acceptResult(result, problemLists[i]);
                     }
-                    return findType(result);
                 }
+            };
 
-                public NameEnvironmentAnswer 
-                    findType(char[] typeName, 
-                             char[][] packageName) {
-                        String result = "";
-                        String sep = "";
-                        for (int i = 0; i < packageName.length; i++) {
-                            result += sep;
-                            result += new String(packageName[i]);
-                            sep = ".";
-                        }
-                        result += sep;
-                        result += new String(typeName);
-                        return findType(result);
-                }
-                
-                private NameEnvironmentAnswer findType(String className) {
+        compile(compilationUnits, env, compilers[0].getSettings(), requestor);
+        return problemLists;
+    }
 
-                    InputStream is = null;
-                    try {
-                        if (className.equals(targetClassName)) {
-                            ICompilationUnit compilationUnit = 
-                                new CompilationUnit(sourceFile, className);
-                            return 
-                                new NameEnvironmentAnswer(compilationUnit, null);
-                        }
-                        String resourceName = 
-                            className.replace('.', '/') + ".class";
-                        is = classLoader.getResourceAsStream(resourceName);
-                        if (is != null) {
-                            byte[] classBytes;
-                            byte[] buf = new byte[8192];
-                            ByteArrayOutputStream baos = 
-                                new ByteArrayOutputStream(buf.length);
-                            int count;
-                            while ((count = is.read(buf, 0, buf.length)) > 0) {
-                                baos.write(buf, 0, count);
-                            }
-                            baos.flush();
-                            classBytes = baos.toByteArray();
-                            char[] fileName = className.toCharArray();
-                            ClassFileReader classFileReader = 
-                                new ClassFileReader(classBytes, fileName, 
-                                                    true);
-                            return 
-                                new NameEnvironmentAnswer(classFileReader, null);
-                        }
-                    } catch (IOException exc) {
-                        JasperLogger.COMPILER_LOGGER.errorReadingClassFile(className, exc);
-                    } catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
-                        JasperLogger.COMPILER_LOGGER.errorReadingClassFile(className, exc);
-                    } finally {
-                        if (is != null) {
-                            try {
-                                is.close();
-                            } catch (IOException exc) {
-                                // Ignore
-                            }
-                        }
-                    }
-                    return null;
-                }
 
-                private boolean isPackage(String result) {
-                    if (result.equals(targetClassName)) {
-                        return false;
-                    }
-                    String resourceName = result.replace('.', '/') + ".class";
-                    InputStream is = 
-                        classLoader.getResourceAsStream(resourceName);
-                    return is == null;
-                }
+    /**
+     * Complete the compilation of the servlet once the JDT compiler has
+     * processed it.
+     */
+    protected void classGenerated(List problemList, String[] smap)
+        throws JasperException {
 
-                public boolean isPackage(char[][] parentPackageName, 
-                                         char[] packageName) {
-                    String result = "";
-                    String sep = "";
-                    if (parentPackageName != null) {
-                        for (int i = 0; i < parentPackageName.length; i++) {
-                            result += sep;
-                            String str = new String(parentPackageName[i]);
-                            result += str;
-                            sep = ".";
-                        }
-                    }
-                    String str = new String(packageName);
-                    if (Character.isUpperCase(str.charAt(0))) {
-                        if (!isPackage(result)) {
-                            return false;
-                        }
-                    }
-                    result += sep;
-                    result += str;
-                    return isPackage(result);
-                }
+        if (!ctxt.keepGenerated()) {
+            File javaFile = new File(ctxt.getServletJavaFileName());
+            javaFile.delete();
+        }
+    
+        if (!problemList.isEmpty()) {
+            JavacErrorDetail[] jeds = 
+                (JavacErrorDetail[]) problemList.toArray(new JavacErrorDetail[0]);
+            errDispatcher.javacError(jeds);
+        }
+        
+        if (ctxt.isPrototypeMode()) {
+            return;
+        }
 
-                public void cleanup() {
-                }
+        // JSR45 Support
+        if (! options.isSmapSuppressed()) {
+            SmapUtil.installSmap(smap);
+        }
+        
+    }
 
-            };
 
-        final IErrorHandlingPolicy policy = 
-            DefaultErrorHandlingPolicies.proceedWithAllProblems();
+    protected CompilationUnit getCompilationUnit() {
+        String packageName = ctxt.getServletPackageName();
+        String targetClassName = 
+            ((packageName.length() != 0) ? (packageName + ".") : "") 
+                    + ctxt.getServletClassName();
+        return new CompilationUnit(ctxt.getServletJavaFileName(), targetClassName,
+                ctxt.getOptions().getJavaEncoding());
+    }
+
 
-        final Map settings = new HashMap();
+    protected Map getSettings() {
+
+        Map settings = new HashMap();
         settings.put(CompilerOptions.OPTION_LineNumberAttribute,
                      CompilerOptions.GENERATE);
         settings.put(CompilerOptions.OPTION_SourceFileAttribute,
@@ -372,100 +269,324 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                     CompilerOptions.VERSION_1_5);
         }
 
-        final IProblemFactory problemFactory = 
-            new DefaultProblemFactory(Locale.getDefault());
-        
-        final ICompilerRequestor requestor = new ICompilerRequestor() {
-                public void acceptResult(CompilationResult result) {
-                    try {
-                        if (result.hasProblems()) {
-                            IProblem[] problems = result.getProblems();
-                            for (int i = 0; i < problems.length; i++) {
-                                IProblem problem = problems[i];
-                                if (problem.isError()) {
-                                    String name = 
-                                        new String(problems[i].getOriginatingFileName());
-                                    try {
-                                        problemList.add(ErrorDispatcher.createJavacError
-                                                (name, pageNodes, new StringBuilder(problem.getMessage()), 
-                                                        problem.getSourceLineNumber(), ctxt));
-                                    } catch (JasperException e) {
-                                        JasperLogger.COMPILER_LOGGER.errorCreatingCompilerReport(e);
-                                    }
-                                }
-                            }
-                        }
-                        if (problemList.isEmpty()) {
-                            ClassFile[] classFiles = result.getClassFiles();
-                            for (int i = 0; i < classFiles.length; i++) {
-                                ClassFile classFile = classFiles[i];
-                                char[][] compoundName = 
-                                    classFile.getCompoundName();
-                                String className = "";
-                                String sep = "";
-                                for (int j = 0; 
-                                     j < compoundName.length; j++) {
-                                    className += sep;
-                                    className += new String(compoundName[j]);
-                                    sep = ".";
-                                }
-                                byte[] bytes = classFile.getBytes();
-                                String outFile = outputDir + "/" + 
-                                    className.replace('.', '/') + ".class";
-                                FileOutputStream fout = 
-                                    new FileOutputStream(outFile);
-                                BufferedOutputStream bos = 
-                                    new BufferedOutputStream(fout);
-                                bos.write(bytes);
-                                bos.close();
-                            }
+        return settings;
+    }
+
+
+    /**
+     * Process the result of the compilation of the servlet: record the
+     * errors, or write the class files if there are none.
+     */
+    protected void acceptResult(CompilationResult result, List problemList) {
+        String outputDir = ctxt.getOptions().getScratchDir().getAbsolutePath();
+        try {
+            if (result.hasProblems()) {
+                IProblem[] problems = result.getProblems();
+                for (int i = 0; i < problems.length; i++) {
+                    IProblem problem = problems[i];
+                    if (problem.isError()) {
+                        String name = 
+                            new String(problems[i].getOriginatingFileName());
+                        try {
+                            problemList.add(ErrorDispatcher.createJavacError
+                                    (name, pageNodes, new StringBuilder(problem.getMessage()), 
+                                            problem.getSourceLineNumber(), ctxt));
+                        } catch (JasperException e) {
+                            JasperLogger.COMPILER_LOGGER.errorCreatingCompilerReport(e);
                         }
-                    } catch (IOException exc) {
-                        JasperLogger.COMPILER_LOGGER.errorCompiling(exc);
                     }
                 }
-            };
-
-        ICompilationUnit[] compilationUnits = 
-            new ICompilationUnit[classNames.length];
-        for (int i = 0; i < compilationUnits.length; i++) {
-            String className = classNames[i];
-            compilationUnits[i] = new CompilationUnit(fileNames[i], className);
+            }
+            if (problemList.isEmpty()) {
+                ClassFile[] classFiles = result.getClassFiles();
+                for (int i = 0; i < classFiles.length; i++) {
+                    ClassFile classFile = classFiles[i];
+                    char[][] compoundName = 
+                        classFile.getCompoundName();
+                    String className = "";
+                    String sep = "";
+                    for (int j = 0; 
+                         j < compoundName.length; j++) {
+                        className += sep;
+                        className += new String(compoundName[j]);
+                        sep = ".";
+                    }
+                    byte[] bytes = classFile.getBytes();
+                    String outFile = outputDir + "/" + 
+                        className.replace('.', '/') + ".class";
+                    FileOutputStream fout = 
+                        new FileOutputStream(outFile);
+                    BufferedOutputStream bos = 
+                        new BufferedOutputStream(fout);
+                    bos.write(bytes);
+                    bos.close();
+                }
+            }
+        } catch (IOException exc) {
+            JasperLogger.COMPILER_LOGGER.errorCompiling(exc);
         }
+    }
+
+
+    protected static void compile(ICompilationUnit[] compilationUnits, INameEnvironment env,
+            Map settings, ICompilerRequestor requestor) {
         Compiler compiler = new Compiler(env,
-                                         policy,
+                                         DefaultErrorHandlingPolicies.proceedWithAllProblems(),
                                          settings,
                                          requestor,
-                                         problemFactory,
+                                         new DefaultProblemFactory(Locale.getDefault()),
                                          true);
         compiler.compile(compilationUnits);
+    }
 
-        if (!ctxt.keepGenerated()) {
-            File javaFile = new File(ctxt.getServletJavaFileName());
-            javaFile.delete();
+
+    protected static class CompilationUnit implements ICompilationUnit {
+
+        protected final String className;
+        protected final String sourceFile;
+        protected final String encoding;
+
+        protected CompilationUnit(String sourceFile, String className, String encoding) {
+            this.className = className;
+            this.sourceFile = sourceFile;
+            this.encoding = encoding;
         }
-    
-        if (!problemList.isEmpty()) {
-            JavacErrorDetail[] jeds = 
-                (JavacErrorDetail[]) problemList.toArray(new JavacErrorDetail[0]);
-            errDispatcher.javacError(jeds);
+
+        public char[] getFileName() {
+            return sourceFile.toCharArray();
         }
         
-        if( JasperLogger.COMPILER_LOGGER.isDebugEnabled() ) {
-            long t2=System.currentTimeMillis();
-            JasperLogger.COMPILER_LOGGER.debug("Compiled " + ctxt.getServletJavaFileName() + " "
-                      + (t2-t1) + "ms");
+        public char[] getContents() {
+            char[] result = null;
+            FileInputStream is = null;
+            Reader reader = null;
+            try {
+                is = new FileInputStream(sourceFile);
+                reader = new BufferedReader(new InputStreamReader(is, encoding));
+                if (reader != null) {
+                    char[] chars = new char[8192];
+                    StringBuilder buf = new StringBuilder();
+                    int count;
+                    while ((count = reader.read(chars, 0, 
+                                                chars.length)) > 0) {
+                        buf.append(chars, 0, count);
+                    }
+                    result = new char[buf.length()];
+                    buf.getChars(0, result.length, result, 0);
+                }
+            } catch (IOException e) {
+                JasperLogger.COMPILER_LOGGER.errorReadingSourceFile(sourceFile, e);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException exc) {
+                        // Ignore
+                    }
+                }
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException exc) {
+                        // Ignore
+                    }
+                }
+            }
+            return result;
+        }
+        
+        public char[] getMainTypeName() {
+            int dot = className.lastIndexOf('.');
+            if (dot > 0) {
+                return className.substring(dot + 1).toCharArray();
+            }
+            return className.toCharArray();
+        }
+        
+        public char[][] getPackageName() {
+            StringTokenizer izer = 
+                new StringTokenizer(className, ".");
+            char[][] result = new char[izer.countTokens()-1][];
+            for (int i = 0; i < result.length; i++) {
+                String tok = izer.nextToken();
+                result[i] = tok.toCharArray();
+            }
+            return result;
         }
 
-        if (ctxt.isPrototypeMode()) {
-            return;
+        public boolean ignoreOptionalProblems() {
+            return false;
         }
+    }
 
-        // JSR45 Support
-        if (! options.isSmapSuppressed()) {
-            SmapUtil.installSmap(smap);
+
+    /**
+     * Name environment resolving the pages being compiled to their
+     * compilation units, and the other types using the class loader. The
+     * bytes of the classes read from the class loader are cached, and the
+     * caches may be shared by the name environments of concurrent
+     * compilations.
+     */
+    protected static class NameEnvironment implements INameEnvironment {
+
+        protected static final byte[] NOT_FOUND = new byte[0];
+
+        protected final ClassLoader classLoader;
+        protected final Map<String, CompilationUnit> compilationUnits =
+            new HashMap<String, CompilationUnit>();
+        protected final Map<String, byte[]> classes;
+
+        protected NameEnvironment(ClassLoader classLoader) {
+            this(classLoader, new HashMap<String, byte[]>());
+        }
+
+        /**
+         * Create a name environment sharing the class loader and cache of the
+         * specified environment, but not its compilation units.
+         */
+        protected NameEnvironment(NameEnvironment shared) {
+            this(shared.classLoader, shared.classes);
+        }
+
+        private NameEnvironment(ClassLoader classLoader, Map<String, byte[]> classes) {
+            this.classLoader = classLoader;
+            this.classes = classes;
+        }
+
+        /**
+         * Create a name environment whose cache may be shared by concurrent
+         * compilations.
+         */
+        protected static NameEnvironment createShared(ClassLoader classLoader) {
+            return new NameEnvironment(classLoader, new ConcurrentHashMap<String, byte[]>());
+        }
+
+        protected void addCompilationUnit(CompilationUnit compilationUnit) {
+            compilationUnits.put(compilationUnit.className, compilationUnit);
+        }
+
+        public NameEnvironmentAnswer 
+            findType(char[][] compoundTypeName) {
+            String result = "";
+            String sep = "";
+            for (int i = 0; i < compoundTypeName.length; i++) {
+                result += sep;
+                result += new String(compoundTypeName[i]);
+                sep = ".";
+            }
+            return findType(result);
+        }
+
+        public NameEnvironmentAnswer 
+            findType(char[] typeName, 
+                     char[][] packageName) {
+                String result = "";
+                String sep = "";
+                for (int i = 0; i < packageName.length; i++) {
+                    result += sep;
+                    result += new String(packageName[i]);
+                    sep = ".";
+                }
+                result += sep;
+                result += new String(typeName);
+                return findType(result);
         }
         
+        private NameEnvironmentAnswer findType(String className) {
+            CompilationUnit compilationUnit = compilationUnits.get(className);
+            if (compilationUnit != null) {
+                return new NameEnvironmentAnswer(compilationUnit, null);
+            }
+            byte[] classBytes = getClassBytes(className);
+            if (classBytes != null) {
+                try {
+                    char[] fileName = className.toCharArray();
+                    ClassFileReader classFileReader = 
+                        new ClassFileReader(classBytes, fileName, 
+                                            true);
+                    return 
+                        new NameEnvironmentAnswer(classFileReader, null);
+                } catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
+                    JasperLogger.COMPILER_LOGGER.errorReadingClassFile(className, exc);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Read the bytes of a class from the class loader, or from the cache.
+         * 
+         * @return the bytes, or null if the class does not exist
+         */
+        protected byte[] getClassBytes(String className) {
+            byte[] classBytes = classes.get(className);
+            if (classBytes == null) {
+                classBytes = NOT_FOUND;
+                InputStream is = null;
+                try {
+                    String resourceName = 
+                        className.replace('.', '/') + ".class";
+                    is = classLoader.getResourceAsStream(resourceName);
+                    if (is != null) {
+                        byte[] buf = new byte[8192];
+                        ByteArrayOutputStream baos = 
+                            new ByteArrayOutputStream(buf.length);
+                        int count;
+                        while ((count = is.read(buf, 0, buf.length)) > 0) {
+                            baos.write(buf, 0, count);
+                        }
+                        baos.flush();
+                        classBytes = baos.toByteArray();
+                    }
+                } catch (IOException exc) {
+                    JasperLogger.COMPILER_LOGGER.errorReadingClassFile(className, exc);
+                } finally {
+                    if (is != null) {
+                        try {
+                            is.close();
+                        } catch (IOException exc) {
+                            // Ignore
+                        }
+                    }
+                }
+                classes.put(className, classBytes);
+            }
+            return (classBytes == NOT_FOUND) ? null : classBytes;
+        }
+
+        private boolean isPackage(String result) {
+            if (compilationUnits.containsKey(result)) {
+                return false;
+            }
+            return getClassBytes(result) == null;
+        }
+
+        public boolean isPackage(char[][] parentPackageName, 
+                                 char[] packageName) {
+            String result = "";
+            String sep = "";
+            if (parentPackageName != null) {
+                for (int i = 0; i < parentPackageName.length; i++) {
+                    result += sep;
+                    String str = new String(parentPackageName[i]);
+                    result += str;
+                    sep = ".";
+                }
+            }
+            String str = new String(packageName);
+            if (Character.isUpperCase(str.charAt(0))) {
+                if (!isPackage(result)) {
+                    return false;
+                }
+            }
+            result += sep;
+            result += str;
+            return isPackage(result);
+        }
+
+        public void cleanup() {
+        }
+
     }
     
     
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.jboss.web.JasperLogger;
+
+/**
+ * Compiles all the JSP pages of a web application when Jasper starts, so
+ * that the first requests do not wait for the compilation of the pages
+ * they use.
+ * <p>
+ * The pages are parsed and their servlets generated in parallel, using a
+ * bounded number of threads. The servlets are then compiled by as few JDT
+ * compiler invocations as there are threads, which share a cache of the
+ * classes they reference. Tag files are compiled when the first page using
+ * them is generated, as their tag information comes from that page.
+ * Pages which fail to compile are left to be compiled, and their errors
+ * reported, when they are requested.
+ */
+public class JspPrecompiler {
+
+    protected final ServletConfig config;
+    protected final Options options;
+    protected final JspRuntimeContext rctxt;
+
+    protected int pageCount = 0;
+    protected int compiledCount = 0;
+    protected int failedCount = 0;
+    protected long time = 0;
+
+    /**
+     * Compilation time in milliseconds of each compiled page.
+     */
+    protected Map<String, Long> compileTimes = new TreeMap<String, Long>();
+
+
+    /**
+     * A page being compiled.
+     */
+    protected static class Page {
+        protected final String jspUri;
+        protected final JspServletWrapper wrapper;
+        protected final boolean created;
+        protected Compiler compiler = null;
+        protected String[] smap = null;
+        protected boolean generated = false;
+        protected boolean compiled = false;
+        protected Throwable exception = null;
+        protected long generationTime = 0;
+        protected long compilationTime = 0;
+
+        protected Page(String jspUri, JspServletWrapper wrapper, boolean created) {
+            this.jspUri = jspUri;
+            this.wrapper = wrapper;
+            this.created = created;
+        }
+    }
+
+
+    public JspPrecompiler(ServletConfig config, Options options, JspRuntimeContext rctxt) {
+        this.config = config;
+        this.options = options;
+        this.rctxt = rctxt;
+    }
+
+
+    /**
+     * Return the number of pages found in the web application.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+
+    /**
+     * Return the number of pages which have been compiled.
+     */
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+
+    /**
+     * Return the number of pages which failed to compile.
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+
+    /**
+     * Return the total time in milliseconds spent compiling the pages.
+     */
+    public long getTime() {
+        return time;
+    }
+
+
+    /**
+     * Return the compilation time in milliseconds of each compiled page,
+     * which is the time spent generating its servlet plus its share of the
+     * compilation of the servlets compiled with it.
+     */
+    public Map<String, Long> getCompileTimes() {
+        return Collections.unmodifiableMap(compileTimes);
+    }
+
+
+    /**
+     * Compile the pages of the web application which are outdated.
+     */
+    public void precompile() {
+
+        long start = System.currentTimeMillis();
+        Set<String> jspUris = new TreeSet<String>();
+        findPages(config.getServletContext(), "/", jspUris);
+        pageCount = jspUris.size();
+        if (pageCount == 0) {
+            return;
+        }
+
+        List<Page> pages = new ArrayList<Page>();
+        Iterator<String> iterator = jspUris.iterator();
+        while (iterator.hasNext()) {
+            String jspUri = iterator.next();
+            JspServletWrapper wrapper = rctxt.getWrapper(jspUri);
+            boolean created = false;
+            try {
+                if (wrapper == null) {
+                    wrapper = new JspServletWrapper(config, options, jspUri, false, rctxt);
+                    rctxt.addWrapper(jspUri, wrapper);
+                    created = true;
+                }
+                pages.add(new Page(jspUri, wrapper, created));
+            } catch (Throwable t) {
+                JasperLogger.COMPILER_LOGGER.failedPrecompilingPage(jspUri, t);
+                failedCount++;
+            }
+        }
+
+        int threads = Math.max(1, Math.min(options.getPrecompileThreads(), pages.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new PrecompilerThreadFactory(Thread.currentThread().getContextClassLoader()));
+        try {
+
+            // Generate the servlets in parallel
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < pages.size(); i++) {
+                final Page page = pages.get(i);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        generate(page);
+                    }
+                }));
+            }
+            waitFor(futures);
+
+            // Compile the generated JDT servlets in batches
+            List<Page> batched = new ArrayList<Page>();
+            for (int i = 0; i < pages.size(); i++) {
+                Page page = pages.get(i);
+                if (page.generated && page.exception == null && page.compiler instanceof JDTCompiler) {
+                    batched.add(page);
+                }
+            }
+            if (!batched.isEmpty()) {
+                final JDTCompiler.NameEnvironment env = JDTCompiler.NameEnvironment.createShared(
+                        batched.get(0).wrapper.getJspEngineContext().getJspLoader());
+                int batches = Math.min(threads, batched.size());
+                List<Future<List[]>> results = new ArrayList<Future<List[]>>();
+                final List<Page[]> batchPages = new ArrayList<Page[]>();
+                for (int i = 0; i < batches; i++) {
+                    List<Page> batch = batched.subList(i * batched.size() / batches,
+                            (i + 1) * batched.size() / batches);
+                    final Page[] batchArray = batch.toArray(new Page[batch.size()]);
+                    batchPages.add(batchArray);
+                    results.add(executor.submit(new Callable<List[]>() {
+                        public List[] call() {
+                            return compile(batchArray, new JDTCompiler.NameEnvironment(env));
+                        }
+                    }));
+                }
+                for (int i = 0; i < batches; i++) {
+                    Page[] batchArray = batchPages.get(i);
+                    List[] problems = null;
+                    try {
+                        problems = results.get(i).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        for (int j = 0; j < batchArray.length; j++) {
+                            batchArray[j].exception = e.getCause();
+                        }
+                    }
+                    for (int j = 0; j < batchArray.length; j++) {
+                        classGenerated(batchArray[j], (problems == null) ? null : problems[j]);
+                    }
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.exception != null) {
+                JasperLogger.COMPILER_LOGGER.failedPrecompilingPage(page.jspUri, page.exception);
+                if (page.created) {
+                    rctxt.removeWrapper(page.jspUri);
+                }
+                failedCount++;
+            } else if (page.compiled) {
+                long pageTime = page.generationTime + page.compilationTime;
+                JasperLogger.COMPILER_LOGGER.precompiledPage(page.jspUri, pageTime,
+                        page.generationTime, page.compilationTime);
+                compileTimes.put(page.jspUri, Long.valueOf(pageTime));
+                compiledCount++;
+            }
+        }
+
+        time = System.currentTimeMillis() - start;
+        JasperLogger.COMPILER_LOGGER.precompiledPages(compiledCount, pageCount, time, failedCount);
+
+    }
+
+
+    /**
+     * Generate the servlet of the page if it is outdated. Pages which are not
+     * compiled by the JDT compiler are compiled right away.
+     */
+    protected void generate(Page page) {
+        long start = System.currentTimeMillis();
+        JspCompilationContext ctxt = page.wrapper.getJspEngineContext();
+        // JspServletWrapper also synchronizes on this when
+        // it detects it has to do a reload
+        synchronized (page.wrapper) {
+            try {
+                if (!ctxt.prepareCompile()) {
+                    return;
+                }
+                page.compiler = ctxt.getCompiler();
+                page.generated = true;
+                try {
+                    page.smap = page.compiler.generate(false);
+                } catch (Throwable t) {
+                    page.compiler.release();
+                    throw t;
+                }
+                if (!(page.compiler instanceof JDTCompiler)) {
+                    try {
+                        page.compiler.generateClass(page.smap);
+                        page.compiler.classCompiled();
+                        ctxt.compiled();
+                        page.compiled = true;
+                    } finally {
+                        page.compiler.release();
+                    }
+                }
+            } catch (Throwable t) {
+                page.exception = t;
+            } finally {
+                page.generationTime = System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+
+    /**
+     * Compile the servlets of a batch of pages.
+     */
+    protected List[] compile(Page[] pages, JDTCompiler.NameEnvironment env) {
+        long start = System.currentTimeMillis();
+        JDTCompiler[] compilers = new JDTCompiler[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            compilers[i] = (JDTCompiler) pages[i].compiler;
+        }
+        List[] problems = JDTCompiler.generateClasses(compilers, env);
+        long pageTime = (System.currentTimeMillis() - start) / pages.length;
+        for (int i = 0; i < pages.length; i++) {
+            pages[i].compilationTime = pageTime;
+        }
+        return problems;
+    }
+
+
+    /**
+     * Complete the compilation of a page once its batch has been compiled.
+     */
+    protected void classGenerated(Page page, List problems) {
+        JDTCompiler compiler = (JDTCompiler) page.compiler;
+        try {
+            if (page.exception == null && problems != null) {
+                compiler.classGenerated(problems, page.smap);
+                compiler.classCompiled();
+                page.wrapper.getJspEngineContext().compiled();
+                page.compiled = true;
+            }
+        } catch (Throwable t) {
+            page.exception = t;
+        } finally {
+            compiler.release();
+        }
+    }
+
+
+    /**
+     * Find the JSP pages of the web application.
+     */
+    protected void findPages(ServletContext context, String path, Set<String> jspUris) {
+        Set paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        Iterator iterator = paths.iterator();
+        while (iterator.hasNext()) {
+            String resourcePath = (String) iterator.next();
+            if (resourcePath.endsWith("/")) {
+                if (!resourcePath.equals("/META-INF/")
+                        && !resourcePath.equals("/WEB-INF/classes/")
+                        && !resourcePath.equals("/WEB-INF/lib/")
+                        && !resourcePath.equals("/WEB-INF/tags/")) {
+                    findPages(context, resourcePath, jspUris);
+                }
+            } else if (resourcePath.endsWith(".jsp") || resourcePath.endsWith(".jspx")) {
+                jspUris.add(resourcePath);
+            }
+        }
+    }
+
+
+    protected static void waitFor(List<Future<?>> futures) {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // The tasks record their own failures
+            }
+        }
+    }
+
+
+    /**
+     * Compilation threads, which use the class loader of the web application.
+     */
+    protected static class PrecompilerThreadFactory implements ThreadFactory {
+
+        protected final ClassLoader classLoader;
+        protected final AtomicInteger count = new AtomicInteger();
+
+        protected PrecompilerThreadFactory(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "JspPrecompiler-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(classLoader);
+            return thread;
+        }
+
+    }
+
+}
@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.jsp.JspFactory;
 
@@ -41,6 +42,7 @@ import org.apache.jasper.Options;
 import org.apache.jasper.runtime.JspFactoryImpl;
 import org.apache.jasper.security.SecurityClassLoad;
 import org.apache.jasper.servlet.JspServletWrapper;
+import org.apache.jasper.util.FastRemovalDequeue;
 import org.jboss.web.JasperLogger;
 
 /**
@@ -63,6 +65,12 @@ public final class JspRuntimeContext {
      */
     private int jspReloadCount;
 
+    /*
+     * Counts how many times JSPs have been loaded and unloaded.
+     */
+    private int jspLoadCount;
+    private int jspUnloadCount;
+
     /**
      * Preload classes required at runtime by a JSP servlet so that
      * we don't get a defineClassInPackage security exception.
@@ -130,6 +138,10 @@ public final class JspRuntimeContext {
                 && options.getCheckInterval() > 0) {
             lastCheck = System.currentTimeMillis();
         }                                            
+
+        if (options.getMaxLoadedJsps() > 0 || options.getJspIdleTimeout() > 0) {
+            jspQueue = new FastRemovalDequeue<JspServletWrapper>();
+        }
     }
 
     // ----------------------------------------------------- Instance Variables
@@ -144,11 +156,18 @@ public final class JspRuntimeContext {
     private CodeSource codeSource;                    
     private String classpath;
     private long lastCheck = -1L;
+    private JspPrecompiler precompiler = null;
 
     /**
      * Maps JSP pages to their JspServletWrapper's
      */
     private Map<String, JspServletWrapper> jsps = new ConcurrentHashMap<String, JspServletWrapper>();
+
+    /**
+     * The loaded JSP pages, from the most recently used to the least
+     * recently used, if the pages may be unloaded.
+     */
+    private FastRemovalDequeue<JspServletWrapper> jspQueue = null;
  
 
     // ------------------------------------------------------ Public Methods
@@ -179,7 +198,10 @@ public final class JspRuntimeContext {
      * @param jspUri JSP URI of JspServletWrapper to remove
      */
     public void removeWrapper(String jspUri) {
-        jsps.remove(jspUri);
+        JspServletWrapper jsw = jsps.remove(jspUri);
+        if (jsw != null && jspQueue != null && jsw.getUnloadHandle() != null) {
+            jspQueue.remove(jsw.getUnloadHandle());
+        }
     }
 
     /**
@@ -257,6 +279,170 @@ public final class JspRuntimeContext {
     }
 
 
+    /**
+     * Increments the JSP load counter.
+     */
+    public synchronized void incrementJspLoadCount() {
+        jspLoadCount++;
+    }
+
+    /**
+     * Gets the number of times JSPs have been loaded.
+     *
+     * @return The current value of the JSP load counter
+     */
+    public int getJspLoadCount() {
+        return jspLoadCount;
+    }
+
+    /**
+     * Increments the JSP unload counter.
+     */
+    public synchronized void incrementJspUnloadCount() {
+        jspUnloadCount++;
+    }
+
+    /**
+     * Gets the number of JSPs which have been unloaded.
+     *
+     * @return The current value of the JSP unload counter
+     */
+    public int getJspUnloadCount() {
+        return jspUnloadCount;
+    }
+
+    /**
+     * Gets the number of JSPs in the queue of the pages which may be
+     * unloaded.
+     *
+     * @return The length of the queue, or -1 if pages are never unloaded
+     */
+    public int getJspQueueLength() {
+        return (jspQueue == null) ? -1 : jspQueue.getSize();
+    }
+
+    /**
+     * @return true if JSP pages may be unloaded, because their number is
+     *         limited or they have an idle timeout
+     */
+    public boolean isUnloadEnabled() {
+        return jspQueue != null;
+    }
+
+    /**
+     * Records the use of a JSP page. If the number of loaded pages is
+     * limited, the least recently used pages are unloaded when the page was
+     * not loaded yet.
+     *
+     * @param jsw Servlet wrapper for the JSP page
+     */
+    public void makeYoungest(JspServletWrapper jsw) {
+        if (jspQueue == null) {
+            return;
+        }
+        jsw.setLastUsageTime(System.currentTimeMillis());
+        FastRemovalDequeue.Entry<JspServletWrapper> unloadHandle = jsw.getUnloadHandle();
+        if (unloadHandle != null && jspQueue.moveFirst(unloadHandle)) {
+            return;
+        }
+        // Synchronizing on jsw ensures that concurrent first requests push
+        // the page only once
+        boolean pushed;
+        synchronized (jsw) {
+            pushed = enqueue(jsw);
+        }
+        // Unload other pages without holding the lock of this one
+        if (pushed && options.getMaxLoadedJsps() > 0) {
+            unloadEldest(options.getMaxLoadedJsps());
+        }
+    }
+
+    /**
+     * Push a JSP page at the head of the queue, unless it is already queued
+     * or it is no longer mapped. Must be called while holding the lock of
+     * the wrapper.
+     *
+     * @return true if the page was pushed
+     */
+    private boolean enqueue(JspServletWrapper jsw) {
+        FastRemovalDequeue.Entry<JspServletWrapper> unloadHandle = jsw.getUnloadHandle();
+        if ((unloadHandle != null && jspQueue.moveFirst(unloadHandle))
+                || jsw.isUnloaded() || jsps.get(jsw.getJspUri()) != jsw) {
+            return false;
+        }
+        jsw.setUnloadHandle(jspQueue.push(jsw));
+        return true;
+    }
+
+    /**
+     * Method used by background thread to unload the JSP pages which have
+     * not been used for longer than the idle timeout, or which exceed the
+     * maximum number of loaded pages.
+     */
+    public void checkUnload() {
+
+        if (jspQueue == null) {
+            return;
+        }
+        int jspIdleTimeout = options.getJspIdleTimeout();
+        if (jspIdleTimeout > 0) {
+            long unloadBefore = System.currentTimeMillis() - (jspIdleTimeout * 1000L);
+            for (int i = jspQueue.getSize(); i > 0; i--) {
+                JspServletWrapper jsw = jspQueue.peekLast();
+                if (jsw == null || jsw.getLastUsageTime() >= unloadBefore) {
+                    break;
+                }
+                jspQueue.remove(jsw.getUnloadHandle());
+                unload(jsw, unloadBefore);
+            }
+        }
+        if (options.getMaxLoadedJsps() > 0) {
+            unloadEldest(options.getMaxLoadedJsps());
+        }
+
+    }
+
+    /**
+     * Unload the least recently used pages until no more than the
+     * specified number of pages are loaded. Pages processing requests are
+     * kept loaded.
+     */
+    private void unloadEldest(int maxLoadedJsps) {
+        for (int i = jspQueue.getSize() - maxLoadedJsps; i > 0; i--) {
+            JspServletWrapper jsw = jspQueue.pollLast();
+            if (jsw == null) {
+                break;
+            }
+            unload(jsw, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Unload a JSP page which has been removed from the queue. It will be
+     * loaded again when it is next requested. A page which is processing
+     * requests, or which has been used since the specified time, is pushed
+     * back at the head of the queue instead. A page which is no longer
+     * mapped, as it has been removed or replaced, is left out of the queue.
+     *
+     * @param jsw Servlet wrapper for the JSP page
+     * @param unloadBefore the page is kept if it has been used since then
+     */
+    private void unload(JspServletWrapper jsw, long unloadBefore) {
+        synchronized (jsw) {
+            if (jsw.isInService() || jsw.getLastUsageTime() >= unloadBefore) {
+                enqueue(jsw);
+                return;
+            }
+            if (!jsps.remove(jsw.getJspUri(), jsw)) {
+                return;
+            }
+            JasperLogger.COMPILER_LOGGER.unloadingJsp(jsw.getJspUri());
+            jsw.setUnloaded();
+            jsw.destroy();
+        }
+        incrementJspUnloadCount();
+    }
+
     /**
      * Method used by background thread to check the JSP dependencies
      * registered with this class for JSP's.
@@ -293,6 +479,27 @@ public final class JspRuntimeContext {
 
     }
 
+    /**
+     * Compile all the JSP pages of this web application context which are
+     * outdated.
+     *
+     * @param config ServletConfig of the JSP servlet
+     */
+    public void precompile(ServletConfig config) {
+        JspPrecompiler precompiler = new JspPrecompiler(config, options, this);
+        precompiler.precompile();
+        this.precompiler = precompiler;
+    }
+
+    /**
+     * Get the results of the last precompilation.
+     *
+     * @return the precompiler, or null if the pages were not precompiled
+     */
+    public JspPrecompiler getPrecompiler() {
+        return precompiler;
+    }
+
     /**
      * The classpath that is passed off to the Java compiler.
      */
@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.jasper.Constants;
+
+/**
+ * Bounded pool of tag handlers that can be reused, which does not use any
+ * lock. Handlers are kept in an array of slots, and each thread starts
+ * looking for a handler or a free slot at a position derived from its id,
+ * so that threads mostly use different slots. It can be selected using the
+ * <code>tagpoolClassName</code> option.
+ */
+public class ConcurrentTagHandlerPool extends TagHandlerPool {
+
+    /**
+     * Maximum number of slots checked by a thread before giving up.
+     */
+    protected static final int MAX_PROBES = 8;
+
+    /**
+     * Distance between two slots in the array, so that they are not in the
+     * same cache line.
+     */
+    protected static final int STRIDE = 16;
+
+    private AtomicReferenceArray<Tag> slots;
+    private int size;
+
+    /**
+     * Constructs a tag handler pool with the default capacity.
+     */
+    public ConcurrentTagHandlerPool() {
+        super();
+    }
+
+    protected void init(ServletConfig config) {
+        instanceManager = InstanceManagerFactory.getInstanceManager(config);
+        int maxSize = Constants.MAX_POOL_SIZE;
+        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if (maxSizeS != null) {
+            try {
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch (NumberFormatException e) {
+                maxSize = -1;
+            }
+            if (maxSize < 0) {
+                maxSize = Constants.MAX_POOL_SIZE;
+            }
+        }
+        size = Math.max(maxSize, 1);
+        slots = new AtomicReferenceArray<Tag>(size * STRIDE);
+    }
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * instantiating one if this tag handler pool is empty.
+     *
+     * @param handlerClass Tag handler class
+     *
+     * @return Reused or newly instantiated tag handler
+     *
+     * @throws JspException if a tag handler cannot be instantiated
+     */
+    public Tag get(Class handlerClass) throws JspException {
+        AtomicReferenceArray<Tag> slots = this.slots;
+        int probes = Math.min(size, MAX_PROBES);
+        int pos = home(size);
+        for (int i = 0; i < probes; i++) {
+            int index = pos * STRIDE;
+            if (slots.get(index) != null) {
+                Tag handler = slots.getAndSet(index, null);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+            if (++pos == size) {
+                pos = 0;
+            }
+        }
+        try {
+            if (Constants.USE_INSTANCE_MANAGER_FOR_TAGS) {
+                return (Tag) instanceManager.newInstance(handlerClass);
+            } else {
+                Tag instance = (Tag) handlerClass.newInstance();
+                if (Constants.INJECT_TAGS) {
+                    instanceManager.newInstance(instance);
+                }
+                return instance;
+            }
+        } catch (Exception e) {
+            throw new JspException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the given tag handler to this tag handler pool, unless this tag
+     * handler pool has no free slot, in which case the tag handler's
+     * release() method is called.
+     *
+     * @param handler Tag handler to add to this tag handler pool
+     */
+    public void reuse(Tag handler) {
+        AtomicReferenceArray<Tag> slots = this.slots;
+        int probes = Math.min(size, MAX_PROBES);
+        int pos = home(size);
+        for (int i = 0; i < probes; i++) {
+            int index = pos * STRIDE;
+            if (slots.get(index) == null
+                    && slots.compareAndSet(index, null, handler)) {
+                return;
+            }
+            if (++pos == size) {
+                pos = 0;
+            }
+        }
+        destroy(handler);
+    }
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    public void release() {
+        AtomicReferenceArray<Tag> slots = this.slots;
+        for (int i = 0; i < size; i++) {
+            Tag handler = slots.getAndSet(i * STRIDE, null);
+            if (handler != null) {
+                destroy(handler);
+            }
+        }
+    }
+
+    private void destroy(Tag handler) {
+        try {
+            handler.release();
+        } finally {
+            if (Constants.INJECT_TAGS || Constants.USE_INSTANCE_MANAGER_FOR_TAGS) {
+                try {
+                    instanceManager.destroyInstance(handler);
+                } catch (Exception e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static int home(int length) {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+}
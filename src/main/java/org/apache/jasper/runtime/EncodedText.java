@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.jsp.JspWriter;
+
+/**
+ * Template text of a generated servlet, encoded when the servlet class is
+ * loaded using the charset of the page. When the page writer outputs directly
+ * to a response using the same charset, the bytes are written as is, instead
+ * of converting the chars on each request.
+ */
+public final class EncodedText {
+
+    private final char[] chars;
+    private final byte[] bytes;
+    private final String charset;
+
+    public EncodedText(String text, String charset) {
+        this.chars = text.toCharArray();
+        this.charset = charset;
+        byte[] bytes = null;
+        try {
+            bytes = text.getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            // The text will be written as chars
+        }
+        this.bytes = bytes;
+    }
+
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * @return the encoded text, or null if the charset is not supported
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * Write the text to the specified writer, as bytes if possible.
+     */
+    public void write(JspWriter out) throws IOException {
+        if (bytes != null && out instanceof JspWriterImpl) {
+            ((JspWriterImpl) out).write(this);
+        } else {
+            out.write(chars);
+        }
+    }
+
+}
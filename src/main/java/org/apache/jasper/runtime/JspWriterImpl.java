@@ -25,6 +25,7 @@ import java.io.Writer;
 import javax.servlet.ServletResponse;
 import javax.servlet.jsp.JspWriter;
 
+import org.apache.catalina.connector.CoyoteWriter;
 import org.apache.jasper.Constants;
 
 /**
@@ -49,6 +50,18 @@ public class JspWriterImpl extends JspWriter {
     private boolean flushed = false;
     private boolean closed = false;
     
+    /**
+     * Position of the response output when the page started writing directly
+     * to it since the buffer was last flushed, or -1.
+     */
+    private long mark = -1;
+    
+    /**
+     * Number of chars and bytes written directly to the response output
+     * since the mark, which count against the size of the page buffer.
+     */
+    private int markedLength = 0;
+    
     public JspWriterImpl() {
         super( Constants.DEFAULT_BUFFER_SIZE, true );
     }
@@ -98,6 +111,8 @@ public class JspWriterImpl extends JspWriter {
         closed = false;
         out = null;
         nextChar = 0;
+        mark = -1;
+        markedLength = 0;
         response = null;
     }
     
@@ -110,6 +125,8 @@ public class JspWriterImpl extends JspWriter {
         if (bufferSize == 0)
             return;
         flushed = true;
+        mark = -1;
+        markedLength = 0;
         ensureOpen();
         if (nextChar == 0)
             return;
@@ -135,6 +152,12 @@ public class JspWriterImpl extends JspWriter {
             throw MESSAGES.cannotClearAfterFlush();
         ensureOpen();
         nextChar = 0;
+        if (mark >= 0) {
+            if (!((CoyoteWriter) out).discard(mark))
+                throw MESSAGES.cannotClearAfterFlush();
+            mark = -1;
+            markedLength = 0;
+        }
     }
     
     public void clearBuffer() throws IOException {
@@ -142,6 +165,11 @@ public class JspWriterImpl extends JspWriter {
             throw MESSAGES.cannotClearWithNoBuffer();
         ensureOpen();
         nextChar = 0;
+        if (mark >= 0) {
+            ((CoyoteWriter) out).discard(mark);
+            mark = -1;
+            markedLength = 0;
+        }
     }
     
     private final void bufferOverflow() throws IOException {
@@ -178,7 +206,8 @@ public class JspWriterImpl extends JspWriter {
      * @return the number of bytes unused in the buffer
      */
     public int getRemaining() {
-        return bufferSize - nextChar;
+        int remaining = bufferSize - nextChar - markedLength;
+        return (remaining < 0) ? 0 : remaining;
     }
     
     /** check to make sure that the stream has not been closed */
@@ -284,6 +313,44 @@ public class JspWriterImpl extends JspWriter {
         write(buf, 0, buf.length);
     }
     
+    /**
+     * Write template text encoded when the page was loaded. If the response
+     * uses the same charset, the buffered chars are passed to the response
+     * writer and the bytes are then written to the response buffer, which
+     * holds the output of the page until it is flushed, and from which it is
+     * discarded if the buffer is cleared. This requires the response buffer
+     * to be at least as large as the page buffer, so that the response is
+     * not committed before the page buffer would have been flushed.
+     */
+    void write(EncodedText text) throws IOException {
+        ensureOpen();
+        if (autoFlush && bufferSize <= response.getBufferSize()
+                && text.getCharset().equalsIgnoreCase(response.getCharacterEncoding())) {
+            initOut();
+            if (out instanceof CoyoteWriter) {
+                CoyoteWriter writer = (CoyoteWriter) out;
+                if (mark < 0 && bufferSize > 0) {
+                    mark = writer.mark();
+                }
+                if (nextChar > 0) {
+                    writer.write(cb, 0, nextChar);
+                    markedLength += nextChar;
+                    nextChar = 0;
+                }
+                byte[] bytes = text.getBytes();
+                if (writer.writeEncoded(bytes, 0, bytes.length, text.getCharset())) {
+                    markedLength += bytes.length;
+                    if (mark >= 0 && markedLength >= bufferSize) {
+                        // The page buffer is full
+                        flushBuffer();
+                    }
+                    return;
+                }
+            }
+        }
+        write(text.getChars());
+    }
+    
     /**
      * Write a portion of a String.
      *
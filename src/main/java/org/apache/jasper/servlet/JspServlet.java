@@ -32,6 +32,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.jasper.Constants;
 import org.apache.jasper.EmbeddedServletOptions;
 import org.apache.jasper.Options;
+import org.apache.jasper.compiler.JspPrecompiler;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.security.SecurityUtil;
 import org.apache.tomcat.PeriodicEventListener;
@@ -99,6 +100,9 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
             }
         }
         rctxt = new JspRuntimeContext(context, options);
+        if (options.getPrecompile()) {
+            rctxt.precompile(config);
+        }
     }
 
 
@@ -140,6 +144,71 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     }
 
 
+    /**
+     * Gets the number of times JSPs have been loaded.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of JSP loads
+     */
+    public int getJspLoadCount() {
+        return this.rctxt.getJspLoadCount();
+    }
+
+
+    /**
+     * Gets the number of JSPs that have been unloaded.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of JSPs (in the webapp with which this JspServlet is
+     * associated) that have been unloaded
+     */
+    public int getJspUnloadCount() {
+        return this.rctxt.getJspUnloadCount();
+    }
+
+
+    /**
+     * Gets the number of JSPs which may be unloaded.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of loaded JSPs which may be unloaded, or -1 if JSPs
+     * are never unloaded
+     */
+    public int getJspQueueLength() {
+        return this.rctxt.getJspQueueLength();
+    }
+
+
+    /**
+     * Gets the number of JSPs compiled when this JspServlet was initialized.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The number of precompiled JSPs
+     */
+    public int getJspPrecompileCount() {
+        JspPrecompiler precompiler = this.rctxt.getPrecompiler();
+        return (precompiler == null) ? 0 : precompiler.getCompiledCount();
+    }
+
+
+    /**
+     * Gets the time spent compiling the JSPs when this JspServlet was
+     * initialized.
+     *
+     * <p>This info may be used for monitoring purposes.
+     *
+     * @return The precompilation time in milliseconds
+     */
+    public long getJspPrecompileTime() {
+        JspPrecompiler precompiler = this.rctxt.getPrecompiler();
+        return (precompiler == null) ? 0 : precompiler.getTime();
+    }
+
+
     /**
      * <p>Look for a <em>precompilation request</em> as described in
      * Section 8.4.2 of the JSP 1.2 Specification.  <strong>WARNING</strong> -
@@ -258,6 +327,7 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
 
 
     public void periodicEvent() {
+        rctxt.checkUnload();
         rctxt.checkCompile();
     }
 
@@ -268,6 +338,29 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                                 Throwable exception, boolean precompile)
         throws ServletException, IOException {
 
+        JspServletWrapper wrapper;
+        do {
+            wrapper = getWrapper(request, response, jspUri, exception);
+            if (wrapper == null) {
+                return;
+            }
+            // Use a new wrapper if the page was unloaded in the meantime
+        } while (!wrapper.service(request, response, precompile));
+
+    }
+
+
+    /**
+     * Get the wrapper of a JSP page, creating it if needed.
+     *
+     * @return the wrapper, or null if the page does not exist, in which case
+     *  an error has been sent
+     */
+    private JspServletWrapper getWrapper(HttpServletRequest request,
+                                         HttpServletResponse response,
+                                         String jspUri, Throwable exception)
+        throws ServletException, IOException {
+
         JspServletWrapper wrapper =
             (JspServletWrapper) rctxt.getWrapper(jspUri);
         if (wrapper == null) {
@@ -296,7 +389,7 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                                 JasperLogger.SERVLET_LOGGER.fileNotFound(jspUri);
                             }
                         }
-                        return;
+                        return null;
                     }
                     boolean isErrorPage = exception != null;
                     wrapper = new JspServletWrapper(config, options, jspUri,
@@ -305,8 +398,7 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
                 }
             }
         }
-
-        wrapper.service(request, response, precompile);
+        return wrapper;
 
     }
 
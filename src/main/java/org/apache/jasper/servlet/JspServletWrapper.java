@@ -22,6 +22,7 @@ import static org.jboss.web.JasperMessages.MESSAGES;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -41,6 +42,7 @@ import org.apache.jasper.compiler.JavacErrorDetail;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.runtime.InstanceManagerFactory;
 import org.apache.jasper.runtime.JspSourceDependent;
+import org.apache.jasper.util.FastRemovalDequeue;
 import org.apache.tomcat.InstanceManager;
 import org.jboss.web.JasperLogger;
 
@@ -78,6 +80,10 @@ public class JspServletWrapper {
     private JasperException compileException;
     private long servletClassLastModifiedTime;
     private long lastModificationTest = 0L;
+    private volatile long lastUsageTime = System.currentTimeMillis();
+    private final AtomicInteger inService = new AtomicInteger();
+    private boolean unloaded = false;
+    private volatile FastRemovalDequeue.Entry<JspServletWrapper> unloadHandle = null;
 
     /*
      * JspServletWrapper for JSP pages.
@@ -156,6 +162,7 @@ public class JspServletWrapper {
 
                     theServlet = servlet;
                     reload = false;
+                    ctxt.getRuntimeContext().incrementJspLoadCount();
                 }
             }    
         }
@@ -274,7 +281,39 @@ public class JspServletWrapper {
 	return tripCount--;
     }
 
-    public void service(HttpServletRequest request, 
+    /**
+     * Process a request, unless the page has been unloaded, in which case
+     * the request must be processed by a new wrapper.
+     *
+     * @return false if the page has been unloaded
+     */
+    public boolean service(HttpServletRequest request, 
+                        HttpServletResponse response,
+                        boolean precompile)
+	    throws ServletException, IOException, FileNotFoundException {
+
+        if (!ctxt.getRuntimeContext().isUnloadEnabled()) {
+            // The page is never unloaded
+            doService(request, response, precompile);
+            return true;
+        }
+        // Synchronizing on jsw prevents the page from being unloaded
+        // between this check and the end of the request
+        synchronized (this) {
+            if (unloaded) {
+                return false;
+            }
+            inService.incrementAndGet();
+        }
+        try {
+            doService(request, response, precompile);
+        } finally {
+            inService.decrementAndGet();
+        }
+        return true;
+    }
+
+    private void doService(HttpServletRequest request, 
                         HttpServletResponse response,
                         boolean precompile)
 	    throws ServletException, IOException, FileNotFoundException {
@@ -350,6 +389,7 @@ public class JspServletWrapper {
             }
         }
 
+        ctxt.getRuntimeContext().makeYoungest(this);
         try {
             
             /*
@@ -411,6 +451,64 @@ public class JspServletWrapper {
         }
     }
 
+    /**
+     * @return the URI of the JSP page or tag file
+     */
+    public String getJspUri() {
+        return jspUri;
+    }
+
+    /**
+     * @return the last time the page was used
+     */
+    public long getLastUsageTime() {
+        return lastUsageTime;
+    }
+
+    /**
+     * @param lastUsageTime the last time the page was used
+     */
+    public void setLastUsageTime(long lastUsageTime) {
+        this.lastUsageTime = lastUsageTime;
+    }
+
+    /**
+     * @return true if the page is processing requests
+     */
+    public boolean isInService() {
+        return inService.get() > 0;
+    }
+
+    /**
+     * Mark the page as unloaded, so that the requests which have not started
+     * using it yet are processed by a new wrapper. Must be called while
+     * holding the lock of this wrapper, and only if it is not in service.
+     */
+    public void setUnloaded() {
+        this.unloaded = true;
+    }
+
+    /**
+     * @return true if the page has been unloaded
+     */
+    public synchronized boolean isUnloaded() {
+        return unloaded;
+    }
+
+    /**
+     * @return the entry of the page in the queue of loaded pages
+     */
+    public FastRemovalDequeue.Entry<JspServletWrapper> getUnloadHandle() {
+        return unloadHandle;
+    }
+
+    /**
+     * @param unloadHandle the entry of the page in the queue of loaded pages
+     */
+    public void setUnloadHandle(FastRemovalDequeue.Entry<JspServletWrapper> unloadHandle) {
+        this.unloadHandle = unloadHandle;
+    }
+
     public void destroy() {
         if (theServlet != null) {
             theServlet.destroy();
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.util;
+
+/**
+ * Doubly linked queue whose elements are kept from the youngest, at the
+ * head, to the eldest, at the tail. Pushing an element returns an entry,
+ * which allows moving the element back to the head or removing it in
+ * constant time. This is used as an LRU list of the loaded JSP pages.
+ */
+public class FastRemovalDequeue<T> {
+
+    /**
+     * Handle of an element in the queue.
+     */
+    public static class Entry<T> {
+
+        protected final T content;
+        protected Entry<T> previous = null;
+        protected Entry<T> next = null;
+        protected boolean valid = false;
+
+        protected Entry(T content) {
+            this.content = content;
+        }
+
+        public T getContent() {
+            return content;
+        }
+
+        /**
+         * Is the entry still in the queue?
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+    }
+
+
+    protected Entry<T> first = null;
+    protected Entry<T> last = null;
+    protected int size = 0;
+
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Add an element at the head of the queue.
+     *
+     * @return the entry of the element
+     */
+    public synchronized Entry<T> push(T content) {
+        Entry<T> entry = new Entry<T>(content);
+        addFirst(entry);
+        return entry;
+    }
+
+
+    /**
+     * Move an element to the head of the queue, if it is still in the queue.
+     *
+     * @return false if the element is no longer in the queue
+     */
+    public synchronized boolean moveFirst(Entry<T> entry) {
+        if (!entry.valid) {
+            return false;
+        }
+        if (entry != first) {
+            unlink(entry);
+            addFirst(entry);
+        }
+        return true;
+    }
+
+
+    /**
+     * Remove an element from the queue, if it is still in the queue.
+     */
+    public synchronized void remove(Entry<T> entry) {
+        if (entry.valid) {
+            unlink(entry);
+        }
+    }
+
+
+    /**
+     * Return the eldest element, without removing it.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    public synchronized T peekLast() {
+        return (last == null) ? null : last.content;
+    }
+
+
+    /**
+     * Remove the eldest element.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    public synchronized T pollLast() {
+        if (last == null) {
+            return null;
+        }
+        Entry<T> entry = last;
+        unlink(entry);
+        return entry.content;
+    }
+
+
+    protected void addFirst(Entry<T> entry) {
+        entry.previous = null;
+        entry.next = first;
+        if (first != null) {
+            first.previous = entry;
+        } else {
+            last = entry;
+        }
+        first = entry;
+        entry.valid = true;
+        size++;
+    }
+
+
+    protected void unlink(Entry<T> entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            first = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        } else {
+            last = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.valid = false;
+        size--;
+    }
+
+}
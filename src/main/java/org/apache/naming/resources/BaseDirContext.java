@@ -111,6 +111,12 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 256; // 256 K
 
 
+    /**
+     * Cache implementation class name, or <code>null</code> for the default.
+     */
+    protected String cacheClassName = null;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -208,6 +214,23 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the cache implementation class name.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the cache implementation class name, which must extend
+     * ResourceCache.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -80,6 +80,9 @@ public class ProxyDirContext implements DirContext {
             // the caching policy.
             BaseDirContext baseDirContext = (BaseDirContext) dirContext;
             if (baseDirContext.isCached()) {
+                if (baseDirContext.getCacheClassName() != null) {
+                    cacheClassName = baseDirContext.getCacheClassName();
+                }
                 if (cacheClassName != null) {
                     try {
                         cache = (ResourceCache) 
@@ -1803,7 +1806,7 @@ public class ProxyDirContext implements DirContext {
         // Add new entry to cache
         synchronized (cache) {
             // Check cache size, and remove elements if too big
-            if ((cache.lookup(name) == null) && cache.allocate(entry.size)) {
+            if (!cache.contains(name) && cache.allocate(entry)) {
                 cache.load(entry);
             }
         }
@@ -17,12 +17,26 @@
 
 package org.apache.naming.resources;
 
-import java.util.HashMap;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * Implements a special purpose cache.
+ * <p>
+ * Lookups are done without locking in a concurrent map. Entries are tracked
+ * by a segmented LRU: new entries are placed in a probation segment, and
+ * are moved to a protected segment if they have been accessed again by the
+ * time they reach its head. Protected entries which have been accessed again
+ * by the time they reach its head are moved back to its tail, and the others
+ * are demoted to the probation segment. Victims are taken from the head of
+ * the probation segment. When the cache is full, a new entry is only admitted if its
+ * estimated access frequency, kept in a small count-min sketch, is higher
+ * than the one of the entries it would replace (TinyLFU).
  * 
  * @author <a href="mailto:remm@apache.org">Remy Maucherat</a>
  * @version $Revision: 1914 $
@@ -41,22 +55,34 @@ public class ResourceCache {
 
 
     /**
-     * Random generator used to determine elements to free.
+     * Cache.
+     * Path -> Cache entry.
      */
-    protected Random random = new Random();
+    protected Map<String, CacheEntry> cache =
+        new ConcurrentHashMap<String, CacheEntry>();
 
 
     /**
-     * Cache.
-     * Path -> Cache entry.
+     * Not found cache.
      */
-    protected CacheEntry[] cache = new CacheEntry[0];
+    protected Map<String, CacheEntry> notFoundCache =
+        new ConcurrentHashMap<String, CacheEntry>();
 
 
     /**
-     * Not found cache.
+     * Probation segment, in LRU order.
+     * Path -> Entry access count when it was placed in the segment.
      */
-    protected HashMap notFoundCache = new HashMap();
+    protected LinkedHashMap<String, Long> probation =
+        new LinkedHashMap<String, Long>();
+
+
+    /**
+     * Protected segment, in LRU order.
+     * Path -> Entry access count when it was placed in the segment.
+     */
+    protected LinkedHashMap<String, Long> protectedSegment =
+        new LinkedHashMap<String, Long>();
 
 
     /**
@@ -65,6 +91,19 @@ public class ResourceCache {
     protected int cacheMaxSize = 10240; // 10 MB
 
 
+    /**
+     * Access frequency estimates, used for admission.
+     */
+    protected FrequencySketch sketch = new FrequencySketch(cacheMaxSize / 4);
+
+
+    /**
+     * Percentage of the cache size which may be used by the protected
+     * segment.
+     */
+    protected int protectedRatio = 80;
+
+
     /**
      * Max amount of removals during a make space.
      */
@@ -74,7 +113,9 @@ public class ResourceCache {
     /**
      * Entry hit ratio at which an entry will never be removed from the cache.
      * Compared with entry.access / hitsCount
+     * @deprecated Eviction is now frequency based, this is ignored
      */
+    @Deprecated
     protected long desiredEntryAccessRatio = 3;
 
 
@@ -90,6 +131,12 @@ public class ResourceCache {
     protected int cacheSize = 0;
 
 
+    /**
+     * Current protected segment size in KB.
+     */
+    protected int protectedSize = 0;
+
+
     /**
      * Number of accesses to the cache.
      */
@@ -102,6 +149,25 @@ public class ResourceCache {
     protected long hitsCount = 0;
 
 
+    /**
+     * Number of entries removed to make space.
+     */
+    protected long evictionCount = 0;
+
+
+    /**
+     * Number of entries placed in the cache.
+     */
+    protected long admissionCount = 0;
+
+
+    /**
+     * Number of entries which were not placed in the cache because they
+     * were accessed less often than the entries they would have replaced.
+     */
+    protected long rejectionCount = 0;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -128,6 +194,8 @@ public class ResourceCache {
      */
     public void setCacheMaxSize(int cacheMaxSize) {
         this.cacheMaxSize = cacheMaxSize;
+        // Size the sketch for entries of about 4KB on average
+        this.sketch = new FrequencySketch(cacheMaxSize / 4);
     }
 
 
@@ -141,7 +209,9 @@ public class ResourceCache {
 
     /**
      * Return desired entry access ratio.
+     * @deprecated Eviction is now frequency based, this is ignored
      */
+    @Deprecated
     public long getDesiredEntryAccessRatio() {
         return desiredEntryAccessRatio;
     }
@@ -149,7 +219,9 @@ public class ResourceCache {
 
     /**
      * Set the desired entry access ratio.
+     * @deprecated Eviction is now frequency based, this is ignored
      */
+    @Deprecated
     public void setDesiredEntryAccessRatio(long desiredEntryAccessRatio) {
         this.desiredEntryAccessRatio = desiredEntryAccessRatio;
     }
@@ -165,6 +237,85 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Return the number of cache misses.
+     * Note: Update is not synced, so the number may not be completely 
+     * accurate.
+     */
+    public long getMissCount() {
+        return accessCount - hitsCount;
+    }
+
+
+    /**
+     * Return the number of entries removed to make space.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+
+    /**
+     * Return the number of entries placed in the cache.
+     */
+    public long getAdmissionCount() {
+        return admissionCount;
+    }
+
+
+    /**
+     * Return the number of entries which were not placed in the cache
+     * because they were accessed less often than the entries they would
+     * have replaced.
+     */
+    public long getRejectionCount() {
+        return rejectionCount;
+    }
+
+
+    /**
+     * Return the number of entries in the cache, not including not found
+     * entries.
+     */
+    public int getEntryCount() {
+        return cache.size();
+    }
+
+
+    /**
+     * Return the number of not found entries in the cache.
+     */
+    public int getNotFoundCount() {
+        return notFoundCache.size();
+    }
+
+
+    /**
+     * Return the current protected segment size in KB.
+     */
+    public int getProtectedSize() {
+        return protectedSize;
+    }
+
+
+    /**
+     * Return the percentage of the cache size which may be used by the
+     * protected segment.
+     */
+    public int getProtectedRatio() {
+        return protectedRatio;
+    }
+
+
+    /**
+     * Set the percentage of the cache size which may be used by the
+     * protected segment.
+     */
+    public void setProtectedRatio(int protectedRatio) {
+        this.protectedRatio = protectedRatio;
+    }
+
+
     /**
      * Return the maximum amount of iterations during a space allocation.
      */
@@ -201,107 +352,26 @@ public class ResourceCache {
 
 
     public boolean allocate(int space) {
+        return allocate(space, null);
+    }
 
-        int toFree = space - (cacheMaxSize - cacheSize);
-
-        if (toFree <= 0) {
-            return true;
-        }
-
-        // Increase the amount to free so that allocate won't have to run right
-        // away again
-        toFree += (cacheMaxSize / 16);
-
-        int size = notFoundCache.size();
-        if (size > spareNotFoundEntries) {
-            notFoundCache.clear();
-            cacheSize -= size;
-            toFree -= size;
-        }
-
-        if (toFree <= 0) {
-            return true;
-        }
-
-        int attempts = 0;
-        int entriesFound = 0;
-        long totalSpace = 0;
-        int[] toRemove = new int[maxAllocateIterations];
-        while (toFree > 0) {
-            if (attempts == maxAllocateIterations) {
-                // Give up, no changes are made to the current cache
-                return false;
-            }
-            if (toFree > 0) {
-                // Randomly select an entry in the array
-                int entryPos = -1;
-                boolean unique = false;
-                while (!unique) {
-                    unique = true;
-                    entryPos = random.nextInt(cache.length) ;
-                    // Guarantee uniqueness
-                    for (int i = 0; i < entriesFound; i++) {
-                        if (toRemove[i] == entryPos) {
-                            unique = false;
-                        }
-                    }
-                }
-                long entryAccessRatio = 
-                    ((cache[entryPos].accessCount * 100) / accessCount);
-                if (entryAccessRatio < desiredEntryAccessRatio) {
-                    toRemove[entriesFound] = entryPos;
-                    totalSpace += cache[entryPos].size;
-                    toFree -= cache[entryPos].size;
-                    entriesFound++;
-                }
-            }
-            attempts++;
-        }
-
-        // Now remove the selected entries
-        java.util.Arrays.sort(toRemove, 0, entriesFound);
-        CacheEntry[] newCache = new CacheEntry[cache.length - entriesFound];
-        int pos = 0;
-        int n = -1;
-        if (entriesFound > 0) {
-            n = toRemove[0];
-            for (int i = 0; i < cache.length; i++) {
-                if (i == n) {
-                    if ((pos + 1) < entriesFound) {
-                        n = toRemove[pos + 1];
-                        pos++;
-                    } else {
-                        pos++;
-                        n = -1;
-                    }
-                } else {
-                    newCache[i - pos] = cache[i];
-                }
-            }
-        }
-        cache = newCache;
-        cacheSize -= totalSpace;
-
-        return true;
 
+    /**
+     * Make space for the given entry, if it is accessed more often than
+     * the entries it would replace.
+     */
+    public boolean allocate(CacheEntry entry) {
+        return allocate(entry.size, entry.exists ? entry.name : null);
     }
 
 
     public CacheEntry lookup(String name) {
 
-        CacheEntry cacheEntry = null;
-        CacheEntry[] currentCache = cache;
         accessCount++;
-        int pos = find(currentCache, name);
-        if ((pos != -1) && (name.equals(currentCache[pos].name))) {
-            cacheEntry = currentCache[pos];
-        }
+        sketch.increment(name);
+        CacheEntry cacheEntry = cache.get(name);
         if (cacheEntry == null) {
-            try {
-                cacheEntry = (CacheEntry) notFoundCache.get(name);
-            } catch (Exception e) {
-                // Ignore: the reliability of this lookup is not critical
-            }
+            cacheEntry = notFoundCache.get(name);
         }
         if (cacheEntry != null) {
             hitsCount++;
@@ -311,22 +381,38 @@ public class ResourceCache {
     }
 
 
-    public void load(CacheEntry entry) {
+    /**
+     * Return true if the cache contains an entry for the given name. This
+     * is not counted as an access.
+     */
+    public boolean contains(String name) {
+        return cache.containsKey(name) || notFoundCache.containsKey(name);
+    }
+
+
+    public synchronized void load(CacheEntry entry) {
         if (entry.exists) {
-            if (insertCache(entry)) {
+            if (!cache.containsKey(entry.name)) {
+                cache.put(entry.name, entry);
+                probation.put(entry.name, Long.valueOf(entry.accessCount));
                 cacheSize += entry.size;
+                admissionCount++;
             }
         } else {
-            int sizeIncrement = (notFoundCache.get(entry.name) == null) ? 1 : 0;
-            notFoundCache.put(entry.name, entry);
-            cacheSize += sizeIncrement;
+            if (notFoundCache.put(entry.name, entry) == null) {
+                cacheSize++;
+            }
         }
     }
 
 
-    public boolean unload(String name) {
-        CacheEntry removedEntry = removeCache(name);
+    public synchronized boolean unload(String name) {
+        CacheEntry removedEntry = cache.remove(name);
         if (removedEntry != null) {
+            probation.remove(name);
+            if (protectedSegment.remove(name) != null) {
+                protectedSize -= removedEntry.size;
+            }
             cacheSize -= removedEntry.size;
             return true;
         } else if (notFoundCache.remove(name) != null) {
@@ -337,86 +423,248 @@ public class ResourceCache {
     }
 
 
+    // ------------------------------------------------------ Protected Methods
+
+
     /**
-     * Find a map elemnt given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
+     * Make space for an entry of the given size. If a candidate name is
+     * specified, the space is only freed if the candidate is accessed more
+     * often than all the entries which would be removed.
      */
-    private static final int find(CacheEntry[] map, String name) {
+    protected synchronized boolean allocate(int space, String candidate) {
 
-        int a = 0;
-        int b = map.length - 1;
+        int toFree = space - (cacheMaxSize - cacheSize);
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
+        if (toFree <= 0) {
+            return true;
         }
-        if (name.compareTo(map[0].name) < 0) {
-            return -1;
+
+        // Increase the amount to free so that allocate won't have to run right
+        // away again
+        toFree += (cacheMaxSize / 16);
+
+        int size = notFoundCache.size();
+        if (size > spareNotFoundEntries) {
+            notFoundCache.clear();
+            cacheSize -= size;
+            toFree -= size;
         }
-        if (b == 0) {
-            return 0;
+
+        if (toFree <= 0) {
+            return true;
         }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = name.compareTo(map[i].name);
-            if (result > 0) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
+        // Select victims from the head of the probation segment, and then of
+        // the protected segment; referenced probation entries are promoted
+        // instead, and referenced protected entries are moved to its tail
+        int candidateFrequency = 
+            (candidate == null) ? Integer.MAX_VALUE : sketch.frequency(candidate);
+        List<String> promoted = new ArrayList<String>();
+        List<String> refreshed = new ArrayList<String>();
+        List<CacheEntry> victims = new ArrayList<CacheEntry>();
+        boolean admitted = true;
+        Iterator<Map.Entry<String, Long>> iterator = 
+            probation.entrySet().iterator();
+        boolean probationSegment = true;
+        while (toFree > 0) {
+            if (!iterator.hasNext()) {
+                if (probationSegment) {
+                    iterator = protectedSegment.entrySet().iterator();
+                    probationSegment = false;
+                    continue;
+                }
+                admitted = false;
+                break;
             }
-            if ((b - a) == 1) {
-                int result2 = name.compareTo(map[b].name);
-                if (result2 < 0) {
-                    return a;
+            Map.Entry<String, Long> mapEntry = iterator.next();
+            CacheEntry entry = cache.get(mapEntry.getKey());
+            if (entry.accessCount > mapEntry.getValue().longValue()) {
+                if (probationSegment) {
+                    promoted.add(mapEntry.getKey());
                 } else {
-                    return b;
+                    refreshed.add(mapEntry.getKey());
                 }
+                continue;
+            }
+            if (victims.size() == maxAllocateIterations) {
+                admitted = false;
+                break;
+            }
+            if (candidateFrequency <= sketch.frequency(entry.name)) {
+                admitted = false;
+                rejectionCount++;
+                break;
             }
+            victims.add(entry);
+            toFree -= entry.size;
+        }
+
+        refresh(refreshed);
+        for (int i = 0; i < promoted.size(); i++) {
+            promote(promoted.get(i));
+        }
+        if (!admitted) {
+            // Give up, no entries are removed from the current cache
+            return false;
+        }
+
+        // Now remove the selected entries
+        for (int i = 0; i < victims.size(); i++) {
+            unload(victims.get(i).name);
         }
+        evictionCount += victims.size();
+
+        return true;
 
     }
 
 
     /**
-     * Insert into the right place in a sorted MapElement array, and prevent
-     * duplicates.
+     * Move an entry from the probation segment to the protected segment,
+     * demoting the least recently used protected entries if the protected
+     * segment would become too large. Protected entries which have been accessed
+     * since they were placed in the segment are moved to its tail instead.
      */
-    private final boolean insertCache(CacheEntry newElement) {
-        CacheEntry[] oldCache = cache;
-        int pos = find(oldCache, newElement.name);
-        if ((pos != -1) && (newElement.name.equals(oldCache[pos].name))) {
-            return false;
+    protected void promote(String name) {
+        CacheEntry entry = cache.get(name);
+        probation.remove(name);
+        int protectedMaxSize = 
+            (int) (((long) cacheMaxSize * protectedRatio) / 100) - entry.size;
+        List<String> refreshed = new ArrayList<String>();
+        Iterator<Map.Entry<String, Long>> iterator = 
+            protectedSegment.entrySet().iterator();
+        while ((protectedSize > protectedMaxSize) && iterator.hasNext()) {
+            Map.Entry<String, Long> mapEntry = iterator.next();
+            CacheEntry demoted = cache.get(mapEntry.getKey());
+            if (demoted.accessCount > mapEntry.getValue().longValue()) {
+                refreshed.add(mapEntry.getKey());
+                continue;
+            }
+            iterator.remove();
+            protectedSize -= demoted.size;
+            probation.put(demoted.name, Long.valueOf(demoted.accessCount));
+        }
+        refresh(refreshed);
+        // If all the entries have been accessed, demote the least recently
+        // used ones
+        Iterator<String> names = protectedSegment.keySet().iterator();
+        while ((protectedSize > protectedMaxSize) && names.hasNext()) {
+            CacheEntry demoted = cache.get(names.next());
+            names.remove();
+            protectedSize -= demoted.size;
+            probation.put(demoted.name, Long.valueOf(demoted.accessCount));
+        }
+        protectedSegment.put(name, Long.valueOf(entry.accessCount));
+        protectedSize += entry.size;
+    }
+
+
+    /**
+     * Move protected entries which have been accessed to the tail of the
+     * protected segment, recording their current access count.
+     */
+    protected void refresh(List<String> names) {
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            protectedSegment.remove(name);
+            protectedSegment.put(name, Long.valueOf(cache.get(name).accessCount));
         }
-        CacheEntry[] newCache = new CacheEntry[cache.length + 1];
-        System.arraycopy(oldCache, 0, newCache, 0, pos + 1);
-        newCache[pos + 1] = newElement;
-        System.arraycopy
-            (oldCache, pos + 1, newCache, pos + 2, oldCache.length - pos - 1);
-        cache = newCache;
-        return true;
     }
 
 
+    // ------------------------------------------ FrequencySketch Inner Class
+
+
     /**
-     * Insert into the right place in a sorted MapElement array.
+     * Count-min sketch with four bit counters, giving an estimate of the
+     * access frequency of names. The counters are halved periodically so that
+     * the estimates follow changes in the access pattern. Updates are not
+     * synced, and some increments may be lost under contention, which only
+     * affects the accuracy of the estimates.
      */
-    private final CacheEntry removeCache(String name) {
-        CacheEntry[] oldCache = cache;
-        int pos = find(oldCache, name);
-        if ((pos != -1) && (name.equals(oldCache[pos].name))) {
-            CacheEntry[] newCache = new CacheEntry[cache.length - 1];
-            System.arraycopy(oldCache, 0, newCache, 0, pos);
-            System.arraycopy(oldCache, pos + 1, newCache, pos, 
-                             oldCache.length - pos - 1);
-            cache = newCache;
-            return oldCache[pos];
+    protected static class FrequencySketch {
+
+        private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        public FrequencySketch(int maximumEntries) {
+            int length = 16;
+            while ((length < maximumEntries) && (length < (1 << 24))) {
+                length <<= 1;
+            }
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * length;
+        }
+
+        /**
+         * Return the estimated number of accesses to the given name, up to 15.
+         */
+        public int frequency(String name) {
+            int hash = spread(name.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        /**
+         * Record an access to the given name.
+         */
+        public void increment(String name) {
+            int hash = spread(name.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && (++additions >= sampleSize)) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            long value = table[index];
+            if ((value & mask) != mask) {
+                table[index] = value + (1L << offset);
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
         }
-        return null;
+
+        private int indexOf(int hash, int i) {
+            long value = (hash + SEEDS[i]) * SEEDS[i];
+            value += (value >>> 32);
+            return ((int) value) & tableMask;
+        }
+
+        private static int spread(int hash) {
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
+        }
+
     }
 
+
 }
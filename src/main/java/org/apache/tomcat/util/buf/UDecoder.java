@@ -251,13 +251,13 @@ public final class UDecoder {
 
 
 
-    private static boolean isHexDigit( int c ) {
+    static boolean isHexDigit( int c ) {
 	return ( ( c>='0' && c<='9' ) ||
 		 ( c>='a' && c<='f' ) ||
 		 ( c>='A' && c<='F' ));
     }
     
-    private static int x2c( byte b1, byte b2 ) {
+    static int x2c( byte b1, byte b2 ) {
 	int digit= (b1>='A') ? ( (b1 & 0xDF)-'A') + 10 :
 	    (b1 -'0');
 	digit*=16;
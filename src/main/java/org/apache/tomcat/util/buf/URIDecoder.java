@@ -0,0 +1,312 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.CharConversionException;
+
+/**
+ * Decoding of a request URI in a single pass: path parameters are removed,
+ * %xx sequences are decoded, "\", "//", "/./" and "/../" are normalized
+ * and the bytes are converted to characters, either as UTF-8 or as
+ * ISO-8859-1. The result is the same as {@link UDecoder} followed by
+ * the normalization and the character conversion done by the adapter.
+ * <p>
+ * The UTF-8 decoding is strict (overlong forms and surrogates are rejected),
+ * so a multi-byte sequence never produces a character which would need to be
+ * normalized. An incomplete sequence at the end of the URI is dropped. If the
+ * bytes are not valid UTF-8, the characters are the ISO-8859-1 conversion of
+ * the normalized bytes.
+ * <p>
+ * The conversion will modify the original buffer.
+ */
+public final class URIDecoder {
+
+    /**
+     * The URI was decoded and normalized.
+     */
+    public static final int NORMALIZED = 0;
+
+    /**
+     * The URI cannot be normalized: it is empty, does not start with '/',
+     * goes above the root or contains a null byte or a forbidden '\'.
+     */
+    public static final int INVALID = 1;
+
+    /**
+     * The URI was normalized, but is not valid UTF-8 and was converted as
+     * ISO-8859-1.
+     */
+    public static final int MALFORMED = 2;
+
+
+    private URIDecoder() {
+    }
+
+
+    /**
+     * Decode, normalize and convert to characters a URI.
+     *
+     * @param uriMB the URI, as bytes; the bytes are replaced with the
+     *        normalized bytes and the characters are set
+     * @param utf8 <code>true</code> to convert the bytes as UTF-8, otherwise
+     *        they are converted as ISO-8859-1
+     * @param allowBackslash <code>true</code> to accept '\' as a separator
+     * @return {@link #NORMALIZED}, {@link #INVALID} or {@link #MALFORMED}
+     * @throws CharConversionException if a %xx sequence is invalid
+     */
+    public static int decode(MessageBytes uriMB, boolean utf8, boolean allowBackslash)
+        throws CharConversionException {
+
+        ByteChunk uriBC = uriMB.getByteChunk();
+        byte[] b = uriBC.getBytes();
+        int start = uriBC.getStart();
+        int end = uriBC.getEnd();
+
+        // Remove any path parameters
+        int semicolon = ByteChunk.indexOf(b, start, end, ';');
+        if (semicolon > start) {
+            end = semicolon;
+        }
+
+        CharChunk uriCC = uriMB.getCharChunk();
+        uriCC.allocate(end - start, -1);
+        char[] c = uriCC.getBuffer();
+
+        boolean noSlash = !UDecoder.ALLOW_ENCODED_SLASH;
+        boolean malformed = false;
+        // Position of the next normalized byte and char
+        int w = start;
+        int cw = 0;
+        // Current UTF-8 sequence
+        int code = 0;
+        int pending = 0;
+        int min = 0;
+
+        for (int r = start; r < end; r++) {
+            int x = b[r] & 0xff;
+            if (x == '%') {
+                if (r + 2 >= end) {
+                    throw new CharConversionException(MESSAGES.unexpectedEof());
+                }
+                byte b1 = b[r + 1];
+                byte b2 = b[r + 2];
+                if (!UDecoder.isHexDigit(b1) || !UDecoder.isHexDigit(b2)) {
+                    throw new CharConversionException(MESSAGES.invalidHex());
+                }
+                r += 2;
+                x = UDecoder.x2c(b1, b2);
+                if (noSlash && (x == '/')) {
+                    throw new CharConversionException(MESSAGES.invalidSlash());
+                }
+            }
+            if (x == '\\') {
+                if (!allowBackslash) {
+                    return invalid(b, r + 1, end, noSlash);
+                }
+                x = '/';
+            }
+            if (x == 0) {
+                return invalid(b, r + 1, end, noSlash);
+            }
+
+            // The URL must start with '/', or be "*"
+            if (w == start && x != '/') {
+                if (x != '*' || r + 1 != end) {
+                    return invalid(b, r + 1, end, noSlash);
+                }
+            }
+
+            if (x == '/') {
+                if (pending != 0) {
+                    malformed = true;
+                    pending = 0;
+                }
+                if (w > start) {
+                    // Replace "//" with "/"
+                    if (b[w - 1] == (byte) '/') {
+                        continue;
+                    }
+                    // Resolve "/./" and "/../"
+                    int dots = dotSegment(b, start, w);
+                    if (dots > 0) {
+                        if (dots == 2 && w - 3 == start) {
+                            // Prevent from going outside our context
+                            return invalid(b, r + 1, end, noSlash);
+                        }
+                        w = removeSegment(b, w, dots);
+                        if (!malformed) {
+                            cw = removeSegment(c, cw, dots);
+                        }
+                        continue;
+                    }
+                }
+                b[w++] = (byte) '/';
+                if (!malformed) {
+                    c[cw++] = '/';
+                }
+                continue;
+            }
+
+            b[w++] = (byte) x;
+            if (malformed) {
+                continue;
+            }
+            if (!utf8) {
+                c[cw++] = (char) x;
+            } else if (pending == 0) {
+                if (x < 0x80) {
+                    c[cw++] = (char) x;
+                } else if (x >= 0xC2 && x <= 0xDF) {
+                    code = x & 0x1F;
+                    pending = 1;
+                    min = 0x80;
+                } else if (x >= 0xE0 && x <= 0xEF) {
+                    code = x & 0x0F;
+                    pending = 2;
+                    min = 0x800;
+                } else if (x >= 0xF0 && x <= 0xF4) {
+                    code = x & 0x07;
+                    pending = 3;
+                    min = 0x10000;
+                } else {
+                    malformed = true;
+                }
+            } else if ((x & 0xC0) != 0x80) {
+                malformed = true;
+            } else {
+                code = (code << 6) | (x & 0x3F);
+                if (--pending == 0) {
+                    if (code < min || code > Character.MAX_CODE_POINT
+                            || (code >= Character.MIN_SURROGATE && code <= Character.MAX_SURROGATE)) {
+                        malformed = true;
+                    } else if (code >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                        c[cw++] = Character.highSurrogate(code);
+                        c[cw++] = Character.lowSurrogate(code);
+                    } else {
+                        c[cw++] = (char) code;
+                    }
+                }
+            }
+        }
+
+        // An empty URL is not acceptable
+        if (w == start) {
+            return INVALID;
+        }
+
+        // If the URI ends with "/." or "/..", resolve it as if it ended with
+        // an extra "/"
+        int dots = dotSegment(b, start, w);
+        if (dots > 0) {
+            if (dots == 2 && w - 3 == start) {
+                return INVALID;
+            }
+            w = removeSegment(b, w, dots);
+            if (!malformed) {
+                cw = removeSegment(c, cw, dots);
+            }
+        }
+
+        uriBC.setEnd(w);
+        if (malformed) {
+            // Straight conversion
+            cw = w - start;
+            for (int i = 0; i < cw; i++) {
+                c[i] = (char) (b[start + i] & 0xff);
+            }
+        }
+        uriMB.setChars(c, 0, cw);
+
+        return malformed ? MALFORMED : NORMALIZED;
+
+    }
+
+
+    /**
+     * Return 1 if the normalized bytes end with "/.", 2 if they end with
+     * "/..", and 0 otherwise.
+     */
+    private static int dotSegment(byte[] b, int start, int end) {
+        if (end - start >= 2 && b[end - 1] == (byte) '.') {
+            if (b[end - 2] == (byte) '/') {
+                return 1;
+            }
+            if (end - start >= 3 && b[end - 2] == (byte) '.' && b[end - 3] == (byte) '/') {
+                return 2;
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Remove a trailing "." segment, or a trailing ".." segment and the
+     * segment before it, keeping the '/' which precedes them.
+     *
+     * @return the new end
+     */
+    private static int removeSegment(byte[] b, int end, int dots) {
+        end -= dots;
+        if (dots == 2) {
+            end--;
+            while (b[--end] != (byte) '/') {
+            }
+            end++;
+        }
+        return end;
+    }
+
+
+    private static int removeSegment(char[] c, int end, int dots) {
+        end -= dots;
+        if (dots == 2) {
+            end--;
+            while (c[--end] != '/') {
+            }
+            end++;
+        }
+        return end;
+    }
+
+
+    /**
+     * Check the remaining %xx sequences of an invalid URI, so that invalid
+     * sequences are reported first as with a separate decoding pass.
+     */
+    private static int invalid(byte[] b, int pos, int end, boolean noSlash)
+        throws CharConversionException {
+        for (int r = pos; r < end; r++) {
+            if (b[r] == (byte) '%') {
+                if (r + 2 >= end) {
+                    throw new CharConversionException(MESSAGES.unexpectedEof());
+                }
+                if (!UDecoder.isHexDigit(b[r + 1]) || !UDecoder.isHexDigit(b[r + 2])) {
+                    throw new CharConversionException(MESSAGES.invalidHex());
+                }
+                if (noSlash && UDecoder.x2c(b[r + 1], b[r + 2]) == '/') {
+                    throw new CharConversionException(MESSAGES.invalidSlash());
+                }
+                r += 2;
+            }
+        }
+        return INVALID;
+    }
+
+}
@@ -20,14 +20,25 @@ package org.apache.tomcat.util.http;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
 
 /**
- * Utility class to generate HTTP dates.
- * 
+ * Utility class to generate and parse HTTP dates.
+ * <p>
+ * Dates are formatted (RFC 1123) and parsed (RFC 1123, RFC 850 and asctime)
+ * by hand, which is thread safe. The current date is cached for each second,
+ * as a String and as bytes kept by each thread, which are copied to the
+ * reused buffer of the Date header of a response without allocating.
+ * Formatted and parsed values are kept in small direct mapped caches. Dates
+ * which cannot be handled by hand, such as other time zones or years before
+ * the Gregorian calendar, use <code>SimpleDateFormat</code> as before.
+ *
  * @author Remy Maucherat
  */
 public final class FastHttpDateFormat {
@@ -36,14 +47,39 @@ public final class FastHttpDateFormat {
     // -------------------------------------------------------------- Variables
 
 
-    private static final int CACHE_SIZE = 
-        Integer.parseInt(System.getProperty("org.apache.tomcat.util.http.FastHttpDateFormat.CACHE_SIZE", "1000"));
+    private static final int CACHE_SIZE =
+        Integer.highestOneBit(Math.max(1, Integer.parseInt(
+                System.getProperty("org.apache.tomcat.util.http.FastHttpDateFormat.CACHE_SIZE", "1000"))) * 2 - 1);
+
+
+    /**
+     * Length of a formatted date.
+     */
+    private static final int LENGTH = 29;
+
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+
+    /**
+     * Formatted dates must be between years 1583 and 9999.
+     */
+    private static final long MIN_DATE = -12212553600000L;
+    private static final long MAX_DATE = 253402300800000L;
+
+
+    private static final String[] DAYS =
+        { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+    private static final String[] LONG_DAYS =
+        { "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday" };
+    private static final String[] MONTHS =
+        { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
 
-    
     /**
      * HTTP date format.
      */
-    private static final SimpleDateFormat format = 
+    private static final SimpleDateFormat format =
         new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
 
 
@@ -75,29 +111,32 @@ public final class FastHttpDateFormat {
 
 
     /**
-     * Instant on which the currentDate object was generated.
+     * Current formatted date.
      */
-    private static long currentDateGenerated = 0L;
+    private static volatile FormatEntry currentDate = new FormatEntry(Long.MIN_VALUE, null);
 
 
     /**
-     * Current formatted date.
+     * Current formatted date, as bytes, for each thread.
      */
-    private static String currentDate = null;
+    private static final ThreadLocal<CurrentDateBytes> currentDateBytes =
+        new ThreadLocal<CurrentDateBytes>() {
+        protected CurrentDateBytes initialValue() {
+            return new CurrentDateBytes();
+        }
+    };
 
 
     /**
      * Formatter cache.
      */
-    private static final ConcurrentHashMap<Long, String> formatCache = 
-        new ConcurrentHashMap<Long, String>(CACHE_SIZE);
+    private static final FormatEntry[] formatCache = new FormatEntry[CACHE_SIZE];
 
 
     /**
      * Parser cache.
      */
-    private static final ConcurrentHashMap<String, Long> parseCache = 
-        new ConcurrentHashMap<String, Long>(CACHE_SIZE);
+    private static final ParseEntry[] parseCache = new ParseEntry[CACHE_SIZE];
 
 
     // --------------------------------------------------------- Public Methods
@@ -108,44 +147,65 @@ public final class FastHttpDateFormat {
      */
     public static final String getCurrentDate() {
 
+        long second = System.currentTimeMillis() / 1000;
+        FormatEntry entry = currentDate;
+        if (entry.value != second) {
+            entry = new FormatEntry(second, formatDate(second * 1000));
+            currentDate = entry;
+        }
+        return entry.date;
+
+    }
+
+
+    /**
+     * Set the current date in HTTP format as the bytes of the specified
+     * message. The bytes are copied to the buffer of the message, which is
+     * reused when it is large enough.
+     */
+    public static final void getCurrentDate(MessageBytes mb) {
+
         long now = System.currentTimeMillis();
-        if ((now - currentDateGenerated) > 1000) {
-            synchronized (format) {
-                if ((now - currentDateGenerated) > 1000) {
-                    currentDate = format.format(new Date(now));
-                    currentDateGenerated = now;
-                }
-            }
+        CurrentDateBytes current = currentDateBytes.get();
+        if (now / 1000 != current.second) {
+            current.second = now / 1000;
+            format(current.second * 1000, current.bytes, 0);
         }
-        return currentDate;
+        ByteChunk bc = mb.getByteChunk();
+        bc.allocate(LENGTH, -1);
+        System.arraycopy(current.bytes, 0, bc.getBuffer(), 0, LENGTH);
+        mb.setBytes(bc.getBuffer(), 0, LENGTH);
 
     }
 
 
     /**
      * Get the HTTP format of the specified date.
+     *
+     * @param value the date
+     * @param threadLocalformat a format to use for dates which cannot be
+     *  formatted by hand, or null
      */
     public static final String formatDate
         (long value, DateFormat threadLocalformat) {
 
-        Long longValue = new Long(value);
-        String cachedDate = formatCache.get(longValue);
-        if (cachedDate != null)
-            return cachedDate;
+        int index = (int) (value ^ (value >>> 32)) * 0x9E3779B9 >>> 16 & (CACHE_SIZE - 1);
+        FormatEntry entry = formatCache[index];
+        if (entry != null && entry.value == value) {
+            return entry.date;
+        }
 
         String newDate = null;
-        Date dateValue = new Date(value);
-        if (threadLocalformat != null) {
-            newDate = threadLocalformat.format(dateValue);
-            updateFormatCache(longValue, newDate);
+        if (value >= MIN_DATE && value < MAX_DATE) {
+            newDate = formatDate(value);
+        } else if (threadLocalformat != null) {
+            newDate = threadLocalformat.format(new Date(value));
         } else {
-            synchronized (formatCache) {
-                synchronized (format) {
-                    newDate = format.format(dateValue);
-                }
-                updateFormatCache(longValue, newDate);
+            synchronized (format) {
+                newDate = format.format(new Date(value));
             }
         }
+        formatCache[index] = new FormatEntry(value, newDate);
         return newDate;
 
     }
@@ -153,33 +213,45 @@ public final class FastHttpDateFormat {
 
     /**
      * Try to parse the given date as a HTTP date.
+     *
+     * @param value the date
+     * @param threadLocalformats formats to use for dates which cannot be
+     *  parsed by hand, or null
+     * @return the date, or -1 if it cannot be parsed
      */
-    public static final long parseDate(String value, 
+    public static final long parseDate(String value,
                                        DateFormat[] threadLocalformats) {
 
-        Long cachedDate = parseCache.get(value);
-        if (cachedDate != null)
-            return cachedDate.longValue();
+        int index = (value.hashCode() * 0x9E3779B9) >>> 16 & (CACHE_SIZE - 1);
+        ParseEntry entry = parseCache[index];
+        if (entry != null && entry.date.equals(value)) {
+            return entry.value;
+        }
 
-        Long date = null;
-        if (threadLocalformats != null) {
-            date = internalParseDate(value, threadLocalformats);
-            updateParseCache(value, date);
-        } else {
-            synchronized (parseCache) {
-                date = internalParseDate(value, formats);
-                updateParseCache(value, date);
+        long date = parse(value);
+        if (date == -1L) {
+            Long parsed = null;
+            if (threadLocalformats != null) {
+                parsed = internalParseDate(value, threadLocalformats);
+            } else {
+                synchronized (formats) {
+                    parsed = internalParseDate(value, formats);
+                }
             }
+            if (parsed == null) {
+                return (-1L);
+            }
+            date = parsed.longValue();
         }
-        if (date == null) {
-            return (-1L);
-        } else {
-            return date.longValue();
-        }
+        parseCache[index] = new ParseEntry(value, date);
+        return date;
 
     }
 
 
+    // -------------------------------------------------------- Private Methods
+
+
     /**
      * Parse date with given formatters.
      */
@@ -196,35 +268,259 @@ public final class FastHttpDateFormat {
         if (date == null) {
             return null;
         }
-        return new Long(date.getTime());
+        return Long.valueOf(date.getTime());
+    }
+
+
+    private static String formatDate(long value) {
+        byte[] b = new byte[LENGTH];
+        format(value, b, 0);
+        char[] c = new char[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            c[i] = (char) b[i];
+        }
+        return new String(c);
     }
 
 
     /**
-     * Update cache.
+     * Format a date between years 1583 and 9999 as
+     * "EEE, dd MMM yyyy HH:mm:ss GMT".
      */
-    private static void updateFormatCache(Long key, String value) {
-        if (value == null) {
-            return;
+    private static void format(long value, byte[] b, int off) {
+
+        long days = value / MILLIS_PER_DAY;
+        int millis = (int) (value % MILLIS_PER_DAY);
+        if (millis < 0) {
+            days--;
+            millis += MILLIS_PER_DAY;
         }
-        if (formatCache.size() > CACHE_SIZE) {
-            formatCache.clear();
+        int seconds = millis / 1000;
+
+        // 1970-01-01 was a Thursday
+        String day = DAYS[(int) ((days % 7 + 11) % 7)];
+        b[off] = (byte) day.charAt(0);
+        b[off + 1] = (byte) day.charAt(1);
+        b[off + 2] = (byte) day.charAt(2);
+        b[off + 3] = (byte) ',';
+        b[off + 4] = (byte) ' ';
+
+        // Civil date from the number of days, in eras of 400 years starting
+        // on March 1st
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int dayOfMonth = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+        write2(b, off + 5, dayOfMonth);
+        b[off + 7] = (byte) ' ';
+        String monthName = MONTHS[month - 1];
+        b[off + 8] = (byte) monthName.charAt(0);
+        b[off + 9] = (byte) monthName.charAt(1);
+        b[off + 10] = (byte) monthName.charAt(2);
+        b[off + 11] = (byte) ' ';
+        write2(b, off + 12, year / 100);
+        write2(b, off + 14, year % 100);
+        b[off + 16] = (byte) ' ';
+        write2(b, off + 17, seconds / 3600);
+        b[off + 19] = (byte) ':';
+        write2(b, off + 20, seconds / 60 % 60);
+        b[off + 22] = (byte) ':';
+        write2(b, off + 23, seconds % 60);
+        b[off + 25] = (byte) ' ';
+        b[off + 26] = (byte) 'G';
+        b[off + 27] = (byte) 'M';
+        b[off + 28] = (byte) 'T';
+
+    }
+
+
+    private static void write2(byte[] b, int off, int value) {
+        b[off] = (byte) ('0' + value / 10);
+        b[off + 1] = (byte) ('0' + value % 10);
+    }
+
+
+    /**
+     * Parse a date in one of the formats allowed by HTTP:
+     * "Sun, 06 Nov 1994 08:49:37 GMT" (RFC 1123),
+     * "Sunday, 06-Nov-94 08:49:37 GMT" (RFC 850) or
+     * "Sun Nov  6 08:49:37 1994" (asctime).
+     *
+     * @return the date, or -1 if the value does not use one of these
+     *  formats exactly
+     */
+    static long parse(String value) {
+
+        int length = value.length();
+        int comma = value.indexOf(',');
+        int dayOfWeek;
+        int dayOfMonth;
+        int month;
+        int year;
+        int pos;
+        long centuryStart = Long.MIN_VALUE;
+        if (comma < 0) {
+            // asctime: "Sun Nov  6 08:49:37 1994"
+            if (length != 24 || value.charAt(3) != ' ' || value.charAt(7) != ' '
+                    || value.charAt(10) != ' ' || value.charAt(19) != ' ') {
+                return -1L;
+            }
+            dayOfWeek = indexOf(DAYS, value, 0, 3);
+            month = indexOf(MONTHS, value, 4, 7);
+            dayOfMonth = (value.charAt(8) == ' ') ? digits(value, 9, 10) : digits(value, 8, 10);
+            year = digits(value, 20, 24);
+            pos = 11;
+        } else {
+            dayOfWeek = indexOf(DAYS, value, 0, comma);
+            if (dayOfWeek < 0) {
+                dayOfWeek = indexOf(LONG_DAYS, value, 0, comma);
+            }
+            if (comma + 1 >= length || value.charAt(comma + 1) != ' ') {
+                return -1L;
+            }
+            int start = comma + 2;
+            if (length - start == 24 && value.charAt(start + 2) == ' ') {
+                // RFC 1123: "06 Nov 1994 08:49:37 GMT"
+                if (value.charAt(start + 6) != ' ' || value.charAt(start + 11) != ' ') {
+                    return -1L;
+                }
+                dayOfMonth = digits(value, start, start + 2);
+                month = indexOf(MONTHS, value, start + 3, start + 6);
+                year = digits(value, start + 7, start + 11);
+                pos = start + 12;
+            } else if (length - start == 22 && value.charAt(start + 2) == '-') {
+                // RFC 850: "06-Nov-94 08:49:37 GMT"
+                if (value.charAt(start + 6) != '-' || value.charAt(start + 9) != ' ') {
+                    return -1L;
+                }
+                dayOfMonth = digits(value, start, start + 2);
+                month = indexOf(MONTHS, value, start + 3, start + 6);
+                year = digits(value, start + 7, start + 9);
+                if (year >= 0) {
+                    // Two digit years are in the century starting 80 years
+                    // ago, as with SimpleDateFormat
+                    Calendar calendar = Calendar.getInstance(gmtZone, Locale.US);
+                    calendar.add(Calendar.YEAR, -80);
+                    centuryStart = calendar.getTimeInMillis();
+                    int startYear = calendar.get(Calendar.YEAR);
+                    year += startYear - startYear % 100;
+                    if (year < startYear) {
+                        year += 100;
+                    }
+                }
+                pos = start + 10;
+            } else {
+                return -1L;
+            }
+            if (!value.regionMatches(pos + 8, " GMT", 0, 4)) {
+                return -1L;
+            }
+        }
+
+        // Time: "08:49:37"
+        if (value.charAt(pos + 2) != ':' || value.charAt(pos + 5) != ':') {
+            return -1L;
+        }
+        int hours = digits(value, pos, pos + 2);
+        int minutes = digits(value, pos + 3, pos + 5);
+        int seconds = digits(value, pos + 6, pos + 8);
+
+        if (dayOfWeek < 0 || month < 0 || dayOfMonth < 1 || year < 1583
+                || hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+                || seconds < 0 || seconds > 59) {
+            return -1L;
+        }
+        long time = (hours * 3600 + minutes * 60 + seconds) * 1000L;
+        long days = daysFromCivil(year, month + 1, dayOfMonth);
+        if (days * MILLIS_PER_DAY + time < centuryStart) {
+            year += 100;
+            days = daysFromCivil(year, month + 1, dayOfMonth);
         }
-        formatCache.put(key, value);
+        // The day must exist, and match the day of the week
+        if (dayOfMonth > 28 && daysFromCivil(year, month + 2, 1) <= days
+                || (days % 7 + 11) % 7 != dayOfWeek) {
+            return -1L;
+        }
+        return days * MILLIS_PER_DAY + time;
+
     }
 
 
     /**
-     * Update cache.
+     * Number of days since 1970-01-01 of a date.
      */
-    private static void updateParseCache(String key, Long value) {
-        if (value == null) {
-            return;
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month > 12) {
+            year++;
+            month -= 12;
         }
-        if (parseCache.size() > CACHE_SIZE) {
-            parseCache.clear();
+        year -= (month <= 2) ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yoe = (int) (year - era * 400);
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+
+    private static int indexOf(String[] names, String value, int start, int end) {
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (name.length() == end - start && value.regionMatches(start, name, 0, end - start)) {
+                return i;
+            }
         }
-        parseCache.put(key, value);
+        return -1;
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    private static final class FormatEntry {
+        final long value;
+        final String date;
+
+        FormatEntry(long value, String date) {
+            this.value = value;
+            this.date = date;
+        }
+    }
+
+
+    private static final class ParseEntry {
+        final String date;
+        final long value;
+
+        ParseEntry(String date, long value) {
+            this.date = date;
+            this.value = value;
+        }
+    }
+
+
+    private static final class CurrentDateBytes {
+        long second = Long.MIN_VALUE;
+        final byte[] bytes = new byte[LENGTH];
     }
 
 
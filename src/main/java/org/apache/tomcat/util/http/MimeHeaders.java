@@ -21,8 +21,12 @@ import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 /**
@@ -56,11 +60,12 @@ import org.apache.tomcat.util.buf.MessageBytes;
  Apache seems to be using a similar method for storing and manipulating
  headers.
 
- Future enhancements:
- - hash the headers the first time a header is requested ( i.e. if the
- servlet needs direct access to headers).
- - scan "common" values ( length, cookies, etc ) during the parse
- ( addHeader hook )
+ Once there are enough headers, the first lookup by name builds an
+ open addressing index over the names ( hashed in place, without
+ converting them to Strings ), which is then kept up to date when
+ headers are added and dropped when one is removed. Names which are not
+ US-ASCII disable the index, as equalsIgnoreCase does not fold them the
+ same way for Strings and bytes.
 
  */
 
@@ -152,14 +157,13 @@ public class MimeHeaders {
 
         private void findNext() {
             next = null;
-            for (; pos < size; pos++) {
-                MessageBytes n1 = getName(pos);
-                if (n1.equalsIgnoreCase(name)) {
-                    next = getValue(pos);
-                    break;
-                }
+            int i = findHeader(name, pos);
+            if (i >= 0 && i < size) {
+                next = getValue(i);
+                pos = i + 1;
+            } else {
+                pos = size;
             }
-            pos++;
         }
 
         public boolean hasMoreElements() {
@@ -210,6 +214,43 @@ public class MimeHeaders {
     protected static final int MAX_COUNT = 
         Integer.valueOf(System.getProperty("org.apache.tomcat.util.http.MimeHeaders.MAX_COUNT", "128")).intValue();
 
+    /**
+     * Number of headers from which lookups by name use an index rather than
+     * a linear scan.
+     */
+    protected static final int INDEX_THRESHOLD = DEFAULT_HEADER_SIZE;
+
+    /**
+     * Hashes of well-known header names, in lower case and in their usual
+     * capitalization, so that lookups with these names do not need to hash
+     * them.
+     */
+    private static final HashMap<String, Integer> KNOWN_HASHES = new HashMap<String, Integer>();
+
+    static {
+        String[] names = { "accept", "accept-charset", "accept-encoding", "accept-language",
+                "accept-ranges", "authorization", "cache-control", "connection",
+                "content-disposition", "content-encoding", "content-language", "content-length",
+                "content-type", "cookie", "date", "etag", "expect", "expires", "host",
+                "if-match", "if-modified-since", "if-none-match", "if-range",
+                "if-unmodified-since", "keep-alive", "last-modified", "location", "origin",
+                "pragma", "proxy-authorization", "range", "referer", "server", "set-cookie",
+                "te", "trailer", "transfer-encoding", "upgrade", "user-agent", "vary", "via",
+                "www-authenticate", "x-forwarded-for", "x-forwarded-host",
+                "x-forwarded-proto", "x-requested-with", "http2-settings" };
+        for (int i = 0; i < names.length; i++) {
+            Integer hash = Integer.valueOf(hash(names[i]));
+            KNOWN_HASHES.put(names[i], hash);
+            char[] capitalized = names[i].toCharArray();
+            for (int j = 0; j < capitalized.length; j++) {
+                if (j == 0 || capitalized[j - 1] == '-') {
+                    capitalized[j] = Character.toUpperCase(capitalized[j]);
+                }
+            }
+            KNOWN_HASHES.put(new String(capitalized), hash);
+        }
+    }
+
     /**
      * The header fields.
      */
@@ -220,6 +261,32 @@ public class MimeHeaders {
      */
     private int count;
 
+    /**
+     * Open addressing table of the header names: each used slot holds the
+     * position + 1 of the first header with a given name.
+     */
+    private int[] index = new int[0];
+
+    /**
+     * Hash of the name of each header, when indexed.
+     */
+    private int[] hashes = new int[0];
+
+    /**
+     * Position of the next header with the same name, or -1.
+     */
+    private int[] nextSame = new int[0];
+
+    /**
+     * True if the index is up to date.
+     */
+    private boolean indexed;
+
+    /**
+     * True if a name cannot be indexed, until the headers are cleared.
+     */
+    private boolean unindexable;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -242,6 +309,8 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        indexed = false;
+        unindexable = false;
     }
 
     /**
@@ -287,13 +356,16 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader(String name, int starting) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead 
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        if (useIndex()) {
+            int hash = hash(name);
+            if (hash >= 0) {
+                int i = lookup(name, hash);
+                while (i >= 0 && i < starting) {
+                    i = nextSame[i];
+                }
+                return i;
+            }
+        }
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -348,6 +420,7 @@ public class MimeHeaders {
     public MessageBytes addValue(String name) {
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        indexHeader();
         return mh.getValue();
     }
 
@@ -358,6 +431,7 @@ public class MimeHeaders {
     public MessageBytes addValue(byte b[], int startN, int len) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setBytes(b, startN, len);
+        indexHeader();
         return mhf.getValue();
     }
 
@@ -366,6 +440,7 @@ public class MimeHeaders {
     public MessageBytes addValue(char c[], int startN, int len) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setChars(c, startN, len);
+        indexHeader();
         return mhf.getValue();
     }
 
@@ -375,19 +450,15 @@ public class MimeHeaders {
         if this .
      */
     public MessageBytes setValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                for (int j = i + 1; j < count; j++) {
-                    if (headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        int i = findHeader(name, 0);
+        if (i >= 0) {
+            int j;
+            while ((j = findHeader(name, i + 1)) >= 0) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
-        MimeHeaderField mh = createHeader();
-        mh.getName().setString(name);
-        return mh.getValue();
+        return addValue(name);
     }
 
     //-------------------- Getting headers --------------------
@@ -397,12 +468,8 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -411,17 +478,14 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown. 
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findHeader(name, 0);
+        if (i < 0) {
+            return null;
         }
-        return result;
+        if (findHeader(name, i + 1) >= 0) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -438,11 +502,9 @@ public class MimeHeaders {
      * @param name the name of the header field to be removed
      */
     public void removeHeader(String name) {
-        // warning: rather sticky code; heavily tuned
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                removeHeader(i--);
-            }
+        int i = 0;
+        while ((i = findHeader(name, i)) >= 0) {
+            removeHeader(i);
         }
     }
 
@@ -457,6 +519,196 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        indexed = false;
+    }
+
+    // -------------------- Index --------------------
+
+    /**
+     * Build the index if it is worth it and possible.
+     * @return true if lookups can use the index
+     */
+    private boolean useIndex() {
+        if (indexed) {
+            return true;
+        }
+        if (unindexable || count < INDEX_THRESHOLD) {
+            return false;
+        }
+        buildIndex();
+        return indexed;
+    }
+
+    private void buildIndex() {
+        int capacity = 16;
+        while (capacity < 2 * count) {
+            capacity <<= 1;
+        }
+        if (index.length < capacity) {
+            index = new int[capacity];
+        } else {
+            Arrays.fill(index, 0);
+        }
+        if (hashes.length < headers.length) {
+            hashes = new int[headers.length];
+            nextSame = new int[headers.length];
+        }
+        indexed = true;
+        for (int i = 0; i < count; i++) {
+            if (!insert(i)) {
+                indexed = false;
+                unindexable = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the last header to the index, if there is one.
+     */
+    private void indexHeader() {
+        if (!indexed) {
+            return;
+        }
+        int pos = count - 1;
+        if (2 * count > index.length || pos >= hashes.length) {
+            buildIndex();
+        } else if (!insert(pos)) {
+            indexed = false;
+            unindexable = true;
+        }
+    }
+
+    /**
+     * Add a header to the index, after any header with the same name.
+     * @return false if the name cannot be indexed
+     */
+    private boolean insert(int pos) {
+        MessageBytes name = headers[pos].getName();
+        int hash = hash(name);
+        if (hash < 0) {
+            return false;
+        }
+        hashes[pos] = hash;
+        nextSame[pos] = -1;
+        int mask = index.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int i;
+        while ((i = index[slot] - 1) >= 0) {
+            if (hashes[i] == hash && equalsIgnoreCase(headers[i].getName(), name)) {
+                while (nextSame[i] >= 0) {
+                    i = nextSame[i];
+                }
+                nextSame[i] = pos;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = pos + 1;
+        return true;
+    }
+
+    /**
+     * Find the position of the first header with the given name.
+     */
+    private int lookup(String name, int hash) {
+        int mask = index.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int i;
+        while ((i = index[slot] - 1) >= 0) {
+            if (hashes[i] == hash && headers[i].getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Case insensitive hash of a US-ASCII name.
+     * @return the hash, or -1 if the name is not US-ASCII
+     */
+    protected static int hash(String name) {
+        Integer known = KNOWN_HASHES.get(name);
+        if (known != null) {
+            return known.intValue();
+        }
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            int c = name.charAt(i);
+            if (c >= 0x80) {
+                return -1;
+            }
+            hash = 31 * hash + toLower(c);
+        }
+        return hash & 0x7FFFFFFF;
+    }
+
+    protected static int hash(MessageBytes name) {
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES: {
+            ByteChunk bc = name.getByteChunk();
+            byte[] b = bc.getBuffer();
+            int hash = 0;
+            for (int i = bc.getStart(); i < bc.getEnd(); i++) {
+                int c = b[i] & 0xFF;
+                if (c >= 0x80) {
+                    return -1;
+                }
+                hash = 31 * hash + toLower(c);
+            }
+            return hash & 0x7FFFFFFF;
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = name.getCharChunk();
+            char[] c = cc.getBuffer();
+            int hash = 0;
+            for (int i = cc.getStart(); i < cc.getEnd(); i++) {
+                if (c[i] >= 0x80) {
+                    return -1;
+                }
+                hash = 31 * hash + toLower(c[i]);
+            }
+            return hash & 0x7FFFFFFF;
+        }
+        case MessageBytes.T_STR:
+            return name.getString() != null ? hash(name.getString()) : -1;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Compare two US-ASCII names, ignoring case.
+     */
+    private static boolean equalsIgnoreCase(MessageBytes name1, MessageBytes name2) {
+        int length = name1.getLength();
+        if (name2.getLength() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLower(charAt(name1, i)) != toLower(charAt(name2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int charAt(MessageBytes name, int i) {
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES:
+            ByteChunk bc = name.getByteChunk();
+            return bc.getBuffer()[bc.getStart() + i] & 0xFF;
+        case MessageBytes.T_CHARS:
+            CharChunk cc = name.getCharChunk();
+            return cc.getBuffer()[cc.getStart() + i];
+        default:
+            return name.getString().charAt(i);
+        }
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
     }
 
 }
@@ -20,11 +20,9 @@ import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
@@ -33,6 +31,18 @@ import org.apache.tomcat.util.buf.UDecoder;
 import org.jboss.web.CoyoteLogger;
 
 /**
+ * The parameters of a request, kept in flat arrays which are reused from one
+ * request to the next. The parameters are stored in the order they were
+ * added, with the values of a name chained together, and an open addressing
+ * table of the names is built on the first lookup.
+ * <p>
+ * In lazy mode, parsing only records where the name and the value of each
+ * parameter are in the parsed bytes, and they are decoded when first
+ * accessed. The bytes must then stay unchanged until the parameters are
+ * recycled, which is the case of the query string copy and of the request
+ * body buffers. All the names are decoded on the first lookup, but a value
+ * is only decoded when it is read, so a parameter whose value cannot be
+ * decoded is still listed by {@link #getParameterNames()}.
  *
  * @author Costin Manolache
  */
@@ -41,8 +51,53 @@ public final class Parameters {
     protected static final int MAX_COUNT = 
         Integer.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.MAX_COUNT", "512")).intValue();
 
-    private final HashMap<String,ArrayList<String>> paramHashValues =
-        new HashMap<String,ArrayList<String>>();
+    protected static final boolean LAZY =
+        Boolean.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.LAZY", "false")).booleanValue();
+
+    private static final int INITIAL_SIZE = 16;
+
+    // Entry flags
+    private static final int DECODE_NAME = 1;
+    private static final int DECODE_VALUE = 2;
+    private static final int NAME_DECODED = 4;
+    private static final int VALUE_DECODED = 8;
+    private static final int INVALID = 16;
+
+    /**
+     * Number of parameters.
+     */
+    private int size = 0;
+
+    /**
+     * Bytes, and positions of the name start and end and of the value start
+     * and end (-1 if there is no value) of the parameters not decoded yet.
+     */
+    private byte[][] buffers = new byte[INITIAL_SIZE][];
+    private int[] positions = new int[4 * INITIAL_SIZE];
+    private String[] charsets = new String[INITIAL_SIZE];
+    private int[] flags = new int[INITIAL_SIZE];
+
+    /**
+     * Decoded names and values.
+     */
+    private String[] names = new String[INITIAL_SIZE];
+    private String[] values = new String[INITIAL_SIZE];
+
+    /**
+     * Index of the names: hash of each name, position of the next parameter
+     * with the same name or -1, open addressing table where each used slot
+     * holds the position + 1 of the first parameter with a given name, and
+     * the positions of the first parameter of each name.
+     */
+    private int[] hashes = new int[INITIAL_SIZE];
+    private int[] nextSame = new int[INITIAL_SIZE];
+    private int[] index = new int[2 * INITIAL_SIZE];
+    private int[] firsts = new int[INITIAL_SIZE];
+    private int nameCount = 0;
+    private boolean indexed = false;
+
+    private boolean lazy = LAZY;
+
     private boolean didQueryParameters=false;
 
     MessageBytes queryMB;
@@ -74,6 +129,18 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Set whether parsed names and values are decoded when first accessed
+     * rather than when parsed.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public String getEncoding() {
         return encoding;
     }
@@ -96,7 +163,13 @@ public final class Parameters {
 
     public void recycle() {
         parameterCount = 0;
-        paramHashValues.clear();
+        Arrays.fill(buffers, 0, size, null);
+        Arrays.fill(charsets, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        nameCount = 0;
+        indexed = false;
         didQueryParameters=false;
         encoding=null;
         decodedQuery.recycle();
@@ -107,7 +180,6 @@ public final class Parameters {
     // Access to the current name/values, no side effect ( processing ).
     // You must explicitely call handleQueryParameters and the post methods.
 
-    // This is the original data representation ( hash of String->String[])
 
     public void addParameterValues(String name, String[] values) {
         if (name == null || values == null) {
@@ -120,30 +192,56 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
-        // no "facade"
-        ArrayList<String> values = paramHashValues.get(name);
-        if (values == null) {
+        int first = find(name);
+        int count = 0;
+        for (int i = first; i >= 0; i = nextSame[i]) {
+            if (getValue(i) != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
             return null;
         }
-        return values.toArray(new String[values.size()]);
+        String[] result = new String[count];
+        count = 0;
+        for (int i = first; i >= 0; i = nextSame[i]) {
+            if (values[i] != null) {
+                result[count++] = values[i];
+            }
+        }
+        return result;
     }
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
-        return Collections.enumeration(paramHashValues.keySet());
+        buildIndex();
+        final String[] result = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            result[i] = names[firsts[i]];
+        }
+        return new Enumeration<String>() {
+            private int pos = 0;
+            public boolean hasMoreElements() {
+                return pos < result.length;
+            }
+            public String nextElement() {
+                if (pos >= result.length) {
+                    throw new NoSuchElementException();
+                }
+                return result[pos++];
+            }
+        };
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
-        ArrayList<String> values = paramHashValues.get(name);
-        if (values != null) {
-            if(values.size() == 0) {
-                return "";
+        for (int i = find(name); i >= 0; i = nextSame[i]) {
+            String value = getValue(i);
+            if (value != null) {
+                return value;
             }
-            return values.get(0);
-        } else {
-            return null;
         }
+        return null;
     }
     // -------------------- Processing --------------------
     /** Process the query string into parameters
@@ -184,12 +282,219 @@ public final class Parameters {
             throw MESSAGES.maxParametersFail(limit);
         }
 
-        ArrayList<String> values = paramHashValues.get(key);
-        if (values == null) {
-            values = new ArrayList<String>(1);
-            paramHashValues.put(key, values);
+        int i = addEntry();
+        names[i] = key;
+        values[i] = value;
+        flags[i] = NAME_DECODED | VALUE_DECODED;
+    }
+
+    /**
+     * Add a parameter which will be decoded when first accessed.
+     */
+    private void addParameter(byte[] bytes, int nameStart, int nameEnd,
+            int valueStart, int valueEnd, int decode, String enc) {
+
+        parameterCount ++;
+        if (limit > -1 && parameterCount > limit) {
+            parseFailed = true;
+            throw MESSAGES.maxParametersFail(limit);
+        }
+
+        int i = addEntry();
+        buffers[i] = bytes;
+        positions[4 * i] = nameStart;
+        positions[4 * i + 1] = nameEnd;
+        positions[4 * i + 2] = valueStart;
+        positions[4 * i + 3] = valueEnd;
+        charsets[i] = enc;
+        flags[i] = decode;
+    }
+
+    private int addEntry() {
+        if (size == names.length) {
+            int length = 2 * size;
+            buffers = Arrays.copyOf(buffers, length);
+            positions = Arrays.copyOf(positions, 4 * length);
+            charsets = Arrays.copyOf(charsets, length);
+            flags = Arrays.copyOf(flags, length);
+            names = Arrays.copyOf(names, length);
+            values = Arrays.copyOf(values, length);
+            hashes = new int[length];
+            nextSame = new int[length];
+            firsts = new int[length];
+        }
+        indexed = false;
+        return size++;
+    }
+
+    // -------------------- Index --------------------
+
+    /**
+     * Return the position of the first parameter with the given name, or -1.
+     */
+    private int find(String name) {
+        if (name == null) {
+            return -1;
+        }
+        buildIndex();
+        int hash = name.hashCode();
+        int mask = index.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int i;
+        while ((i = index[slot] - 1) >= 0) {
+            if (hashes[i] == hash && names[i].equals(name)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
         }
-        values.add(value);
+        return -1;
+    }
+
+    private void buildIndex() {
+        if (indexed) {
+            return;
+        }
+        int capacity = index.length;
+        while (capacity < 2 * size) {
+            capacity <<= 1;
+        }
+        if (capacity != index.length) {
+            index = new int[capacity];
+        } else {
+            Arrays.fill(index, 0);
+        }
+        int mask = capacity - 1;
+        nameCount = 0;
+        for (int pos = 0; pos < size; pos++) {
+            nextSame[pos] = -1;
+            String name = getName(pos);
+            if (name == null) {
+                continue;
+            }
+            int hash = name.hashCode();
+            hashes[pos] = hash;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            int i;
+            while ((i = index[slot] - 1) >= 0) {
+                if (hashes[i] == hash && names[i].equals(name)) {
+                    while (nextSame[i] >= 0) {
+                        i = nextSame[i];
+                    }
+                    nextSame[i] = pos;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (i < 0) {
+                index[slot] = pos + 1;
+                firsts[nameCount++] = pos;
+            }
+        }
+        indexed = true;
+    }
+
+    // -------------------- Decoding --------------------
+
+    private String getName(int i) {
+        if ((flags[i] & (NAME_DECODED | INVALID)) == 0) {
+            decode(i, false);
+        }
+        return names[i];
+    }
+
+    private String getValue(int i) {
+        if ((flags[i] & (VALUE_DECODED | INVALID)) == 0) {
+            decode(i, true);
+        }
+        return values[i];
+    }
+
+    /**
+     * Decode the name or the value of a parameter. If either cannot be
+     * decoded, the parameter is ignored.
+     */
+    private void decode(int i, boolean value) {
+        byte[] bytes = buffers[i];
+        int nameStart = positions[4 * i];
+        int nameEnd = positions[4 * i + 1];
+        int valueStart = positions[4 * i + 2];
+        int valueEnd = positions[4 * i + 3];
+
+        // Take copies as the originals will be corrupted if anything
+        // goes wrong. Only done for debug.
+        if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+            try {
+                origName.append(bytes, nameStart, nameEnd - nameStart);
+                if (valueStart >= 0) {
+                    origValue.append(bytes, valueStart, valueEnd - valueStart);
+                }
+            } catch (IOException ioe) {
+                CoyoteLogger.HTTP_LOGGER.parametersCopyFailed();
+            }
+        }
+
+        try {
+            if (!value) {
+                tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
+                if ((flags[i] & DECODE_NAME) != 0) {
+                    urlDecode(tmpName);
+                }
+                names[i] = toString(tmpName, charsets[i]);
+                flags[i] |= NAME_DECODED;
+            } else {
+                if (valueStart >= 0) {
+                    tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
+                    if ((flags[i] & DECODE_VALUE) != 0) {
+                        urlDecode(tmpValue);
+                    }
+                    values[i] = toString(tmpValue, charsets[i]);
+                } else {
+                    values[i] = "";
+                }
+                flags[i] |= VALUE_DECODED;
+                buffers[i] = null;
+            }
+        } catch (IOException e) {
+            parseFailed = true;
+            flags[i] |= INVALID;
+            names[i] = null;
+            values[i] = null;
+            buffers[i] = null;
+            indexed = false;
+            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+                CoyoteLogger.HTTP_LOGGER.parameterDecodingFailed(origName.toString(), origValue.toString());
+            }
+        } finally {
+            tmpName.recycle();
+            tmpValue.recycle();
+            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+                origName.recycle();
+                origValue.recycle();
+            }
+        }
+    }
+
+    /**
+     * Convert decoded bytes to a String, directly if they are US-ASCII and
+     * the encoding is a superset of it.
+     */
+    private static String toString(ByteChunk bc, String enc) {
+        if (enc == null || enc.equalsIgnoreCase("UTF-8") || enc.equalsIgnoreCase(DEFAULT_ENCODING)) {
+            byte[] bytes = bc.getBuffer();
+            int start = bc.getStart();
+            int length = bc.getLength();
+            char[] chars = new char[length];
+            int i = 0;
+            while (i < length && bytes[start + i] >= 0) {
+                chars[i] = (char) bytes[start + i];
+                i++;
+            }
+            if (i == length) {
+                return new String(chars);
+            }
+        }
+        bc.setEncoding(enc);
+        return bc.toString();
     }
 
     public void setURLDecoder( UDecoder u ) {
@@ -236,6 +541,11 @@ public final class Parameters {
             boolean parameterComplete = false;
 
             do {
+                // Letters and digits are the most common by far
+                if (bytes[pos] > '=') {
+                    pos++;
+                    continue;
+                }
                 switch(bytes[pos]) {
                     case '=':
                         if (parsingName) {
@@ -312,6 +622,12 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                addParameter(bytes, nameStart, nameEnd, valueStart, valueEnd,
+                        (decodeName ? DECODE_NAME : 0) | (decodeValue ? DECODE_VALUE : 0), enc);
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -409,11 +725,13 @@ public final class Parameters {
      */
     public String paramsAsString() {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
-            sb.append(e.getKey()).append('=');
-            ArrayList<String> values = e.getValue();
-            for (String value : values) {
-                sb.append(value).append(',');
+        buildIndex();
+        for (int i = 0; i < nameCount; i++) {
+            sb.append(names[firsts[i]]).append('=');
+            for (int j = firsts[i]; j >= 0; j = nextSame[j]) {
+                if (getValue(j) != null) {
+                    sb.append(values[j]).append(',');
+                }
             }
             sb.append('\n');
         }
@@ -240,7 +240,7 @@ public final class Mapper {
                 Context newContext = new Context();
                 newContext.name = path;
                 if (insertMap(contexts, newContexts, newContext)) {
-                    host.contextList.contexts = newContexts;
+                    host.contextList.setContexts(newContexts);
                 }
             }
         }
@@ -287,11 +287,11 @@ public final class Mapper {
                 newContext.welcomeResources = welcomeResources;
                 newContext.resources = resources;
                 if (insertMap(contexts, newContexts, newContext)) {
-                    host.contextList.contexts = newContexts;
+                    host.contextList.setContexts(newContexts);
                 } else {
                     newContexts = new Context[contexts.length];
                     if (insertLazyLoadedContext(contexts, newContexts, newContext)) {
-                        host.contextList.contexts = newContexts;
+                        host.contextList.setContexts(newContexts);
                     }
                 }
             }
@@ -321,7 +321,7 @@ public final class Mapper {
                 }
                 Context[] newContexts = new Context[contexts.length - 1];
                 if (removeMap(contexts, newContexts, path)) {
-                    host.contextList.contexts = newContexts;
+                    host.contextList.setContexts(newContexts);
                     // Recalculate nesting
                     host.contextList.nesting = 0;
                     for (int i = 0; i < newContexts.length; i++) {
@@ -432,7 +432,7 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.wildcardWrappers = newWrappers;
+                    context.setWildcardWrappers(newWrappers);
                     int slashCount = slashCount(newWrapper.name);
                     if (slashCount > context.nesting) {
                         context.nesting = slashCount;
@@ -445,7 +445,7 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.extensionWrappers = newWrappers;
+                    context.setExtensionWrappers(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -462,7 +462,7 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
-                    context.exactWrappers = newWrappers;
+                    context.setExactWrappers(newWrappers);
                 }
             }
         }
@@ -524,7 +524,7 @@ public final class Mapper {
                             context.nesting = slashCount;
                         }
                     }
-                    context.wildcardWrappers = newWrappers;
+                    context.setWildcardWrappers(newWrappers);
                 }
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
@@ -533,7 +533,7 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
-                    context.extensionWrappers = newWrappers;
+                    context.setExtensionWrappers(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -548,7 +548,7 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
-                    context.exactWrappers = newWrappers;
+                    context.setExactWrappers(newWrappers);
                 }
             }
         }
@@ -663,10 +663,9 @@ public final class Mapper {
 
         uri.setLimit(-1);
 
-        Context[] contexts = null;
+        PathTrie<Context> contexts = null;
         Host mappedHost = null;
         Context context = null;
-        int nesting = 0;
 
         // Virtual host mapping
         if (mappingData.host == null) {
@@ -675,8 +674,7 @@ public final class Mapper {
             if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
                 mappedHost = hosts[pos];
                 mappingData.host = mappedHost.object;
-                contexts = mappedHost.contextList.contexts;
-                nesting = mappedHost.contextList.nesting;
+                contexts = mappedHost.contextList.index;
             } else {
                 if (defaultHostName == null) {
                     return;
@@ -685,8 +683,7 @@ public final class Mapper {
                 if ((pos != -1) && (defaultHostName.equals(hosts[pos].name))) {
                     mappedHost = hosts[pos];
                     mappingData.host = mappedHost.object;
-                    contexts = mappedHost.contextList.contexts;
-                    nesting = mappedHost.contextList.nesting;
+                    contexts = mappedHost.contextList.index;
                 } else {
                     return;
                 }
@@ -695,16 +692,15 @@ public final class Mapper {
 
         // Context mapping
         if (mappingData.context == null) {
-            context = findContext(uri, contexts, nesting);
+            context = findContext(uri, contexts);
             if (context != null) {
                 if (context.object == null) {
                     notifyLazyLoadContextMappingListeners(mappedHost, context);
                     // See if the notification resulted in deploying the context
                     // First reestablish refs to the host fields as adding
                     // the real context will have changed them
-                    contexts = mappedHost.contextList.contexts;
-                    nesting = mappedHost.contextList.nesting;
-                    context = findContext(uri, contexts, nesting);
+                    contexts = mappedHost.contextList.index;
+                    context = findContext(uri, contexts);
                     if (context != null && context.object == null) {
                         // notification did not result in deployment 
                         // don't map to the unloaded context
@@ -739,47 +735,10 @@ public final class Mapper {
     }
 
 
-    private Context findContext(CharChunk uri, Context[] contexts, int nesting) {
-        int pos = find(contexts, uri);
-        if (pos == -1) {
-            return null;
-        }
-
-        Context foundContext = null;
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        while (pos >= 0) {
-            if (uri.startsWith(contexts[pos].name)) {
-                length = contexts[pos].name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
-
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                foundContext = contexts[0];
-            }
-        } else {
-            foundContext = contexts[pos];
-        }
-        return foundContext;
+    private Context findContext(CharChunk uri, PathTrie<Context> contexts) {
+        // The root context, if any, matches any URI
+        return contexts.longestPrefix(uri.getBuffer(), uri.getStart(),
+                                      uri.getEnd());
     }
 
 
@@ -809,7 +768,7 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        Wrapper[] exactWrappers = context.exactWrappers;
+        PathTrie<Wrapper> exactWrappers = context.exactIndex;
         if (!noServletPath && (pathEnd - servletPath) == 1 && context.rootWrapper != null) {
             mappingData.requestPath.setString("/");
             mappingData.wrapperPath.setString("");
@@ -821,10 +780,9 @@ public final class Mapper {
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        Wrapper[] wildcardWrappers = context.wildcardWrappers;
+        PathTrie<Wrapper> wildcardWrappers = context.wildcardIndex;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrappers, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -856,7 +814,7 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        Wrapper[] extensionWrappers = context.extensionWrappers;
+        PathTrie<Wrapper> extensionWrappers = context.extensionIndex;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
             internalMapExtensionWrapper(extensionWrappers, path, mappingData);
         }
@@ -883,8 +841,7 @@ public final class Mapper {
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, context.nesting, 
-                             path, mappingData);
+                            (wildcardWrappers, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -968,12 +925,13 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        int pos = find(wrappers, path);
-        if ((pos != -1) && (path.equals(wrappers[pos].name))) {
-            mappingData.requestPath.setString(wrappers[pos].name);
-            mappingData.wrapperPath.setString(wrappers[pos].name);
-            mappingData.wrapper = wrappers[pos].object;
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
+        Wrapper wrapper = wrappers.exact(path.getBuffer(), path.getStart(),
+                                         path.getEnd());
+        if (wrapper != null) {
+            mappingData.requestPath.setString(wrapper.name);
+            mappingData.wrapperPath.setString(wrapper.name);
+            mappingData.wrapper = wrapper.object;
         }
     }
 
@@ -982,49 +940,23 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (Wrapper[] wrappers, int nesting, CharChunk path, 
-         MappingData mappingData) {
-
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
+
+        Wrapper wrapper = wrappers.longestPrefix(path.getBuffer(),
+                                                 path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
         }
     }
 
@@ -1033,7 +965,7 @@ public final class Mapper {
      * Extension mappings.
      */
     private final void internalMapExtensionWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
+        (PathTrie<Wrapper> wrappers, CharChunk path, MappingData mappingData) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -1053,19 +985,14 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                int pos = find(wrappers, path);
-                if ((pos != -1)
-                    && (path.equals(wrappers[pos].name))) {
+                Wrapper wrapper = wrappers.exact(buf, period + 1, pathEnd);
+                if (wrapper != null) {
                     mappingData.wrapperPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
                     mappingData.requestPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
-                    mappingData.wrapper = wrappers[pos].object;
+                    mappingData.wrapper = wrapper.object;
                 }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
             }
         }
     }
@@ -1289,50 +1216,6 @@ public final class Mapper {
     }
 
 
-    /**
-     * Find the position of the last slash in the given char chunk.
-     */
-    private static final int lastSlash(CharChunk name) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = end;
-
-        while (pos > start) {
-            if (c[--pos] == '/') {
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
-
-    /**
-     * Find the position of the nth slash, in the given char chunk.
-     */
-    private static final int nthSlash(CharChunk name, int n) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = start;
-        int count = 0;
-
-        while (pos < end) {
-            if ((c[pos++] == '/') && ((++count) == n)) {
-                pos--;
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
-
     /**
      * Return the slash count in a given string.
      */
@@ -1429,6 +1312,16 @@ public final class Mapper {
 
         public Context[] contexts = new Context[0];
         public int nesting = 0;
+        public volatile PathTrie<Context> index =
+            new PathTrie<Context>(contexts);
+
+        /**
+         * Replace the contexts, and publish the matching index.
+         */
+        public void setContexts(Context[] contexts) {
+            this.contexts = contexts;
+            this.index = new PathTrie<Context>(contexts);
+        }
 
     }
 
@@ -1449,6 +1342,29 @@ public final class Mapper {
         public int nesting = 0;
         private volatile boolean replaced = false;
 
+        // Indexes used for mapping, rebuilt when the wrappers change
+        public volatile PathTrie<Wrapper> exactIndex =
+            new PathTrie<Wrapper>(exactWrappers);
+        public volatile PathTrie<Wrapper> wildcardIndex =
+            new PathTrie<Wrapper>(wildcardWrappers);
+        public volatile PathTrie<Wrapper> extensionIndex =
+            new PathTrie<Wrapper>(extensionWrappers);
+
+        public void setExactWrappers(Wrapper[] wrappers) {
+            exactWrappers = wrappers;
+            exactIndex = new PathTrie<Wrapper>(wrappers);
+        }
+
+        public void setWildcardWrappers(Wrapper[] wrappers) {
+            wildcardWrappers = wrappers;
+            wildcardIndex = new PathTrie<Wrapper>(wrappers);
+        }
+
+        public void setExtensionWrappers(Wrapper[] wrappers) {
+            extensionWrappers = wrappers;
+            extensionIndex = new PathTrie<Wrapper>(wrappers);
+        }
+
     }
 
 
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http.mapper;
+
+/**
+ * Immutable character trie over the names of a set of map elements, used by
+ * the mapper to resolve exact and longest path prefix matches in a single
+ * pass over the URI characters. A new trie is built each time the set of
+ * elements changes, and is then published as a whole, so that lookups never
+ * need any locking.
+ */
+final class PathTrie<E extends Mapper.MapElement> {
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final Node root = new Node();
+
+
+    /**
+     * Build the trie from the given elements.
+     *
+     * @param elements The map elements, indexed by name
+     */
+    PathTrie(E[] elements) {
+        for (int i = 0; i < elements.length; i++) {
+            String name = elements[i].name;
+            Node node = root;
+            for (int j = 0; j < name.length(); j++) {
+                node = node.add(name.charAt(j));
+            }
+            node.element = elements[i];
+        }
+    }
+
+
+    /**
+     * Find the element with the given name.
+     *
+     * @param buf Characters
+     * @param start Start of the name
+     * @param end End of the name
+     * @return the matching element, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    E exact(char[] buf, int start, int end) {
+        Node node = root;
+        for (int i = start; (i < end) && (node != null); i++) {
+            node = node.get(buf[i]);
+        }
+        return (node == null) ? null : (E) node.element;
+    }
+
+
+    /**
+     * Find the element with the longest name which is a prefix of the given
+     * path, ending either at the end of the path or before a '/'.
+     *
+     * @param buf Characters
+     * @param start Start of the path
+     * @param end End of the path
+     * @return the matching element, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    E longestPrefix(char[] buf, int start, int end) {
+        Mapper.MapElement found = null;
+        Node node = root;
+        int i = start;
+        while (node != null) {
+            if ((node.element != null) && ((i == end) || (buf[i] == '/'))) {
+                found = node.element;
+            }
+            if (i == end) {
+                break;
+            }
+            node = node.get(buf[i++]);
+        }
+        return (E) found;
+    }
+
+
+    // ---------------------------------------------------- Node Inner Class
+
+
+    private static final class Node {
+
+        private char[] chars = NO_CHARS;
+        private Node[] children = NO_NODES;
+        private Mapper.MapElement element = null;
+
+        private Node get(char c) {
+            char[] chars = this.chars;
+            int a = 0;
+            int b = chars.length - 1;
+            while (a <= b) {
+                int i = (a + b) >>> 1;
+                if (chars[i] < c) {
+                    a = i + 1;
+                } else if (chars[i] > c) {
+                    b = i - 1;
+                } else {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node add(char c) {
+            int pos = 0;
+            while ((pos < chars.length) && (chars[pos] < c)) {
+                pos++;
+            }
+            if ((pos < chars.length) && (chars[pos] == c)) {
+                return children[pos];
+            }
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newChars[pos] = c;
+            newChildren[pos] = new Node();
+            System.arraycopy(chars, pos, newChars, pos + 1, chars.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1,
+                             children.length - pos);
+            chars = newChars;
+            children = newChildren;
+            return newChildren[pos];
+        }
+
+    }
+
+
+}
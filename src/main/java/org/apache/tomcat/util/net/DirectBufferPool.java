@@ -0,0 +1,394 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code DirectBufferPool}
+ * <p>
+ * Pool of direct byte buffers shared by the channels and the processors of a
+ * {@link NioEndpoint}. Buffers are meant to be borrowed while a read or a
+ * write is in flight and released as soon as it completes, so that idle
+ * connections do not pin direct memory.
+ * </p>
+ * <p>
+ * Capacities are rounded up to a power of two between {@link #MIN_SIZE} and
+ * {@link #MAX_SIZE}, and each size class has its own free list. Every thread
+ * first uses a small private cache, so that a thread releasing a buffer and
+ * borrowing it again for the next operation does not touch any shared state.
+ * The buffers of the thread caches count against the same limit as the
+ * shared free lists, and {@link #clear} invalidates the caches of all the
+ * threads. Larger buffers are allocated on demand and never pooled.
+ * </p>
+ * <p>
+ * A buffer which may still be the target of a pending operation (for
+ * example after a timed out read) must be given to {@link #discard} instead
+ * of {@link #release}.
+ * </p>
+ */
+public class DirectBufferPool {
+
+	/**
+	 * Capacity of the smallest size class.
+	 */
+	public static final int MIN_SIZE = 1024;
+
+	/**
+	 * Capacity of the largest size class.
+	 */
+	public static final int MAX_SIZE = 128 * 1024;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	/**
+	 * Number of buffers of each size class kept by every thread.
+	 */
+	protected static final int THREAD_CACHE_SIZE = 4;
+
+	/**
+	 * Default limit of the pooled buffers, in bytes.
+	 */
+	protected static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+	protected final ConcurrentLinkedQueue<ByteBuffer>[] freeLists;
+	protected final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			// New threads often replace terminated ones
+			purgeThreadCaches();
+			ThreadCache cache = new ThreadCache(Thread.currentThread());
+			threadCaches.offer(cache);
+			return cache;
+		}
+	};
+
+	/**
+	 * The caches of all the threads which have used the pool, so that the
+	 * buffers of terminated threads are not counted forever.
+	 */
+	protected final ConcurrentLinkedQueue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<ThreadCache>();
+	protected volatile long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+
+	/**
+	 * Current generation of the thread caches. A cache which belongs to a
+	 * previous generation is emptied by its thread on its next use.
+	 */
+	protected volatile Generation generation = new Generation();
+
+	/**
+	 * Capacity, in bytes, of the buffers of the shared free lists.
+	 */
+	protected final AtomicLong pooledBytes = new AtomicLong();
+	protected final AtomicLong outstandingBytes = new AtomicLong();
+	protected final AtomicLong borrowCount = new AtomicLong();
+	protected final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * Create a new instance of {@code DirectBufferPool}
+	 */
+	@SuppressWarnings("unchecked")
+	public DirectBufferPool() {
+		this.freeLists = new ConcurrentLinkedQueue[SIZE_CLASSES];
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			this.freeLists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * @return the maximum number of bytes kept in the shared free lists and
+	 *         the thread caches
+	 */
+	public long getMaxPooledBytes() {
+		return this.maxPooledBytes;
+	}
+
+	/**
+	 * @param maxPooledBytes
+	 *            the maximum number of bytes kept in the shared free lists
+	 *            and the thread caches
+	 */
+	public void setMaxPooledBytes(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * @return the number of buffers borrowed from the pool
+	 */
+	public long getBorrowCount() {
+		return this.borrowCount.get();
+	}
+
+	/**
+	 * @return the number of buffers borrowed from the pool which did not
+	 *         need an allocation
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * @return the percentage of buffers borrowed from the pool which did not
+	 *         need an allocation
+	 */
+	public int getHitRate() {
+		long borrowed = this.borrowCount.get();
+		return (borrowed == 0) ? 0 : (int) (this.hitCount.get() * 100 / borrowed);
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the buffers currently borrowed
+	 */
+	public long getOutstandingBytes() {
+		return this.outstandingBytes.get();
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the buffers waiting in the shared
+	 *         free lists and the thread caches
+	 */
+	public long getPooledBytes() {
+		purgeThreadCaches();
+		return this.pooledBytes.get() + this.generation.bytes.get();
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the buffers waiting in the thread
+	 *         caches
+	 */
+	public long getThreadCachedBytes() {
+		purgeThreadCaches();
+		return this.generation.bytes.get();
+	}
+
+	/**
+	 * Borrow a cleared direct buffer. Its capacity may be larger than the
+	 * requested size, but its limit is set to the requested size.
+	 *
+	 * @param size
+	 *            the number of bytes needed
+	 * @return a direct buffer
+	 */
+	public ByteBuffer borrow(int size) {
+		this.borrowCount.incrementAndGet();
+		int index = sizeClass(size);
+		ByteBuffer buffer = null;
+		if (index >= 0) {
+			Generation generation = this.generation;
+			buffer = threadCache(generation).poll(index);
+			if (buffer == null) {
+				buffer = this.freeLists[index].poll();
+				if (buffer != null) {
+					this.pooledBytes.addAndGet(-buffer.capacity());
+				}
+			}
+		}
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect((index >= 0) ? MIN_SIZE << index : size);
+		} else {
+			this.hitCount.incrementAndGet();
+			buffer.clear();
+		}
+		this.outstandingBytes.addAndGet(buffer.capacity());
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer obtained from {@link #borrow} back to the pool. The buffer
+	 * must not be used anymore by the caller.
+	 *
+	 * @param buffer
+	 *            the buffer to release
+	 */
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		this.outstandingBytes.addAndGet(-capacity);
+		int index = sizeClass(capacity);
+		if (index < 0 || (MIN_SIZE << index) != capacity) {
+			// Not pooled
+			return;
+		}
+		Generation generation = this.generation;
+		if (this.pooledBytes.get() + generation.bytes.get() + capacity > this.maxPooledBytes) {
+			return;
+		}
+		if (threadCache(generation).offer(index, buffer)) {
+			return;
+		}
+		if (this.pooledBytes.addAndGet(capacity) + generation.bytes.get() <= this.maxPooledBytes) {
+			this.freeLists[index].offer(buffer);
+		} else {
+			this.pooledBytes.addAndGet(-capacity);
+		}
+	}
+
+	/**
+	 * Stop tracking a buffer obtained from {@link #borrow} without reusing
+	 * it, typically because an operation which may still complete is pending
+	 * on it.
+	 *
+	 * @param buffer
+	 *            the buffer to discard
+	 */
+	public void discard(ByteBuffer buffer) {
+		this.outstandingBytes.addAndGet(-buffer.capacity());
+	}
+
+	/**
+	 * Drop the buffers of the shared free lists, and invalidate the thread
+	 * caches. Each thread drops the buffers of its cache on its next use of
+	 * the pool.
+	 */
+	public void clear() {
+		this.generation = new Generation();
+		purgeThreadCaches();
+		for (ConcurrentLinkedQueue<ByteBuffer> freeList : this.freeLists) {
+			ByteBuffer buffer;
+			while ((buffer = freeList.poll()) != null) {
+				this.pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+	}
+
+	/**
+	 * @param generation
+	 *            the current generation
+	 * @return the cache of the current thread, emptied if it belongs to a
+	 *         previous generation
+	 */
+	protected ThreadCache threadCache(Generation generation) {
+		ThreadCache cache = this.threadCache.get();
+		if (cache.generation != generation) {
+			cache.reset(generation);
+		}
+		return cache;
+	}
+
+	/**
+	 * Forget the caches of the terminated threads, and stop counting their
+	 * buffers.
+	 */
+	protected void purgeThreadCaches() {
+		for (ThreadCache cache : this.threadCaches) {
+			// Only the thread which removes the cache resets it
+			if (!cache.isAlive() && this.threadCaches.remove(cache)) {
+				cache.reset(null);
+			}
+		}
+	}
+
+	/**
+	 * @param size
+	 * @return the index of the smallest size class holding the specified
+	 *         number of bytes, or -1 if it is too large to be pooled
+	 */
+	protected static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * {@code ThreadCache}
+	 * <p>
+	 * Per thread stacks of free buffers, one for each size class. Only the
+	 * owner thread uses a cache, until it terminates.
+	 * </p>
+	 */
+	protected static class ThreadCache {
+		private final ByteBuffer[][] buffers = new ByteBuffer[SIZE_CLASSES][THREAD_CACHE_SIZE];
+		private final int[] counts = new int[SIZE_CLASSES];
+		private final WeakReference<Thread> owner;
+		private volatile Generation generation;
+		private volatile long bytes;
+
+		protected ThreadCache(Thread owner) {
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		protected boolean isAlive() {
+			Thread thread = this.owner.get();
+			return (thread != null) && thread.isAlive();
+		}
+
+		/**
+		 * Drop the buffers, which stop being counted by their generation,
+		 * and start counting the buffers of the specified generation.
+		 */
+		protected void reset(Generation generation) {
+			Generation previous = this.generation;
+			if (previous != null) {
+				previous.bytes.addAndGet(-this.bytes);
+			}
+			for (int i = 0; i < SIZE_CLASSES; i++) {
+				Arrays.fill(this.buffers[i], null);
+				this.counts[i] = 0;
+			}
+			this.bytes = 0;
+			this.generation = generation;
+		}
+
+		protected ByteBuffer poll(int index) {
+			int count = this.counts[index];
+			if (count == 0) {
+				return null;
+			}
+			this.counts[index] = --count;
+			ByteBuffer buffer = this.buffers[index][count];
+			this.buffers[index][count] = null;
+			this.bytes -= buffer.capacity();
+			this.generation.bytes.addAndGet(-buffer.capacity());
+			return buffer;
+		}
+
+		protected boolean offer(int index, ByteBuffer buffer) {
+			int count = this.counts[index];
+			if (count == THREAD_CACHE_SIZE) {
+				return false;
+			}
+			this.buffers[index][count] = buffer;
+			this.counts[index] = count + 1;
+			this.bytes += buffer.capacity();
+			this.generation.bytes.addAndGet(buffer.capacity());
+			return true;
+		}
+	}
+
+	/**
+	 * {@code Generation}
+	 * <p>
+	 * Capacity, in bytes, of the buffers of the thread caches until the next
+	 * {@link #clear}.
+	 * </p>
+	 */
+	protected static class Generation {
+		protected final AtomicLong bytes = new AtomicLong();
+	}
+
+}
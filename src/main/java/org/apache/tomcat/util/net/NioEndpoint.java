@@ -20,14 +20,18 @@ package org.apache.tomcat.util.net;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritePendingException;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -35,12 +39,14 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
 
 import org.apache.tomcat.util.net.NioEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.NioJSSESocketChannelFactory;
+import org.apache.tomcat.util.net.jsse.SecureNioChannel;
 import org.jboss.web.CoyoteLogger;
 
 /**
@@ -83,6 +89,22 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	protected Sendfile sendfile;
 
+	/**
+	 * Direct buffers used by the channels and the processors while a read or
+	 * a write is in flight.
+	 */
+	protected DirectBufferPool bufferPool = new DirectBufferPool();
+
+	/**
+	 * Resolution of the event poller timeout wheel, in milliseconds.
+	 */
+	protected int pollerTickTime = 100;
+
+	/**
+	 * Number of slots of the event poller timeout wheel.
+	 */
+	protected int pollerWheelSize = 512;
+
 	/**
 	 * Create a new instance of {@code NioEndpoint}
 	 */
@@ -113,6 +135,153 @@ public class NioEndpoint extends AbstractEndpoint {
 		return this.eventPoller.channelList.size();
 	}
 
+	/**
+	 * @return the resolution of the timeout wheel in milliseconds
+	 */
+	public int getPollerTickTime() {
+		return this.pollerTickTime;
+	}
+
+	/**
+	 * Set the resolution of the timeout wheel. Keep-alive timeouts will fire
+	 * at most one tick late.
+	 * 
+	 * @param pollerTickTime
+	 *            the tick duration in milliseconds
+	 */
+	public void setPollerTickTime(int pollerTickTime) {
+		this.pollerTickTime = pollerTickTime;
+	}
+
+	/**
+	 * @return the number of slots of the timeout wheel
+	 */
+	public int getPollerWheelSize() {
+		return this.pollerWheelSize;
+	}
+
+	/**
+	 * Set the number of slots of the timeout wheel. The value is rounded up
+	 * to the next power of two.
+	 * 
+	 * @param pollerWheelSize
+	 *            the number of slots
+	 */
+	public void setPollerWheelSize(int pollerWheelSize) {
+		this.pollerWheelSize = pollerWheelSize;
+	}
+
+	/**
+	 * @return the number of bytes written by the sendfile thread
+	 */
+	public long getSendfileBytesSent() {
+		return (this.sendfile == null) ? 0 : this.sendfile.getBytesSent();
+	}
+
+	/**
+	 * @return the number of files sent completely by the sendfile thread
+	 */
+	public long getSendfileCompletedCount() {
+		return (this.sendfile == null) ? 0 : this.sendfile.getCompletedCount();
+	}
+
+	/**
+	 * @return the number of files sent without copy from a memory-mapped
+	 *         region
+	 */
+	public long getSendfileMappedCount() {
+		return (this.sendfile == null) ? 0 : this.sendfile.getMappedCount();
+	}
+
+	/**
+	 * @return the number of sendfile direct buffers available for reuse
+	 */
+	public int getSendfilePooledBuffers() {
+		return (this.sendfile == null) ? 0 : this.sendfile.getPooledBuffers();
+	}
+
+	/**
+	 * @return the pool of direct buffers of this endpoint
+	 */
+	public DirectBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * @return the maximum number of bytes kept by the direct buffer pool
+	 */
+	public long getBufferPoolMaxBytes() {
+		return this.bufferPool.getMaxPooledBytes();
+	}
+
+	/**
+	 * @param bufferPoolMaxBytes
+	 *            the maximum number of bytes kept by the direct buffer pool
+	 */
+	public void setBufferPoolMaxBytes(long bufferPoolMaxBytes) {
+		this.bufferPool.setMaxPooledBytes(bufferPoolMaxBytes);
+	}
+
+	/**
+	 * @return the percentage of direct buffers borrowed without allocation
+	 */
+	public int getBufferPoolHitRate() {
+		return this.bufferPool.getHitRate();
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the direct buffers currently in use
+	 */
+	public long getBufferPoolOutstandingBytes() {
+		return this.bufferPool.getOutstandingBytes();
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the direct buffers available for
+	 *         reuse
+	 */
+	public long getBufferPoolPooledBytes() {
+		return this.bufferPool.getPooledBytes();
+	}
+
+	/**
+	 * @return the capacity, in bytes, of the direct buffers available for
+	 *         reuse in the caches of the threads
+	 */
+	public long getBufferPoolThreadCachedBytes() {
+		return this.bufferPool.getThreadCachedBytes();
+	}
+
+	/**
+	 * @return the number of channels currently waiting in the timeout wheel
+	 */
+	public int getTimeoutWheelOccupancy() {
+		return (this.eventPoller == null) ? 0 : this.eventPoller.wheel.getOccupancy();
+	}
+
+	/**
+	 * @return the number of channels expired by the timeout wheel
+	 */
+	public long getTimeoutExpiredCount() {
+		return (this.eventPoller == null) ? 0 : this.eventPoller.wheel.getExpiredCount();
+	}
+
+	/**
+	 * @return the maximum delay, in milliseconds, between the deadline of a
+	 *         channel and its actual expiration
+	 */
+	public long getTimeoutMaxExpiryLag() {
+		return (this.eventPoller == null) ? 0 : this.eventPoller.wheel.getMaxExpiryLag();
+	}
+
+	/**
+	 * @return the average delay, in milliseconds, between the deadline of a
+	 *         channel and its actual expiration
+	 */
+	public long getTimeoutAverageExpiryLag() {
+		return (this.eventPoller == null) ? 0 : this.eventPoller.wheel.getAverageExpiryLag();
+	}
+
 	/**
 	 * Return the amount of threads that are managed by the pool.
 	 * 
@@ -292,6 +461,9 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.eventPoller.destroy();
 		}
 
+		// Drop the pooled direct buffers
+		this.bufferPool.clear();
+
 		// Destroy the server socket channel factory
 		this.serverSocketChannelFactory.destroy();
 		this.serverSocketChannelFactory = null;
@@ -325,6 +497,9 @@ public class NioEndpoint extends AbstractEndpoint {
                 channel.setOption(StandardSocketOptions.SO_SNDBUF, soSendBuffer);
             }
 
+			if (channel instanceof SecureNioChannel) {
+				((SecureNioChannel) channel).setBufferPool(bufferPool);
+			}
 			// Initialize the channel
 			serverSocketChannelFactory.initChannel(channel);
 			return true;
@@ -664,6 +839,11 @@ public class NioEndpoint extends AbstractEndpoint {
 		protected long timeout;
 		protected int flags;
 
+		// Timeout wheel linkage, guarded by the bucket monitor
+		protected volatile TimeoutWheel.Bucket bucket;
+		protected ChannelInfo prev;
+		protected ChannelInfo next;
+
 		/**
 		 * Create a new instance of {@code ChannelInfo}
 		 */
@@ -940,11 +1120,14 @@ public class NioEndpoint extends AbstractEndpoint {
 	public class EventPoller implements Runnable {
 
 		/**
-		 * Last run of maintain. Maintain will run usually every 5s.
+		 * Last run of maintain. Maintain will run usually every tick of the
+		 * timeout wheel.
 		 */
 		protected long lastMaintain = System.currentTimeMillis();
 
 		protected ConcurrentHashMap<Long, ChannelInfo> channelList;
+		protected TimeoutWheel wheel;
+		private List<ChannelInfo> expired = new ArrayList<ChannelInfo>();
 		private Object mutex;
 		private int size;
 
@@ -985,12 +1168,12 @@ public class NioEndpoint extends AbstractEndpoint {
 				}
 
 				while (this.channelList.size() > 0 && running) {
-					maintain();
 					try {
-						Thread.sleep(5000);
+						Thread.sleep(this.wheel.getTickTime());
 					} catch (InterruptedException e) {
 						// NOPE
 					}
+					maintain();
 				}
 
 			}
@@ -1001,24 +1184,22 @@ public class NioEndpoint extends AbstractEndpoint {
 		 */
 		public void maintain() {
 			long date = System.currentTimeMillis();
-			// Maintain runs at most once every 5s, although it will likely get
-			// called more
-			if ((date - lastMaintain) < 5000L) {
-				return;
-			}
-
 			// Update the last maintain time
 			lastMaintain = date;
 
-			for (ChannelInfo info : this.channelList.values()) {
-				if (date >= info.timeout) {
-					NioChannel ch = info.channel;
-					remove(info);
+			// Only the buckets of the elapsed ticks are visited
+			this.wheel.expire(date, this.expired);
+			for (int i = 0; i < this.expired.size(); i++) {
+				ChannelInfo info = this.expired.get(i);
+				NioChannel ch = info.channel;
+				// The channel may have been processed in the meantime
+				if (ch != null && this.channelList.remove(ch.getId(), info)) {
 					if (!processChannel(ch, SocketStatus.TIMEOUT)) {
 						closeChannel(ch);
 					}
 				}
 			}
+			this.expired.clear();
 		}
 
 		/**
@@ -1027,7 +1208,12 @@ public class NioEndpoint extends AbstractEndpoint {
 		 * @param id
 		 */
 		protected boolean remove(long id) {
-			return this.channelList.remove(id) != null;
+			ChannelInfo info = this.channelList.remove(id);
+			if (info != null) {
+				this.wheel.cancel(info);
+				return true;
+			}
+			return false;
 		}
 
 		/**
@@ -1052,6 +1238,7 @@ public class NioEndpoint extends AbstractEndpoint {
 		public void init() {
 			this.mutex = new Object();
 			this.channelList = new ConcurrentHashMap<Long, ChannelInfo>(this.size);
+			this.wheel = new TimeoutWheel(pollerTickTime, pollerWheelSize);
 		}
 
 		/**
@@ -1060,6 +1247,7 @@ public class NioEndpoint extends AbstractEndpoint {
 		public void destroy() {
 			synchronized (this.mutex) {
 				this.channelList.clear();
+				this.wheel.clear();
 				this.mutex.notifyAll();
 			}
 		}
@@ -1123,6 +1311,7 @@ public class NioEndpoint extends AbstractEndpoint {
 
 			// Setting the channel timeout
 			info.timeout = date;
+			this.wheel.schedule(info);
 			final NioChannel ch = channel;
 			if (info.resume()) {
 				remove(info);
@@ -1155,6 +1344,247 @@ public class NioEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	/**
+	 * {@code TimeoutWheel}
+	 * <p>
+	 * Hashed timing wheel holding the channel timeouts of the event poller.
+	 * Each channel is hashed on the tick of its deadline, so that scheduling
+	 * and cancelling are constant time operations and an expiration pass
+	 * only visits the slots of the elapsed ticks instead of all the channels.
+	 * Each slot has its own monitor, so that concurrent registrations are
+	 * striped over the wheel.
+	 * </p>
+	 */
+	public static class TimeoutWheel {
+
+		protected final long tickTime;
+		protected final Bucket[] buckets;
+		protected final int mask;
+
+		/**
+		 * Last tick processed by {@link #expire(long, List)}.
+		 */
+		protected volatile long currentTick;
+
+		/**
+		 * Channels scheduled on a tick which has already been processed.
+		 */
+		protected final ConcurrentLinkedQueue<ChannelInfo> overdue = new ConcurrentLinkedQueue<ChannelInfo>();
+
+		protected final AtomicInteger occupancy = new AtomicInteger();
+		protected final AtomicLong expiredCount = new AtomicLong();
+		protected final AtomicLong totalExpiryLag = new AtomicLong();
+		protected volatile long maxExpiryLag;
+
+		/**
+		 * Create a new instance of {@code TimeoutWheel}
+		 * 
+		 * @param tickTime
+		 *            the duration of a tick in milliseconds
+		 * @param size
+		 *            the number of slots, rounded up to a power of two
+		 */
+		public TimeoutWheel(long tickTime, int size) {
+			this.tickTime = (tickTime > 0) ? tickTime : 100;
+			int n = 1;
+			while (n < size) {
+				n <<= 1;
+			}
+			this.buckets = new Bucket[n];
+			for (int i = 0; i < n; i++) {
+				this.buckets[i] = new Bucket();
+			}
+			this.mask = n - 1;
+			this.currentTick = System.currentTimeMillis() / this.tickTime - 1;
+			for (int i = 0; i < n; i++) {
+				this.buckets[i].lastTick = this.currentTick;
+			}
+		}
+
+		/**
+		 * Insert the channel in the slot matching its timeout, removing it
+		 * first from its previous slot.
+		 * 
+		 * @param info
+		 */
+		public void schedule(ChannelInfo info) {
+			cancel(info);
+			long tick = info.timeout / this.tickTime;
+			Bucket bucket = this.buckets[(int) (tick & this.mask)];
+			synchronized (bucket) {
+				if (tick > bucket.lastTick) {
+					bucket.link(info);
+					this.occupancy.incrementAndGet();
+					return;
+				}
+			}
+			// The slot has already been visited for that tick
+			this.overdue.offer(info);
+		}
+
+		/**
+		 * Remove the channel from the wheel.
+		 * 
+		 * @param info
+		 */
+		public void cancel(ChannelInfo info) {
+			Bucket bucket = info.bucket;
+			if (bucket != null) {
+				synchronized (bucket) {
+					if (info.bucket == bucket) {
+						bucket.unlink(info);
+						this.occupancy.decrementAndGet();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Collect the channels whose deadline has passed. Only the slots of
+		 * the ticks elapsed since the previous call are visited.
+		 * 
+		 * @param now
+		 *            the current time in milliseconds
+		 * @param expired
+		 *            the list receiving the expired channels
+		 */
+		public void expire(long now, List<ChannelInfo> expired) {
+			// Only process complete ticks so that no channel expires early
+			long lastTick = now / this.tickTime - 1;
+			long tick = this.currentTick + 1;
+			if (lastTick - tick >= this.buckets.length) {
+				// Each slot is visited at most once per pass
+				tick = lastTick - this.buckets.length + 1;
+			}
+			int start = expired.size();
+			for (; tick <= lastTick; tick++) {
+				Bucket bucket = this.buckets[(int) (tick & this.mask)];
+				synchronized (bucket) {
+					bucket.lastTick = tick;
+					ChannelInfo info = bucket.head;
+					while (info != null) {
+						ChannelInfo next = info.next;
+						if (info.timeout / this.tickTime <= tick) {
+							bucket.unlink(info);
+							this.occupancy.decrementAndGet();
+							expired.add(info);
+						}
+						info = next;
+					}
+				}
+			}
+			if (lastTick > this.currentTick) {
+				this.currentTick = lastTick;
+			}
+
+			ChannelInfo info = null;
+			while ((info = this.overdue.poll()) != null) {
+				// Skip the channels which have been rescheduled since
+				if (info.bucket == null && info.timeout <= now) {
+					expired.add(info);
+				}
+			}
+
+			for (int i = start; i < expired.size(); i++) {
+				long lag = now - expired.get(i).timeout;
+				if (lag < 0) {
+					lag = 0;
+				}
+				this.totalExpiryLag.addAndGet(lag);
+				if (lag > this.maxExpiryLag) {
+					this.maxExpiryLag = lag;
+				}
+			}
+			this.expiredCount.addAndGet(expired.size() - start);
+		}
+
+		/**
+		 * Remove all the channels from the wheel.
+		 */
+		public void clear() {
+			for (Bucket bucket : this.buckets) {
+				synchronized (bucket) {
+					while (bucket.head != null) {
+						bucket.unlink(bucket.head);
+					}
+				}
+			}
+			this.overdue.clear();
+			this.occupancy.set(0);
+		}
+
+		/**
+		 * @return the duration of a tick in milliseconds
+		 */
+		public long getTickTime() {
+			return this.tickTime;
+		}
+
+		/**
+		 * @return the number of channels in the wheel
+		 */
+		public int getOccupancy() {
+			return this.occupancy.get();
+		}
+
+		/**
+		 * @return the number of expired channels
+		 */
+		public long getExpiredCount() {
+			return this.expiredCount.get();
+		}
+
+		/**
+		 * @return the maximum expiration delay in milliseconds
+		 */
+		public long getMaxExpiryLag() {
+			return this.maxExpiryLag;
+		}
+
+		/**
+		 * @return the average expiration delay in milliseconds
+		 */
+		public long getAverageExpiryLag() {
+			long count = this.expiredCount.get();
+			return (count == 0) ? 0 : this.totalExpiryLag.get() / count;
+		}
+
+		/**
+		 * {@code Bucket}
+		 * <p>
+		 * Slot of the wheel, a doubly linked list of channels.
+		 * </p>
+		 */
+		protected static class Bucket {
+			protected ChannelInfo head;
+			protected long lastTick;
+
+			protected void link(ChannelInfo info) {
+				info.prev = null;
+				info.next = this.head;
+				if (this.head != null) {
+					this.head.prev = info;
+				}
+				this.head = info;
+				info.bucket = this;
+			}
+
+			protected void unlink(ChannelInfo info) {
+				if (info.prev != null) {
+					info.prev.next = info.next;
+				} else {
+					this.head = info.next;
+				}
+				if (info.next != null) {
+					info.next.prev = info.prev;
+				}
+				info.prev = null;
+				info.next = null;
+				info.bucket = null;
+			}
+		}
+	}
+
 	/**
 	 * {@code DefaultThreadFactory}
 	 * 
@@ -1366,11 +1796,33 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	public class Sendfile implements Runnable {
 
+		/**
+		 * Size of the file regions mapped at once for plain channels.
+		 */
+		protected static final int MAP_SIZE = 4 * 1024 * 1024;
+
+		/**
+		 * Maximum number of direct buffers kept for reuse.
+		 */
+		protected static final int MAX_POOLED_BUFFERS = 256;
+
 		protected int size;
 		protected ConcurrentLinkedQueue<SendfileData> fileDatas;
 		protected AtomicInteger counter;
 		private Object mutex;
 
+		/**
+		 * Direct buffers used when the file has to be copied through user
+		 * space (secure channels and small files).
+		 */
+		protected ConcurrentLinkedQueue<ByteBuffer> buffers;
+		protected AtomicInteger pooledBuffers;
+		protected int bufferSize;
+
+		protected AtomicLong bytesSent;
+		protected AtomicLong completedCount;
+		protected AtomicLong mappedCount;
+
 		/**
 		 * @return the number of send file
 		 */
@@ -1378,6 +1830,34 @@ public class NioEndpoint extends AbstractEndpoint {
 			return this.counter.get();
 		}
 
+		/**
+		 * @return the number of bytes written by the sendfile thread
+		 */
+		public long getBytesSent() {
+			return this.bytesSent.get();
+		}
+
+		/**
+		 * @return the number of files sent completely
+		 */
+		public long getCompletedCount() {
+			return this.completedCount.get();
+		}
+
+		/**
+		 * @return the number of files sent from a memory-mapped region
+		 */
+		public long getMappedCount() {
+			return this.mappedCount.get();
+		}
+
+		/**
+		 * @return the number of direct buffers available for reuse
+		 */
+		public int getPooledBuffers() {
+			return this.pooledBuffers.get();
+		}
+
 		/*
 		 * (non-Javadoc)
 		 * 
@@ -1427,6 +1907,12 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.mutex = new Object();
 			this.counter = new AtomicInteger(0);
 			this.fileDatas = new ConcurrentLinkedQueue<SendfileData>();
+			this.buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+			this.pooledBuffers = new AtomicInteger(0);
+			this.bufferSize = (soSendBuffer > 0) ? soSendBuffer : 64 * 1024;
+			this.bytesSent = new AtomicLong(0);
+			this.completedCount = new AtomicLong(0);
+			this.mappedCount = new AtomicLong(0);
 		}
 
 		/**
@@ -1437,12 +1923,72 @@ public class NioEndpoint extends AbstractEndpoint {
 				// To unlock the
 				this.counter.incrementAndGet();
 				this.fileDatas.clear();
+				this.buffers.clear();
+				this.pooledBuffers.set(0);
 				// Unlock threads waiting for this monitor
 				this.mutex.notifyAll();
 			}
 		}
 
 		/**
+		 * @return a direct buffer from the pool, or a new one if the pool is
+		 *         empty
+		 */
+		protected ByteBuffer borrowBuffer() {
+			ByteBuffer buffer = this.buffers.poll();
+			if (buffer != null) {
+				this.pooledBuffers.decrementAndGet();
+				buffer.clear();
+				return buffer;
+			}
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		}
+
+		/**
+		 * Give the buffer back to the pool, unless the pool is full.
+		 * 
+		 * @param buffer
+		 */
+		protected void releaseBuffer(ByteBuffer buffer) {
+			if (this.pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+				this.buffers.offer(buffer);
+			} else {
+				this.pooledBuffers.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Release the memory mapping of the specified buffer right away,
+		 * instead of waiting for the buffer to be garbage collected. The
+		 * buffer must not be used afterwards. If the mapping cannot be
+		 * released explicitly, it is left to the garbage collector.
+		 * 
+		 * @param buffer
+		 *            a mapped buffer, or <tt>null</tt>
+		 */
+		protected void unmap(ByteBuffer buffer) {
+			if (buffer == null || !buffer.isDirect()) {
+				return;
+			}
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					Method cleanMethod = cleaner.getClass().getMethod("clean");
+					cleanMethod.setAccessible(true);
+					cleanMethod.invoke(cleaner);
+				}
+			} catch (Throwable t) {
+				// NOPE: the mapping is released by the garbage collector
+			}
+		}
+
+		/**
+		 * Send the file region described by the specified data. Regions of
+		 * plain channels larger than a buffer are written directly from a
+		 * memory-mapped view of the file, avoiding the copy through user
+		 * space. Otherwise the file is read in a pooled direct buffer.
 		 * 
 		 * @param data
 		 * @throws Exception
@@ -1453,78 +1999,26 @@ public class NioEndpoint extends AbstractEndpoint {
 			data.setup();
 
 			final NioChannel channel = data.channel;
-			final int BUFFER_SIZE = channel.getOption(StandardSocketOptions.SO_SNDBUF);
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-			int nr = data.fileChannel.read(buffer);
-
-			if (nr >= 0) {
-				buffer.flip();
-				try {
-					channel.write(buffer, data, new CompletionHandler<Integer, SendfileData>() {
-
-						@Override
-						public void completed(Integer nw, SendfileData attachment) {
-							if (nw < 0) { // Reach the end of stream
-								closeChannel(channel);
-								closeFile(attachment.fileChannel);
-								return;
-							}
-
-							attachment.pos += nw;
-
-							if (attachment.pos >= attachment.end) {
-								return;
-							}
-
-							boolean ok = true;
-
-							if (!buffer.hasRemaining()) {
-								// This means that all data in the buffer has
-								// been
-								// written => Empty the buffer and read again
-								buffer.clear();
-								try {
-									if (attachment.fileChannel.read(buffer) >= 0) {
-										buffer.flip();
-									} else {
-										// Reach the EOF
-										ok = false;
-									}
-								} catch (Throwable th) {
-									ok = false;
-								}
-							}
-
-							if (ok) {
-								channel.write(buffer, attachment, this);
-							} else {
-								closeFile(attachment.fileChannel);
-							}
-						}
-
-						@Override
-						public void failed(Throwable exc, SendfileData attachment) {
-							// Closing channels
-							closeChannel(channel);
-							closeFile(data.fileChannel);
-						}
-
-						/**
-						 * 
-						 * @param closeable
-						 */
-						private void closeFile(java.io.Closeable closeable) {
-							try {
-								closeable.close();
-							} catch (IOException e) {
-								// NOPE
-							}
-						}
-					});
-				} catch (WritePendingException exp) {
-					data.fileChannel.close();
-					add(data);
+			boolean mapped = !channel.isSecure() && (data.end - data.pos) > this.bufferSize;
+			SendfileHandler handler = new SendfileHandler(data.pos, mapped ? null : borrowBuffer());
+			try {
+				if (!handler.fill(data)) {
+					handler.finish(data);
+					return;
 				}
+			} catch (IOException e) {
+				handler.finish(data);
+				throw e;
+			}
+			if (mapped) {
+				this.mappedCount.incrementAndGet();
+			}
+
+			try {
+				channel.write(handler.buffer, data, handler);
+			} catch (WritePendingException exp) {
+				handler.finish(data);
+				add(data);
 			}
 		}
 
@@ -1579,5 +2073,130 @@ public class NioEndpoint extends AbstractEndpoint {
 				this.counter.decrementAndGet();
 			}
 		}
+
+		/**
+		 * {@code SendfileHandler}
+		 * <p>
+		 * Completion handler writing the file region slice by slice.
+		 * </p>
+		 */
+		protected class SendfileHandler implements CompletionHandler<Integer, SendfileData> {
+
+			/**
+			 * The pooled buffer, <tt>null</tt> when the file is mapped.
+			 */
+			private ByteBuffer pooled;
+			private ByteBuffer buffer;
+			private long readPos;
+
+			/**
+			 * Create a new instance of {@code SendfileHandler}
+			 * 
+			 * @param readPos
+			 *            the position of the first byte to send
+			 * @param pooled
+			 *            the buffer to copy the file into, or <tt>null</tt>
+			 *            to map the file
+			 */
+			protected SendfileHandler(long readPos, ByteBuffer pooled) {
+				this.readPos = readPos;
+				this.pooled = pooled;
+			}
+
+			/**
+			 * Load the next slice of the file region.
+			 * 
+			 * @param data
+			 * @return <tt>false</tt> if there is nothing left to send
+			 * @throws IOException
+			 */
+			protected boolean fill(SendfileData data) throws IOException {
+				long remaining = data.end - this.readPos;
+				if (remaining <= 0) {
+					return false;
+				}
+				if (this.pooled == null) {
+					// The previous slice has been written, release its mapping
+					unmap(this.buffer);
+					this.buffer = null;
+					this.buffer = data.fileChannel.map(FileChannel.MapMode.READ_ONLY,
+							this.readPos, Math.min(remaining, MAP_SIZE));
+				} else {
+					this.buffer = this.pooled;
+					this.buffer.clear();
+					if (remaining < this.buffer.capacity()) {
+						this.buffer.limit((int) remaining);
+					}
+					if (data.fileChannel.read(this.buffer, this.readPos) < 0) {
+						return false;
+					}
+					this.buffer.flip();
+				}
+				this.readPos += this.buffer.remaining();
+				return this.buffer.hasRemaining();
+			}
+
+			/**
+			 * Close the file and give the buffer back to the pool.
+			 * 
+			 * @param data
+			 */
+			protected void finish(SendfileData data) {
+				try {
+					data.fileChannel.close();
+				} catch (IOException e) {
+					// NOPE
+				}
+				if (this.pooled != null) {
+					releaseBuffer(this.pooled);
+					this.pooled = null;
+				} else {
+					unmap(this.buffer);
+				}
+				this.buffer = null;
+			}
+
+			@Override
+			public void completed(Integer nw, SendfileData attachment) {
+				if (nw < 0) { // Reach the end of stream
+					closeChannel(attachment.channel);
+					finish(attachment);
+					return;
+				}
+
+				attachment.pos += nw;
+				bytesSent.addAndGet(nw);
+
+				if (attachment.pos >= attachment.end) {
+					completedCount.incrementAndGet();
+					finish(attachment);
+					return;
+				}
+
+				if (!this.buffer.hasRemaining()) {
+					// All the data of the slice has been written, load the
+					// next one
+					boolean ok = false;
+					try {
+						ok = fill(attachment);
+					} catch (Throwable th) {
+						// NOPE
+					}
+					if (!ok) {
+						finish(attachment);
+						return;
+					}
+				}
+
+				attachment.channel.write(this.buffer, attachment, this);
+			}
+
+			@Override
+			public void failed(Throwable exc, SendfileData attachment) {
+				// Closing channels
+				closeChannel(attachment.channel);
+				finish(attachment);
+			}
+		}
 	}
 }
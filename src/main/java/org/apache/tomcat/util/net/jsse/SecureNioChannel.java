@@ -26,8 +26,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -37,6 +39,7 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSession;
 
+import org.apache.tomcat.util.net.DirectBufferPool;
 import org.apache.tomcat.util.net.NioChannel;
 import org.jboss.web.CoyoteLogger;
 
@@ -54,10 +57,16 @@ import org.jboss.web.CoyoteLogger;
 public class SecureNioChannel extends NioChannel {
 
 	private static final int MIN_BUFFER_SIZE = 16 * 1024;
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
 	protected SSLEngine sslEngine;
+	// The network buffers are borrowed from the pool while an operation is
+	// in flight, and given back as soon as they are empty
+	private DirectBufferPool bufferPool;
 	private ByteBuffer netInBuffer;
 	private ByteBuffer netOutBuffer;
+	private boolean reading;
+	private boolean writing;
 	protected boolean handshakeComplete = false;
 	// To save the handshake status for each operation
 	protected HandshakeStatus handshakeStatus;
@@ -123,15 +132,24 @@ public class SecureNioChannel extends NioChannel {
 		// The handshake is completed
 		checkHandshake();
 
-		if (this.netInBuffer.position() == 0) {
-			this.reset(this.netInBuffer);
-			int x = this.channel.read(this.netInBuffer).get(timeout, unit);
-			if (x < 0) {
-				throw new ClosedChannelException();
+		beginRead();
+		boolean pending = false;
+		try {
+			if (this.netInBuffer.position() == 0) {
+				this.reset(this.netInBuffer);
+				int x = this.channel.read(this.netInBuffer).get(timeout, unit);
+				if (x < 0) {
+					throw new ClosedChannelException();
+				}
 			}
+			// Unwrap the data read, and return the number of unwrapped bytes
+			return this.unwrap(this.netInBuffer, dst);
+		} catch (Exception e) {
+			pending = (e instanceof TimeoutException || e instanceof InterruptedException);
+			throw e;
+		} finally {
+			endRead(!pending);
 		}
-		// Unwrap the data read, and return the number of unwrapped bytes
-		return this.unwrap(this.netInBuffer, dst);
 	}
 
 	/*
@@ -159,6 +177,7 @@ public class SecureNioChannel extends NioChannel {
 
 		// The handshake is completed
 		checkHandshake();
+		beginRead();
 		// Retrieve bytes in the internal buffer
 		this.reset(this.netInBuffer);
 		// perform read operation
@@ -168,23 +187,29 @@ public class SecureNioChannel extends NioChannel {
 					@Override
 					public void completed(Integer nBytes, A attach) {
 						if (nBytes < 0) {
+							endRead(true);
 							handler.failed(new ClosedChannelException(), attach);
 							return;
 						}
 
+						int read;
 						try {
 							// Unwrap the data
-							int read = unwrap(netInBuffer, dst);
-							// If everything is OK, so complete
-							handler.completed(read, attach);
+							read = unwrap(netInBuffer, dst);
 						} catch (Exception e) {
 							// The operation must fails
+							endRead(true);
 							handler.failed(e, attach);
+							return;
 						}
+						endRead(true);
+						// If everything is OK, so complete
+						handler.completed(read, attach);
 					}
 
 					@Override
 					public void failed(Throwable exc, A attach) {
+						endRead(!(exc instanceof InterruptedByTimeoutException));
 						handler.failed(exc, attach);
 					}
 				});
@@ -212,8 +237,9 @@ public class SecureNioChannel extends NioChannel {
 		}
 
 		final ByteBuffer netInBuffers[] = new ByteBuffer[length];
+		int size = getSSLSession().getPacketBufferSize();
 		for (int i = 0; i < length; i++) {
-			netInBuffers[i] = ByteBuffer.allocateDirect(getSSLSession().getPacketBufferSize());
+			netInBuffers[i] = allocate(size);
 		}
 
 		this.reset(netInBuffers[0]);
@@ -233,16 +259,19 @@ public class SecureNioChannel extends NioChannel {
 							try {
 								read += unwrap(netInBuffers[i], dsts[offset + i]);
 							} catch (Exception e) {
+								free(netInBuffers, true);
 								handler.failed(e, attach);
 								return;
 							}
 						}
 
+						free(netInBuffers, true);
 						handler.completed(read, attach);
 					}
 
 					@Override
 					public void failed(Throwable exc, A attach) {
+						free(netInBuffers, !(exc instanceof InterruptedByTimeoutException));
 						handler.failed(exc, attach);
 					}
 				});
@@ -284,21 +313,28 @@ public class SecureNioChannel extends NioChannel {
 		// The handshake is completed
 		checkHandshake();
 
-		// Clear the output buffer
-		this.netOutBuffer.compact();
-		// the number of bytes written
-		int written = wrap(src, this.netOutBuffer);
-		this.netOutBuffer.flip();
-
-		// write bytes to the channel
-		while (this.netOutBuffer.hasRemaining()) {
-			int x = this.channel.write(netOutBuffer).get(timeout, unit);
-			if (x < 0) {
-				throw new ClosedChannelException();
+		beginWrite();
+		boolean pending = false;
+		try {
+			// the number of bytes written
+			int written = wrap(src, this.netOutBuffer);
+			this.netOutBuffer.flip();
+
+			// write bytes to the channel
+			while (this.netOutBuffer.hasRemaining()) {
+				int x = this.channel.write(netOutBuffer).get(timeout, unit);
+				if (x < 0) {
+					throw new ClosedChannelException();
+				}
 			}
-		}
 
-		return written;
+			return written;
+		} catch (Exception e) {
+			pending = (e instanceof TimeoutException || e instanceof InterruptedException);
+			throw e;
+		} finally {
+			endWrite(!pending);
+		}
 	}
 
 	/*
@@ -321,15 +357,15 @@ public class SecureNioChannel extends NioChannel {
 	 * java.nio.channels.CompletionHandler)
 	 */
 	@Override
-	public <A> void write(final ByteBuffer src, long timeout, TimeUnit unit, final A attachment,
-			final CompletionHandler<Integer, ? super A> handler) {
+	public <A> void write(final ByteBuffer src, final long timeout, final TimeUnit unit,
+			final A attachment, final CompletionHandler<Integer, ? super A> handler) {
 
 		// The handshake is completed
 		checkHandshake();
 
 		try {
 			// Prepare the output buffer
-			this.netOutBuffer.clear();
+			beginWrite();
 			// Wrap the source data into the internal buffer
 			final int written = wrap(src, this.netOutBuffer);
 			this.netOutBuffer.flip();
@@ -341,8 +377,14 @@ public class SecureNioChannel extends NioChannel {
 						@Override
 						public void completed(Integer nBytes, A attach) {
 							if (nBytes < 0) {
+								endWrite(true);
 								handler.failed(new ClosedChannelException(), attach);
+							} else if (netOutBuffer.hasRemaining()) {
+								// The buffer can't be released before all
+								// the network data is sent
+								channel.write(netOutBuffer, timeout, unit, attach, this);
 							} else {
+								endWrite(true);
 								// Call the handler completed method with the
 								// consumed bytes number
 								handler.completed(written, attach);
@@ -351,11 +393,13 @@ public class SecureNioChannel extends NioChannel {
 
 						@Override
 						public void failed(Throwable exc, A attach) {
+							endWrite(!(exc instanceof InterruptedByTimeoutException));
 							handler.failed(exc, attach);
 						}
 					});
 
 		} catch (Throwable exp) {
+			endWrite(true);
 			handler.failed(exp, attachment);
 		}
 	}
@@ -381,17 +425,18 @@ public class SecureNioChannel extends NioChannel {
 			throw new IndexOutOfBoundsException();
 		}
 
-		ByteBuffer[] netOutBuffers = new ByteBuffer[length];
+		final ByteBuffer[] netOutBuffers = new ByteBuffer[length];
 		int size = getSSLSession().getPacketBufferSize();
 		long written = 0;
 		for (int i = 0; i < length; i++) {
 			try {
 				// Prepare the output buffer
-				netOutBuffers[i] = ByteBuffer.allocateDirect(size);
+				netOutBuffers[i] = allocate(size);
 				// Wrap the source data into the internal buffer
 				written += wrap(srcs[offset + i], netOutBuffers[i]);
 				netOutBuffers[i].flip();
 			} catch (Throwable exp) {
+				free(netOutBuffers, true);
 				handler.failed(exp, attachment);
 				return;
 			}
@@ -404,6 +449,7 @@ public class SecureNioChannel extends NioChannel {
 
 					@Override
 					public void completed(Long nBytes, A attach) {
+						free(netOutBuffers, true);
 						if (nBytes < 0) {
 							handler.failed(new ClosedChannelException(), attach);
 						} else {
@@ -414,6 +460,7 @@ public class SecureNioChannel extends NioChannel {
 
 					@Override
 					public void failed(Throwable exc, A attach) {
+						free(netOutBuffers, !(exc instanceof InterruptedByTimeoutException));
 						handler.failed(exc, attach);
 					}
 				});
@@ -435,6 +482,8 @@ public class SecureNioChannel extends NioChannel {
 			this.channel.close();
 		} catch (Exception e) {
 			throw new IOException(e);
+		} finally {
+			releaseBuffers();
 		}
 	}
 
@@ -449,43 +498,45 @@ public class SecureNioChannel extends NioChannel {
 		}
 		sslEngine.closeOutbound();
 
-		SSLSession session = getSSLSession();
-		int packetBufferSize = Math.max(session.getPacketBufferSize(), MIN_BUFFER_SIZE);
+		int packetBufferSize = getPacketBufferSize();
+		// Use a buffer of its own, a write may still be pending on the
+		// network output buffer
+		ByteBuffer out = allocate(packetBufferSize);
 
-		this.netOutBuffer = (this.netOutBuffer == null) ? ByteBuffer
-				.allocateDirect(packetBufferSize) : this.netOutBuffer.compact();
-		this.netInBuffer = (this.netInBuffer == null) ? ByteBuffer.allocateDirect(packetBufferSize)
-				: this.netInBuffer.compact();
-
-		while (!sslEngine.isOutboundDone()) {
-			// Get close message
-			SSLEngineResult res = sslEngine.wrap(this.netInBuffer, this.netOutBuffer);
+		try {
+			while (!sslEngine.isOutboundDone()) {
+				// Get close message
+				SSLEngineResult res = sslEngine.wrap(EMPTY_BUFFER, out);
 
-			switch (res.getStatus()) {
-			case OK:
-				// Execute tasks if we need to
-				tryTasks();
-				while (this.netOutBuffer.hasRemaining()) {
-					if (this.channel.write(this.netOutBuffer).get() < 0) {
-						break;
+				switch (res.getStatus()) {
+				case OK:
+					// Execute tasks if we need to
+					tryTasks();
+					out.flip();
+					while (out.hasRemaining()) {
+						if (this.channel.write(out).get() < 0) {
+							break;
+						}
 					}
-					this.netOutBuffer.compact();
-				}
-				break;
-			case BUFFER_OVERFLOW:
-				ByteBuffer tmp = ByteBuffer.allocateDirect(packetBufferSize
-						+ this.netOutBuffer.capacity());
-				this.netOutBuffer.flip();
-				tmp.put(this.netOutBuffer);
-				this.netOutBuffer = tmp;
+					out.clear();
+					break;
+				case BUFFER_OVERFLOW:
+					ByteBuffer tmp = allocate(packetBufferSize + out.capacity());
+					out.flip();
+					tmp.put(out);
+					free(out);
+					out = tmp;
 
-				break;
-			case BUFFER_UNDERFLOW:
-				// Cannot happens in case of wrap
-			case CLOSED:
-				// Already closed, so return
-				break;
+					break;
+				case BUFFER_UNDERFLOW:
+					// Cannot happens in case of wrap
+				case CLOSED:
+					// Already closed, so return
+					break;
+				}
 			}
+		} finally {
+			free(out);
 		}
 	}
 
@@ -678,103 +729,120 @@ public class SecureNioChannel extends NioChannel {
 	 */
 	private void doHandshake() throws Exception {
 
-		SSLSession session = getSSLSession();
-		int packetBufferSize = Math.max(session.getPacketBufferSize(), MIN_BUFFER_SIZE);
-		// Create byte buffers to use for holding application data
-		initBuffers(packetBufferSize);
+		int packetBufferSize = getPacketBufferSize();
+		// Borrow the network buffers for the whole handshake
+		beginRead();
+		beginWrite();
+		try {
+			doHandshake(packetBufferSize);
+		} finally {
+			endRead(true);
+			endWrite(true);
+		}
+	}
 
-		ByteBuffer clientNetData = ByteBuffer.allocateDirect(packetBufferSize);
-		ByteBuffer clientAppData = ByteBuffer.allocateDirect(packetBufferSize);
+	/**
+	 * Execute the handshake steps with the network buffers borrowed
+	 * 
+	 * @param packetBufferSize
+	 * @throws Exception
+	 */
+	private void doHandshake(int packetBufferSize) throws Exception {
 
-		// Begin handshake
-		sslEngine.beginHandshake();
-		handshakeStatus = sslEngine.getHandshakeStatus();
-		int i = 1;
-		boolean read = true;
-		// Process handshaking message
-		while (!handshakeComplete) {
-
-			switch (handshakeStatus) {
-			case NEED_UNWRAP:
-				int nBytes = 0;
-				if (read) {
-					clientAppData.clear();
-					nBytes = this.channel.read(this.netInBuffer).get();
-				}
-				if (nBytes < 0) {
-					throw new IOException(MESSAGES.errorUnwrappingHandshake());
-				} else {
-					boolean cont = false;
-					// Loop while we can perform pure SSLEngine data
-					do {
-						// Prepare the buffer with the incoming data
-						this.netInBuffer.flip();
-						// Call unwrap
-						SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
-						// Compact the buffer, this is an optional method,
-						// wonder what would happen if we didn't
-						this.netInBuffer.compact();
-						// Read in the status
-						handshakeStatus = res.getHandshakeStatus();
-						if (res.getStatus() == SSLEngineResult.Status.OK) {
-							// Execute tasks if we need to
-							tryTasks();
-							read = true;
-						} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
-							read = true;
-						} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
-							ByteBuffer tmp = ByteBuffer.allocateDirect(packetBufferSize * (++i));
-
-							if (clientAppData.position() > 0) {
-								clientAppData.flip();
+		ByteBuffer clientAppData = allocate(packetBufferSize);
+		try {
+			// Begin handshake
+			sslEngine.beginHandshake();
+			handshakeStatus = sslEngine.getHandshakeStatus();
+			int i = 1;
+			boolean read = true;
+			// Process handshaking message
+			while (!handshakeComplete) {
+
+				switch (handshakeStatus) {
+				case NEED_UNWRAP:
+					int nBytes = 0;
+					if (read) {
+						clientAppData.clear();
+						nBytes = this.channel.read(this.netInBuffer).get();
+					}
+					if (nBytes < 0) {
+						throw new IOException(MESSAGES.errorUnwrappingHandshake());
+					} else {
+						boolean cont = false;
+						// Loop while we can perform pure SSLEngine data
+						do {
+							// Prepare the buffer with the incoming data
+							this.netInBuffer.flip();
+							// Call unwrap
+							SSLEngineResult res = sslEngine.unwrap(this.netInBuffer, clientAppData);
+							// Compact the buffer, this is an optional method,
+							// wonder what would happen if we didn't
+							this.netInBuffer.compact();
+							// Read in the status
+							handshakeStatus = res.getHandshakeStatus();
+							if (res.getStatus() == SSLEngineResult.Status.OK) {
+								// Execute tasks if we need to
+								tryTasks();
+								read = true;
+							} else if (res.getStatus() == Status.BUFFER_UNDERFLOW) {
+								read = true;
+							} else if (res.getStatus() == Status.BUFFER_OVERFLOW) {
+								ByteBuffer tmp = allocate(packetBufferSize * (++i));
+
+								if (clientAppData.position() > 0) {
+									clientAppData.flip();
+								}
+								tmp.put(clientAppData);
+								free(clientAppData);
+								clientAppData = tmp;
+								read = false;
 							}
-							tmp.put(clientAppData);
-							clientAppData = tmp;
-							read = false;
-						}
-						// Perform another unwrap?
-						cont = res.getStatus() == SSLEngineResult.Status.OK
-								&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
-					} while (cont);
-				}
+							// Perform another unwrap?
+							cont = res.getStatus() == SSLEngineResult.Status.OK
+									&& handshakeStatus == HandshakeStatus.NEED_UNWRAP;
+						} while (cont);
+					}
 
-				break;
-			case NEED_WRAP:
-				clientNetData.compact();
-				this.netOutBuffer.clear();
-				SSLEngineResult res = sslEngine.wrap(clientNetData, this.netOutBuffer);
-				handshakeStatus = res.getHandshakeStatus();
-				this.netOutBuffer.flip();
-
-				if (res.getStatus() == Status.OK) {
-					// Execute tasks if we need to
-					tryTasks();
-					// Send the handshaking data to client
-					while (this.netOutBuffer.hasRemaining()) {
-						if (this.channel.write(this.netOutBuffer).get() < 0) {
-							// Handle closed channel
-							throw new IOException(MESSAGES.errorWrappingHandshake());
+					break;
+				case NEED_WRAP:
+					this.netOutBuffer.clear();
+					SSLEngineResult res = sslEngine.wrap(EMPTY_BUFFER, this.netOutBuffer);
+					handshakeStatus = res.getHandshakeStatus();
+					this.netOutBuffer.flip();
+
+					if (res.getStatus() == Status.OK) {
+						// Execute tasks if we need to
+						tryTasks();
+						// Send the handshaking data to client
+						while (this.netOutBuffer.hasRemaining()) {
+							if (this.channel.write(this.netOutBuffer).get() < 0) {
+								// Handle closed channel
+								throw new IOException(MESSAGES.errorWrappingHandshake());
+							}
 						}
+					} else {
+						// Wrap should always work with our buffers
+						throw new IOException(MESSAGES.errorWrappingHandshakeStatus(res.getStatus().toString()));
 					}
-				} else {
-					// Wrap should always work with our buffers
-					throw new IOException(MESSAGES.errorWrappingHandshakeStatus(res.getStatus().toString()));
-				}
 
-				break;
-			case NEED_TASK:
-				handshakeStatus = tasks();
+					break;
+				case NEED_TASK:
+					handshakeStatus = tasks();
 
-				break;
-			case NOT_HANDSHAKING:
-				throw new SSLHandshakeException(MESSAGES.notHandshaking());
-			case FINISHED:
-				handshakeComplete = true;
-				break;
+					break;
+				case NOT_HANDSHAKING:
+					throw new SSLHandshakeException(MESSAGES.notHandshaking());
+				case FINISHED:
+					handshakeComplete = true;
+					break;
+				}
 			}
-		}
 
-		this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+			this.handshakeComplete = (handshakeStatus == HandshakeStatus.FINISHED);
+		} finally {
+			free(clientAppData);
+		}
 	}
 
 	/**
@@ -803,20 +871,143 @@ public class SecureNioChannel extends NioChannel {
 	}
 
 	/**
+	 * Set the pool the network buffers are borrowed from. Without pool, the
+	 * buffers are allocated for each operation.
+	 * 
+	 * @param bufferPool
+	 */
+	public void setBufferPool(DirectBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @return the size of the network buffers
+	 */
+	private int getPacketBufferSize() {
+		return Math.max(getSSLSession().getPacketBufferSize(), MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param size
+	 * @return a direct buffer of at least the specified size
+	 */
+	private ByteBuffer allocate(int size) {
+		if (this.bufferPool == null) {
+			return ByteBuffer.allocateDirect(size);
+		}
+		ByteBuffer buffer = this.bufferPool.borrow(size);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back to the pool.
+	 * 
+	 * @param buffer
+	 */
+	private void free(ByteBuffer buffer) {
+		if (this.bufferPool != null) {
+			this.bufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Give the buffers used by a scattering or gathering operation back to
+	 * the pool.
+	 * 
+	 * @param buffers
+	 * @param reusable
+	 *            <tt>false</tt> if the operation may still be pending
+	 */
+	private void free(ByteBuffer[] buffers, boolean reusable) {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer != null && this.bufferPool != null) {
+				if (reusable) {
+					this.bufferPool.release(buffer);
+				} else {
+					this.bufferPool.discard(buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Borrow the network input buffer, unless it still holds data which was
+	 * not unwrapped yet.
+	 */
+	private synchronized void beginRead() {
+		if (this.netInBuffer == null) {
+			this.netInBuffer = allocate(getPacketBufferSize());
+		}
+		this.reading = true;
+	}
+
+	/**
+	 * Give the network input buffer back to the pool if it is empty.
 	 * 
-	 * @param capacity
+	 * @param reusable
+	 *            <tt>false</tt> if the read operation may still be pending
 	 */
-	private void initBuffers(int capacity) {
+	private synchronized void endRead(boolean reusable) {
+		this.reading = false;
 		if (this.netInBuffer == null) {
-			this.netInBuffer = ByteBuffer.allocateDirect(capacity);
-		} else {
-			this.netInBuffer.clear();
+			return;
+		}
+		if (!reusable) {
+			if (this.bufferPool != null) {
+				this.bufferPool.discard(this.netInBuffer);
+			}
+			this.netInBuffer = null;
+		} else if (this.netInBuffer.position() == 0 || isClosed()) {
+			free(this.netInBuffer);
+			this.netInBuffer = null;
 		}
+	}
+
+	/**
+	 * Borrow the network output buffer.
+	 */
+	private synchronized void beginWrite() {
 		if (this.netOutBuffer == null) {
-			this.netOutBuffer = ByteBuffer.allocateDirect(capacity);
+			this.netOutBuffer = allocate(getPacketBufferSize());
 		} else {
 			this.netOutBuffer.clear();
 		}
+		this.writing = true;
+	}
+
+	/**
+	 * Give the network output buffer back to the pool.
+	 * 
+	 * @param reusable
+	 *            <tt>false</tt> if the write operation may still be pending
+	 */
+	private synchronized void endWrite(boolean reusable) {
+		this.writing = false;
+		if (this.netOutBuffer == null) {
+			return;
+		}
+		if (reusable) {
+			free(this.netOutBuffer);
+		} else if (this.bufferPool != null) {
+			this.bufferPool.discard(this.netOutBuffer);
+		}
+		this.netOutBuffer = null;
+	}
+
+	/**
+	 * Give the network buffers which are not used by a pending operation
+	 * back to the pool, once the channel is closed.
+	 */
+	private synchronized void releaseBuffers() {
+		if (!this.reading && this.netInBuffer != null) {
+			free(this.netInBuffer);
+			this.netInBuffer = null;
+		}
+		if (!this.writing && this.netOutBuffer != null) {
+			free(this.netOutBuffer);
+			this.netOutBuffer = null;
+		}
 	}
 
 	/**
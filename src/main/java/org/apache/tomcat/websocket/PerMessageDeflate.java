@@ -0,0 +1,429 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.websocket.Extension;
+
+/**
+ * The permessage-deflate extension defined by RFC 7692, as negotiated for a
+ * session. It holds the compression state of both directions, as well as the
+ * byte counts from which the compression ratio of the session is computed.
+ * <p>
+ * The deflater of <code>java.util.zip</code> always uses a 15 bit window, so
+ * offers which require a smaller window for the data sent by this endpoint
+ * are declined. Data received with any window size can be decompressed.
+ */
+public class PerMessageDeflate {
+
+    public static final String NAME = "permessage-deflate";
+
+    public static final String SERVER_NO_CONTEXT_TAKEOVER =
+            "server_no_context_takeover";
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER =
+            "client_no_context_takeover";
+    public static final String SERVER_MAX_WINDOW_BITS =
+            "server_max_window_bits";
+    public static final String CLIENT_MAX_WINDOW_BITS =
+            "client_max_window_bits";
+
+    public static final int MIN_WINDOW_BITS = 8;
+    public static final int MAX_WINDOW_BITS = 15;
+
+    /**
+     * The RSV1 bit, as found in the rsv field of a frame header, which marks
+     * the first frame of a compressed message.
+     */
+    public static final int RSV_BITMASK = 0x4;
+
+    /**
+     * Empty stored block which ends the compressed data of each message, and
+     * which is not sent.
+     */
+    private static final byte[] EOM_BYTES = new byte[] {0, 0, -1, -1};
+
+    private final boolean server;
+    private final boolean serverContextTakeover;
+    private final boolean clientContextTakeover;
+    private final Extension extension;
+
+    private final Inflater inflater = new Inflater(true);
+    private byte[] inflaterInput = new byte[0];
+    // A final block ended the compressed data before the end of the message
+    private boolean inflaterFinished = false;
+
+    private final Deflater deflater =
+            new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private byte[] deflaterInput = new byte[0];
+    private byte[] deflaterOutput = new byte[Constants.DEFAULT_BUFFER_SIZE];
+
+    private final AtomicLong uncompressedBytesSent = new AtomicLong();
+    private final AtomicLong compressedBytesSent = new AtomicLong();
+    private final AtomicLong compressedBytesReceived = new AtomicLong();
+    private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+
+
+    private PerMessageDeflate(boolean server, boolean serverContextTakeover,
+            boolean clientContextTakeover, Extension extension) {
+        this.server = server;
+        this.serverContextTakeover = serverContextTakeover;
+        this.clientContextTakeover = clientContextTakeover;
+        this.extension = extension;
+    }
+
+
+    /**
+     * Server side negotiation: accept the first offer of the client which can
+     * be honoured.
+     *
+     * @param offers                  The extensions offered by the client
+     * @param serverNoContextTakeover Whether to compress each message
+     *                                independently
+     * @param clientNoContextTakeover Whether to require that the client
+     *                                compresses each message independently
+     * @param clientMaxWindowBits     The window size to require from the
+     *                                client, if the client supports it
+     * @return the negotiated extension, or <code>null</code> if no offer was
+     *         acceptable
+     */
+    public static PerMessageDeflate negotiate(List<Extension> offers,
+            boolean serverNoContextTakeover, boolean clientNoContextTakeover,
+            int clientMaxWindowBits) {
+        for (Extension offer : offers) {
+            if (!NAME.equals(offer.getName())) {
+                continue;
+            }
+            boolean serverNoTakeover = serverNoContextTakeover;
+            boolean clientNoTakeover = clientNoContextTakeover;
+            boolean serverWindowBits = false;
+            int clientWindowBits = -1;
+            boolean valid = true;
+            for (Extension.Parameter param : offer.getParameters()) {
+                String name = param.getName();
+                if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                    serverNoTakeover = true;
+                } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                    clientNoTakeover = true;
+                } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                    // Only the full window is available for compression
+                    serverWindowBits = true;
+                    valid = (parseWindowBits(param.getValue()) == MAX_WINDOW_BITS);
+                } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                    if (param.getValue() == null) {
+                        clientWindowBits = MAX_WINDOW_BITS;
+                    } else {
+                        clientWindowBits = parseWindowBits(param.getValue());
+                        valid = (clientWindowBits != -1);
+                    }
+                } else {
+                    valid = false;
+                }
+                if (!valid) {
+                    break;
+                }
+            }
+            if (!valid) {
+                continue;
+            }
+
+            WsExtension response = new WsExtension(NAME);
+            if (serverNoTakeover) {
+                response.addParameter(new WsExtensionParameter(
+                        SERVER_NO_CONTEXT_TAKEOVER, null));
+            }
+            if (clientNoTakeover) {
+                response.addParameter(new WsExtensionParameter(
+                        CLIENT_NO_CONTEXT_TAKEOVER, null));
+            }
+            if (serverWindowBits) {
+                response.addParameter(new WsExtensionParameter(
+                        SERVER_MAX_WINDOW_BITS,
+                        String.valueOf(MAX_WINDOW_BITS)));
+            }
+            // The client window may only be limited if the client allowed it
+            if (clientWindowBits != -1) {
+                int bits = Math.min(clientWindowBits, clientMaxWindowBits);
+                if (bits < MAX_WINDOW_BITS) {
+                    response.addParameter(new WsExtensionParameter(
+                            CLIENT_MAX_WINDOW_BITS, String.valueOf(bits)));
+                }
+            }
+            return new PerMessageDeflate(true, !serverNoTakeover,
+                    !clientNoTakeover, response);
+        }
+        return null;
+    }
+
+
+    /**
+     * Create the offer sent by a client.
+     *
+     * @param serverNoContextTakeover Whether to ask the server to compress
+     *                                each message independently
+     * @param clientNoContextTakeover Whether to compress each message
+     *                                independently
+     */
+    public static Extension createOffer(boolean serverNoContextTakeover,
+            boolean clientNoContextTakeover) {
+        WsExtension offer = new WsExtension(NAME);
+        if (serverNoContextTakeover) {
+            offer.addParameter(new WsExtensionParameter(
+                    SERVER_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (clientNoContextTakeover) {
+            offer.addParameter(new WsExtensionParameter(
+                    CLIENT_NO_CONTEXT_TAKEOVER, null));
+        }
+        return offer;
+    }
+
+
+    /**
+     * Client side negotiation: check the response of the server.
+     *
+     * @param response The extension accepted by the server
+     * @return the negotiated extension, or <code>null</code> if the response
+     *         cannot be honoured
+     */
+    public static PerMessageDeflate accept(Extension response) {
+        boolean serverNoTakeover = false;
+        boolean clientNoTakeover = false;
+        for (Extension.Parameter param : response.getParameters()) {
+            String name = param.getName();
+            if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+                serverNoTakeover = true;
+            } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+                clientNoTakeover = true;
+            } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+                if (parseWindowBits(param.getValue()) == -1) {
+                    return null;
+                }
+            } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+                // Only the full window is available for compression
+                if (parseWindowBits(param.getValue()) != MAX_WINDOW_BITS) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return new PerMessageDeflate(false, !serverNoTakeover,
+                !clientNoTakeover, response);
+    }
+
+
+    private static int parseWindowBits(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS) {
+                return bits;
+            }
+        } catch (NumberFormatException e) {
+            // Ignore
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return the extension, with the negotiated parameters.
+     */
+    public Extension getExtension() {
+        return extension;
+    }
+
+
+    // ----------------------------------------------------------- Inflating
+
+    /**
+     * Return <code>true</code> if the decompressor needs more input.
+     */
+    boolean needsInput() {
+        return inflaterFinished || inflater.needsInput();
+    }
+
+
+    /**
+     * Add received payload data. The data is copied so the caller may reuse
+     * the array.
+     */
+    void setInput(byte[] b, int off, int len) {
+        if (inflaterInput.length < len) {
+            inflaterInput = new byte[Math.max(len, Constants.DEFAULT_BUFFER_SIZE)];
+        }
+        compressedBytesReceived.addAndGet(len);
+        if (inflaterFinished) {
+            // Anything after the final block is ignored
+            return;
+        }
+        System.arraycopy(b, off, inflaterInput, 0, len);
+        inflater.setInput(inflaterInput, 0, len);
+    }
+
+
+    /**
+     * Add the trailer which ends the compressed data of a message.
+     */
+    void setEndOfMessageInput() {
+        if (!inflaterFinished) {
+            inflater.setInput(EOM_BYTES);
+        }
+    }
+
+
+    /**
+     * Decompress as much data as possible in the given buffer.
+     *
+     * @param dest Heap buffer receiving the data
+     * @throws DataFormatException if the data is not valid
+     */
+    void inflate(ByteBuffer dest) throws DataFormatException {
+        while (dest.hasRemaining() && !needsInput()) {
+            int n = inflater.inflate(dest.array(),
+                    dest.arrayOffset() + dest.position(), dest.remaining());
+            dest.position(dest.position() + n);
+            uncompressedBytesReceived.addAndGet(n);
+            if (inflater.finished()) {
+                inflaterFinished = true;
+            } else if (n == 0 && inflater.needsDictionary()) {
+                throw new DataFormatException();
+            }
+        }
+    }
+
+
+    /**
+     * Called once a compressed message has been fully received.
+     */
+    void endOfMessageReceived() {
+        if (inflaterFinished
+                || (server ? !clientContextTakeover : !serverContextTakeover)) {
+            inflater.reset();
+            inflaterFinished = false;
+        }
+    }
+
+
+    // ----------------------------------------------------------- Deflating
+
+    /**
+     * Compress a part of a message. The returned buffer is reused for the
+     * next part, so it must have been written by then.
+     *
+     * @param payload The uncompressed data, which is consumed
+     * @param last    Whether this is the last part of the message
+     * @return the compressed data
+     */
+    ByteBuffer deflate(ByteBuffer payload, boolean last) {
+        int len = payload.remaining();
+        if (payload.hasArray()) {
+            deflater.setInput(payload.array(),
+                    payload.arrayOffset() + payload.position(), len);
+        } else {
+            if (deflaterInput.length < len) {
+                deflaterInput = new byte[len];
+            }
+            payload.duplicate().get(deflaterInput, 0, len);
+            deflater.setInput(deflaterInput, 0, len);
+        }
+        payload.position(payload.limit());
+
+        int pos = 0;
+        while (true) {
+            int space = deflaterOutput.length - pos;
+            int n = deflater.deflate(deflaterOutput, pos, space,
+                    Deflater.SYNC_FLUSH);
+            pos += n;
+            if (n < space) {
+                break;
+            }
+            byte[] output = new byte[deflaterOutput.length * 2];
+            System.arraycopy(deflaterOutput, 0, output, 0, pos);
+            deflaterOutput = output;
+        }
+
+        if (last) {
+            // Remove the empty block added by the flush
+            if (pos >= EOM_BYTES.length && deflaterOutput[pos - 4] == 0
+                    && deflaterOutput[pos - 3] == 0
+                    && deflaterOutput[pos - 2] == -1
+                    && deflaterOutput[pos - 1] == -1) {
+                pos -= EOM_BYTES.length;
+            }
+            if (server ? !serverContextTakeover : !clientContextTakeover) {
+                deflater.reset();
+            }
+        }
+        uncompressedBytesSent.addAndGet(len);
+        compressedBytesSent.addAndGet(pos);
+        return ByteBuffer.wrap(deflaterOutput, 0, pos);
+    }
+
+
+    // ------------------------------------------------------------- Metrics
+
+    public long getUncompressedBytesSent() {
+        return uncompressedBytesSent.get();
+    }
+
+
+    public long getCompressedBytesSent() {
+        return compressedBytesSent.get();
+    }
+
+
+    public long getCompressedBytesReceived() {
+        return compressedBytesReceived.get();
+    }
+
+
+    public long getUncompressedBytesReceived() {
+        return uncompressedBytesReceived.get();
+    }
+
+
+    /**
+     * Return the ratio between the compressed and uncompressed sizes of the
+     * data sent, or 1 if nothing was sent yet.
+     */
+    public double getCompressionRatioSent() {
+        long uncompressed = uncompressedBytesSent.get();
+        return (uncompressed == 0) ? 1.0
+                : ((double) compressedBytesSent.get()) / uncompressed;
+    }
+
+
+    /**
+     * Return the ratio between the compressed and uncompressed sizes of the
+     * data received, or 1 if nothing was received yet.
+     */
+    public double getCompressionRatioReceived() {
+        long uncompressed = uncompressedBytesReceived.get();
+        return (uncompressed == 0) ? 1.0
+                : ((double) compressedBytesReceived.get()) / uncompressed;
+    }
+}
@@ -45,6 +45,7 @@ import javax.websocket.Decoder.TextStream;
 import javax.websocket.DeploymentException;
 import javax.websocket.Encoder;
 import javax.websocket.EndpointConfig;
+import javax.websocket.Extension;
 import javax.websocket.MessageHandler;
 import javax.websocket.PongMessage;
 import javax.websocket.Session;
@@ -76,6 +77,70 @@ public class Util {
     }
 
 
+    /**
+     * Parse the value of a <code>Sec-WebSocket-Extensions</code> header and
+     * add the extensions it contains to the given list, in order.
+     *
+     * @param extensions The list to which the extensions are added
+     * @param header     The header value
+     */
+    public static void parseExtensionHeader(List<Extension> extensions,
+            String header) {
+        for (String unparsedExtension : header.split(",")) {
+            String[] unparsedParameters = unparsedExtension.split(";");
+            String name = unparsedParameters[0].trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            WsExtension extension = new WsExtension(name);
+            for (int i = 1; i < unparsedParameters.length; i++) {
+                String unparsedParameter = unparsedParameters[i];
+                int equalsPos = unparsedParameter.indexOf('=');
+                String paramName;
+                String paramValue;
+                if (equalsPos == -1) {
+                    paramName = unparsedParameter.trim();
+                    paramValue = null;
+                } else {
+                    paramName =
+                            unparsedParameter.substring(0, equalsPos).trim();
+                    paramValue =
+                            unparsedParameter.substring(equalsPos + 1).trim();
+                    // Values may be sent as quoted strings
+                    if (paramValue.length() > 1 && paramValue.charAt(0) == '"'
+                            && paramValue.endsWith("\"")) {
+                        paramValue = paramValue.substring(1,
+                                paramValue.length() - 1);
+                    }
+                }
+                if (paramName.length() > 0) {
+                    extension.addParameter(
+                            new WsExtensionParameter(paramName, paramValue));
+                }
+            }
+            extensions.add(extension);
+        }
+    }
+
+
+    /**
+     * Append an extension, with its parameters, in the format used by the
+     * <code>Sec-WebSocket-Extensions</code> header.
+     */
+    public static void appendExtension(StringBuilder sb, Extension extension) {
+        sb.append(extension.getName());
+        for (Extension.Parameter param : extension.getParameters()) {
+            sb.append(';');
+            sb.append(param.getName());
+            String value = param.getValue();
+            if (value != null && value.length() > 0) {
+                sb.append('=');
+                sb.append(value);
+            }
+        }
+    }
+
+
     static CloseCode getCloseCode(int code) {
         if (code > 2999 && code < 5000) {
             return CloseCodes.NORMAL_CLOSURE;
@@ -24,6 +24,7 @@ import java.nio.CharBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.util.zip.DataFormatException;
 
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
@@ -43,6 +44,7 @@ public abstract class WsFrameBase {
     // Connection level attributes
     protected final WsSession wsSession;
     protected final byte[] inputBuffer;
+    private final PerMessageDeflate perMessageDeflate;
 
     // Attributes for control messages
     // Control messages can appear in the middle of other messages so need
@@ -65,6 +67,10 @@ public abstract class WsFrameBase {
     // consistently for the entire message
     private MessageHandler binaryMsgHandler = null;
     private MessageHandler textMsgHandler = null;
+    // Compression of the current message
+    private boolean compressedMessage = false;
+    private boolean endOfMessageInput = false;
+    private boolean inflaterOutputPending = false;
 
     // Attributes of the current frame
     private boolean fin = false;
@@ -89,6 +95,7 @@ public abstract class WsFrameBase {
         messageBufferText =
                 CharBuffer.allocate(wsSession.getMaxTextMessageBufferSize());
         this.wsSession = wsSession;
+        this.perMessageDeflate = wsSession.getPerMessageDeflate();
     }
 
 
@@ -132,14 +139,18 @@ public abstract class WsFrameBase {
         int b = inputBuffer[readPos++];
         fin = (b & 0x80) > 0;
         rsv = (b & 0x70) >>> 4;
+        opCode = (byte) (b & 0x0F);
         if (rsv != 0) {
-            // Note extensions may use rsv bits but currently no extensions are
-            // supported
-            throw new WsIOException(new CloseReason(
-                    CloseCodes.PROTOCOL_ERROR,
-                    MESSAGES.unsupportedReservedBitsSet(Integer.valueOf(rsv))));
+            // The only extension supported is permessage-deflate which sets
+            // RSV1 on the first frame of compressed messages
+            if (rsv != PerMessageDeflate.RSV_BITMASK ||
+                    perMessageDeflate == null || Util.isControl(opCode) ||
+                    opCode == Constants.OPCODE_CONTINUATION) {
+                throw new WsIOException(new CloseReason(
+                        CloseCodes.PROTOCOL_ERROR,
+                        MESSAGES.unsupportedReservedBitsSet(Integer.valueOf(rsv))));
+            }
         }
-        opCode = (byte) (b & 0x0F);
         if (Util.isControl(opCode)) {
             if (!fin) {
                 throw new WsIOException(new CloseReason(
@@ -185,6 +196,7 @@ public abstract class WsFrameBase {
                                 CloseCodes.PROTOCOL_ERROR,
                                 MESSAGES.invalidFrameOpcode(opCode)));
                     }
+                    compressedMessage = (rsv != 0);
                 } catch (IllegalStateException ise) {
                     // Thrown if the session is already closed
                     throw new WsIOException(new CloseReason(
@@ -407,7 +419,7 @@ public abstract class WsFrameBase {
                     messageBufferBinary.compact();
 
                     // What did we run out of?
-                    if (readPos == writePos) {
+                    if (!isInputAvailable()) {
                         // Ran out of input data - get some more
                         return false;
                     } else {
@@ -476,7 +488,7 @@ public abstract class WsFrameBase {
         // Copy the available data to the buffer
         while (!appendPayloadToMessage(messageBufferBinary)) {
             // Frame not complete - what did we run out of?
-            if (readPos == writePos) {
+            if (!isInputAvailable()) {
                 // Ran out of input data - get some more
                 return false;
             } else {
@@ -563,6 +575,11 @@ public abstract class WsFrameBase {
         messageBufferText.clear();
         utf8DecoderMessage.reset();
         continuationExpected = false;
+        if (compressedMessage) {
+            perMessageDeflate.endOfMessageReceived();
+            compressedMessage = false;
+            endOfMessageInput = false;
+        }
         newFrame();
     }
 
@@ -621,7 +638,20 @@ public abstract class WsFrameBase {
     }
 
 
-    private boolean appendPayloadToMessage(ByteBuffer dest) {
+    /**
+     * @return <code>true</code> if more of the current frame can be processed
+     *         without reading from the network
+     */
+    private boolean isInputAvailable() {
+        return readPos < writePos || inflaterOutputPending;
+    }
+
+
+    private boolean appendPayloadToMessage(ByteBuffer dest)
+            throws WsIOException {
+        if (compressedMessage && !Util.isControl(opCode)) {
+            return appendInflatedPayloadToMessage(dest);
+        }
         if (isMasked()) {
             while (payloadWritten < payloadLength && readPos < writePos &&
                     dest.hasRemaining()) {
@@ -649,10 +679,73 @@ public abstract class WsFrameBase {
     }
 
 
-    private boolean swallowInput() {
-        long toSkip = Math.min(payloadLength - payloadWritten, writePos - readPos);
-        readPos += toSkip;
-        payloadWritten += toSkip;
+    /**
+     * Decompress the payload of a frame of a compressed message.
+     *
+     * @return <code>true</code> if the frame has been fully processed
+     */
+    private boolean appendInflatedPayloadToMessage(ByteBuffer dest)
+            throws WsIOException {
+        inflaterOutputPending = false;
+        try {
+            while (true) {
+                if (perMessageDeflate.needsInput()) {
+                    if (payloadWritten < payloadLength && readPos < writePos) {
+                        int len = (int) Math.min(payloadLength - payloadWritten,
+                                writePos - readPos);
+                        if (isMasked()) {
+                            for (int i = readPos; i < readPos + len; i++) {
+                                inputBuffer[i] ^= mask[maskIndex];
+                                maskIndex++;
+                                if (maskIndex == 4) {
+                                    maskIndex = 0;
+                                }
+                            }
+                        }
+                        perMessageDeflate.setInput(inputBuffer, readPos, len);
+                        readPos += len;
+                        payloadWritten += len;
+                    } else if (payloadWritten == payloadLength &&
+                            !continuationExpected && !endOfMessageInput) {
+                        perMessageDeflate.setEndOfMessageInput();
+                        endOfMessageInput = true;
+                    } else {
+                        // Nothing more to decompress for now
+                        break;
+                    }
+                }
+                if (!dest.hasRemaining()) {
+                    inflaterOutputPending = true;
+                    return false;
+                }
+                perMessageDeflate.inflate(dest);
+            }
+        } catch (DataFormatException e) {
+            throw new WsIOException(new CloseReason(
+                    CloseCodes.PROTOCOL_ERROR, MESSAGES.invalidCompressedData()));
+        }
+        return (payloadWritten == payloadLength &&
+                (continuationExpected || endOfMessageInput));
+    }
+
+
+    private boolean swallowInput() throws WsIOException {
+        if (compressedMessage) {
+            // The data must still be decompressed to keep the compression
+            // context in sync
+            messageBufferBinary.clear();
+            while (!appendInflatedPayloadToMessage(messageBufferBinary)) {
+                if (!isInputAvailable()) {
+                    return false;
+                }
+                messageBufferBinary.clear();
+            }
+            messageBufferBinary.clear();
+        } else {
+            long toSkip = Math.min(payloadLength - payloadWritten, writePos - readPos);
+            readPos += toSkip;
+            payloadWritten += toSkip;
+        }
         if (payloadWritten == payloadLength) {
             if (continuationExpected) {
                 newFrame();
@@ -75,6 +75,7 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
     private final AtomicBoolean batchingAllowed = new AtomicBoolean(false);
     private volatile long sendTimeout = -1;
     private WsSession wsSession;
+    private PerMessageDeflate perMessageDeflate;
     private List<EncoderEntry> encoderEntries = new ArrayList<EncoderEntry>();
 
     public long getSendTimeout() {
@@ -347,6 +348,15 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
             }
         }
 
+        // Data messages are compressed if permessage-deflate was negotiated,
+        // which is flagged on their first frame
+        ByteBuffer payload = mp.getPayload();
+        boolean compressed = false;
+        if (perMessageDeflate != null && !Util.isControl(mp.getOpCode())) {
+            payload = perMessageDeflate.deflate(payload, mp.isLast());
+            compressed = first;
+        }
+
         byte[] mask;
 
         if (isMasked()) {
@@ -356,19 +366,19 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
         }
 
         headerBuffer.clear();
-        writeHeader(headerBuffer, mp.getOpCode(), mp.getPayload(), first,
-                mp.isLast(), isMasked(), mask);
+        writeHeader(headerBuffer, mp.getOpCode(), payload, first,
+                mp.isLast(), compressed, isMasked(), mask);
         headerBuffer.flip();
 
         if (getBatchingAllowed() || isMasked()) {
             // Need to write via output buffer
             OutputBufferSendHandler obsh = new OutputBufferSendHandler(
-                    mp.getHandler(), headerBuffer, mp.getPayload(), mask,
+                    mp.getHandler(), headerBuffer, payload, mask,
                     outputBuffer, !getBatchingAllowed(), this);
             obsh.write();
         } else {
             // Can write directly
-            doWrite(mp.getHandler(), headerBuffer, mp.getPayload());
+            doWrite(mp.getHandler(), headerBuffer, payload);
         }
 
     }
@@ -532,6 +542,11 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
     }
 
 
+    protected void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+
     protected void setEncoders(EndpointConfig endpointConfig)
             throws DeploymentException {
         encoderEntries.clear();
@@ -580,8 +595,8 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
 
 
     private static void writeHeader(ByteBuffer headerBuffer, byte opCode,
-            ByteBuffer payload, boolean first, boolean last, boolean masked,
-            byte[] mask) {
+            ByteBuffer payload, boolean first, boolean last, boolean rsv1,
+            boolean masked, byte[] mask) {
 
         byte b = 0;
 
@@ -594,6 +609,10 @@ public abstract class WsRemoteEndpointImplBase implements RemoteEndpoint {
             // This is the first fragment of this message
             b = (byte) (b + opCode);
         }
+
+        if (rsv1) {
+            b = (byte) (b | 0x40);
+        }
         // If not the first fragment, it is a continuation with opCode of zero
 
         headerBuffer.put(b);
@@ -76,6 +76,7 @@ public class WsSession implements Session {
     private final boolean secure;
     private final String httpSessionId;
     private final String id;
+    private final PerMessageDeflate perMessageDeflate;
 
     // Expected to handle message types of <String> only
     private MessageHandler textMessageHandler = null;
@@ -102,6 +103,8 @@ public class WsSession implements Session {
      *
      * @param localEndpoint
      * @param wsRemoteEndpoint
+     * @param perMessageDeflate The negotiated permessage-deflate extension,
+     *                          or <code>null</code>
      * @throws DeploymentException
      */
     public WsSession(Endpoint localEndpoint,
@@ -110,11 +113,14 @@ public class WsSession implements Session {
             URI requestUri, Map<String,List<String>> requestParameterMap,
             String queryString, Principal userPrincipal, String httpSessionId,
             String subProtocol, Map<String,String> pathParameters,
-            boolean secure, EndpointConfig endpointConfig)
+            boolean secure, EndpointConfig endpointConfig,
+            PerMessageDeflate perMessageDeflate)
                     throws DeploymentException {
         this.localEndpoint = localEndpoint;
         this.wsRemoteEndpoint = wsRemoteEndpoint;
         this.wsRemoteEndpoint.setSession(this);
+        this.perMessageDeflate = perMessageDeflate;
+        this.wsRemoteEndpoint.setPerMessageDeflate(perMessageDeflate);
         this.remoteEndpointAsync = new WsRemoteEndpointAsync(wsRemoteEndpoint);
         this.remoteEndpointBasic = new WsRemoteEndpointBasic(wsRemoteEndpoint);
         this.webSocketContainer = wsWebSocketContainer;
@@ -294,7 +300,20 @@ public class WsSession implements Session {
     @Override
     public List<Extension> getNegotiatedExtensions() {
         checkState();
-        return Collections.emptyList();
+        if (perMessageDeflate == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(perMessageDeflate.getExtension());
+    }
+
+
+    /**
+     * Return the permessage-deflate extension negotiated for this session,
+     * which provides the compression statistics of the session, or
+     * <code>null</code> if messages are not compressed.
+     */
+    public PerMessageDeflate getPerMessageDeflate() {
+        return perMessageDeflate;
     }
 
 
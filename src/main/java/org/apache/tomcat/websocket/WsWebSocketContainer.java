@@ -155,6 +155,10 @@ public class WsWebSocketContainer
     private volatile long defaultMaxSessionIdleTimeout = 0;
     private int backgroundProcessCount = 0;
     private int processPeriod = 10;
+    private volatile boolean perMessageDeflate = true;
+    private volatile boolean serverNoContextTakeover = false;
+    private volatile boolean clientNoContextTakeover = false;
+    private volatile int clientMaxWindowBits = PerMessageDeflate.MAX_WINDOW_BITS;
 
 
     @Override
@@ -247,9 +251,25 @@ public class WsWebSocketContainer
             throw new DeploymentException(MESSAGES.pathNoHost());
         }
         int port = path.getPort();
+
+        // Offer permessage-deflate unless the application made its own offer
+        List<Extension> extensions = new ArrayList<Extension>(
+                clientEndpointConfiguration.getExtensions());
+        boolean perMessageDeflateOffered = false;
+        for (Extension extension : extensions) {
+            if (PerMessageDeflate.NAME.equals(extension.getName())) {
+                perMessageDeflateOffered = true;
+            }
+        }
+        if (!perMessageDeflateOffered && perMessageDeflate) {
+            extensions.add(PerMessageDeflate.createOffer(
+                    serverNoContextTakeover, clientNoContextTakeover));
+            perMessageDeflateOffered = true;
+        }
+
         Map<String,List<String>> reqHeaders = createRequestHeaders(host, port,
                 clientEndpointConfiguration.getPreferredSubprotocols(),
-                clientEndpointConfiguration.getExtensions());
+                extensions);
         clientEndpointConfiguration.getConfigurator().
                 beforeRequest(reqHeaders);
 
@@ -301,6 +321,7 @@ public class WsWebSocketContainer
 
         ByteBuffer response;
         String subProtocol;
+        PerMessageDeflate negotiatedDeflate = null;
         try {
             fConnect.get(timeout, TimeUnit.MILLISECONDS);
 
@@ -337,6 +358,31 @@ public class WsWebSocketContainer
             } else {
                 throw new DeploymentException(MESSAGES.invalidProtocolHeader());
             }
+
+            // Extensions
+            values = handshakeResponse.getHeaders().get(
+                    Constants.WS_EXTENSIONS_HEADER_NAME_LOWER);
+            if (values != null) {
+                List<Extension> accepted = new ArrayList<Extension>();
+                for (String value : values) {
+                    Util.parseExtensionHeader(accepted, value);
+                }
+                for (Extension extension : accepted) {
+                    if (PerMessageDeflate.NAME.equals(extension.getName())) {
+                        if (!perMessageDeflateOffered || negotiatedDeflate != null) {
+                            throw new DeploymentException(
+                                    MESSAGES.unsupportedPerMessageDeflateResponse(
+                                            extension.toString()));
+                        }
+                        negotiatedDeflate = PerMessageDeflate.accept(extension);
+                        if (negotiatedDeflate == null) {
+                            throw new DeploymentException(
+                                    MESSAGES.unsupportedPerMessageDeflateResponse(
+                                            extension.toString()));
+                        }
+                    }
+                }
+            }
         } catch (ExecutionException e) {
             throw new DeploymentException(MESSAGES.httpRequestFailed(), e);
         } catch (InterruptedException e) {
@@ -356,7 +402,7 @@ public class WsWebSocketContainer
         WsSession wsSession = new WsSession(endpoint, wsRemoteEndpointClient,
                 this, null, null, null, null, null, subProtocol,
                 Collections.<String, String> emptyMap(), false,
-                clientEndpointConfiguration);
+                clientEndpointConfiguration, negotiatedDeflate);
         endpoint.onOpen(wsSession, clientEndpointConfiguration);
         registerSession(endpoint, wsSession);
 
@@ -477,16 +523,8 @@ public class WsWebSocketContainer
         List<String> result = new ArrayList<String>(extensions.size());
         for (Extension extension : extensions) {
             StringBuilder header = new StringBuilder();
-            header.append(extension.getName());
-            for (Extension.Parameter param : extension.getParameters()) {
-                header.append(';');
-                header.append(param.getName());
-                String value = param.getValue();
-                if (value != null && value.length() > 0) {
-                    header.append('=');
-                    header.append(value);
-                }
-            }
+            Util.appendExtension(header, extension);
+            result.add(header.toString());
         }
         return result;
     }
@@ -751,14 +789,80 @@ public class WsWebSocketContainer
     /**
      * {@inheritDoc}
      *
-     * Currently, this implementation does not support any extensions.
+     * The only extension supported by this implementation is
+     * permessage-deflate, if it is enabled.
      */
     @Override
     public Set<Extension> getInstalledExtensions() {
+        if (perMessageDeflate) {
+            return Collections.<Extension>singleton(
+                    new WsExtension(PerMessageDeflate.NAME));
+        }
         return Collections.emptySet();
     }
 
 
+    /**
+     * Is the permessage-deflate extension used when the other endpoint
+     * supports it? The default is <code>true</code>.
+     */
+    public boolean isPerMessageDeflate() {
+        return perMessageDeflate;
+    }
+
+
+    public void setPerMessageDeflate(boolean perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+
+    /**
+     * Should the server compress each message independently of the previous
+     * ones? This uses less memory between messages but compresses less. The
+     * default is <code>false</code>.
+     */
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+
+    public void setServerNoContextTakeover(boolean serverNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+
+    /**
+     * Should the client compress each message independently of the previous
+     * ones? The default is <code>false</code>.
+     */
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+
+
+    public void setClientNoContextTakeover(boolean clientNoContextTakeover) {
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+
+    /**
+     * The largest compression window, in bits, that a server lets clients use
+     * when they allow it to be limited. The default is 15.
+     */
+    public int getClientMaxWindowBits() {
+        return clientMaxWindowBits;
+    }
+
+
+    public void setClientMaxWindowBits(int clientMaxWindowBits) {
+        if (clientMaxWindowBits < PerMessageDeflate.MIN_WINDOW_BITS
+                || clientMaxWindowBits > PerMessageDeflate.MAX_WINDOW_BITS) {
+            throw MESSAGES.invalidWindowBits(clientMaxWindowBits);
+        }
+        this.clientMaxWindowBits = clientMaxWindowBits;
+    }
+
+
     /**
      * {@inheritDoc}
      *
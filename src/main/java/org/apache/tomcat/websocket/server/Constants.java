@@ -31,6 +31,16 @@ public class Constants {
     public static final String ENFORCE_NO_ADD_AFTER_HANDSHAKE_CONTEXT_INIT_PARAM =
             "org.apache.tomcat.websocket.noAddAfterHandshake";
 
+    // permessage-deflate configuration
+    public static final String PER_MESSAGE_DEFLATE_INIT_PARAM =
+            "org.apache.tomcat.websocket.perMessageDeflate";
+    public static final String SERVER_NO_CONTEXT_TAKEOVER_INIT_PARAM =
+            "org.apache.tomcat.websocket.serverNoContextTakeover";
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER_INIT_PARAM =
+            "org.apache.tomcat.websocket.clientNoContextTakeover";
+    public static final String CLIENT_MAX_WINDOW_BITS_INIT_PARAM =
+            "org.apache.tomcat.websocket.clientMaxWindowBits";
+
     // Executor configuration
     public static final String EXECUTOR_CORE_SIZE_INIT_PARAM =
             "org.apache.tomcat.websocket.executorCoreSize";
@@ -46,6 +46,8 @@ import javax.websocket.server.ServerEndpointConfig;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.apache.tomcat.websocket.Constants;
+import org.apache.tomcat.websocket.PerMessageDeflate;
+import org.apache.tomcat.websocket.Util;
 import org.apache.tomcat.websocket.WsHandshakeResponse;
 import org.apache.tomcat.websocket.pojo.PojoEndpointServer;
 
@@ -91,6 +93,7 @@ public class UpgradeUtil {
         String key;
         String subProtocol = null;
         List<Extension> extensions = Collections.emptyList();
+        PerMessageDeflate perMessageDeflate = null;
         if (!headerContainsToken(req, Constants.CONNECTION_HEADER_NAME,
                 Constants.CONNECTION_HEADER_VALUE)) {
             resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
@@ -123,7 +126,28 @@ public class UpgradeUtil {
                 sec.getSubprotocols(), subProtocols);
 
         // Extensions
-        // Currently no extensions are supported by this implementation
+        // The only extension supported is permessage-deflate. The offers are
+        // filtered by the configurator then the first usable one is accepted.
+        List<Extension> offers = new ArrayList<Extension>();
+        Enumeration<String> extensionHeaders =
+                req.getHeaders(Constants.WS_EXTENSIONS_HEADER_NAME);
+        while (extensionHeaders.hasMoreElements()) {
+            Util.parseExtensionHeader(offers, extensionHeaders.nextElement());
+        }
+        if (!offers.isEmpty()) {
+            List<Extension> installed =
+                    new ArrayList<Extension>(sc.getInstalledExtensions());
+            List<Extension> negotiated =
+                    sec.getConfigurator().getNegotiatedExtensions(installed, offers);
+            perMessageDeflate = PerMessageDeflate.negotiate(negotiated,
+                    sc.isServerNoContextTakeover(),
+                    sc.isClientNoContextTakeover(),
+                    sc.getClientMaxWindowBits());
+            if (perMessageDeflate != null) {
+                extensions = Collections.singletonList(
+                        perMessageDeflate.getExtension());
+            }
+        }
 
         // If we got this far, all is good. Accept the connection.
         resp.setHeader(Constants.UPGRADE_HEADER_NAME,
@@ -140,12 +164,12 @@ public class UpgradeUtil {
             StringBuilder sb = new StringBuilder();
             Iterator<Extension> iter = extensions.iterator();
             // There must be at least one
-            sb.append(iter.next());
+            Util.appendExtension(sb, iter.next());
             while (iter.hasNext()) {
                 sb.append(',');
-                sb.append(iter.next().getName());
+                Util.appendExtension(sb, iter.next());
             }
-            resp.setHeader("Sec-WebSocket-Extensions", sb.toString());
+            resp.setHeader(Constants.WS_EXTENSIONS_HEADER_NAME, sb.toString());
         }
 
         WsHandshakeRequest wsRequest = new WsHandshakeRequest(req);
@@ -187,7 +211,7 @@ public class UpgradeUtil {
             WsHttpUpgradeHandler wsHandler =
                     ((RequestFacade) inner).upgrade(WsHttpUpgradeHandler.class);
             wsHandler.preInit(ep, perSessionServerEndpointConfig, sc, wsRequest,
-                    subProtocol, pathParams, req.isSecure());
+                    subProtocol, pathParams, req.isSecure(), perMessageDeflate);
         } else {
             throw new ServletException(MESSAGES.upgradeFailed());
         }
@@ -35,6 +35,7 @@ import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.servlet31.ReadListener;
 import org.apache.coyote.http11.upgrade.servlet31.WebConnection;
 import org.apache.coyote.http11.upgrade.servlet31.WriteListener;
+import org.apache.tomcat.websocket.PerMessageDeflate;
 import org.apache.tomcat.websocket.WsIOException;
 import org.apache.tomcat.websocket.WsSession;
 import org.jboss.web.WebsocketsLogger;
@@ -51,6 +52,7 @@ public class WsHttpUpgradeHandler implements HttpUpgradeHandler {
     private String subProtocol;
     private Map<String,String> pathParameters;
     private boolean secure;
+    private PerMessageDeflate perMessageDeflate;
     private WebConnection connection;
 
     private WsSession wsSession;
@@ -63,7 +65,7 @@ public class WsHttpUpgradeHandler implements HttpUpgradeHandler {
     public void preInit(Endpoint ep, EndpointConfig endpointConfig,
             WsServerContainer wsc, WsHandshakeRequest handshakeRequest,
             String subProtocol, Map<String,String> pathParameters,
-            boolean secure) {
+            boolean secure, PerMessageDeflate perMessageDeflate) {
         this.ep = ep;
         this.endpointConfig = endpointConfig;
         this.webSocketContainer = wsc;
@@ -71,6 +73,7 @@ public class WsHttpUpgradeHandler implements HttpUpgradeHandler {
         this.subProtocol = subProtocol;
         this.pathParameters = pathParameters;
         this.secure = secure;
+        this.perMessageDeflate = perMessageDeflate;
     }
 
 
@@ -105,7 +108,8 @@ public class WsHttpUpgradeHandler implements HttpUpgradeHandler {
                     handshakeRequest.getParameterMap(),
                     handshakeRequest.getQueryString(),
                     handshakeRequest.getUserPrincipal(), httpSessionId,
-                    subProtocol, pathParameters, secure, endpointConfig);
+                    subProtocol, pathParameters, secure, endpointConfig,
+                    perMessageDeflate);
             WsFrameServer wsFrame = new WsFrameServer(
                     sis,
                     wsSession);
@@ -108,6 +108,28 @@ public class WsServerContainer extends WsWebSocketContainer
         if (value != null) {
             setEnforceNoAddAfterHandshake(Boolean.parseBoolean(value));
         }
+
+        // permessage-deflate config
+        value = servletContext.getInitParameter(
+                Constants.PER_MESSAGE_DEFLATE_INIT_PARAM);
+        if (value != null) {
+            setPerMessageDeflate(Boolean.parseBoolean(value));
+        }
+        value = servletContext.getInitParameter(
+                Constants.SERVER_NO_CONTEXT_TAKEOVER_INIT_PARAM);
+        if (value != null) {
+            setServerNoContextTakeover(Boolean.parseBoolean(value));
+        }
+        value = servletContext.getInitParameter(
+                Constants.CLIENT_NO_CONTEXT_TAKEOVER_INIT_PARAM);
+        if (value != null) {
+            setClientNoContextTakeover(Boolean.parseBoolean(value));
+        }
+        value = servletContext.getInitParameter(
+                Constants.CLIENT_MAX_WINDOW_BITS_INIT_PARAM);
+        if (value != null) {
+            setClientMaxWindowBits(Integer.parseInt(value));
+        }
         // Executor config
         int executorCoreSize = 0;
         int executorMaxSize = 10;
@@ -693,4 +693,16 @@ public interface CatalinaLogger extends BasicLogger {
     @Message(id = 1151, value = "Deserialization error")
     void deserializationError(@Cause Throwable t);
 
+    @LogMessage(level = WARN)
+    @Message(id = 1152, value = "Access log queue is full, %s entries were dropped")
+    void droppedAccessLogEntries(long count);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 1153, value = "Error writing access log entries")
+    void errorWritingAccessLog(@Cause Throwable t);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1154, value = "Background processing of [%s] took %s ms, over its budget of %s ms")
+    void backgroundProcessingOverBudget(Object container, long time, long budget);
+
 }
@@ -1023,4 +1023,16 @@ public interface CatalinaMessages {
     @Message(id = 377, value = "Error getting keys")
     String errorGettingKeys();
 
+    @Message(id = 378, value = "Unknown access log overflow policy %s, must be one of block, drop or count")
+    IllegalArgumentException unknownAccessLogOverflowPolicy(String policy);
+
+    @Message(id = 379, value = "JDBC Store DataSource %s lookup failed")
+    String jdbcStoreDataSourceLookupFailed(String name);
+
+    @Message(id = 380, value = "Timed out after %s ms waiting for an instance of servlet %s")
+    String servletAllocateTimeout(long timeout, String name);
+
+    @Message(id = 381, value = "Timed out after %s ms waiting for a database connection")
+    String jdbcStoreConnectionTimeout(long timeout);
+
 }
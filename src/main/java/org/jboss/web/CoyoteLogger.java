@@ -60,6 +60,11 @@ public interface CoyoteLogger extends BasicLogger {
      */
     CoyoteLogger HTTP_LOGGER = Logger.getMessageLogger(CoyoteLogger.class, "org.apache.coyote.http11");
 
+    /**
+     * A logger with the category of the package name.
+     */
+    CoyoteLogger HTTP2_LOGGER = Logger.getMessageLogger(CoyoteLogger.class, "org.apache.coyote.http2");
+
     /**
      * A logger with the category of the package name.
      */
@@ -504,4 +509,16 @@ public interface CoyoteLogger extends BasicLogger {
     @Message(id = 3105, value = "Socket accept failed")
     void warnAcceptingSocket(@Cause Throwable exception);
 
+    @LogMessage(level = DEBUG)
+    @Message(id = 3106, value = "Closing HTTP/2 connection with error code %s")
+    void http2ConnectionError(int error, @Cause Throwable exception);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 3107, value = "Error processing HTTP/2 stream %s")
+    void http2StreamError(int streamId, @Cause Throwable exception);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 3108, value = "Error writing to HTTP/2 connection")
+    void http2WriteError(@Cause Throwable exception);
+
 }
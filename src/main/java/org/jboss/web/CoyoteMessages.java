@@ -283,4 +283,40 @@ public interface CoyoteMessages {
     @Message(id = 2081, value = "No cipher match")
     String noCipherMatch();
 
+    @Message(id = 2082, value = "Invalid HTTP/2 connection preface")
+    String http2InvalidPreface();
+
+    @Message(id = 2083, value = "Invalid size %s for HTTP/2 frame type %s")
+    String http2InvalidFrameSize(int size, int type);
+
+    @Message(id = 2084, value = "HTTP/2 frame type %s is not allowed on stream %s")
+    String http2UnexpectedFrame(int type, int streamId);
+
+    @Message(id = 2085, value = "HTTP/2 flow control window exceeded on stream %s")
+    String http2FlowControlError(int streamId);
+
+    @Message(id = 2086, value = "Invalid HPACK header block")
+    String http2InvalidHeaderBlock();
+
+    @Message(id = 2087, value = "HPACK header table index %s is out of range")
+    String http2InvalidHeaderIndex(int index);
+
+    @Message(id = 2088, value = "Invalid value %s for HTTP/2 setting %s")
+    String http2InvalidSetting(long value, int setting);
+
+    @Message(id = 2089, value = "HTTP/2 stream %s was reset with error code %s")
+    String http2StreamReset(int streamId, int error);
+
+    @Message(id = 2090, value = "HTTP/2 connection closed")
+    String http2ConnectionClosed();
+
+    @Message(id = 2091, value = "Malformed HTTP/2 request on stream %s")
+    String http2MalformedRequest(int streamId);
+
+    @Message(id = 2092, value = "Timed out waiting for the HTTP/2 flow control window on stream %s")
+    String http2WindowTimeout(int streamId);
+
+    @Message(id = 2093, value = "Timed out waiting for HTTP/2 request data on stream %s")
+    String http2ReadTimeout(int streamId);
+
 }
@@ -192,4 +192,40 @@ public interface JasperLogger extends BasicLogger {
     @Message(id = 5034, value = "Error loading core class")
     void errorLoadingCoreClass(@Cause Throwable t);
 
+    @LogMessage(level = WARN)
+    @Message(id = 5035, value = "Invalid %s value for the initParam precompile. Will use the default value of \"false\"")
+    void invalidPrecompileValue(String value);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5036, value = "Invalid %s value for the initParam precompileThreads. Will use the number of processors")
+    void invalidPrecompileThreadsValue(String value);
+
+    @LogMessage(level = INFO)
+    @Message(id = 5037, value = "Compiled %s of %s JSP pages in %s ms, %s failed")
+    void precompiledPages(int compiled, int total, long time, int failed);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 5038, value = "Compiled JSP page %s in %s ms, generation %s ms and class compilation %s ms")
+    void precompiledPage(String jspUri, long time, long generationTime, long compilationTime);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 5039, value = "Failed compiling JSP page %s")
+    void failedPrecompilingPage(String jspUri, @Cause Throwable t);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5040, value = "Invalid %s value for the initParam maxLoadedJsps. Will use the default value of \"-1\"")
+    void invalidMaxLoadedJspsValue(String value);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5041, value = "Invalid %s value for the initParam jspIdleTimeout. Will use the default value of \"-1\"")
+    void invalidJspIdleTimeoutValue(String value);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 5042, value = "Unloading JSP page %s")
+    void unloadingJsp(String jspUri);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5043, value = "Invalid %s value for the initParam genStringAsByteArray. Will use the default value of \"false\"")
+    void invalidGenStrAsByteArrayValue(String value);
+
 }
@@ -308,4 +308,13 @@ public interface WebsocketsMessages {
     @Message(id = 8590, value = "Closing session following IO error")
     String closeAfterError();
 
+    @Message(id = 8591, value = "The compressed data of a permessage-deflate message is not valid")
+    String invalidCompressedData();
+
+    @Message(id = 8592, value = "The server accepted the permessage-deflate extension with parameters [%s] which are not supported by this client")
+    String unsupportedPerMessageDeflateResponse(String extension);
+
+    @Message(id = 8593, value = "The window size [%s] is not between 8 and 15 bits")
+    IllegalArgumentException invalidWindowBits(int bits);
+
 }
@@ -20,6 +20,7 @@ package org.jboss.web.rewrite;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,14 +30,55 @@ import java.util.regex.Pattern;
  */
 public class RewriteRule {
     
+    /**
+     * The pattern has to be evaluated as a regular expression, after checking
+     * its literal prefix.
+     */
+    public static final int MATCH_REGEX = 0;
+    
+    /**
+     * The pattern is a literal.
+     */
+    public static final int MATCH_LITERAL = 1;
+    
+    /**
+     * The pattern is a literal prefix followed by ".*" or ".+".
+     */
+    public static final int MATCH_PREFIX = 2;
+    
+    /**
+     * The pattern is ".*" followed by a literal suffix.
+     */
+    public static final int MATCH_SUFFIX = 3;
+    
     protected RewriteCond[] conditions = new RewriteCond[0];
     
-    protected ThreadLocal<Pattern> pattern = new ThreadLocal<Pattern>();
+    protected ThreadLocal<Matcher> matcher = new ThreadLocal<Matcher>();
     protected Substitution substitution = null;
     
     protected String patternString = null;
     protected String substitutionString = null;
     
+    /**
+     * How the pattern can be matched without a regular expression, and the
+     * literals it starts or ends with.
+     */
+    protected int matchType = MATCH_REGEX;
+    protected String literalPrefix = "";
+    protected String literalSuffix = "";
+    protected int minLength = 0;
+    
+    /**
+     * True if the groups of the rule pattern are used, so that the regular
+     * expression has to be evaluated even if the match is known.
+     */
+    protected boolean needsMatcher = true;
+    
+    /**
+     * Number of times the rule matched.
+     */
+    protected final AtomicLong hits = new AtomicLong();
+    
     public void parse(Map<String, RewriteMap> maps) {
         // Parse the substitution
         if (!"-".equals(substitutionString)) {
@@ -50,9 +92,12 @@ public class RewriteRule {
             flags |= Pattern.CASE_INSENSITIVE;
         }
         Pattern.compile(patternString, flags);
+        analyzePattern();
+        needsMatcher = (substitution != null && substitution.hasRuleBackReference());
         // Parse conditions
         for (int i = 0; i < conditions.length; i++) {
             conditions[i].parse(maps);
+            needsMatcher |= conditions[i].test.hasRuleBackReference();
         }
         // Parse flag which have substitution values
         if (isEnv()) {
@@ -62,15 +107,188 @@ public class RewriteRule {
                 newEnvSubstitution.parse(maps);
                 envSubstitution.add(newEnvSubstitution);
                 envResult.add(new ThreadLocal<String>());
+                needsMatcher |= newEnvSubstitution.hasRuleBackReference();
             }
         }
         if (isCookie()) {
             cookieSubstitution = new Substitution();
             cookieSubstitution.setSub(cookieValue);
             cookieSubstitution.parse(maps);
+            needsMatcher |= cookieSubstitution.hasRuleBackReference();
         }
     }
     
+    /**
+     * Find how the pattern can be matched without a regular expression. As
+     * the whole URL has to match, a leading '^' and a trailing '$' have no
+     * effect. The literal characters at the start of the pattern are its
+     * prefix, unless the pattern has alternatives at its top level. A case
+     * insensitive pattern only ignores the case of US-ASCII characters.
+     */
+    protected void analyzePattern() {
+        matchType = MATCH_REGEX;
+        literalPrefix = "";
+        literalSuffix = "";
+        minLength = 0;
+        if (hasTopLevelAlternation(patternString)) {
+            return;
+        }
+        int start = patternString.startsWith("^") ? 1 : 0;
+        StringBuilder literal = new StringBuilder();
+        int end = readLiteral(patternString, start, literal);
+        literalPrefix = literal.toString();
+        minLength = literalPrefix.length();
+        String rest = patternString.substring(end);
+        if (rest.equals("") || rest.equals("$")) {
+            matchType = MATCH_LITERAL;
+        } else if (isAny(rest, false)) {
+            matchType = MATCH_PREFIX;
+        } else if (isAny(rest, true)) {
+            matchType = MATCH_PREFIX;
+            minLength++;
+        } else if (literalPrefix.length() == 0) {
+            // Suffix
+            int literalStart;
+            if (rest.startsWith(".*")) {
+                literalStart = 2;
+            } else if (rest.startsWith("(.*)")) {
+                literalStart = 4;
+            } else {
+                return;
+            }
+            end = literalStart + readLiteral(rest.substring(literalStart), 0, literal);
+            if (literal.length() > 0 && (end == rest.length()
+                    || (end == rest.length() - 1 && rest.charAt(end) == '$'))) {
+                matchType = MATCH_SUFFIX;
+                literalSuffix = literal.toString();
+                minLength = literalSuffix.length();
+            }
+        }
+    }
+    
+    private static boolean isAny(String rest, boolean nonEmpty) {
+        String any = nonEmpty ? ".+" : ".*";
+        return rest.equals(any) || rest.equals(any + "$") 
+            || rest.equals("(" + any + ")") || rest.equals("(" + any + ")$");
+    }
+    
+    /**
+     * Read the literal characters of a pattern, stopping before any character
+     * which is followed by a quantifier.
+     * 
+     * @return the position after the literal
+     */
+    private static int readLiteral(String pattern, int pos, StringBuilder literal) {
+        literal.setLength(0);
+        while (pos < pattern.length()) {
+            char c = pattern.charAt(pos);
+            int next = pos + 1;
+            if (c == '\\') {
+                if (next == pattern.length() || Character.isLetterOrDigit(pattern.charAt(next))) {
+                    break;
+                }
+                c = pattern.charAt(next++);
+            } else if (".[](){}*+?|^$".indexOf(c) >= 0) {
+                break;
+            }
+            if (next < pattern.length() && "*+?{".indexOf(pattern.charAt(next)) >= 0) {
+                break;
+            }
+            literal.append(c);
+            pos = next;
+        }
+        return pos;
+    }
+    
+    private static boolean hasTopLevelAlternation(String pattern) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                }
+            } else if (c == '[') {
+                inClass = true;
+                // A ']' right after the opening bracket is a literal
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Check the parts of the pattern which do not need a regular expression.
+     * 
+     * @return false if the pattern cannot match, true if it may match (or
+     *         matches, unless the match type is {@link #MATCH_REGEX})
+     */
+    public boolean matchesLiterals(CharSequence value) {
+        int length = value.length();
+        if (length < minLength) {
+            return false;
+        }
+        switch (matchType) {
+        case MATCH_LITERAL:
+            return length == minLength && regionMatches(value, 0, literalPrefix);
+        case MATCH_PREFIX:
+            return regionMatches(value, 0, literalPrefix) 
+                && !hasLineTerminator(value, literalPrefix.length(), length);
+        case MATCH_SUFFIX:
+            int suffixStart = length - literalSuffix.length();
+            return regionMatches(value, suffixStart, literalSuffix)
+                && !hasLineTerminator(value, 0, suffixStart);
+        default:
+            return regionMatches(value, 0, literalPrefix);
+        }
+    }
+    
+    private boolean regionMatches(CharSequence value, int offset, String literal) {
+        int length = literal.length();
+        if (nocase) {
+            for (int i = 0; i < length; i++) {
+                if (toLowerAscii(value.charAt(offset + i)) != toLowerAscii(literal.charAt(i))) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(offset + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * '.' matches anything but a line terminator.
+     */
+    private static boolean hasLineTerminator(CharSequence value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+    
     public void addCondition(RewriteCond condition) {
         RewriteCond[] conditions = new RewriteCond[this.conditions.length + 1];
         for (int i = 0; i < this.conditions.length; i++) {
@@ -86,21 +304,28 @@ public class RewriteRule {
      * @return null if no rewrite took place
      */
     public CharSequence evaluate(CharSequence url, Resolver resolver) {
-        Pattern pattern = this.pattern.get();
-        if (pattern == null) {
-            // Parse the pattern
-            int flags = 0;
-            if (isNocase()) {
-                flags |= Pattern.CASE_INSENSITIVE;
-            }
-            pattern = Pattern.compile(patternString, flags);
-            this.pattern.set(pattern);
-        }
-        Matcher matcher = pattern.matcher(url);
-        if (!matcher.matches()) {
-            // Evaluation done
+        if (!matchesLiterals(url)) {
             return null;
         }
+        Matcher matcher = null;
+        if (matchType == MATCH_REGEX || needsMatcher) {
+            matcher = this.matcher.get();
+            if (matcher == null) {
+                // Parse the pattern
+                int flags = 0;
+                if (isNocase()) {
+                    flags |= Pattern.CASE_INSENSITIVE;
+                }
+                matcher = Pattern.compile(patternString, flags).matcher(url);
+                this.matcher.set(matcher);
+            } else {
+                matcher.reset(url);
+            }
+            if (!matcher.matches()) {
+                // Evaluation done
+                return null;
+            }
+        }
         // Evaluate conditions
         boolean done = false;
         boolean rewrite = true;
@@ -127,6 +352,7 @@ public class RewriteRule {
         }
         // Use the substitution to rewrite the url
         if (rewrite) {
+            hits.incrementAndGet();
             if (isEnv()) {
                 for (int i = 0; i < envSubstitution.size(); i++) {
                     envResult.get(i).set(envSubstitution.get(i).evaluate(matcher, lastMatcher, resolver));
@@ -534,5 +760,21 @@ public class RewriteRule {
     public void setCookieHttpOnly(boolean cookieHttpOnly) {
         this.cookieHttpOnly = cookieHttpOnly;
     }
+
+    public int getMatchType() {
+        return matchType;
+    }
+
+    public String getLiteralPrefix() {
+        return literalPrefix;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public void resetHits() {
+        hits.set(0);
+    }
     
 }
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.rewrite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Index of a set of rewrite rules by the literal prefix of their pattern, so
+ * that only the rules which may match a URL or a host have to be evaluated.
+ * The prefixes are stored in tries, one for the rules applying to the URL and
+ * one for the rules applying to the host, with separate tries for the case
+ * insensitive rules. Rules without a literal prefix are always candidates.
+ */
+public class RewriteRuleIndex {
+
+    protected static class Node {
+        protected char[] chars = new char[0];
+        protected Node[] children = new Node[0];
+        protected int[] rules = new int[0];
+
+        protected Node child(char c) {
+            int pos = Arrays.binarySearch(chars, c);
+            return (pos >= 0) ? children[pos] : null;
+        }
+
+        protected Node addChild(char c) {
+            int pos = Arrays.binarySearch(chars, c);
+            if (pos >= 0) {
+                return children[pos];
+            }
+            pos = -pos - 1;
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newChars[pos] = c;
+            newChildren[pos] = new Node();
+            System.arraycopy(chars, pos, newChars, pos + 1, chars.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            chars = newChars;
+            children = newChildren;
+            return newChildren[pos];
+        }
+
+        protected void addRule(int rule) {
+            rules = Arrays.copyOf(rules, rules.length + 1);
+            rules[rules.length - 1] = rule;
+        }
+    }
+
+
+    protected final RewriteRule[] rules;
+
+    /**
+     * Rules which are candidates for any URL and host.
+     */
+    protected final int[] always;
+
+    protected final Node url = new Node();
+    protected final Node urlNocase = new Node();
+    protected final Node host = new Node();
+    protected final Node hostNocase = new Node();
+
+    /**
+     * Candidate flags, reused by each thread.
+     */
+    protected ThreadLocal<boolean[]> candidates = new ThreadLocal<boolean[]>();
+
+
+    public RewriteRuleIndex(RewriteRule[] rules) {
+        this.rules = rules;
+        ArrayList<Integer> always = new ArrayList<Integer>();
+        for (int i = 0; i < rules.length; i++) {
+            String prefix = rules[i].getLiteralPrefix();
+            if (prefix.length() == 0) {
+                always.add(Integer.valueOf(i));
+                continue;
+            }
+            Node node;
+            if (rules[i].isHost()) {
+                node = rules[i].isNocase() ? hostNocase : host;
+            } else {
+                node = rules[i].isNocase() ? urlNocase : url;
+            }
+            for (int j = 0; j < prefix.length(); j++) {
+                char c = prefix.charAt(j);
+                node = node.addChild(rules[i].isNocase() ? RewriteRule.toLowerAscii(c) : c);
+            }
+            node.addRule(i);
+        }
+        this.always = new int[always.size()];
+        for (int i = 0; i < this.always.length; i++) {
+            this.always[i] = always.get(i).intValue();
+        }
+    }
+
+
+    public RewriteRule[] getRules() {
+        return rules;
+    }
+
+
+    /**
+     * Find the rules which may match the specified URL and host.
+     *
+     * @return a flag for each rule, true if the rule has to be evaluated; the
+     *         array is reused by the next selection done by the thread
+     */
+    public boolean[] select(CharSequence urlValue, CharSequence hostValue) {
+        boolean[] result = candidates.get();
+        if (result == null) {
+            result = new boolean[rules.length];
+            candidates.set(result);
+        } else {
+            Arrays.fill(result, false);
+        }
+        for (int i = 0; i < always.length; i++) {
+            result[always[i]] = true;
+        }
+        select(url, urlValue, false, result);
+        select(urlNocase, urlValue, true, result);
+        if (hostValue != null) {
+            select(host, hostValue, false, result);
+            select(hostNocase, hostValue, true, result);
+        }
+        return result;
+    }
+
+
+    /**
+     * Flag the rules of all the nodes along the path of the value.
+     */
+    protected static void select(Node node, CharSequence value, boolean nocase, boolean[] result) {
+        int length = value.length();
+        for (int i = 0; node != null; i++) {
+            for (int j = 0; j < node.rules.length; j++) {
+                result[node.rules[j]] = true;
+            }
+            if (i == length) {
+                break;
+            }
+            char c = value.charAt(i);
+            node = node.child(nocase ? RewriteRule.toLowerAscii(c) : c);
+        }
+    }
+
+}
@@ -71,6 +71,12 @@ public class RewriteValve extends ValveBase
     protected RewriteRule[] rules = null;
     
     
+    /**
+     * Index of the rules by literal prefix.
+     */
+    protected RewriteRuleIndex index = null;
+    
+    
     /**
      * If rewriting occurs, the whole request will be processed again.
      */
@@ -184,6 +190,30 @@ public class RewriteValve extends ValveBase
         parse(new BufferedReader(new StringReader(configuration)));
     }
     
+    /**
+     * Return the number of times each rule matched.
+     */
+    public String[] getRuleHits() {
+        RewriteRule[] rules = this.rules;
+        if (rules == null) {
+            return new String[0];
+        }
+        String[] result = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            result[i] = rules[i].getHits() + " " + rules[i].toString();
+        }
+        return result;
+    }
+    
+    public void resetRuleHits() {
+        RewriteRule[] rules = this.rules;
+        if (rules != null) {
+            for (int i = 0; i < rules.length; i++) {
+                rules[i].resetHits();
+            }
+        }
+    }
+    
     public String getConfiguration() {
         StringBuffer buffer = new StringBuffer();
         // FIXME: Output maps if possible
@@ -250,6 +280,7 @@ public class RewriteValve extends ValveBase
         for (int i = 0; i < this.rules.length; i++) {
             this.rules[i].parse(maps);
         }
+        this.index = new RewriteRuleIndex(this.rules);
     }
 
     public void stop() throws LifecycleException {
@@ -262,16 +293,19 @@ public class RewriteValve extends ValveBase
         }
         maps.clear();
         rules = null;
+        index = null;
     }
 
 
     public void invoke(Request request, Response response)
         throws IOException, ServletException {
 
-        if (rules == null || rules.length == 0) {
+        RewriteRuleIndex index = this.index;
+        if (index == null || index.getRules().length == 0) {
             getNext().invoke(request, response);
             return;
         }
+        RewriteRule[] rules = index.getRules();
         
         if (invoked.get() == Boolean.TRUE) {
             getNext().invoke(request, response);
@@ -291,9 +325,18 @@ public class RewriteValve extends ValveBase
         CharSequence host = request.getServerName();
         boolean rewritten = false;
         boolean done = false;
+        boolean[] candidates = null;
+        CharSequence selectedUrl = null;
+        CharSequence selectedHost = null;
         for (int i = 0; i < rules.length; i++) {
+            // Only evaluate the rules which may match the current URL and host
+            if (url != selectedUrl || host != selectedHost) {
+                candidates = index.select(url, host);
+                selectedUrl = url;
+                selectedHost = host;
+            }
             CharSequence test = (rules[i].isHost()) ? host : url;
-            CharSequence newtest = rules[i].evaluate(test, resolver);
+            CharSequence newtest = candidates[i] ? rules[i].evaluate(test, resolver) : null;
             if (newtest != null && !test.equals(newtest.toString())) {
                 if (container.getLogger().isDebugEnabled()) {
                     container.getLogger().debug("Rewrote " + test + " as " + newtest
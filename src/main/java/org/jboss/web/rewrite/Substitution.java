@@ -99,6 +99,11 @@ public class Substitution {
     
     protected SubstitutionElement[] elements = null;
 
+    /**
+     * Buffer used to concatenate the elements, reused by each thread.
+     */
+    protected ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>();
+
     protected String sub = null;
     public String getSub() { return sub; }
     public void setSub(String sub) { this.sub = sub; }
@@ -229,11 +234,37 @@ public class Substitution {
      * @return
      */
     public String evaluate(Matcher rule, Matcher cond, Resolver resolver) {
-        StringBuffer buf = new StringBuffer();
+        if (elements.length == 1) {
+            return String.valueOf(elements[0].evaluate(rule, cond, resolver));
+        }
+        StringBuilder buf = buffer.get();
+        if (buf == null) {
+            buf = new StringBuilder();
+            buffer.set(buf);
+        }
+        buf.setLength(0);
         for (int i = 0; i < elements.length; i++) {
             buf.append(elements[i].evaluate(rule, cond, resolver));
         }
-        return buf.toString();
+        String result = buf.toString();
+        if (buf.capacity() > 1024) {
+            // Don't keep a large buffer around
+            buffer.remove();
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the substitution uses a back reference to the rule
+     *         pattern
+     */
+    public boolean hasRuleBackReference() {
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] instanceof RewriteRuleBackReferenceElement) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOutputBufferMark {
+
+    private ByteArrayOutputStream sent;
+    private OutputBuffer ob;
+
+    @Before
+    public void setUp() {
+        sent = new ByteArrayOutputStream();
+        org.apache.coyote.Response coyoteResponse = new org.apache.coyote.Response();
+        coyoteResponse.setOutputBuffer(new org.apache.coyote.OutputBuffer() {
+            public int doWrite(ByteChunk chunk, org.apache.coyote.Response response) {
+                sent.write(chunk.getBytes(), chunk.getStart(), chunk.getLength());
+                return chunk.getLength();
+            }
+        });
+        ob = new OutputBuffer(null, 16);
+        ob.setResponse(coyoteResponse);
+    }
+
+    private static byte[] encode(String s) throws IOException {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    @Test
+    public void testDiscardAfterMark() throws Exception {
+        ob.write("abc");
+        long mark = ob.mark();
+        assertTrue(ob.writeEncoded(encode("def"), 0, 3, "ISO-8859-1"));
+        ob.write("ghi");
+        assertEquals(9, ob.getContentWritten());
+
+        assertTrue(ob.discard(mark));
+        assertEquals(3, ob.getContentWritten());
+        ob.write("jkl");
+        ob.flush();
+        assertEquals("abcjkl", sent.toString("ISO-8859-1"));
+    }
+
+    @Test
+    public void testDiscardFailsOnceSent() throws Exception {
+        long mark = ob.mark();
+        assertEquals(0, mark);
+        // Larger than the buffer
+        assertTrue(ob.writeEncoded(encode("abcdefghijklmnopqrst"), 0, 20, "ISO-8859-1"));
+        assertTrue(sent.size() > 0);
+
+        assertFalse(ob.discard(mark));
+        assertEquals(20, ob.getContentWritten());
+        ob.flush();
+        assertEquals("abcdefghijklmnopqrst", sent.toString("ISO-8859-1"));
+
+        // Marks are positions in the whole output
+        assertEquals(20, ob.mark());
+    }
+
+    @Test
+    public void testWriteEncodedWithAnotherCharset() throws Exception {
+        assertFalse(ob.writeEncoded(encode("abc"), 0, 3, "UTF-16"));
+        assertEquals(0, ob.getContentWritten());
+
+        // Chars written before the bytes are converted first
+        ob.write("ab");
+        assertTrue(ob.writeEncoded(encode("cd"), 0, 2, "iso-8859-1"));
+        ob.flush();
+        assertEquals("abcd", sent.toString("ISO-8859-1"));
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Container;
+import org.junit.Test;
+
+public class TestContainerBackgroundProcessor {
+
+    /**
+     * Container with fixed children, which does not process anything by
+     * itself.
+     */
+    private static class TestContainer extends ContainerBase {
+
+        protected Container[] fixedChildren = new Container[0];
+
+        public Container[] findChildren() {
+            return fixedChildren;
+        }
+
+        public void backgroundProcess() {
+        }
+
+    }
+
+    /**
+     * Wrapper whose background processing is recorded and takes the
+     * specified time.
+     */
+    private static StandardWrapper createWrapper(final String name,
+            final long time, final List<String> processed) {
+        StandardWrapper wrapper = new StandardWrapper() {
+            public void backgroundProcess() {
+                synchronized (processed) {
+                    processed.add(name);
+                }
+                try {
+                    Thread.sleep(time);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        wrapper.setName(name);
+        return wrapper;
+    }
+
+    @Test
+    public void testRunIsSkippedWhilePreviousRunIsActive() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TestContainer container = new TestContainer() {
+            public void backgroundProcess() {
+                running.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // Runs are triggered by the test only
+        container.setBackgroundProcessorDelay(3600);
+        ContainerBase.ContainerBackgroundProcessor processor =
+            container.new ContainerBackgroundProcessor();
+        processor.start();
+        try {
+            processor.run();
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            processor.run();
+            assertEquals(1, container.getBackgroundProcessSkippedCount());
+        } finally {
+            release.countDown();
+            processor.stop();
+        }
+        assertEquals(1, container.getBackgroundProcessCount());
+    }
+
+    @Test
+    public void testBudgetResumesAtNextWrapper() throws Exception {
+        List<String> processed = new ArrayList<String>();
+        TestContainer container = new TestContainer();
+        container.fixedChildren = new Container[] {
+            createWrapper("w0", 30, processed),
+            createWrapper("w1", 30, processed),
+            createWrapper("w2", 30, processed),
+            createWrapper("w3", 30, processed)
+        };
+        // Each wrapper exceeds the budget
+        container.setBackgroundProcessorBudget(10);
+        ContainerBase.ContainerBackgroundProcessor processor =
+            container.new ContainerBackgroundProcessor();
+        for (int i = 0; i < 5; i++) {
+            processor.processTask(container);
+        }
+        assertEquals(Arrays.asList("w0", "w1", "w2", "w3", "w0"), processed);
+
+        // Without a budget, all the wrappers are processed in each run
+        processed.clear();
+        container.setBackgroundProcessorBudget(0);
+        processor.processTask(container);
+        assertEquals(Arrays.asList("w1", "w2", "w3", "w0"), processed);
+        processed.clear();
+        processor.processTask(container);
+        assertEquals(Arrays.asList("w0", "w1", "w2", "w3"), processed);
+    }
+
+    @Test
+    public void testStopFromOwnTask() throws Exception {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final ContainerBase.ContainerBackgroundProcessor[] processor =
+            new ContainerBase.ContainerBackgroundProcessor[1];
+        TestContainer container = new TestContainer() {
+            public void backgroundProcess() {
+                calls.incrementAndGet();
+                // Such as a context reloading itself
+                processor[0].stop();
+                stopped.countDown();
+            }
+        };
+        container.setBackgroundProcessorDelay(3600);
+        processor[0] = container.new ContainerBackgroundProcessor();
+        processor[0].start();
+        processor[0].run();
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        // The task is not submitted again
+        processor[0].run();
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testExecutorsAreReleasedAndReacquired() throws Exception {
+        TestContainer container = new TestContainer();
+        container.setBackgroundProcessorDelay(3600);
+        ContainerBase.ContainerBackgroundProcessor first =
+            container.new ContainerBackgroundProcessor();
+        ContainerBase.ContainerBackgroundProcessor second =
+            container.new ContainerBackgroundProcessor();
+        first.start();
+        second.start();
+        assertSame(first.pool, second.pool);
+        assertSame(first.scheduler, second.scheduler);
+
+        // The executors are kept while a processor uses them
+        first.stop();
+        assertFalse(second.pool.isShutdown());
+        assertFalse(second.scheduler.isShutdown());
+        second.stop();
+        assertTrue(second.pool.isShutdown());
+        assertTrue(second.scheduler.isShutdown());
+
+        // New executors are created for the next processor
+        ContainerBase.ContainerBackgroundProcessor third =
+            container.new ContainerBackgroundProcessor();
+        third.start();
+        try {
+            assertNotSame(first.pool, third.pool);
+            assertFalse(third.pool.isShutdown());
+            assertFalse(third.scheduler.isShutdown());
+        } finally {
+            third.stop();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.catalina.deploy.FilterMap;
+import org.junit.Test;
+
+public class TestFilterChainCache {
+
+    private static FilterMap map(String... urlPatterns) {
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("filter");
+        for (String urlPattern : urlPatterns) {
+            filterMap.addURLPattern(urlPattern);
+        }
+        return filterMap;
+    }
+
+    @Test
+    public void testPathClass() {
+        FilterChainCache cache = new FilterChainCache(new FilterMap[] {
+                map("*"), map("/*"), map("/exact"), map("/admin/*"),
+                map("*.jsp", "/a/b/*"), map("/a/*") });
+        assertEquals(0x01, cache.getPathClass(null));
+        assertEquals(0x03, cache.getPathClass("/other"));
+        assertEquals(0x07, cache.getPathClass("/exact"));
+        assertEquals(0x0B, cache.getPathClass("/admin"));
+        assertEquals(0x0B, cache.getPathClass("/admin/users"));
+        assertEquals(0x03, cache.getPathClass("/administration"));
+        assertEquals(0x13, cache.getPathClass("/page.jsp"));
+        assertEquals(0x03, cache.getPathClass("/page.jspx"));
+        assertEquals(0x03, cache.getPathClass("/dir.jsp/page"));
+        assertEquals(0x33, cache.getPathClass("/a/b/c/page.jsp"));
+        assertEquals(0x33, cache.getPathClass("/a/b"));
+        assertEquals(0x23, cache.getPathClass("/a/bc"));
+    }
+
+    @Test
+    public void testKey() {
+        FilterChainCache cache = new FilterChainCache(new FilterMap[] { map("/a/*") });
+        long request = cache.getKey("/a/x", FilterMap.REQUEST, false);
+        assertEquals(request, cache.getKey("/a/y", FilterMap.REQUEST, false));
+        assertFalse(request == cache.getKey("/a/y", FilterMap.FORWARD, false));
+        assertFalse(request == cache.getKey("/a/y", FilterMap.REQUEST, true));
+        assertFalse(request == cache.getKey("/b", FilterMap.REQUEST, false));
+        assertEquals(cache.getKey("/a", -1, false), cache.getKey("/a", 3, false));
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.GenericServlet;
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.SingleThreadModel;
+
+import org.junit.Test;
+
+public class TestStandardWrapperPool {
+
+    @SuppressWarnings("deprecation")
+    private static final class StmServlet extends GenericServlet
+        implements SingleThreadModel {
+        public void service(ServletRequest request, ServletResponse response) {
+        }
+    }
+
+    /**
+     * Wrapper with a single thread model pool, which creates its instances
+     * without a parent context.
+     */
+    private static StandardWrapper createWrapper(int maxInstances) {
+        StandardWrapper wrapper = new StandardWrapper() {
+            public synchronized Servlet loadServlet() {
+                return new StmServlet();
+            }
+        };
+        wrapper.setMaxInstances(maxInstances);
+        wrapper.instance = new StmServlet();
+        wrapper.singleThreadModel = true;
+        wrapper.instancePermits = new StandardWrapper.InstancePermits(maxInstances);
+        wrapper.instancePool = new ConcurrentLinkedQueue<Servlet>();
+        return wrapper;
+    }
+
+    @Test
+    public void testAllocationsAreBoundedByMaxInstances() throws Exception {
+        final int maxInstances = 3;
+        final StandardWrapper wrapper = createWrapper(maxInstances);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[12];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 20; j++) {
+                            Servlet servlet = wrapper.allocate();
+                            int current = active.incrementAndGet();
+                            int max = maxActive.get();
+                            while (current > max && !maxActive.compareAndSet(max, current)) {
+                                max = maxActive.get();
+                            }
+                            Thread.sleep(1);
+                            active.decrementAndGet();
+                            wrapper.deallocate(servlet);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(maxActive.get() <= maxInstances);
+        assertTrue(wrapper.nInstances.get() <= maxInstances);
+        assertEquals(0, wrapper.getCountAllocated());
+        assertTrue(wrapper.getAllocateWaitCount() > 0);
+    }
+
+    @Test
+    public void testWaiterIsWokenOnDeallocate() throws Exception {
+        final StandardWrapper wrapper = createWrapper(1);
+        Servlet first = wrapper.allocate();
+
+        final AtomicReference<Servlet> allocated = new AtomicReference<Servlet>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    allocated.set(wrapper.allocate());
+                } catch (Exception e) {
+                    // The assertions below fail
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        waiter.start();
+
+        // The only instance is allocated, so the waiter blocks
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        wrapper.deallocate(first);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertSame(first, allocated.get());
+        assertEquals(1, wrapper.nInstances.get());
+        assertEquals(1, wrapper.getCountAllocated());
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the JDBC store against an in-memory Derby database.
+ */
+public class TestJDBCStore {
+
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL = "jdbc:derby:memory:jdbcstore;create=true";
+
+    private PersistentManager manager;
+    private JDBCStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName(DRIVER);
+        Connection connection = DriverManager.getConnection(URL);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP TABLE tomcat_sessions");
+        } catch (SQLException e) {
+            // The table does not exist yet
+        }
+        statement.execute("CREATE TABLE tomcat_sessions ("
+                + "id VARCHAR(100) NOT NULL, app VARCHAR(255) NOT NULL, "
+                + "data BLOB, valid CHAR(1) NOT NULL, maxinactive INT NOT NULL, "
+                + "lastaccess BIGINT NOT NULL, PRIMARY KEY (id, app))");
+        statement.close();
+        connection.close();
+
+        StandardContext context = new StandardContext();
+        context.setName("/jdbcstore");
+        manager = new PersistentManager();
+        manager.setContainer(context);
+        store = new JDBCStore();
+        store.setDriverName(DRIVER);
+        store.setConnectionURL(URL);
+        store.setSessionTable("tomcat_sessions");
+        store.setMaxConnections(4);
+        store.setBatchSize(100);
+        manager.setStore(store);
+        store.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.stop();
+    }
+
+    private Session[] createSessions(int count) {
+        Session[] sessions = new Session[count];
+        for (int i = 0; i < count; i++) {
+            StandardSession session = 
+                (StandardSession) manager.createEmptySession();
+            session.setValid(true);
+            session.setCreationTime(System.currentTimeMillis());
+            session.setMaxInactiveInterval(1800);
+            session.setId("session" + i);
+            session.setAttribute("value", "value" + i);
+            sessions[i] = session;
+        }
+        return sessions;
+    }
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        Session[] sessions = createSessions(250);
+        store.save(sessions);
+        assertEquals(250, store.getSize());
+        assertEquals(250, store.keys().length);
+
+        // Saving again replaces the stored copies
+        store.save(sessions[10]);
+        assertEquals(250, store.getSize());
+
+        StandardSession loaded = (StandardSession) store.load("session42");
+        assertNotNull(loaded);
+        assertEquals("value42", loaded.getAttribute("value"));
+
+        store.remove("session42");
+        assertNull(store.load("session42"));
+        assertEquals(249, store.getSize());
+
+        store.clear();
+        assertEquals(0, store.getSize());
+    }
+
+    @Test
+    public void testParallelLoads() throws Exception {
+        final int count = 200;
+        store.save(createSessions(count));
+
+        final AtomicInteger loaded = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = offset; j < count; j += 8) {
+                        try {
+                            StandardSession session = 
+                                (StandardSession) store.load("session" + j);
+                            if (session != null && 
+                                    ("value" + j).equals(session.getAttribute("value"))) {
+                                loaded.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(count, loaded.get());
+    }
+
+    @Test
+    public void testConnectionPermitsAreReleased() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        JDBCStore failing = new JDBCStore() {
+            protected Connection open() throws SQLException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException();
+                }
+                return (Connection) Proxy.newProxyInstance(
+                        getClass().getClassLoader(), new Class[] { Connection.class },
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                            }
+                        });
+            }
+        };
+        failing.setMaxConnections(2);
+        failing.setConnectionTimeout(1000);
+        failing.setManager(manager);
+        failing.start();
+        try {
+            // Opening a connection fails more times than there are permits
+            JDBCStore.StoreConnection first = failing.getConnection();
+            assertNotNull(first);
+            failures.set(3);
+            for (int i = 0; i < 3; i++) {
+                try {
+                    failing.getConnection();
+                    fail();
+                } catch (IllegalStateException e) {
+                    // Expected
+                }
+            }
+            failures.set(0);
+            JDBCStore.StoreConnection second = failing.getConnection();
+            assertNotNull(second);
+            // Both permits are in use
+            assertNull(failing.getConnection());
+            failing.release(first);
+            failing.release(second);
+        } finally {
+            failing.stop();
+        }
+    }
+
+    @Test
+    public void testSwapOutKeepsAccessedSessions() throws Exception {
+        final StandardSession[] accessed = new StandardSession[1];
+        PersistentManagerBase swapping = new PersistentManagerBase() {
+            protected void writeSessions(Session[] sessions) throws IOException {
+                super.writeSessions(sessions);
+                // A request uses the session while it is being written
+                accessed[0].access();
+                accessed[0].endAccess();
+            }
+        };
+        swapping.setContainer(manager.getContainer());
+        swapping.setStore(store);
+        Session[] sessions = new Session[4];
+        for (int i = 0; i < sessions.length; i++) {
+            StandardSession session = 
+                (StandardSession) swapping.createEmptySession();
+            session.setValid(true);
+            session.setCreationTime(System.currentTimeMillis() - 10000);
+            session.setMaxInactiveInterval(1800);
+            session.setId("swapped" + i);
+            session.setAttribute("value", "value" + i);
+            swapping.add(session);
+            sessions[i] = session;
+        }
+        accessed[0] = (StandardSession) sessions[2];
+
+        swapping.swapOut(sessions);
+        assertEquals(4, store.getSize());
+        assertFalse(swapping.sessions.containsKey("swapped0"));
+        assertFalse(swapping.sessions.containsKey("swapped1"));
+        assertTrue(swapping.sessions.containsKey("swapped2"));
+        assertFalse(swapping.sessions.containsKey("swapped3"));
+        assertEquals("value2", accessed[0].getAttribute("value"));
+    }
+
+    @Test
+    public void testSweepTime() throws Exception {
+        Session[] sessions = createSessions(2000);
+
+        // Warm up
+        store.save(sessions);
+        for (int i = 0; i < 100; i++) {
+            store.save(sessions[i]);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < sessions.length; i++) {
+            store.save(sessions[i]);
+        }
+        long single = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        store.save(sessions);
+        long batched = System.currentTimeMillis() - start;
+
+        assertEquals(sessions.length, store.getSize());
+        System.out.println(sessions.length + " sessions saved in " + single
+                + "ms one by one, " + batched + "ms batched");
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.Session;
+import org.junit.Test;
+
+public class TestSessionExpirationIndex {
+
+    private static StandardSession createSession(long creationTime, int maxInactiveInterval) {
+        StandardSession session = new StandardSession(null);
+        session.setValid(true);
+        session.setCreationTime(creationTime);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        return session;
+    }
+
+    @Test
+    public void testOnlyExpiredSessionsAreVisited() {
+        long now = System.currentTimeMillis();
+        SessionExpirationIndex index = new SessionExpirationIndex(1000L);
+        // Created 10s ago, expires in 30 minutes
+        StandardSession active = createSession(now - 10000L, 1800);
+        // Created 1 hour ago, expired 30 minutes ago
+        StandardSession expired = createSession(now - 3600000L, 1800);
+        index.add(active);
+        index.add(expired);
+        assertEquals(2, index.size());
+
+        List<Session> candidates = new ArrayList<Session>();
+        index.poll(now, candidates);
+        assertEquals(1, candidates.size());
+        assertSame(expired, candidates.get(0));
+        assertEquals(1, index.size());
+
+        // The active session is visited when its expiration time is reached
+        candidates.clear();
+        index.poll(now + 1780000L, candidates);
+        assertTrue(candidates.isEmpty());
+        index.poll(now + 1790000L, candidates);
+        assertEquals(1, candidates.size());
+        assertSame(active, candidates.get(0));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testAccessedSessionIsRescheduled() {
+        long now = System.currentTimeMillis();
+        SessionExpirationIndex index = new SessionExpirationIndex(1000L);
+        // Created 1 hour ago and accessed just now
+        StandardSession session = createSession(now - 3600000L, 1800);
+        index.add(session);
+        session.access();
+        session.endAccess();
+
+        // Found in the bucket of its original expiration time, but still valid
+        List<Session> candidates = new ArrayList<Session>();
+        index.poll(now, candidates);
+        assertEquals(1, candidates.size());
+        index.reschedule(session, now);
+
+        // Not visited again before its new expiration time
+        candidates.clear();
+        index.poll(now + 60000L, candidates);
+        assertTrue(candidates.isEmpty());
+        assertEquals(1, index.size());
+    }
+
+}
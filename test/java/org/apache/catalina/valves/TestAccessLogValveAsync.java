@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.valves;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAccessLogValveAsync {
+
+    private File directory;
+    private AccessLogValve valve;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("accesslog", "");
+        directory.delete();
+        directory.mkdirs();
+        valve = new AccessLogValve();
+        valve.setDirectory(directory.getAbsolutePath());
+        valve.setPrefix("access_log");
+        valve.setSuffix(".txt");
+        valve.setRotatable(false);
+        valve.setAsync(true);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private List<String> readLog() throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new FileReader(new File(directory, "access_log.txt")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testEntriesAreWrittenInOrderOnStop() throws Exception {
+        valve.start();
+        for (int i = 0; i < 1000; i++) {
+            valve.log("entry " + i);
+        }
+        valve.stop();
+
+        // Stopping drains the queue
+        assertEquals(1000, valve.getWrittenCount());
+        assertEquals(0, valve.getDroppedCount());
+        assertEquals(0, valve.getQueueDepth());
+        List<String> lines = readLog();
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("entry " + i, lines.get(i));
+        }
+    }
+
+    @Test
+    public void testDroppedEntriesAreCountedWhenQueueIsFull() throws Exception {
+        valve.setQueueSize(4);
+        valve.setOverflowPolicy("drop");
+        valve.start();
+        // The writer thread cannot write while the valve is locked, so the
+        // queue fills up
+        synchronized (valve) {
+            for (int i = 0; i < 100; i++) {
+                valve.log("entry " + i);
+            }
+            assertTrue(valve.getDroppedCount() > 0);
+        }
+        valve.stop();
+
+        // Entries are either written, in order, or dropped
+        assertEquals(100, valve.getWrittenCount() + valve.getDroppedCount());
+        List<String> lines = readLog();
+        assertEquals(valve.getWrittenCount(), lines.size());
+        int previous = -1;
+        for (String line : lines) {
+            int i = Integer.parseInt(line.substring("entry ".length()));
+            assertTrue(i > previous);
+            previous = i;
+        }
+    }
+
+    @Test
+    public void testDroppedEntriesAreCountedWithoutWriter() throws Exception {
+        // A queue which is never drained
+        valve.ring = new AccessLogValve.RecordRing(2);
+        valve.setOverflowPolicy("count");
+        for (int i = 0; i < 5; i++) {
+            valve.log("entry " + i);
+        }
+        assertEquals(2, valve.getQueueDepth());
+        assertEquals(3, valve.getDroppedCount());
+
+        // Blocking gives up when the writer thread is not running
+        valve.setOverflowPolicy("block");
+        valve.log("entry 5");
+        assertEquals(4, valve.getDroppedCount());
+    }
+
+    @Test
+    public void testWriterSurvivesWriteErrors() throws Exception {
+        valve.start();
+        // Writes to a closed channel fail
+        synchronized (valve) {
+            valve.channel.close();
+        }
+        for (int i = 0; i < 10; i++) {
+            valve.log("entry " + i);
+        }
+        valve.stop();
+
+        assertEquals(0, valve.getWrittenCount());
+        assertEquals(0, valve.getDroppedCount());
+        assertEquals(0, valve.getQueueDepth());
+        assertFalse(readLog().contains("entry 0"));
+        assertNull(valve.ring);
+    }
+
+}
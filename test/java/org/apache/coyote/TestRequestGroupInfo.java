@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestRequestGroupInfo {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 10000;
+
+    @Test
+    public void testConcurrentProcessors() throws Exception {
+        final RequestGroupInfo global = new RequestGroupInfo();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final boolean removed = (i % 2 == 0);
+            threads[i] = new Thread() {
+                public void run() {
+                    Request request = new Request();
+                    request.setResponse(new Response());
+                    RequestInfo rp = request.getRequestProcessor();
+                    rp.setGlobalProcessor(global);
+                    for (int j = 0; j < REQUESTS; j++) {
+                        request.setStartTime(System.currentTimeMillis());
+                        request.getResponse().setStatus((j % 10 == 0) ? 500 : 200);
+                        request.updateCounters();
+                    }
+                    if (removed) {
+                        rp.setGlobalProcessor(null);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(THREADS / 2, global.getRequestProcessors().length);
+        assertEquals(THREADS * REQUESTS, global.getRequestCount());
+        assertEquals(THREADS * REQUESTS / 10, global.getErrorCount());
+        assertTrue(global.getLatencyP50() <= global.getLatencyP90());
+        assertTrue(global.getLatencyP90() <= global.getLatencyP99());
+        assertTrue(global.getLatencyP99() <= global.getLatencyP999());
+        assertTrue(global.getLatencyP999() > 0);
+
+        global.resetCounters();
+        assertEquals(0, global.getRequestCount());
+        assertEquals(0, global.getLatencyP999());
+    }
+
+}
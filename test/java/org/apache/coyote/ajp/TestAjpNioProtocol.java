@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.ajp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Opens many more persistent AJP connections than the connector has threads,
+ * as a web server connection pool does, and checks that they are all served.
+ */
+public class TestAjpNioProtocol {
+
+    private static final int THREADS = 8;
+    private static final int CONNECTIONS = 256;
+    private static final byte[] BODY = "Hello AJP".getBytes();
+
+    private AjpNioProtocol protocol;
+    private int port;
+
+    @Before
+    public void start() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        port = ss.getLocalPort();
+        ss.close();
+        protocol = new AjpNioProtocol();
+        protocol.setPort(port);
+        protocol.setMaxThreads(THREADS);
+        protocol.setAdapter(new Adapter() {
+            public void service(Request req, Response res) throws Exception {
+                res.setStatus(200);
+                res.setContentType("text/plain");
+                res.setContentLength(BODY.length);
+                ByteChunk chunk = new ByteChunk();
+                chunk.setBytes(BODY, 0, BODY.length);
+                res.doWrite(chunk);
+            }
+            public boolean event(Request req, Response res, SocketStatus status) {
+                return false;
+            }
+        });
+        protocol.init();
+        protocol.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        protocol.pause();
+        protocol.destroy();
+    }
+
+    @Test
+    public void testIdleConnections() throws Exception {
+        List<Socket> sockets = new ArrayList<Socket>();
+        // Each connection sends a request and then stays idle
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket socket = new Socket("localhost", port);
+            socket.setSoTimeout(10000);
+            sockets.add(socket);
+            assertEquals(Constants.JK_AJP13_CPONG_REPLY, cping(socket));
+        }
+        // All of them can still be used
+        for (int i = 0; i < 3; i++) {
+            for (Socket socket : sockets) {
+                assertEquals(BODY.length, forward(socket, "/test"));
+                assertEquals(Constants.JK_AJP13_CPONG_REPLY, cping(socket));
+            }
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private static int cping(Socket socket) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(new byte[] { 0x12, 0x34, 0, 1, Constants.JK_AJP13_CPING_REQUEST });
+        os.flush();
+        return readPacket(new DataInputStream(socket.getInputStream()), null);
+    }
+
+    /**
+     * Send a GET request and read the response.
+     *
+     * @return the length of the response body
+     */
+    private static int forward(Socket socket, String uri) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(Constants.JK_AJP13_FORWARD_REQUEST);
+        payload.write(2); // GET
+        writeString(payload, "HTTP/1.1");
+        writeString(payload, uri);
+        writeString(payload, "127.0.0.1");
+        writeString(payload, "localhost");
+        writeString(payload, "localhost");
+        writeInt(payload, 80);
+        payload.write(0); // Not SSL
+        writeInt(payload, 1);
+        writeInt(payload, 0xA00B); // Host
+        writeString(payload, "localhost");
+        payload.write(Constants.SC_A_ARE_DONE);
+
+        byte[] b = payload.toByteArray();
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        packet.write(0x12);
+        packet.write(0x34);
+        writeInt(packet, b.length);
+        packet.write(b, 0, b.length);
+        OutputStream os = socket.getOutputStream();
+        os.write(packet.toByteArray());
+        os.flush();
+
+        DataInputStream is = new DataInputStream(socket.getInputStream());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int type;
+        do {
+            type = readPacket(is, body);
+        } while (type != Constants.JK_AJP13_END_RESPONSE);
+        return body.size();
+    }
+
+    private static int readPacket(DataInputStream is, ByteArrayOutputStream body)
+            throws IOException {
+        if (is.readUnsignedByte() != 'A' || is.readUnsignedByte() != 'B') {
+            throw new IOException("Invalid packet");
+        }
+        byte[] payload = new byte[is.readUnsignedShort()];
+        is.readFully(payload);
+        if (payload[0] == Constants.JK_AJP13_SEND_BODY_CHUNK && body != null) {
+            int length = ((payload[1] & 0xff) << 8) | (payload[2] & 0xff);
+            body.write(payload, 3, length);
+        }
+        return payload[0];
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int i) {
+        out.write(i >>> 8);
+        out.write(i);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] b = s.getBytes();
+        writeInt(out, b.length);
+        out.write(b, 0, b.length);
+        out.write(0);
+    }
+
+}
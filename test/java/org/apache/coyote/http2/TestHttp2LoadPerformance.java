@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+
+/**
+ * Runs the same load over HTTP/1.1 keep-alive connections and over a single
+ * multiplexed h2c connection, and reports the number of connections used and
+ * the tail latency of each.
+ */
+public class TestHttp2LoadPerformance {
+
+    private static final int CLIENTS = 64;
+    private static final int REQUESTS = 500;
+    private static final byte[] BODY = "Hello HTTP/2".getBytes();
+
+    private Http2NioProtocol protocol;
+    private int port;
+    private final AtomicInteger served = new AtomicInteger();
+
+    @Before
+    public void start() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        port = ss.getLocalPort();
+        ss.close();
+        protocol = new Http2NioProtocol();
+        protocol.setPort(port);
+        protocol.setMaxThreads(CLIENTS * 2);
+        protocol.setAdapter(new Adapter() {
+            public void service(Request req, Response res) throws Exception {
+                served.incrementAndGet();
+                // Simulate some work in the application
+                Thread.sleep(1);
+                res.setStatus(200);
+                res.setContentType("text/plain");
+                res.setContentLength(BODY.length);
+                ByteChunk chunk = new ByteChunk();
+                chunk.setBytes(BODY, 0, BODY.length);
+                res.doWrite(chunk);
+            }
+            public boolean event(Request req, Response res, SocketStatus status) {
+                return false;
+            }
+        });
+        protocol.init();
+        protocol.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        protocol.destroy();
+    }
+
+    @Test
+    public void testPriorKnowledge() throws Exception {
+        Http2Client client = new Http2Client(port, false);
+        assertEquals(200, client.get("/test"));
+        assertEquals(200, client.get("/test?a=b"));
+        client.close();
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+        Http2Client client = new Http2Client(port, true);
+        // Stream 1 is the upgraded request
+        assertEquals(200, client.response(1));
+        assertEquals(200, client.get("/test"));
+        client.close();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        long[] http11 = runHttp11();
+        long[] http2 = runHttp2();
+        assertEquals(2 * CLIENTS * REQUESTS, served.get());
+        report("HTTP/1.1", CLIENTS, http11);
+        report("HTTP/2", 1, http2);
+    }
+
+    private long[] runHttp11() throws Exception {
+        final long[] latencies = new long[CLIENTS * REQUESTS];
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch end = new CountDownLatch(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            final int client = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        // One connection per concurrent client
+                        Socket socket = new Socket("localhost", port);
+                        socket.setTcpNoDelay(true);
+                        OutputStream os = socket.getOutputStream();
+                        InputStream is = socket.getInputStream();
+                        byte[] request = ("GET /test HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes();
+                        for (int j = 0; j < REQUESTS; j++) {
+                            long t0 = System.nanoTime();
+                            os.write(request);
+                            os.flush();
+                            readHttp11Response(is);
+                            latencies[client * REQUESTS + j] = System.nanoTime() - t0;
+                        }
+                        socket.close();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        errors.incrementAndGet();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        end.await();
+        assertNoFailure(failure);
+        assertEquals(0, errors.get());
+        return latencies;
+    }
+
+    private long[] runHttp2() throws Exception {
+        final long[] latencies = new long[CLIENTS * REQUESTS];
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch end = new CountDownLatch(CLIENTS);
+        // A single connection shared by all the clients
+        final Http2Client h2 = new Http2Client(port, false);
+        for (int i = 0; i < CLIENTS; i++) {
+            final int client = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < REQUESTS; j++) {
+                            long t0 = System.nanoTime();
+                            if (h2.get("/test") != 200) {
+                                errors.incrementAndGet();
+                            }
+                            latencies[client * REQUESTS + j] = System.nanoTime() - t0;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        errors.incrementAndGet();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        end.await();
+        h2.close();
+        assertNoFailure(failure);
+        assertEquals(0, errors.get());
+        return latencies;
+    }
+
+    private static void assertNoFailure(AtomicReference<Throwable> failure) {
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private static void report(String name, int connections, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.println(name + ": " + connections + " connections, p50 "
+                + percentile(latencies, 0.50) + "us, p99 "
+                + percentile(latencies, 0.99) + "us, p99.9 "
+                + percentile(latencies, 0.999) + "us");
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * p)] / 1000;
+    }
+
+    private static void readHttp11Response(InputStream is) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            int c = is.read();
+            if (c == -1) {
+                throw new IOException("Connection closed");
+            }
+            headers.append((char) c);
+        }
+        int contentLength = 0;
+        for (String line : headers.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            if (is.read() == -1) {
+                throw new IOException("Connection closed");
+            }
+        }
+    }
+
+
+    /**
+     * Minimal HTTP/2 client: requests are sent by the calling threads, and a
+     * reader thread completes them as their response streams end.
+     */
+    private static class Http2Client extends Thread {
+
+        private final Socket socket;
+        private final OutputStream os;
+        private final DataInputStream is;
+        private final HpackEncoder encoder = new HpackEncoder(Constants.DEFAULT_HEADER_TABLE_SIZE);
+        private final HpackDecoder decoder = new HpackDecoder(Constants.DEFAULT_HEADER_TABLE_SIZE);
+        private final ConcurrentHashMap<Integer, int[]> responses = new ConcurrentHashMap<Integer, int[]>();
+        private int nextStreamId = 1;
+        private volatile boolean closed = false;
+
+        Http2Client(int port, boolean upgrade) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            os = socket.getOutputStream();
+            is = new DataInputStream(socket.getInputStream());
+            if (upgrade) {
+                responses.put(Integer.valueOf(1), new int[1]);
+                nextStreamId = 3;
+                os.write(("GET /test HTTP/1.1\r\nHost: localhost\r\n"
+                        + "Connection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\n"
+                        + "HTTP2-Settings: \r\n\r\n").getBytes());
+                os.flush();
+                StringBuilder status = new StringBuilder();
+                while (!status.toString().endsWith("\r\n\r\n")) {
+                    status.append((char) is.read());
+                }
+                if (!status.toString().startsWith("HTTP/1.1 101")) {
+                    throw new IOException(status.toString());
+                }
+            }
+            os.write(Constants.PREFACE);
+            writeFrame(Constants.FRAME_SETTINGS, 0, 0, new byte[0], 0);
+            os.flush();
+            setDaemon(true);
+            start();
+        }
+
+        int get(String path) throws Exception {
+            int streamId;
+            int[] response = new int[1];
+            synchronized (this) {
+                streamId = nextStreamId;
+                nextStreamId += 2;
+                responses.put(Integer.valueOf(streamId), response);
+                ByteChunk block = new ByteChunk();
+                block.allocate(256, -1);
+                encoder.startBlock(block);
+                encoder.encodeHeader(":method", "GET", block);
+                encoder.encodeHeader(":scheme", "http", block);
+                encoder.encodeHeader(":path", path, block);
+                encoder.encodeHeader(":authority", "localhost", block);
+                writeFrame(Constants.FRAME_HEADERS, Constants.FLAG_END_HEADERS | Constants.FLAG_END_STREAM,
+                        streamId, block.getBuffer(), block.getLength());
+                os.flush();
+            }
+            return response(streamId);
+        }
+
+        int response(int streamId) throws Exception {
+            int[] response = responses.get(Integer.valueOf(streamId));
+            synchronized (response) {
+                while (response[0] == 0 && !closed) {
+                    response.wait(10000);
+                }
+            }
+            return response[0];
+        }
+
+        public void run() {
+            final int[] status = new int[1];
+            HpackDecoder.HeaderEmitter emitter = new HpackDecoder.HeaderEmitter() {
+                public void emitHeader(String name, String value) {
+                    if (name.equals(":status")) {
+                        status[0] = Integer.parseInt(value);
+                    }
+                }
+            };
+            ConcurrentHashMap<Integer, Integer> statuses = new ConcurrentHashMap<Integer, Integer>();
+            try {
+                while (true) {
+                    int length = (is.readUnsignedByte() << 16) | is.readUnsignedShort();
+                    int type = is.readUnsignedByte();
+                    int flags = is.readUnsignedByte();
+                    int streamId = is.readInt() & 0x7fffffff;
+                    byte[] payload = new byte[length];
+                    is.readFully(payload);
+                    if (type == Constants.FRAME_SETTINGS && (flags & Constants.FLAG_ACK) == 0) {
+                        synchronized (this) {
+                            writeFrame(Constants.FRAME_SETTINGS, Constants.FLAG_ACK, 0, new byte[0], 0);
+                            os.flush();
+                        }
+                    } else if (type == Constants.FRAME_HEADERS) {
+                        status[0] = 0;
+                        decoder.decode(payload, 0, length, emitter);
+                        if (status[0] != 0) {
+                            statuses.put(Integer.valueOf(streamId), Integer.valueOf(status[0]));
+                        }
+                    } else if (type == Constants.FRAME_DATA && length > 0) {
+                        // Give the connection window back, stream windows
+                        // are large enough for the response
+                        byte[] increment = new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+                                (byte) (length >>> 8), (byte) length };
+                        synchronized (this) {
+                            writeFrame(Constants.FRAME_WINDOW_UPDATE, 0, 0, increment, 4);
+                            os.flush();
+                        }
+                    } else if (type == Constants.FRAME_GOAWAY) {
+                        break;
+                    }
+                    if ((type == Constants.FRAME_HEADERS || type == Constants.FRAME_DATA)
+                            && (flags & Constants.FLAG_END_STREAM) != 0) {
+                        int[] response = responses.remove(Integer.valueOf(streamId));
+                        Integer s = statuses.remove(Integer.valueOf(streamId));
+                        synchronized (response) {
+                            response[0] = (s == null) ? -1 : s.intValue();
+                            response.notifyAll();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed
+            }
+            closed = true;
+            for (int[] response : responses.values()) {
+                synchronized (response) {
+                    response.notifyAll();
+                }
+            }
+        }
+
+        void close() throws IOException {
+            synchronized (this) {
+                byte[] payload = new byte[8];
+                writeFrame(Constants.FRAME_GOAWAY, 0, 0, payload, 8);
+                os.flush();
+            }
+            socket.close();
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] payload, int length)
+                throws IOException {
+            byte[] header = new byte[Constants.FRAME_HEADER_LENGTH];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            header[5] = (byte) (streamId >>> 24);
+            header[6] = (byte) (streamId >>> 16);
+            header[7] = (byte) (streamId >>> 8);
+            header[8] = (byte) streamId;
+            os.write(header);
+            os.write(payload, 0, length);
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.el;
+
+import java.lang.reflect.Method;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.el.MethodExpression;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.el.util.ReflectionUtil;
+import org.apache.jasper.el.ELContextImpl;
+
+public class TestMethodExpressionPerformance {
+
+    private static final int COUNT = 1000000;
+
+    @Test
+    public void testGetMethod() throws Exception {
+        TesterBeanB beanB = new TesterBeanB();
+        Class<?>[] types = new Class<?>[] { String.class };
+        Object[] values = new Object[] { "JUnit" };
+
+        // Resolution done before the cache, for comparison
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            Method[] methods = beanB.getClass().getMethods();
+            for (Method m : methods) {
+                if (m.getName().equals("sayHello")
+                        && m.getParameterTypes().length == 1) {
+                    break;
+                }
+            }
+        }
+        long scan = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Method method = null;
+        for (int i = 0; i < COUNT; i++) {
+            method = ReflectionUtil.getMethod(beanB, "sayHello", types, values);
+        }
+        long cached = System.nanoTime() - start;
+
+        assertEquals(String.class, method.getParameterTypes()[0]);
+        System.out.println("getMethods() scan: " + (scan / COUNT)
+                + "ns per call, cached getMethod: " + (cached / COUNT)
+                + "ns per call");
+    }
+
+    @Test
+    public void testInvoke() {
+        ExpressionFactory factory = ExpressionFactory.newInstance();
+        ELContext context = new ELContextImpl();
+        TesterBeanB beanB = new TesterBeanB();
+        beanB.setName("B");
+        context.getVariableMapper().setVariable("beanB",
+                factory.createValueExpression(beanB, TesterBeanB.class));
+        MethodExpression me = factory.createMethodExpression(
+                context, "${beanB.sayHello('JUnit')}", String.class,
+                new Class<?>[] { String.class });
+
+        long start = System.nanoTime();
+        Object result = null;
+        for (int i = 0; i < COUNT; i++) {
+            result = me.invoke(context, null);
+        }
+        long time = System.nanoTime() - start;
+
+        assertEquals("Hello JUnit from B", result);
+        System.out.println(COUNT + " method expression invocations in "
+                + (time / 1000000) + "ms");
+    }
+
+}
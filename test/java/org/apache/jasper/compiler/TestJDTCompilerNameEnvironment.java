@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestJDTCompilerNameEnvironment {
+
+    /**
+     * Class loader counting the requests for each class.
+     */
+    private static class CountingClassLoader extends ClassLoader {
+
+        private final Map<String, Integer> requests = new HashMap<String, Integer>();
+
+        private CountingClassLoader() {
+            super(TestJDTCompilerNameEnvironment.class.getClassLoader());
+        }
+
+        public synchronized InputStream getResourceAsStream(String name) {
+            Integer count = requests.get(name);
+            requests.put(name, Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+            return super.getResourceAsStream(name);
+        }
+
+        private synchronized int getRequests(String name) {
+            Integer count = requests.get(name);
+            return (count == null) ? 0 : count.intValue();
+        }
+
+    }
+
+    @Test
+    public void testMissingClassesAreLookedUpOnce() {
+        CountingClassLoader loader = new CountingClassLoader();
+        JDTCompiler.NameEnvironment env = JDTCompiler.NameEnvironment.createShared(loader);
+        assertNull(env.getClassBytes("org.example.Missing"));
+        assertNull(env.getClassBytes("org.example.Missing"));
+        assertEquals(1, loader.getRequests("org/example/Missing.class"));
+
+        // Packages are looked up as classes
+        assertTrue(env.isPackage(new char[][] { "org".toCharArray() }, "example".toCharArray()));
+        assertTrue(env.isPackage(new char[][] { "org".toCharArray() }, "example".toCharArray()));
+        assertEquals(1, loader.getRequests("org/example.class"));
+    }
+
+    @Test
+    public void testBatchesShareTheCache() {
+        CountingClassLoader loader = new CountingClassLoader();
+        JDTCompiler.NameEnvironment shared = JDTCompiler.NameEnvironment.createShared(loader);
+        JDTCompiler.NameEnvironment first = new JDTCompiler.NameEnvironment(shared);
+        JDTCompiler.NameEnvironment second = new JDTCompiler.NameEnvironment(shared);
+
+        byte[] classBytes = first.getClassBytes("java.lang.String");
+        assertNotNull(classBytes);
+        assertSame(classBytes, second.getClassBytes("java.lang.String"));
+        assertEquals(1, loader.getRequests("java/lang/String.class"));
+
+        // Negative lookups are shared too
+        assertNull(first.getClassBytes("org.example.Missing"));
+        assertNull(second.getClassBytes("org.example.Missing"));
+        assertEquals(1, loader.getRequests("org/example/Missing.class"));
+        assertFalse(second.isPackage(new char[][] { "java".toCharArray(),
+                "lang".toCharArray() }, "String".toCharArray()));
+        assertEquals(1, loader.getRequests("java/lang/String.class"));
+    }
+
+    @Test
+    public void testSinglePageCacheIsNotShared() {
+        CountingClassLoader loader = new CountingClassLoader();
+        JDTCompiler.NameEnvironment first = new JDTCompiler.NameEnvironment(loader);
+        JDTCompiler.NameEnvironment second = new JDTCompiler.NameEnvironment(loader);
+        assertNull(first.getClassBytes("org.example.Missing"));
+        assertNull(first.getClassBytes("org.example.Missing"));
+        assertNull(second.getClassBytes("org.example.Missing"));
+        assertEquals(2, loader.getRequests("org/example/Missing.class"));
+    }
+
+}
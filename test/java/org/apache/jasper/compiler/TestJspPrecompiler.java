@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Globals;
+import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.Options;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestJspPrecompiler {
+
+    private File root;
+    private File scratch;
+    private ServletContext context;
+    private final Map<String, String> initParameters = new HashMap<String, String>();
+
+    /**
+     * Servlet context of a web application whose resources are the files of
+     * the root directory.
+     */
+    private class WebappHandler implements InvocationHandler {
+
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private WebappHandler() {
+            attributes.put(ServletContext.TEMPDIR, scratch);
+            attributes.put(Globals.JSP_TAG_LIBRARIES, new HashMap<Object, Object>());
+            attributes.put(Globals.JSP_PROPERTY_GROUPS, new HashMap<Object, Object>());
+            attributes.put(Globals.SERVLET_VERSION, "3.0");
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws IOException {
+            String name = method.getName();
+            if (name.equals("getAttribute")) {
+                return attributes.get(args[0]);
+            } else if (name.equals("getRealPath")) {
+                return new File(root, (String) args[0]).getPath();
+            } else if (name.equals("getResource")) {
+                File file = new File(root, (String) args[0]);
+                return file.exists() ? file.toURI().toURL() : null;
+            } else if (name.equals("getResourceAsStream")) {
+                File file = new File(root, (String) args[0]);
+                return file.isFile() ? new FileInputStream(file) : null;
+            } else if (name.equals("getResourcePaths")) {
+                return getResourcePaths((String) args[0]);
+            } else if (name.equals("getMajorVersion")) {
+                return Integer.valueOf(3);
+            } else if (method.getReturnType() == boolean.class) {
+                return Boolean.FALSE;
+            } else if (method.getReturnType() == int.class) {
+                return Integer.valueOf(0);
+            }
+            return null;
+        }
+
+        private Set<String> getResourcePaths(String path) {
+            File[] files = new File(root, path).listFiles();
+            if (files == null) {
+                return null;
+            }
+            Set<String> paths = new HashSet<String>();
+            for (File file : files) {
+                paths.add(path + file.getName() + (file.isDirectory() ? "/" : ""));
+            }
+            return paths;
+        }
+
+    }
+
+    private class ConfigHandler implements InvocationHandler {
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getServletContext")) {
+                return context;
+            } else if (name.equals("getServletName")) {
+                return "jsp";
+            } else if (name.equals("getInitParameter")) {
+                return initParameters.get(args[0]);
+            } else if (name.equals("getInitParameterNames")) {
+                return Collections.enumeration(initParameters.keySet());
+            }
+            return null;
+        }
+
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("webapp", "");
+        root.delete();
+        root.mkdirs();
+        scratch = new File(root.getPath() + "-work");
+        scratch.mkdirs();
+        context = (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(),
+                new Class<?>[] { ServletContext.class }, new WebappHandler());
+        initParameters.put("modificationTestInterval", "0");
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+        delete(scratch);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void addPage(String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private JspPrecompiler precompile(JspRuntimeContext rctxt, ServletConfig config,
+            Options options) {
+        JspPrecompiler precompiler = new JspPrecompiler(config, options, rctxt);
+        precompiler.precompile();
+        return precompiler;
+    }
+
+    private JspPrecompiler precompile() {
+        ServletConfig config = (ServletConfig) Proxy.newProxyInstance(
+                ServletConfig.class.getClassLoader(),
+                new Class<?>[] { ServletConfig.class }, new ConfigHandler());
+        Options options = new EmbeddedServletOptions(config, context);
+        return precompile(new JspRuntimeContext(context, options), config, options);
+    }
+
+    private boolean isCompiled(String className) {
+        return new File(scratch, "org/apache/jsp/" + className + ".class").exists();
+    }
+
+    @Test
+    public void testPagesAreCompiledInBatches() throws Exception {
+        // Two batches of two pages
+        initParameters.put("precompileThreads", "2");
+        addPage("a.jsp", "<%= \"a\" %>");
+        addPage("b.jsp", "<%= java.util.Collections.emptyList() %>");
+        addPage("sub/c.jsp", "<%! int count; %><%= count %>");
+        addPage("sub/d.jsp", "d");
+        // Not pages
+        addPage("WEB-INF/lib/e.jsp", "e");
+        addPage("f.html", "f");
+
+        JspPrecompiler precompiler = precompile();
+        assertEquals(4, precompiler.getPageCount());
+        assertEquals(4, precompiler.getCompiledCount());
+        assertEquals(0, precompiler.getFailedCount());
+        assertEquals(4, precompiler.getCompileTimes().size());
+        assertTrue(precompiler.getCompileTimes().containsKey("/sub/c.jsp"));
+        assertTrue(isCompiled("a_jsp"));
+        assertTrue(isCompiled("b_jsp"));
+        assertTrue(isCompiled("sub/c_jsp"));
+        assertTrue(isCompiled("sub/d_jsp"));
+    }
+
+    @Test
+    public void testFailedPagesDoNotStopTheirBatch() throws Exception {
+        // A single batch
+        initParameters.put("precompileThreads", "1");
+        addPage("a.jsp", "<%= \"a\" %>");
+        // Fails to compile
+        addPage("b.jsp", "<% org.example.Missing missing = null; %>");
+        // Fails to parse
+        addPage("c.jsp", "<%@ page import=\"java.util.*\"");
+        addPage("d.jsp", "<% org.example.Missing other = null; %>");
+        addPage("e.jsp", "e");
+
+        ServletConfig config = (ServletConfig) Proxy.newProxyInstance(
+                ServletConfig.class.getClassLoader(),
+                new Class<?>[] { ServletConfig.class }, new ConfigHandler());
+        Options options = new EmbeddedServletOptions(config, context);
+        JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        JspPrecompiler precompiler = precompile(rctxt, config, options);
+        assertEquals(5, precompiler.getPageCount());
+        assertEquals(2, precompiler.getCompiledCount());
+        assertEquals(3, precompiler.getFailedCount());
+        assertTrue(isCompiled("a_jsp"));
+        assertTrue(isCompiled("e_jsp"));
+        assertFalse(isCompiled("b_jsp"));
+        assertFalse(isCompiled("d_jsp"));
+
+        // The failed pages are compiled again when they are requested
+        assertNotNull(rctxt.getWrapper("/a.jsp"));
+        assertNull(rctxt.getWrapper("/b.jsp"));
+        assertNull(rctxt.getWrapper("/c.jsp"));
+        assertNull(rctxt.getWrapper("/d.jsp"));
+    }
+
+    @Test
+    public void testCompiledPagesAreNotCompiledAgain() throws Exception {
+        addPage("a.jsp", "<%= \"a\" %>");
+        addPage("b.jsp", "b");
+        JspPrecompiler precompiler = precompile();
+        assertEquals(2, precompiler.getCompiledCount());
+        File classFile = new File(scratch, "org/apache/jsp/a_jsp.class");
+        long lastModified = classFile.lastModified();
+
+        // Such as a restart of the web application
+        precompiler = precompile();
+        assertEquals(2, precompiler.getPageCount());
+        assertEquals(0, precompiler.getCompiledCount());
+        assertEquals(0, precompiler.getFailedCount());
+        assertTrue(precompiler.getCompileTimes().isEmpty());
+        assertEquals(lastModified, classFile.lastModified());
+    }
+
+    @Test
+    public void testWithoutPages() throws Exception {
+        JspPrecompiler precompiler = precompile();
+        assertEquals(0, precompiler.getPageCount());
+        assertEquals(0, precompiler.getCompiledCount());
+    }
+
+}
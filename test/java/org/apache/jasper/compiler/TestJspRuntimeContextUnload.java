@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Globals;
+import org.apache.jasper.Options;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.junit.Test;
+
+public class TestJspRuntimeContextUnload {
+
+    /**
+     * Implementation of an interface which returns the specified values, and
+     * null, false or 0 for the other methods.
+     */
+    private static <T> T createProxy(Class<T> type, final Map<String, Object> values) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (args != null && args.length == 1 && args[0] instanceof String) {
+                    name = name + ":" + args[0];
+                }
+                if (values.containsKey(name)) {
+                    return values.get(name);
+                }
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return Boolean.FALSE;
+                } else if (returnType == int.class) {
+                    return Integer.valueOf(0);
+                } else if (returnType == long.class) {
+                    return Long.valueOf(0L);
+                }
+                return null;
+            }
+        }));
+    }
+
+    private final ServletContext context;
+    private final ServletConfig config;
+
+    public TestJspRuntimeContextUnload() {
+        Map<String, Object> contextValues = new HashMap<String, Object>();
+        contextValues.put("getAttribute:" + Globals.JSP_TAG_LIBRARIES, new HashMap<Object, Object>());
+        context = createProxy(ServletContext.class, contextValues);
+        Map<String, Object> configValues = new HashMap<String, Object>();
+        configValues.put("getServletContext", context);
+        config = createProxy(ServletConfig.class, configValues);
+    }
+
+    private Options createOptions(int maxLoadedJsps, int jspIdleTimeout) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getMaxLoadedJsps", Integer.valueOf(maxLoadedJsps));
+        values.put("getJspIdleTimeout", Integer.valueOf(jspIdleTimeout));
+        return createProxy(Options.class, values);
+    }
+
+    private JspServletWrapper addWrapper(JspRuntimeContext rctxt, Options options,
+            String jspUri) throws Exception {
+        JspServletWrapper jsw = new JspServletWrapper(config, options, jspUri, false, rctxt);
+        rctxt.addWrapper(jspUri, jsw);
+        return jsw;
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPagesAreUnloaded() throws Exception {
+        Options options = createOptions(2, 0);
+        JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        JspServletWrapper a = addWrapper(rctxt, options, "/a.jsp");
+        JspServletWrapper b = addWrapper(rctxt, options, "/b.jsp");
+        JspServletWrapper c = addWrapper(rctxt, options, "/c.jsp");
+
+        rctxt.makeYoungest(a);
+        rctxt.makeYoungest(b);
+        rctxt.makeYoungest(a);
+        assertEquals(2, rctxt.getJspQueueLength());
+        rctxt.makeYoungest(c);
+
+        // b is the least recently used page
+        assertEquals(2, rctxt.getJspQueueLength());
+        assertEquals(1, rctxt.getJspUnloadCount());
+        assertNull(rctxt.getWrapper("/b.jsp"));
+        assertSame(a, rctxt.getWrapper("/a.jsp"));
+        assertSame(c, rctxt.getWrapper("/c.jsp"));
+        assertTrue(b.isUnloaded());
+        assertFalse(a.isUnloaded());
+        // Requests which still use b are processed by a new wrapper
+        assertFalse(b.service(null, null, false));
+    }
+
+    @Test
+    public void testIdlePagesAreUnloaded() throws Exception {
+        Options options = createOptions(0, 60);
+        JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        JspServletWrapper a = addWrapper(rctxt, options, "/a.jsp");
+        JspServletWrapper b = addWrapper(rctxt, options, "/b.jsp");
+        rctxt.makeYoungest(a);
+        rctxt.makeYoungest(b);
+
+        rctxt.checkUnload();
+        assertEquals(2, rctxt.getJspQueueLength());
+        assertEquals(0, rctxt.getJspUnloadCount());
+
+        // a has not been used for two minutes
+        a.setLastUsageTime(System.currentTimeMillis() - 120000L);
+        rctxt.checkUnload();
+        assertEquals(1, rctxt.getJspQueueLength());
+        assertEquals(1, rctxt.getJspUnloadCount());
+        assertNull(rctxt.getWrapper("/a.jsp"));
+        assertSame(b, rctxt.getWrapper("/b.jsp"));
+        assertTrue(a.isUnloaded());
+    }
+
+    @Test
+    public void testReplacedPageIsNotUnloaded() throws Exception {
+        Options options = createOptions(1, 0);
+        JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        JspServletWrapper a = addWrapper(rctxt, options, "/a.jsp");
+        rctxt.makeYoungest(a);
+        JspServletWrapper replacement = addWrapper(rctxt, options, "/a.jsp");
+        JspServletWrapper b = addWrapper(rctxt, options, "/b.jsp");
+        rctxt.makeYoungest(b);
+
+        // Evicting a leaves the wrapper which replaced it mapped
+        assertEquals(1, rctxt.getJspQueueLength());
+        assertEquals(0, rctxt.getJspUnloadCount());
+        assertSame(replacement, rctxt.getWrapper("/a.jsp"));
+        assertFalse(a.isUnloaded());
+    }
+
+    @Test
+    public void testUsageIsNotTrackedWithoutUnloading() throws Exception {
+        Options options = createOptions(0, 0);
+        JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        JspServletWrapper a = addWrapper(rctxt, options, "/a.jsp");
+        assertFalse(rctxt.isUnloadEnabled());
+        a.setLastUsageTime(0L);
+        rctxt.makeYoungest(a);
+        assertEquals(0L, a.getLastUsageTime());
+        assertEquals(-1, rctxt.getJspQueueLength());
+    }
+
+    @Test
+    public void testConcurrentFirstRequestsQueuePageOnce() throws Exception {
+        Options options = createOptions(10, 0);
+        final JspRuntimeContext rctxt = new JspRuntimeContext(context, options);
+        final JspServletWrapper a = addWrapper(rctxt, options, "/a.jsp");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    rctxt.makeYoungest(a);
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(1, rctxt.getJspQueueLength());
+    }
+
+}
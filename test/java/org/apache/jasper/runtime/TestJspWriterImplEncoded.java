@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletResponse;
+
+import org.apache.catalina.connector.CoyoteWriter;
+import org.apache.catalina.connector.OutputBuffer;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.junit.Test;
+
+public class TestJspWriterImplEncoded {
+
+    private static final int RESPONSE_BUFFER_SIZE = 16;
+
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final OutputBuffer ob;
+    private final ServletResponse response;
+
+    public TestJspWriterImplEncoded() {
+        org.apache.coyote.Response coyoteResponse = new org.apache.coyote.Response();
+        coyoteResponse.setOutputBuffer(new org.apache.coyote.OutputBuffer() {
+            public int doWrite(ByteChunk chunk, org.apache.coyote.Response response) {
+                sent.write(chunk.getBytes(), chunk.getStart(), chunk.getLength());
+                return chunk.getLength();
+            }
+        });
+        ob = new OutputBuffer(null, RESPONSE_BUFFER_SIZE);
+        ob.setResponse(coyoteResponse);
+        final CoyoteWriter writer = new CoyoteWriter(ob);
+        response = (ServletResponse) Proxy.newProxyInstance(
+                ServletResponse.class.getClassLoader(),
+                new Class<?>[] { ServletResponse.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getWriter")) {
+                    return writer;
+                } else if (name.equals("getCharacterEncoding")) {
+                    return "ISO-8859-1";
+                } else if (name.equals("getBufferSize")) {
+                    return Integer.valueOf(RESPONSE_BUFFER_SIZE);
+                } else if (name.equals("isCommitted")) {
+                    return Boolean.FALSE;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static EncodedText encode(String text) {
+        return new EncodedText(text, "ISO-8859-1");
+    }
+
+    private String getSent() throws IOException {
+        return sent.toString("ISO-8859-1");
+    }
+
+    @Test
+    public void testBytesCountAgainstThePageBuffer() throws Exception {
+        JspWriterImpl out = new JspWriterImpl(response, 8, true);
+        out.write("ab");
+        encode("cdef").write(out);
+        // Written to the response buffer
+        assertEquals(6, ob.getContentWritten());
+        assertEquals(2, out.getRemaining());
+
+        out.clear();
+        assertEquals(8, out.getRemaining());
+        assertEquals(0, ob.getContentWritten());
+        out.write("gh");
+        encode("ij").write(out);
+        out.flush();
+        assertEquals("ghij", getSent());
+    }
+
+    @Test
+    public void testFullPageBufferIsFlushed() throws Exception {
+        JspWriterImpl out = new JspWriterImpl(response, 8, true);
+        encode("abcd").write(out);
+        encode("efghij").write(out);
+        assertEquals(8, out.getRemaining());
+        try {
+            out.clear();
+            fail();
+        } catch (IOException e) {
+            // Expected, as after any flush of the page buffer
+        }
+        // The buffer may still be cleared
+        out.write("k");
+        out.clearBuffer();
+        out.flush();
+        assertEquals("abcdefghij", getSent());
+    }
+
+    @Test
+    public void testPageBufferLargerThanResponseBuffer() throws Exception {
+        JspWriterImpl out = new JspWriterImpl(response, 64, true);
+        encode("abcdefghijklmnopqrstuvwxyz").write(out);
+        // Kept in the page buffer, so the response is not committed
+        assertEquals(0, ob.getContentWritten());
+        assertEquals(0, sent.size());
+        assertEquals(38, out.getRemaining());
+
+        // Such as a forward
+        out.clear();
+        encode("forwarded").write(out);
+        out.flush();
+        assertEquals("forwarded", getSent());
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.tomcat.InstanceManager;
+
+/**
+ * Compares the tag handler pool implementations when many threads use the
+ * same pool.
+ */
+public class TestTagHandlerPoolPerformance {
+
+    private static final int THREADS = 64;
+    private static final int ITERATIONS = 200000;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Test
+    public void testReuse() throws Exception {
+        TagHandlerPool pool = newPool(ConcurrentTagHandlerPool.class);
+        Tag tag = pool.get(TesterTag.class);
+        pool.reuse(tag);
+        assertTrue(tag == pool.get(TesterTag.class));
+        pool.reuse(tag);
+        pool.release();
+        assertTrue(tag != pool.get(TesterTag.class));
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        run(TagHandlerPool.class);
+        run(PerThreadTagHandlerPool.class);
+        run(ConcurrentTagHandlerPool.class);
+    }
+
+    private void run(Class<? extends TagHandlerPool> poolClass)
+            throws Exception {
+        final TagHandlerPool pool = newPool(poolClass);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(THREADS);
+        final AtomicInteger errors = new AtomicInteger();
+        created.set(0);
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            // A parent and a nested tag
+                            Tag parent = pool.get(TesterTag.class);
+                            Tag child = pool.get(TesterTag.class);
+                            pool.reuse(child);
+                            pool.reuse(parent);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        end.await();
+        long time = System.nanoTime() - begin;
+        pool.release();
+        assertEquals(0, errors.get());
+        System.out.println(poolClass.getSimpleName() + ": " + THREADS
+                + " threads, " + (THREADS * ITERATIONS * 2L) + " get/reuse in "
+                + (time / 1000000) + "ms, " + created.get()
+                + " handlers created");
+    }
+
+    private TagHandlerPool newPool(Class<? extends TagHandlerPool> poolClass)
+            throws Exception {
+        final InstanceManager instanceManager = (InstanceManager) proxy(
+                InstanceManager.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (method.getName().equals("newInstance")
+                                && args[0] instanceof Class<?>) {
+                            created.incrementAndGet();
+                            return ((Class<?>) args[0]).newInstance();
+                        }
+                        return null;
+                    }
+                });
+        final ServletContext context = (ServletContext) proxy(
+                ServletContext.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (method.getName().equals("getAttribute")
+                                && InstanceManager.class.getName().equals(args[0])) {
+                            return instanceManager;
+                        }
+                        return null;
+                    }
+                });
+        ServletConfig config = (ServletConfig) proxy(
+                ServletConfig.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        if (method.getName().equals("getServletContext")) {
+                            return context;
+                        }
+                        return null;
+                    }
+                });
+        TagHandlerPool pool = poolClass.newInstance();
+        pool.init(config);
+        return pool;
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(
+                TestTagHandlerPoolPerformance.class.getClassLoader(),
+                new Class<?>[] { type }, handler);
+    }
+
+    public static class TesterTag extends TagSupport {
+        private static final long serialVersionUID = 1L;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jasper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestFastRemovalDequeue {
+
+    @Test
+    public void testEldestIsLeastRecentlyUsed() {
+        FastRemovalDequeue<String> queue = new FastRemovalDequeue<String>();
+        FastRemovalDequeue.Entry<String> a = queue.push("a");
+        queue.push("b");
+        queue.push("c");
+        assertEquals("a", queue.peekLast());
+
+        assertTrue(queue.moveFirst(a));
+        assertEquals(3, queue.getSize());
+        assertEquals("b", queue.pollLast());
+        assertEquals("c", queue.pollLast());
+        assertEquals("a", queue.pollLast());
+        assertNull(queue.pollLast());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRemovedEntryIsNotMoved() {
+        FastRemovalDequeue<String> queue = new FastRemovalDequeue<String>();
+        FastRemovalDequeue.Entry<String> a = queue.push("a");
+        FastRemovalDequeue.Entry<String> b = queue.push("b");
+        queue.remove(a);
+        assertFalse(a.isValid());
+        assertFalse(queue.moveFirst(a));
+        assertEquals(1, queue.getSize());
+
+        // Removing twice has no effect
+        queue.remove(a);
+        assertEquals(1, queue.getSize());
+        assertTrue(b.isValid());
+        assertEquals("b", queue.peekLast());
+    }
+
+}
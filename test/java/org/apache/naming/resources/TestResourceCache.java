@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.naming.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResourceCache {
+
+    private ResourceCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ResourceCache();
+        cache.setCacheMaxSize(160);
+        cache.setSpareNotFoundEntries(20);
+    }
+
+    /**
+     * Same sequence as ProxyDirContext.cacheLookup followed by cacheLoad.
+     */
+    private CacheEntry access(String name, int size) {
+        CacheEntry entry = cache.lookup(name);
+        if (entry != null) {
+            entry.accessCount++;
+            return entry;
+        }
+        entry = new CacheEntry();
+        entry.name = name;
+        entry.size = size;
+        synchronized (cache) {
+            if (!cache.contains(name) && cache.allocate(entry)) {
+                cache.load(entry);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testLoadUnload() {
+        assertNull(access("/a", 10));
+        assertNotNull(access("/a", 10));
+        assertEquals(10, cache.getCacheSize());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getHitsCount());
+        assertEquals(1, cache.getMissCount());
+
+        CacheEntry missing = new CacheEntry();
+        missing.name = "/missing";
+        missing.exists = false;
+        cache.load(missing);
+        assertTrue(cache.contains("/missing"));
+        assertEquals(11, cache.getCacheSize());
+
+        assertTrue(cache.unload("/a"));
+        assertTrue(cache.unload("/missing"));
+        assertFalse(cache.unload("/a"));
+        assertEquals(0, cache.getCacheSize());
+    }
+
+    @Test
+    public void testFrequentEntriesAreKept() {
+        // Fill the cache with entries which are accessed often
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 5; j++) {
+                access("/hot" + i, 10);
+            }
+        }
+        assertEquals(15, cache.getEntryCount());
+
+        // A scan of entries accessed only once must not replace them
+        for (int i = 0; i < 100; i++) {
+            access("/cold" + i, 10);
+        }
+        for (int i = 0; i < 15; i++) {
+            assertTrue(cache.contains("/hot" + i));
+        }
+        assertTrue(cache.getRejectionCount() > 0);
+        assertTrue(cache.getCacheSize() <= cache.getCacheMaxSize());
+
+        // An entry which becomes popular is admitted
+        for (int i = 0; i < 10; i++) {
+            access("/new", 10);
+        }
+        assertTrue(cache.contains("/new"));
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getCacheSize() <= cache.getCacheMaxSize());
+    }
+
+    @Test
+    public void testProtectedSegmentIsLru() {
+        // Fill the protected segment (128 KB) with 12 entries
+        for (int i = 0; i < 12; i++) {
+            access("/p" + i, 10);
+            cache.promote("/p" + i);
+        }
+        assertEquals(120, cache.getProtectedSize());
+
+        // Accessing the eldest protected entry keeps it protected
+        assertNotNull(access("/p0", 10));
+        access("/p12", 10);
+        cache.promote("/p12");
+        assertTrue(cache.protectedSegment.containsKey("/p0"));
+        assertFalse(cache.protectedSegment.containsKey("/p1"));
+        assertTrue(cache.probation.containsKey("/p1"));
+        // The accessed entry has been moved before the promoted one
+        String[] names = cache.protectedSegment.keySet().toArray(new String[0]);
+        assertEquals("/p0", names[names.length - 2]);
+        assertEquals("/p12", names[names.length - 1]);
+        assertTrue(cache.getProtectedSize() <= 128);
+
+        // When every protected entry has been accessed, the least recently
+        // used one is demoted
+        for (String name : cache.protectedSegment.keySet().toArray(new String[0])) {
+            access(name, 10);
+        }
+        access("/p13", 10);
+        cache.promote("/p13");
+        assertFalse(cache.protectedSegment.containsKey("/p2"));
+        assertTrue(cache.protectedSegment.containsKey("/p0"));
+        assertTrue(cache.protectedSegment.containsKey("/p13"));
+        assertTrue(cache.getProtectedSize() <= 128);
+    }
+
+}
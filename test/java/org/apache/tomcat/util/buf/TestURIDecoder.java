@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.catalina.connector.CoyoteAdapter;
+import org.junit.Test;
+
+/**
+ * Checks that the single pass URI decoder gives the same results as the
+ * separate decoding, normalization and conversion passes, and compares their
+ * speed over a set of typical URIs.
+ */
+public class TestURIDecoder {
+
+    private static final String[] URIS = {
+        "/",
+        "/index.html",
+        "/favicon.ico",
+        "/static/css/main.3f2a1c.css",
+        "/static/js/vendor.min.js",
+        "/images/products/2012/11/thumb_12345.jpg",
+        "/shop/catalog/category/electronics/page/2",
+        "/api/v1/users/12345/orders",
+        "/api/v1/users/12345/orders;jsessionid=8F3A0B6C1D2E4F5A",
+        "/app/servlet/Controller;jsessionid=ABC?x=1",
+        "/docs/user%20guide/chapter%201.html",
+        "/search/caf%C3%A9/men%C3%BC",
+        "/wiki/%E6%97%A5%E6%9C%AC%E8%AA%9E",
+        "/emoji/%F0%9F%98%80/x",
+        "/a/./b/../c",
+        "/a//b///c/",
+        "/a/b/..",
+        "/a/b/.",
+        "/a/.../b",
+        "/.hidden/file.",
+        "/a;b/c",
+        "*",
+        "%2A",
+    };
+
+    private static final String[] INVALID_URIS = {
+        "",
+        "a/b",
+        ";x",
+        "/..",
+        "/a/../..",
+        "/%2e%2e/etc/passwd",
+        "/a/%2e%2e/%2e%2e/b",
+        "/a/..%5c..%5c/b",
+        "/a%00b",
+        "/a%2Fb",
+        "/a\\b",
+        "/%zz",
+        "/%4",
+        "x%zz",
+        "/%C0%AE%C0%AE/",
+        "/%ED%A0%80",
+        "/%E2%82",
+        "/a/%E2%82/b",
+        "/%FF/a",
+    };
+
+    @Test
+    public void testSameResults() throws Exception {
+        for (int i = 0; i < URIS.length; i++) {
+            for (int utf8 = 0; utf8 < 2; utf8++) {
+                assertEquals(URIS[i], reference(URIS[i], utf8 == 1), decode(URIS[i], utf8 == 1));
+            }
+        }
+        for (int i = 0; i < INVALID_URIS.length; i++) {
+            for (int utf8 = 0; utf8 < 2; utf8++) {
+                assertEquals(INVALID_URIS[i], reference(INVALID_URIS[i], utf8 == 1),
+                        decode(INVALID_URIS[i], utf8 == 1));
+            }
+        }
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        assertEquals("/a/c", decode("/a/./b/../c", true));
+        assertEquals("/a/b/c/", decode("/a//b///c/", true));
+        assertEquals("/a/", decode("/a/b/..", true));
+        assertEquals("/api/v1/users/12345/orders",
+                decode("/api/v1/users/12345/orders;jsessionid=8F3A0B6C1D2E4F5A", true));
+        assertEquals("/search/caf\u00e9/men\u00fc", decode("/search/caf%C3%A9/men%C3%BC", true));
+        assertEquals("/emoji/\ud83d\ude00/x", decode("/emoji/%F0%9F%98%80/x", true));
+        assertEquals("/search/caf\u00c3\u00a9", decode("/search/caf%C3%A9", false));
+        // Not UTF-8, converted as ISO-8859-1
+        assertEquals("/\u00c0\u00ae\u00c0\u00ae/", decode("/%C0%AE%C0%AE/", true));
+        // Incomplete sequence at the end
+        assertEquals("/a", decode("/a%E2%82", true));
+        assertEquals("Invalid URI", decode("/..", true));
+        assertEquals("Invalid URI", decode("/a\\b", true));
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        byte[][] corpus = new byte[URIS.length][];
+        for (int i = 0; i < URIS.length; i++) {
+            corpus[i] = URIS[i].getBytes("ISO-8859-1");
+        }
+        MessageBytes mb = MessageBytes.newInstance();
+        UDecoder urlDecoder = new UDecoder();
+        B2CConverter converter = new B2CConverter("UTF-8");
+        int iterations = 200000;
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                setBytes(mb, corpus[i % corpus.length]);
+                referencePasses(mb, urlDecoder, converter);
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                setBytes(mb, corpus[i % corpus.length]);
+                URIDecoder.decode(mb, true, false);
+            }
+            best[1] = Math.min(best[1], System.nanoTime() - start);
+        }
+        System.out.println("Separate passes: " + (best[0] / iterations) + " ns/URI, single pass: "
+                + (best[1] / iterations) + " ns/URI");
+    }
+
+    private static void setBytes(MessageBytes mb, byte[] uri) {
+        // Leave room for the extra '/' the normalization may append
+        ByteChunk bc = mb.getByteChunk();
+        bc.allocate(2 * uri.length + 1, -1);
+        System.arraycopy(uri, 0, bc.getBuffer(), 0, uri.length);
+        mb.setBytes(bc.getBuffer(), 0, uri.length);
+    }
+
+    private static String decode(String uri, boolean utf8) throws IOException {
+        MessageBytes mb = MessageBytes.newInstance();
+        setBytes(mb, uri.getBytes("ISO-8859-1"));
+        try {
+            if (URIDecoder.decode(mb, utf8, false) == URIDecoder.INVALID) {
+                return "Invalid URI";
+            }
+        } catch (IOException e) {
+            return "Invalid URI: " + e.getMessage();
+        }
+        return mb.toString();
+    }
+
+    private static String reference(String uri, boolean utf8) throws IOException {
+        MessageBytes mb = MessageBytes.newInstance();
+        setBytes(mb, uri.getBytes("ISO-8859-1"));
+        ByteChunk bc = mb.getByteChunk();
+        int semicolon = bc.indexOf(';', 0);
+        if (semicolon > 0) {
+            mb.setBytes(bc.getBuffer(), bc.getStart(), semicolon);
+        }
+        try {
+            new UDecoder().convert(mb, false);
+        } catch (IOException e) {
+            return "Invalid URI: " + e.getMessage();
+        }
+        if (!CoyoteAdapter.normalize(mb)) {
+            return "Invalid URI";
+        }
+        convert(mb, utf8 ? new B2CConverter("UTF-8") : null);
+        if (!CoyoteAdapter.checkNormalize(mb)) {
+            return "Invalid URI character encoding";
+        }
+        return mb.toString();
+    }
+
+    private static boolean referencePasses(MessageBytes mb, UDecoder urlDecoder,
+            B2CConverter converter) throws IOException {
+        ByteChunk bc = mb.getByteChunk();
+        int semicolon = bc.indexOf(';', 0);
+        if (semicolon > 0) {
+            mb.setBytes(bc.getBuffer(), bc.getStart(), semicolon);
+        }
+        urlDecoder.convert(mb, false);
+        if (!CoyoteAdapter.normalize(mb)) {
+            return false;
+        }
+        converter.recycle();
+        convert(mb, converter);
+        return CoyoteAdapter.checkNormalize(mb);
+    }
+
+    /**
+     * Same conversion as the adapter.
+     */
+    private static void convert(MessageBytes mb, B2CConverter converter) {
+        ByteChunk bc = mb.getByteChunk();
+        int length = bc.getLength();
+        CharChunk cc = mb.getCharChunk();
+        cc.allocate(length, -1);
+        if (converter != null) {
+            try {
+                converter.convert(bc, cc);
+                mb.setChars(cc.getBuffer(), cc.getStart(), cc.getLength());
+                return;
+            } catch (IOException e) {
+                cc.recycle();
+            }
+        }
+        byte[] bbuf = bc.getBuffer();
+        char[] cbuf = cc.getBuffer();
+        int start = bc.getStart();
+        for (int i = 0; i < length; i++) {
+            cbuf[i] = (char) (bbuf[i + start] & 0xff);
+        }
+        mb.setChars(cbuf, 0, length);
+    }
+
+}
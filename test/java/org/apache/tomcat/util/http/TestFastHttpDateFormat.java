@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.junit.Test;
+
+public class TestFastHttpDateFormat {
+
+    private static SimpleDateFormat format(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    @Test
+    public void testFormat() {
+        SimpleDateFormat format = format("EEE, dd MMM yyyy HH:mm:ss zzz");
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // Between years 1583 and 9999
+            long value = -12212553600000L + (long) (random.nextDouble() * 265614854400000L);
+            assertEquals(format.format(new Date(value)), FastHttpDateFormat.formatDate(value, null));
+        }
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", FastHttpDateFormat.formatDate(0, null));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", FastHttpDateFormat.formatDate(-1, null));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT", FastHttpDateFormat.formatDate(951825600000L, null));
+        // Before the Gregorian calendar
+        assertEquals(format.format(new Date(-20000000000000L)),
+                FastHttpDateFormat.formatDate(-20000000000000L, null));
+    }
+
+    @Test
+    public void testParse() {
+        SimpleDateFormat[] formats = {
+            format("EEE, dd MMM yyyy HH:mm:ss zzz"),
+            format("EEEEEE, dd-MMM-yy HH:mm:ss zzz"),
+            format("EEE MMMM d HH:mm:ss yyyy")
+        };
+        long expected = 784111777000L;
+        assertEquals(expected, FastHttpDateFormat.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(expected, FastHttpDateFormat.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(expected, FastHttpDateFormat.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(expected + 864000000L, FastHttpDateFormat.parse("Wed Nov 16 08:49:37 1994"));
+        // Not handled by hand
+        assertEquals(-1L, FastHttpDateFormat.parse("Mon, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1L, FastHttpDateFormat.parse("Sun, 06 Nov 1994 08:49:37 PST"));
+        assertEquals(-1L, FastHttpDateFormat.parse("Thu, 31 Feb 1994 08:49:37 GMT"));
+        assertEquals(-1L, FastHttpDateFormat.parse("Sun, 06 Nov 1994 24:49:37 GMT"));
+        assertEquals(-1L, FastHttpDateFormat.parse("06 Nov 1994"));
+        assertEquals(-1L, FastHttpDateFormat.parse(""));
+        // But still parsed
+        assertEquals(expected + 8 * 3600000L, FastHttpDateFormat.parseDate("Sun, 06 Nov 1994 08:49:37 PST",
+                new SimpleDateFormat[] { format("EEE, dd MMM yyyy HH:mm:ss zzz") }));
+        assertEquals(-1L, FastHttpDateFormat.parseDate("invalid", formats));
+        assertEquals(-1L, FastHttpDateFormat.parseDate("invalid", null));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = (random.nextLong() % 4000000000000L) / 1000 * 1000;
+            for (int j = 0; j < formats.length; j++) {
+                String date = formats[j].format(new Date(value));
+                // Two digit years are in the century starting 80 years ago
+                long expectedValue = (j == 1) ? formats[1].parse(date, new ParsePosition(0)).getTime() : value;
+                assertEquals(date, expectedValue, FastHttpDateFormat.parseDate(date, null));
+            }
+        }
+    }
+
+    @Test
+    public void testCurrentDate() throws Exception {
+        MessageBytes mb = MessageBytes.newInstance();
+        String date;
+        do {
+            date = FastHttpDateFormat.getCurrentDate();
+            FastHttpDateFormat.getCurrentDate(mb);
+        } while (!date.equals(FastHttpDateFormat.getCurrentDate()));
+        assertEquals(date, mb.toString());
+        long parsed = FastHttpDateFormat.parse(date);
+        assertTrue(Math.abs(System.currentTimeMillis() - parsed) < 2000);
+    }
+
+    @Test
+    public void testCurrentDateIsCopied() throws Exception {
+        MessageBytes first = MessageBytes.newInstance();
+        MessageBytes second = MessageBytes.newInstance();
+        FastHttpDateFormat.getCurrentDate(first);
+        String date = first.toString();
+        FastHttpDateFormat.getCurrentDate(second);
+        assertNotSame(first.getByteChunk().getBuffer(), second.getByteChunk().getBuffer());
+        // Changing one header does not change the other
+        second.getByteChunk().getBuffer()[second.getByteChunk().getStart()] = (byte) 'X';
+        first.resetStringValue();
+        assertEquals(date, first.toString());
+    }
+
+    @Test
+    public void testCurrentDateAllocation() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Method getAllocatedBytes;
+        try {
+            getAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ClassNotFoundException e) {
+            // Not supported by this VM
+            return;
+        }
+        MessageBytes mb = MessageBytes.newInstance();
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < 100000; i++) {
+            FastHttpDateFormat.getCurrentDate(mb);
+        }
+        long before = ((Long) getAllocatedBytes.invoke(threads, Long.valueOf(id))).longValue();
+        for (int i = 0; i < 1000000; i++) {
+            FastHttpDateFormat.getCurrentDate(mb);
+        }
+        long after = ((Long) getAllocatedBytes.invoke(threads, Long.valueOf(id))).longValue();
+        // Only the reflective calls allocate
+        assertTrue("Allocated " + (after - before), after - before < 1024);
+    }
+
+}
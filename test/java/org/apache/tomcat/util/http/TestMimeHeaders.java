@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Enumeration;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the lookups by name of headers, with and without the index.
+ */
+public class TestMimeHeaders {
+
+    private static final String[] NAMES = {
+        "Host", "User-Agent", "Accept", "Accept-Language", "Accept-Encoding", "Connection",
+        "Cookie", "Referer", "Cache-Control", "Pragma", "X-Forwarded-For", "X-Forwarded-Proto",
+        "X-Request-Id", "X-Custom-Header-1", "X-Custom-Header-2", "If-None-Match",
+        "If-Modified-Since", "Content-Type", "Content-Length", "Upgrade-Insecure-Requests",
+        "Sec-Fetch-Site", "Sec-Fetch-Mode", "DNT", "Origin", "Via", "Forwarded", "TE", "Range",
+        "Authorization", "X-B3-TraceId", "X-B3-SpanId", "Keep-Alive"
+    };
+
+    @Test
+    public void testLookups() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        for (int n = 0; n < 3; n++) {
+            headers.recycle();
+            for (int i = 0; i < NAMES.length; i++) {
+                byte[] line = (NAMES[i].toLowerCase() + ": value" + i).getBytes("ISO-8859-1");
+                headers.addValue(line, 0, NAMES[i].length()).setString("value" + i);
+            }
+            for (int i = 0; i < NAMES.length; i++) {
+                assertEquals("value" + i, headers.getHeader(NAMES[i]));
+                assertEquals("value" + i, headers.getHeader(NAMES[i].toUpperCase()));
+                assertEquals(i, headers.findHeader(NAMES[i], 0));
+                assertEquals(-1, headers.findHeader(NAMES[i], i + 1));
+            }
+            assertNull(headers.getValue("X-Missing"));
+            assertNull(headers.getValue("Hos"));
+            assertNull(headers.getValue("Hostt"));
+        }
+    }
+
+    @Test
+    public void testMultipleValues() {
+        MimeHeaders headers = new MimeHeaders();
+        for (int i = 0; i < NAMES.length; i++) {
+            headers.addValue(NAMES[i]).setString("a");
+        }
+        headers.addValue("accept").setString("b");
+        headers.addValue("ACCEPT").setString("c");
+        assertEquals(2, headers.findHeader("Accept", 0));
+        assertEquals(NAMES.length, headers.findHeader("Accept", 3));
+        assertEquals(NAMES.length + 1, headers.findHeader("Accept", NAMES.length + 1));
+        Enumeration<?> values = headers.values("Accept");
+        assertEquals("a", values.nextElement());
+        assertEquals("b", values.nextElement());
+        assertEquals("c", values.nextElement());
+        assertEquals(false, values.hasMoreElements());
+        try {
+            headers.getUniqueValue("accept");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertSame(headers.getValue(2), headers.setValue("Accept"));
+        assertEquals(NAMES.length, headers.size());
+        assertEquals("a", headers.getUniqueValue("accept").toString());
+
+        headers.removeHeader("Host");
+        headers.removeHeader("Cookie");
+        assertEquals(NAMES.length - 2, headers.size());
+        assertNull(headers.getValue("host"));
+        assertNull(headers.getValue("cookie"));
+        for (int i = 0; i < NAMES.length; i++) {
+            if (!NAMES[i].equals("Host") && !NAMES[i].equals("Cookie")) {
+                assertEquals("a", headers.getHeader(NAMES[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testNonAscii() {
+        MimeHeaders headers = new MimeHeaders();
+        for (int i = 0; i < NAMES.length; i++) {
+            headers.addValue(NAMES[i]).setString("a");
+        }
+        headers.getValue("Host");
+        // The Kelvin sign is equal to 'k' ignoring case for Strings
+        headers.addValue("\u212Aeep-Alive-2").setString("b");
+        assertEquals("b", headers.getHeader("keep-alive-2"));
+        assertEquals("b", headers.getHeader("KEEP-ALIVE-2"));
+        assertEquals("a", headers.getHeader("Keep-Alive"));
+        headers.recycle();
+        headers.addValue("X").setString("c");
+        assertEquals("c", headers.getHeader("x"));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        MimeHeaders headers = new MimeHeaders();
+        for (int n = 0; n < 20000; n++) {
+            String name = NAMES[random.nextInt(NAMES.length)];
+            if (random.nextBoolean()) {
+                name = name.toLowerCase();
+            }
+            switch (random.nextInt(10)) {
+            case 0:
+                headers.removeHeader(name);
+                break;
+            case 1:
+                headers.setValue(name).setString(Integer.toString(n));
+                break;
+            case 2:
+                if (headers.size() > 40) {
+                    headers.recycle();
+                }
+                break;
+            case 3:
+            case 4:
+            case 5:
+                if (headers.size() < 100) {
+                    headers.addValue(name).setString(Integer.toString(n));
+                }
+                break;
+            default:
+                for (int start = 0; start <= headers.size(); start++) {
+                    assertEquals(linearFind(headers, name, start), headers.findHeader(name, start));
+                }
+            }
+        }
+    }
+
+    private static int linearFind(MimeHeaders headers, String name, int starting) {
+        for (int i = starting; i < headers.size(); i++) {
+            if (headers.getName(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
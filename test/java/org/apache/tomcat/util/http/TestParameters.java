@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that lazy parameter parsing gives the same results as eager
+ * parsing, and compares their speed on large form bodies.
+ */
+public class TestParameters {
+
+    private static final String[] BODIES = {
+        "",
+        "a=1",
+        "a=1&b=2&a=3",
+        "a&b=&=c&&d=4",
+        "name=caf%C3%A9&na%6De=x+y&plus=1%2B1",
+        "a=%zz&b=2&c%=3&d=%4",
+        "a=1&b=%zz&a=2&c=%2",
+        "%zz=1&%zz=2&ok=3",
+        "x=1&x=2&x=3&y=%E2%82%AC&z==&w=a=b",
+    };
+
+    @Test
+    public void testSameResults() throws Exception {
+        for (int i = 0; i < BODIES.length; i++) {
+            Parameters eager = parse(BODIES[i], false);
+            Parameters lazy = parse(BODIES[i], true);
+            List<String> eagerNames = names(eager);
+            for (String name : eagerNames) {
+                assertArrayEquals(BODIES[i], eager.getParameterValues(name),
+                        lazy.getParameterValues(name));
+                assertEquals(BODIES[i], eager.getParameter(name), lazy.getParameter(name));
+            }
+            // Names with no valid value are listed until their values
+            // are read
+            for (String name : names(lazy)) {
+                assertArrayEquals(BODIES[i], eager.getParameterValues(name),
+                        lazy.getParameterValues(name));
+            }
+            List<String> lazyNames = names(lazy);
+            Collections.sort(eagerNames);
+            Collections.sort(lazyNames);
+            assertEquals(BODIES[i], eagerNames, lazyNames);
+            assertEquals(BODIES[i], eager.isParseFailed(), lazy.isParseFailed());
+        }
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        for (int lazy = 0; lazy < 2; lazy++) {
+            Parameters parameters = parse("x=1&x=2&y=caf%C3%A9&z&w=a+b", lazy == 1);
+            assertArrayEquals(new String[] { "1", "2" }, parameters.getParameterValues("x"));
+            assertEquals("1", parameters.getParameter("x"));
+            assertEquals("caf\u00e9", parameters.getParameter("y"));
+            assertEquals("", parameters.getParameter("z"));
+            assertEquals("a b", parameters.getParameter("w"));
+            assertNull(parameters.getParameter("v"));
+            assertNull(parameters.getParameterValues("v"));
+            assertNull(parameters.getParameter(null));
+            assertEquals(4, names(parameters).size());
+
+            parameters.addParameter("x", "3");
+            parameters.addParameterValues("v", new String[] { "4", "5" });
+            assertArrayEquals(new String[] { "1", "2", "3" }, parameters.getParameterValues("x"));
+            assertArrayEquals(new String[] { "4", "5" }, parameters.getParameterValues("v"));
+            assertEquals(5, names(parameters).size());
+
+            parameters.recycle();
+            assertNull(parameters.getParameter("x"));
+            assertEquals(0, names(parameters).size());
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        for (int lazy = 0; lazy < 2; lazy++) {
+            Parameters parameters = new Parameters();
+            parameters.setLazy(lazy == 1);
+            parameters.setLimit(2);
+            byte[] body = "a=1&b=2&c=3".getBytes("ISO-8859-1");
+            try {
+                parameters.processParameters(body, 0, body.length);
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+            assertEquals("1", parameters.getParameter("a"));
+            assertEquals("2", parameters.getParameter("b"));
+            assertNull(parameters.getParameter("c"));
+        }
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                sb.append('&');
+            }
+            sb.append("field").append(i).append('=');
+            for (int j = 0; j < 10; j++) {
+                sb.append("some+text+caf%C3%A9+");
+            }
+        }
+        byte[] body = sb.toString().getBytes("ISO-8859-1");
+        byte[] buffer = new byte[body.length];
+        int iterations = 2000;
+        Parameters[] parameters = { new Parameters(), new Parameters() };
+        parameters[1].setLazy(true);
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < 5; round++) {
+            for (int mode = 0; mode < 2; mode++) {
+                Parameters p = parameters[mode];
+                p.setEncoding("UTF-8");
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    System.arraycopy(body, 0, buffer, 0, body.length);
+                    p.processParameters(buffer, 0, buffer.length);
+                    if (p.getParameter("field7") == null || p.getParameter("field480") == null) {
+                        fail();
+                    }
+                    p.recycle();
+                    p.setEncoding("UTF-8");
+                }
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+            }
+        }
+        System.out.println(body.length + " bytes form body, reading two parameters: eager "
+                + (best[0] / iterations / 1000) + " us, lazy " + (best[1] / iterations / 1000)
+                + " us");
+    }
+
+    private static Parameters parse(String body, boolean lazy) throws Exception {
+        Parameters parameters = new Parameters();
+        parameters.setLazy(lazy);
+        parameters.setEncoding("UTF-8");
+        byte[] bytes = body.getBytes("ISO-8859-1");
+        parameters.processParameters(bytes, 0, bytes.length);
+        return parameters;
+    }
+
+    private static List<String> names(Parameters parameters) {
+        List<String> result = new ArrayList<String>();
+        Enumeration<String> names = parameters.getParameterNames();
+        while (names.hasMoreElements()) {
+            result.add(names.nextElement());
+        }
+        return result;
+    }
+
+}
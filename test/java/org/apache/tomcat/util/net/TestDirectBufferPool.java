@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDirectBufferPool {
+
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new DirectBufferPool();
+    }
+
+    @Test
+    public void testSizeClasses() {
+        ByteBuffer buffer = pool.borrow(16709);
+        assertTrue(buffer.isDirect());
+        assertEquals(32 * 1024, buffer.capacity());
+        assertEquals(16709, buffer.limit());
+        assertEquals(0, buffer.position());
+        assertEquals(DirectBufferPool.MIN_SIZE, pool.borrow(1).capacity());
+        assertEquals(8192, pool.borrow(8192).capacity());
+    }
+
+    @Test
+    public void testReuse() {
+        ByteBuffer buffer = pool.borrow(8192);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer again = pool.borrow(8000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(8000, again.limit());
+        // Other size classes are not mixed
+        assertNotSame(buffer, pool.borrow(1024));
+        assertEquals(3, pool.getBorrowCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(33, pool.getHitRate());
+    }
+
+    @Test
+    public void testOutstandingBytes() {
+        ByteBuffer a = pool.borrow(4096);
+        ByteBuffer b = pool.borrow(4096);
+        ByteBuffer large = pool.borrow(DirectBufferPool.MAX_SIZE + 1);
+        assertEquals(8192 + DirectBufferPool.MAX_SIZE + 1, pool.getOutstandingBytes());
+        pool.release(a);
+        pool.discard(b);
+        pool.release(large);
+        assertEquals(0, pool.getOutstandingBytes());
+        // Large buffers are never pooled
+        assertNotSame(large, pool.borrow(DirectBufferPool.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void testSharedFreeList() throws Exception {
+        final ByteBuffer[] buffers = new ByteBuffer[16];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.borrow(2048);
+        }
+        // Released by another thread, only a few stay in its own cache
+        Thread releaser = new Thread() {
+            public void run() {
+                for (ByteBuffer buffer : buffers) {
+                    pool.release(buffer);
+                }
+            }
+        };
+        releaser.start();
+        releaser.join();
+        long shared = pool.getPooledBytes();
+        assertTrue(shared > 0);
+        for (int i = 0; i < buffers.length; i++) {
+            pool.borrow(2048);
+        }
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(shared / 2048, pool.getHitCount());
+    }
+
+    @Test
+    public void testMaxPooledBytes() throws Exception {
+        pool.setMaxPooledBytes(4096);
+        final ByteBuffer[] buffers = new ByteBuffer[16];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.borrow(1024);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(4096, pool.getPooledBytes());
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testThreadCachedBytesAreLimited() {
+        pool.setMaxPooledBytes(3 * 2048);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.borrow(2048);
+        }
+        // The thread cache could hold the four buffers
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(3 * 2048, pool.getThreadCachedBytes());
+        assertEquals(3 * 2048, pool.getPooledBytes());
+
+        pool.borrow(2048);
+        assertEquals(2 * 2048, pool.getThreadCachedBytes());
+        assertEquals(2 * 2048, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testClearInvalidatesThreadCaches() throws Exception {
+        final ByteBuffer[] cached = new ByteBuffer[1];
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        Thread worker = new Thread() {
+            public void run() {
+                ByteBuffer buffer = pool.borrow(1024);
+                pool.release(buffer);
+                released.countDown();
+                try {
+                    cleared.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cached[0] = pool.borrow(1024);
+                pool.release(cached[0]);
+            }
+        };
+        worker.start();
+        released.await();
+        assertEquals(1024, pool.getThreadCachedBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getThreadCachedBytes());
+        assertEquals(0, pool.getPooledBytes());
+        cleared.countDown();
+        worker.join();
+
+        // The worker did not reuse the invalidated buffer
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getBorrowCount());
+    }
+
+    @Test
+    public void testTerminatedThreadCachesAreNotCounted() throws Exception {
+        pool.setMaxPooledBytes(2048);
+        Thread worker = new Thread() {
+            public void run() {
+                pool.release(pool.borrow(2048));
+            }
+        };
+        worker.start();
+        worker.join();
+        assertEquals(0, pool.getThreadCachedBytes());
+
+        // The whole budget is available again
+        pool.release(pool.borrow(2048));
+        assertEquals(2048, pool.getPooledBytes());
+    }
+
+}
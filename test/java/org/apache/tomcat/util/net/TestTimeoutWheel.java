@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tomcat.util.net.NioEndpoint.ChannelInfo;
+import org.apache.tomcat.util.net.NioEndpoint.TimeoutWheel;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTimeoutWheel {
+
+    // 8 slots of 100ms, so one revolution is 800ms
+    private TimeoutWheel wheel;
+    private long base;
+    private List<ChannelInfo> expired;
+
+    @Before
+    public void setUp() {
+        base = System.currentTimeMillis();
+        wheel = new TimeoutWheel(100, 8);
+        expired = new ArrayList<ChannelInfo>();
+    }
+
+    @Test
+    public void testExpiry() {
+        ChannelInfo info = new ChannelInfo(null, base + 250, 0);
+        wheel.schedule(info);
+        assertEquals(1, wheel.getOccupancy());
+
+        wheel.expire(base + 100, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.expire(base + 500, expired);
+        assertEquals(1, expired.size());
+        assertSame(info, expired.get(0));
+        assertEquals(0, wheel.getOccupancy());
+        assertEquals(1, wheel.getExpiredCount());
+
+        // Not returned twice
+        expired.clear();
+        wheel.expire(base + 1000, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testCancel() {
+        ChannelInfo info = new ChannelInfo(null, base + 250, 0);
+        wheel.schedule(info);
+        wheel.cancel(info);
+        assertEquals(0, wheel.getOccupancy());
+        // Cancelling twice has no effect
+        wheel.cancel(info);
+        assertEquals(0, wheel.getOccupancy());
+
+        wheel.expire(base + 500, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testReschedule() {
+        ChannelInfo info = new ChannelInfo(null, base + 250, 0);
+        wheel.schedule(info);
+        info.timeout = base + 1500;
+        wheel.schedule(info);
+        assertEquals(1, wheel.getOccupancy());
+
+        wheel.expire(base + 500, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.expire(base + 1800, expired);
+        assertEquals(1, expired.size());
+        assertSame(info, expired.get(0));
+        assertEquals(0, wheel.getOccupancy());
+    }
+
+    @Test
+    public void testTimeoutLongerThanOneRevolution() {
+        ChannelInfo info = new ChannelInfo(null, base + 2050, 0);
+        wheel.schedule(info);
+
+        // The slot of the deadline is visited twice before it is reached
+        for (long now = base + 100; now <= base + 1900; now += 100) {
+            wheel.expire(now, expired);
+            assertTrue("Expired at " + (now - base), expired.isEmpty());
+        }
+        assertEquals(1, wheel.getOccupancy());
+
+        wheel.expire(base + 2300, expired);
+        assertEquals(1, expired.size());
+        assertSame(info, expired.get(0));
+    }
+
+    @Test
+    public void testLongPauseVisitsEachSlotOnce() {
+        ChannelInfo early = new ChannelInfo(null, base + 250, 0);
+        ChannelInfo late = new ChannelInfo(null, base + 5000, 0);
+        wheel.schedule(early);
+        wheel.schedule(late);
+
+        // Several revolutions elapse between two passes
+        wheel.expire(base + 3000, expired);
+        assertEquals(1, expired.size());
+        assertSame(early, expired.get(0));
+        assertEquals(1, wheel.getOccupancy());
+
+        expired.clear();
+        wheel.expire(base + 5300, expired);
+        assertEquals(1, expired.size());
+        assertSame(late, expired.get(0));
+    }
+
+}
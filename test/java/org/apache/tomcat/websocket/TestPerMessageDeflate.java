@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.Extension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestPerMessageDeflate {
+
+    private static final String MESSAGE =
+            "{\"symbol\":\"ABC\",\"price\":12.5,\"volume\":1000}";
+
+    @Test
+    public void testNegotiation() {
+        List<Extension> offers = new ArrayList<Extension>();
+        Util.parseExtensionHeader(offers, "permessage-deflate; " +
+                "server_max_window_bits=10, permessage-deflate; " +
+                "client_max_window_bits");
+        assertEquals(2, offers.size());
+
+        // The first offer cannot be honoured, the second one is used
+        PerMessageDeflate server =
+                PerMessageDeflate.negotiate(offers, false, true, 12);
+        assertNotNull(server);
+        StringBuilder sb = new StringBuilder();
+        Util.appendExtension(sb, server.getExtension());
+        assertEquals("permessage-deflate;client_no_context_takeover;" +
+                "client_max_window_bits=12", sb.toString());
+
+        offers.clear();
+        Util.parseExtensionHeader(offers, "permessage-deflate; foo");
+        assertNull(PerMessageDeflate.negotiate(offers, false, false, 15));
+
+        // A client cannot use a smaller window
+        List<Extension> responses = new ArrayList<Extension>();
+        Util.parseExtensionHeader(responses,
+                "permessage-deflate; client_max_window_bits=12");
+        assertNull(PerMessageDeflate.accept(responses.get(0)));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        roundTrip(false);
+        roundTrip(true);
+    }
+
+    private void roundTrip(boolean noContextTakeover) throws Exception {
+        List<Extension> offers = new ArrayList<Extension>();
+        offers.add(PerMessageDeflate.createOffer(noContextTakeover,
+                noContextTakeover));
+        PerMessageDeflate server =
+                PerMessageDeflate.negotiate(offers, false, false, 15);
+        PerMessageDeflate client =
+                PerMessageDeflate.accept(server.getExtension());
+
+        for (int i = 0; i < 100; i++) {
+            // Send the message in two frames
+            byte[] data = MESSAGE.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer part1 = server.deflate(
+                    ByteBuffer.wrap(data, 0, 10).slice(), false);
+            byte[] frame1 = copy(part1);
+            ByteBuffer part2 = server.deflate(
+                    ByteBuffer.wrap(data, 10, data.length - 10).slice(), true);
+            byte[] frame2 = copy(part2);
+
+            ByteBuffer dest = ByteBuffer.allocate(1024);
+            client.setInput(frame1, 0, frame1.length);
+            client.inflate(dest);
+            client.setInput(frame2, 0, frame2.length);
+            client.inflate(dest);
+            client.setEndOfMessageInput();
+            client.inflate(dest);
+            client.endOfMessageReceived();
+            dest.flip();
+            assertEquals(MESSAGE, StandardCharsets.UTF_8.decode(dest).toString());
+        }
+        assertEquals(100 * MESSAGE.length(), server.getUncompressedBytesSent());
+        assertEquals(100 * MESSAGE.length(),
+                client.getUncompressedBytesReceived());
+        if (!noContextTakeover) {
+            // Repeated messages compress well when the context is kept
+            assertTrue(server.getCompressionRatioSent() < 0.5);
+        }
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
@@ -28,15 +28,14 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.Mapper;
+import org.apache.tomcat.util.http.mapper.MappingData;
 
 public class MapperTestCase extends TestCase {
 
+    private Mapper mapper;
+
     /**
      * Construct a new instance of this test case.
      *
@@ -50,28 +49,7 @@ public class MapperTestCase extends TestCase {
      * Set up instance variables required by this test case.
      */
     public void setUp() {
-    }
-
-    /**
-     * Return the tests included in this test suite.
-     */
-    public static Test suite() {
-        return (new TestSuite(MapperTestCase.class));
-    }
-
-    /**
-     * Tear down instance variables required by this test case.
-     */
-    public void tearDown() {
-    }
-
-    /*
-    public static void main(String args[]) {
-
-        try {
-
-        Mapper mapper = new Mapper();
-        System.out.println("Start");
+        mapper = new Mapper();
 
         mapper.addHost("sjbjdvwsbvhrb", new String[0], "blah1");
         mapper.addHost("sjbjdvwsbvhr/", new String[0], "blah1");
@@ -80,7 +58,7 @@ public class MapperTestCase extends TestCase {
         mapper.addHost("iohgeoihro", new String[0], "blah4");
         mapper.addHost("fwehoihoihwfeo", new String[0], "blah5");
         mapper.addHost("owefojiwefoi", new String[0], "blah6");
-        mapper.addHost("iowejoiejfoiew", new String[0], "blah7");
+        mapper.addHost("iowejoiejfoiew", new String[] { "alias" }, "blah7");
         mapper.addHost("iowejoiejfoiew", new String[0], "blah17");
         mapper.addHost("ohewoihfewoih", new String[0], "blah8");
         mapper.addHost("fewohfoweoih", new String[0], "blah9");
@@ -90,11 +68,6 @@ public class MapperTestCase extends TestCase {
         mapper.addHost("xxxxgqwiwoih", new String[0], "blah13");
         mapper.addHost("qwigqwiwoih", new String[0], "blah14");
 
-        System.out.println("Map:");
-        for (int i = 0; i < mapper.hosts.length; i++) {
-            System.out.println(mapper.hosts[i].name);
-        }
-
         mapper.setDefaultHostName("ylwrehirkuewh");
 
         String[] welcomes = new String[2];
@@ -113,63 +86,99 @@ public class MapperTestCase extends TestCase {
         mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bou/*", "wrapper4");
         mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/*", "wrapper5");
         mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.htm", "wrapper6");
+    }
+
+    /**
+     * Return the tests included in this test suite.
+     */
+    public static Test suite() {
+        return (new TestSuite(MapperTestCase.class));
+    }
 
+    /**
+     * Tear down instance variables required by this test case.
+     */
+    public void tearDown() {
+        mapper = null;
+    }
+
+    private MappingData map(String host, String uri) throws Exception {
+        MessageBytes hostMB = MessageBytes.newInstance();
+        MessageBytes uriMB = MessageBytes.newInstance();
+        hostMB.setString(host);
+        uriMB.setString(uri);
+        uriMB.toChars();
+        uriMB.getCharChunk().setLimit(-1);
         MappingData mappingData = new MappingData();
-        MessageBytes host = MessageBytes.newInstance();
-        host.setString("iowejoiejfoiew");
-        MessageBytes uri = MessageBytes.newInstance();
-        uri.setString("/foo/bar/blah/bobou/foo");
-        uri.toChars();
-        uri.getCharChunk().setLimit(-1);
-
-        mapper.map(host, uri, mappingData);
-        System.out.println("MD Host:" + mappingData.host);
-        System.out.println("MD Context:" + mappingData.context);
-        System.out.println("MD Wrapper:" + mappingData.wrapper);
-
-        System.out.println("contextPath:" + mappingData.contextPath);
-        System.out.println("wrapperPath:" + mappingData.wrapperPath);
-        System.out.println("pathInfo:" + mappingData.pathInfo);
-        System.out.println("redirectPath:" + mappingData.redirectPath);
-
-        mappingData.recycle();
-        mapper.map(host, uri, mappingData);
-        System.out.println("MD Host:" + mappingData.host);
-        System.out.println("MD Context:" + mappingData.context);
-        System.out.println("MD Wrapper:" + mappingData.wrapper);
-
-        System.out.println("contextPath:" + mappingData.contextPath);
-        System.out.println("wrapperPath:" + mappingData.wrapperPath);
-        System.out.println("pathInfo:" + mappingData.pathInfo);
-        System.out.println("redirectPath:" + mappingData.redirectPath);
-
-        for (int i = 0; i < 1000000; i++) {
-            mappingData.recycle();
-            mapper.map(host, uri, mappingData);
-        }
-
-        long time = System.currentTimeMillis();
-        for (int i = 0; i < 1000000; i++) {
-            mappingData.recycle();
-            mapper.map(host, uri, mappingData);
-        }
-        System.out.println("Elapsed:" + (System.currentTimeMillis() - time));
-
-        System.out.println("MD Host:" + mappingData.host);
-        System.out.println("MD Context:" + mappingData.context);
-        System.out.println("MD Wrapper:" + mappingData.wrapper);
-
-        System.out.println("contextPath:" + mappingData.contextPath);
-        System.out.println("wrapperPath:" + mappingData.wrapperPath);
-        System.out.println("requestPath:" + mappingData.requestPath);
-        System.out.println("pathInfo:" + mappingData.pathInfo);
-        System.out.println("redirectPath:" + mappingData.redirectPath);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        mapper.map(hostMB, uriMB, mappingData);
+        return mappingData;
+    }
+
+    public void testHostMapping() throws Exception {
+        assertEquals("blah7", map("iowejoiejfoiew", "/").host);
+        assertEquals("blah7", map("alias", "/").host);
+        assertEquals("blah3", map("unknown", "/").host);
+        // The default host has no contexts
+        assertNull(map("unknown", "/foo").context);
+    }
+
+    public void testContextMapping() throws Exception {
+        assertEquals("context0", map("iowejoiejfoiew", "/").context);
+        assertEquals("context0", map("iowejoiejfoiew", "/foobar").context);
+        assertEquals("context1", map("iowejoiejfoiew", "/foo").context);
+        assertEquals("context1", map("iowejoiejfoiew", "/foo/").context);
+        assertEquals("context2", map("iowejoiejfoiew", "/foo/bar/x").context);
+        assertEquals("context2", map("iowejoiejfoiew", "/foo/bar/blah").context);
+        assertEquals("context3", map("alias", "/foo/bar/bla/x").context);
+        assertEquals("/foo/bar/bla",
+                map("iowejoiejfoiew", "/foo/bar/bla/x").contextPath.toString());
+    }
+
+    public void testWrapperMapping() throws Exception {
+        MappingData mappingData = map("iowejoiejfoiew", "/foo/bar/blah/bobou/foo");
+        assertEquals("wrapper5", mappingData.wrapper);
+        assertEquals("/foo/bar", mappingData.contextPath.toString());
+        assertEquals("/blah/bobou", mappingData.wrapperPath.toString());
+        assertEquals("/foo", mappingData.pathInfo.toString());
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/blah/bobou");
+        assertEquals("wrapper5", mappingData.wrapper);
+        assertTrue(mappingData.pathInfo.isNull());
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/blah/boboux");
+        assertEquals("wrapper1", mappingData.wrapper);
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/blah/bou/x");
+        assertEquals("wrapper4", mappingData.wrapper);
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/blh");
+        assertEquals("wrapper2", mappingData.wrapper);
+        assertEquals("/blh", mappingData.wrapperPath.toString());
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/page.jsp");
+        assertEquals("wrapper3", mappingData.wrapper);
+        assertEquals("/page.jsp", mappingData.wrapperPath.toString());
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/page.htm");
+        assertEquals("wrapper6", mappingData.wrapper);
+
+        // Prefix mappings have precedence over extension mappings
+        mappingData = map("iowejoiejfoiew", "/foo/bar/fo/page.jsp");
+        assertEquals("wrapper0", mappingData.wrapper);
+
+        mappingData = map("iowejoiejfoiew", "/foo/bar/page.jspx");
+        assertEquals("wrapper1", mappingData.wrapper);
+    }
+
+    public void testRedirect() throws Exception {
+        MappingData mappingData = map("iowejoiejfoiew", "/foo/bar");
+        assertEquals("/foo/bar/", mappingData.redirectPath.toString());
+    }
 
+    public void testRemoveWrapper() throws Exception {
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/*");
+        assertEquals("wrapper1", map("iowejoiejfoiew", "/foo/bar/blah/bobou/foo").wrapper);
+        assertEquals("wrapper4", map("iowejoiejfoiew", "/foo/bar/blah/bou/foo").wrapper);
     }
-    */
 
 }
@@ -23,6 +23,8 @@
 
 package org.jboss.web.rewrite;
 
+import java.util.regex.Pattern;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -195,6 +197,185 @@ public class RewriteTestCase extends TestCase {
     }
     
     
+    public void testPatternAnalysis() {
+        assertAnalysis("^/about/$", RewriteRule.MATCH_LITERAL, "/about/");
+        assertAnalysis("/a\\.b\\-c", RewriteRule.MATCH_LITERAL, "/a.b-c");
+        assertAnalysis("^/static/(.*)$", RewriteRule.MATCH_PREFIX, "/static/");
+        assertAnalysis("^/s/.+", RewriteRule.MATCH_PREFIX, "/s/");
+        assertAnalysis("^(.*)\\.jpg$", RewriteRule.MATCH_SUFFIX, "");
+        assertAnalysis("^/~([^/]+)/?(.*)", RewriteRule.MATCH_REGEX, "/~");
+        assertAnalysis("^/ab*", RewriteRule.MATCH_REGEX, "/a");
+        assertAnalysis("^/a|/b", RewriteRule.MATCH_REGEX, "");
+        assertAnalysis("^/(a|b)/c", RewriteRule.MATCH_REGEX, "/");
+        assertAnalysis("^/[|]/c", RewriteRule.MATCH_REGEX, "/");
+        assertAnalysis("(?i)/a", RewriteRule.MATCH_REGEX, "");
+        assertAnalysis("^/a\\d", RewriteRule.MATCH_REGEX, "/a");
+    }
+    
+    public void testIndex() {
+        Resolver resolver = new TestResolver();
+        RewriteRule[] rules = generateRules(400);
+        RewriteRuleIndex index = new RewriteRuleIndex(rules);
+        String[] urls = generateUrls(400);
+        Pattern[] patterns = new Pattern[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            patterns[i] = Pattern.compile(rules[i].getPatternString(), 
+                    rules[i].isNocase() ? Pattern.CASE_INSENSITIVE : 0);
+        }
+        for (int j = 0; j < urls.length; j++) {
+            String host = (j % 2 == 0) ? "www.example.com" : "Static" + (j % 7) + ".Example.com";
+            boolean[] candidates = index.select(urls[j], host);
+            for (int i = 0; i < rules.length; i++) {
+                String test = rules[i].isHost() ? host : urls[j];
+                boolean matches = patterns[i].matcher(test).matches();
+                String message = rules[i].getPatternString() + " " + test;
+                if (matches) {
+                    assertTrue(message, candidates[i]);
+                }
+                assertEquals(message, matches, rules[i].evaluate(test, resolver) != null);
+            }
+        }
+        long hits = 0;
+        for (int i = 0; i < rules.length; i++) {
+            hits += rules[i].getHits();
+        }
+        assertTrue(hits > 0);
+    }
+    
+    public void testPerformance() {
+        Resolver resolver = new TestResolver();
+        RewriteRule[] rules = generateRules(300);
+        RewriteRuleIndex index = new RewriteRuleIndex(rules);
+        String[] urls = generateUrls(1000);
+        Pattern[] patterns = new Pattern[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            patterns[i] = Pattern.compile(rules[i].getPatternString(), 
+                    rules[i].isNocase() ? Pattern.CASE_INSENSITIVE : 0);
+        }
+        String host = "www.example.com";
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        int count = 0;
+        for (int round = 0; round < 5; round++) {
+            // Every rule evaluated as a regular expression
+            long start = System.nanoTime();
+            for (int j = 0; j < urls.length; j++) {
+                for (int i = 0; i < rules.length; i++) {
+                    if (patterns[i].matcher(rules[i].isHost() ? host : urls[j]).matches()) {
+                        count++;
+                    }
+                }
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+            // Indexed
+            start = System.nanoTime();
+            for (int j = 0; j < urls.length; j++) {
+                boolean[] candidates = index.select(urls[j], host);
+                for (int i = 0; i < rules.length; i++) {
+                    if (candidates[i] && rules[i].evaluate(rules[i].isHost() ? host : urls[j], resolver) != null) {
+                        count--;
+                    }
+                }
+            }
+            best[1] = Math.min(best[1], System.nanoTime() - start);
+        }
+        assertEquals(0, count);
+        System.out.println(rules.length + " rules: " + (best[0] / urls.length) + " ns/request with regular expressions, "
+                + (best[1] / urls.length) + " ns/request indexed");
+    }
+    
+    protected static void assertAnalysis(String pattern, int matchType, String prefix) {
+        RewriteRule rule = new RewriteRule();
+        rule.setPatternString(pattern);
+        rule.setSubstitutionString("-");
+        rule.parse(null);
+        assertEquals(pattern, matchType, rule.getMatchType());
+        assertEquals(pattern, prefix, rule.getLiteralPrefix());
+    }
+    
+    /**
+     * Generate a rule set resembling an edge configuration: redirections of
+     * old paths, prefix mappings, extension rules, host rules and a few
+     * general regular expressions.
+     */
+    protected static RewriteRule[] generateRules(int count) {
+        RewriteRule[] rules = new RewriteRule[count];
+        for (int i = 0; i < count; i++) {
+            RewriteRule rule = new RewriteRule();
+            switch (i % 10) {
+            case 0:
+            case 1:
+            case 2:
+                rule.setPatternString("^/old/page" + i + "\\.html$");
+                rule.setSubstitutionString("/new/page" + i + ".html");
+                break;
+            case 3:
+            case 4:
+                rule.setPatternString("^/section" + i + "/(.*)$");
+                rule.setSubstitutionString("/s/" + i + "/$1");
+                break;
+            case 5:
+                rule.setPatternString("^/Legacy" + i + "/.*");
+                rule.setSubstitutionString("/legacy");
+                rule.setNocase(true);
+                break;
+            case 6:
+                rule.setPatternString("^/api/v" + (i % 4) + "/item" + i + "/([0-9]+)$");
+                rule.setSubstitutionString("/api/item?id=$1&v=" + i);
+                break;
+            case 7:
+                rule.setPatternString("^(.*)\\.ext" + i + "$");
+                rule.setSubstitutionString("$1.html");
+                break;
+            case 8:
+                rule.setPatternString("^static" + (i % 7) + "\\.example\\.com$");
+                rule.setSubstitutionString("cdn.example.com");
+                rule.setHost(true);
+                rule.setNocase(true);
+                break;
+            default:
+                rule.setPatternString("^/(products|catalog)/item" + i + "/?(.*)$");
+                rule.setSubstitutionString("/p/" + i + "/$2");
+                break;
+            }
+            rule.parse(null);
+            rules[i] = rule;
+        }
+        return rules;
+    }
+    
+    protected static String[] generateUrls(int count) {
+        String[] urls = new String[count];
+        for (int j = 0; j < count; j++) {
+            int i = (j * 7) % 400;
+            switch (j % 8) {
+            case 0:
+                urls[j] = "/old/page" + i + ".html";
+                break;
+            case 1:
+                urls[j] = "/section" + i + "/a/b/c.html";
+                break;
+            case 2:
+                urls[j] = "/LEGACY" + i + "/index.jsp";
+                break;
+            case 3:
+                urls[j] = "/api/v" + (i % 4) + "/item" + i + "/12345";
+                break;
+            case 4:
+                urls[j] = "/docs/file.ext" + i;
+                break;
+            case 5:
+                urls[j] = "/catalog/item" + i + "/details";
+                break;
+            case 6:
+                urls[j] = "/static/js/app" + i + ".js";
+                break;
+            default:
+                urls[j] = "/";
+            }
+        }
+        return urls;
+    }
+    
     public static CharSequence rewriteUrl(CharSequence url, Resolver resolver, RewriteRule[] rules) {
         if (rules == null)
             return url;